@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.physicalReduce;
+
+import de.meldanor.neongenesis.statisticalReduce.StatisticalDatasetReducer;
+import de.meldanor.neongenesis.statisticalReduce.StatisticalReducerFactory;
+import javafx.geometry.Point3D;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the density weighted reduction of the temperature of a single synthetic block.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PhysicalReductionBenchmark {
+
+    /**
+     * The resolution of every axis of a block
+     */
+    @Param({"8", "16", "32"})
+    public int blockDimension;
+
+    private StatisticalDatasetReducer reducer;
+
+    private float[] temperature;
+    private float[] density;
+    private float[] result;
+
+    @Setup
+    public void setup() {
+        // The weighted mean does not use the strategy of the reducer
+        reducer = new StatisticalDatasetReducer(new Point3D(blockDimension, blockDimension, blockDimension), StatisticalReducerFactory.StatisticalReducerType.MEAN);
+
+        Random random = new Random(42);
+        temperature = new float[blockDimension * blockDimension * blockDimension];
+        density = new float[temperature.length];
+        for (int i = 0; i < temperature.length; i++) {
+            temperature[i] = 1.0E4F + random.nextFloat() * 1.0E6F;
+            density[i] = 1.0E-25F + random.nextFloat() * 1.0E-22F;
+        }
+        result = new float[temperature.length / 8];
+    }
+
+    @Benchmark
+    public float[] reduceDensityWeightedValues() throws Exception {
+        reducer.reduceWeightedFloatValues(temperature, density, result, null);
+        return result;
+    }
+}
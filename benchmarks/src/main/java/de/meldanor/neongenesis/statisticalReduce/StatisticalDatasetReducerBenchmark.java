@@ -0,0 +1,87 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.statisticalReduce;
+
+import javafx.geometry.Point3D;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the reduction of synthetic blocks already in memory. The values are reduced block by block by the same
+ * kernels {@link StatisticalDatasetReducer#reduceFloatDataset} and {@link StatisticalDatasetReducer#reduceIntDataset}
+ * use, but without reading the file.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatisticalDatasetReducerBenchmark {
+
+    /**
+     * The amount of blocks of the dataset
+     */
+    private static final int BLOCK_COUNT = 64;
+
+    @Param({"MEAN", "MEDIAN"})
+    public StatisticalReducerFactory.StatisticalReducerType type;
+
+    /**
+     * The resolution of every axis of a block
+     */
+    @Param({"8", "16", "32"})
+    public int blockDimension;
+
+    private StatisticalDatasetReducer reducer;
+
+    private float[] floatValues;
+    private int[] intValues;
+
+    @Setup
+    public void setup() {
+        reducer = new StatisticalDatasetReducer(new Point3D(blockDimension, blockDimension, blockDimension), type);
+
+        Random random = new Random(42);
+        floatValues = new float[BLOCK_COUNT * blockDimension * blockDimension * blockDimension];
+        intValues = new int[floatValues.length];
+        for (int i = 0; i < floatValues.length; i++) {
+            floatValues[i] = random.nextFloat() * 1000.0F;
+            intValues[i] = random.nextInt(1000);
+        }
+    }
+
+    @Benchmark
+    public float[] reduceFloat() throws Exception {
+        return reducer.reduceFloatValues(floatValues);
+    }
+
+    @Benchmark
+    public int[] reduceInt() throws Exception {
+        return reducer.reduceIntValues(intValues);
+    }
+}
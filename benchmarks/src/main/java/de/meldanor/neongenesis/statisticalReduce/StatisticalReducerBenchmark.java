@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.statisticalReduce;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the reducers of a single stencil. Every invocation reduces a fresh copy of the stencil, because some
+ * reducers sort the array in place.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatisticalReducerBenchmark {
+
+    @Param({"MEAN", "MEDIAN"})
+    public StatisticalReducerFactory.StatisticalReducerType type;
+
+    /**
+     * The amount of values of a stencil: 2x2x2, 3x3x3 and 4x4x4
+     */
+    @Param({"8", "27", "64"})
+    public int stencilSize;
+
+    /**
+     * If true, the reducer specialized on the stencil size is used
+     */
+    @Param({"false", "true"})
+    public boolean specialized;
+
+    private StatisticalReducer reducer;
+
+    private float[] floatStencil;
+    private float[] floatArray;
+    private int[] intStencil;
+    private int[] intArray;
+
+    @Setup
+    public void setup() {
+        StatisticalReducerFactory factory = StatisticalReducerFactory.getInstance();
+        reducer = specialized ? factory.getReducer(type, stencilSize) : factory.getReducer(type);
+
+        Random random = new Random(42);
+        floatStencil = new float[stencilSize];
+        intStencil = new int[stencilSize];
+        for (int i = 0; i < stencilSize; i++) {
+            floatStencil[i] = random.nextFloat() * 1000.0F;
+            intStencil[i] = random.nextInt(1000);
+        }
+        floatArray = new float[stencilSize];
+        intArray = new int[stencilSize];
+    }
+
+    @Benchmark
+    public float reduceFloat() {
+        System.arraycopy(floatStencil, 0, floatArray, 0, stencilSize);
+        return reducer.reduce(floatArray);
+    }
+
+    @Benchmark
+    public int reduceInt() {
+        System.arraycopy(intStencil, 0, intArray, 0, stencilSize);
+        return reducer.reduce(intArray);
+    }
+}
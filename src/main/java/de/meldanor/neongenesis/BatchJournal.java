@@ -0,0 +1,152 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * A journal of the original files which were reduced completely. Every finished file is appended as a single line and
+ * forced to the disk, so a crashed batch run can be resumed and loses at most the files being reduced at the moment
+ * of the crash.
+ * <p>
+ * The journal is stored in the output directory. A line written incompletely while crashing is ignored. Every entry
+ * contains the length and the modification time of the file, so a file changed after its reduction is not completed,
+ * and the configuration of the reduction process, so a file reduced with other settings is not completed either.
+ */
+public class BatchJournal implements Closeable {
+
+    public static final String FILE_NAME = "neongenesis.journal";
+
+    private final Set<String> completed = ConcurrentHashMap.newKeySet();
+    private final String configuration;
+    private final FileChannel channel;
+
+    /**
+     * Open the journal of an output directory
+     *
+     * @param directory     The output directory
+     * @param resume        If true, the files of the existing journal are completed and new files are appended. If
+     *                      false, an existing journal is cleared
+     * @param configuration The configuration of the reduction process, see
+     *                      {@link de.meldanor.neongenesis.downsample.AbstractReductionProcess#getConfiguration()}
+     * @throws IOException The journal can't be read or opened
+     */
+    public BatchJournal(File directory, boolean resume, Map<String, String> configuration) throws IOException {
+        this.configuration = toLine(configuration);
+        Path path = new File(directory, FILE_NAME).toPath();
+        boolean endsWithLine = true;
+        if (resume && Files.exists(path)) {
+            String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            String[] lines = content.split("\n", -1);
+            // The last element is either empty or an incomplete line
+            for (int i = 0; i < lines.length - 1; i++) {
+                if (!lines[i].isEmpty())
+                    completed.add(lines[i]);
+            }
+            endsWithLine = content.isEmpty() || content.endsWith("\n");
+        }
+
+        if (resume)
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        else
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        // Terminate an incomplete line, so it is not merged with the next entry
+        if (!endsWithLine)
+            append("");
+    }
+
+    /**
+     * @param file The original file
+     * @return true, if the file was reduced completely by a previous run and has not changed since
+     */
+    public boolean isCompleted(File file) {
+        return completed.contains(key(file, file.length(), file.lastModified(), configuration));
+    }
+
+    /**
+     * Record a completely reduced file in its current state. The entry is on the disk when this method returns.
+     *
+     * @param file The original file
+     * @throws IOException The entry can't be written
+     * @see #complete(File, long, long)
+     */
+    public void complete(File file) throws IOException {
+        complete(file, file.length(), file.lastModified());
+    }
+
+    /**
+     * Record a completely reduced file in the state it was reduced in. If the file was changed while it was reduced,
+     * it is not completed. The entry is on the disk when this method returns and the file is completed for this run.
+     *
+     * @param file         The original file
+     * @param length       The length of the file when the reduction started
+     * @param lastModified The modification time of the file when the reduction started
+     * @throws IOException The entry can't be written
+     */
+    public void complete(File file, long length, long lastModified) throws IOException {
+        String key = key(file, length, lastModified, configuration);
+        append(key);
+        completed.add(key);
+    }
+
+    private synchronized void append(String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    static String key(File file, long length, long lastModified, String configuration) {
+        return file.getAbsolutePath() + '\t' + length + '\t' + lastModified + '\t' + configuration;
+    }
+
+    /**
+     * @return The configuration in a single line without tabs
+     */
+    static String toLine(Map<String, String> configuration) {
+        return configuration.entrySet().stream()
+                .map(entry -> entry.getKey() + "=" + entry.getValue())
+                .collect(Collectors.joining(";"))
+                .replace('\t', ' ').replace('\n', ' ');
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis;
+
+import de.meldanor.neongenesis.downsample.AbstractReductionProcess;
+
+import java.io.File;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reduce multiple files at the same time using a bounded pool of worker threads. All workers share the same
+ * {@link AbstractReductionProcess}, because a process does not hold any state of a single file.
+ * <p>
+ * The finished files are logged in the order of the input, regardless of which worker finished first. The start of a
+ * file is only logged by a single worker, because the workers start the files in a random order. An error while
+ * reducing one file does not affect the other files.
+ * <p>
+ * In incremental mode a {@link ReductionManifest} is stored for every reduced file and files which are up to date are
+ * skipped. If a {@link BatchJournal} is used, every finished file is recorded and files completed by a previous run are
+ * skipped.
+ */
+public class BatchReduction {
+
+    private final AbstractReductionProcess reductionProcess;
+    private final int threads;
+    private final boolean isVerbose;
+    private final boolean incremental;
+    private final BatchJournal journal;
+
+    /**
+     * @param reductionProcess The process to reduce a single file. Shared by all workers
+     * @param threads          The maximum amount of files reduced at the same time. Must be at least 1
+     * @param isVerbose        Display more information about the files
+     */
+    public BatchReduction(AbstractReductionProcess reductionProcess, int threads, boolean isVerbose) {
+        this(reductionProcess, threads, isVerbose, false);
+    }
+
+    /**
+     * @param reductionProcess The process to reduce a single file. Shared by all workers
+     * @param threads          The maximum amount of files reduced at the same time. Must be at least 1
+     * @param isVerbose        Display more information about the files
+     * @param incremental      If true, skip files whose reduced files are up to date
+     */
+    public BatchReduction(AbstractReductionProcess reductionProcess, int threads, boolean isVerbose, boolean incremental) {
+        this(reductionProcess, threads, isVerbose, incremental, null);
+    }
+
+    /**
+     * @param reductionProcess The process to reduce a single file. Shared by all workers
+     * @param threads          The maximum amount of files reduced at the same time. Must be at least 1
+     * @param isVerbose        Display more information about the files
+     * @param incremental      If true, skip files whose reduced files are up to date
+     * @param journal          Records the finished files and skips the completed ones. May be <code>null</code>
+     */
+    public BatchReduction(AbstractReductionProcess reductionProcess, int threads, boolean isVerbose, boolean incremental, BatchJournal journal) {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one thread is required, but was " + threads);
+        this.reductionProcess = reductionProcess;
+        this.threads = threads;
+        this.isVerbose = isVerbose;
+        this.incremental = incremental;
+        this.journal = journal;
+    }
+
+    /**
+     * Reduce all files and wait until every file is finished or failed.
+     *
+     * @param files The files to reduce
+     * @return The amount of files which could not be reduced
+     */
+    public int reduce(File[] files) {
+        long start = System.currentTimeMillis();
+
+        int workers = Math.min(threads, files.length);
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        List<Future<File>> results = new ArrayList<>(files.length);
+        try {
+            for (int i = 0; i < files.length; i++) {
+                final String progress = workers == 1 ? progress(i + 1, files.length) : null;
+                final File inputFile = files[i];
+                results.add(executor.submit(() -> reduceFile(inputFile, progress)));
+            }
+
+            // Wait for the results in the order of the files
+            int failed = 0;
+            int skipped = 0;
+            for (int i = 0; i < files.length; i++) {
+                try {
+                    File newFile = results.get(i).get();
+                    if (newFile == null) {
+                        ++skipped;
+                        Core.logger.info(progress(i + 1, files.length) + "Skipped! The file was already reduced: " + files[i].getName());
+                        continue;
+                    }
+                    Core.logger.info(progress(i + 1, files.length) + "Finished! Reduced file: " + getFileInformation(newFile));
+                } catch (ExecutionException e) {
+                    ++failed;
+                    Core.logger.error(progress(i + 1, files.length) + "An error occurred while processing file '" + files[i] + "'!");
+                    e.getCause().printStackTrace();
+                }
+            }
+
+            long duration = System.currentTimeMillis() - start;
+            Core.logger.info("Reduced " + (files.length - failed - skipped) + " of " + files.length + " files in " + (duration / 1000.0) + "s using " + threads + " thread(s). Failed: " + failed + (incremental || journal != null ? ", skipped: " + skipped : ""));
+            return failed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Core.logger.error("Interrupted while waiting for the reduced files!");
+            return files.length;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reduce a single file on the calling thread, for example a file found by a {@link DirectoryWatcher}. The file is
+     * skipped like in {@link #reduce(File[])}.
+     *
+     * @param inputFile The file to reduce
+     * @return The reduced file or <code>null</code>, if the file was skipped
+     * @throws Exception The file could not be reduced
+     */
+    public File reduceSingle(File inputFile) throws Exception {
+        File newFile = reduceFile(inputFile, "");
+        if (newFile == null)
+            Core.logger.info("Skipped! The file was already reduced: " + inputFile.getName());
+        else
+            Core.logger.info("Finished! Reduced file: " + getFileInformation(newFile));
+        return newFile;
+    }
+
+    /**
+     * Reduce a single file, unless it is up to date or was completed by a previous run
+     *
+     * @param progress The prefix of the logged start or <code>null</code>, if the start is not logged
+     * @return The reduced file or <code>null</code>, if the file was skipped
+     */
+    private File reduceFile(File inputFile, String progress) throws Exception {
+        if (journal != null && journal.isCompleted(inputFile))
+            return null;
+        ReductionManifest manifest = null;
+        if (incremental) {
+            manifest = new ReductionManifest(inputFile, reductionProcess);
+            if (manifest.isUpToDate())
+                return null;
+            manifest.delete();
+        }
+
+        // The state before the reduction, so a file changed while it is reduced is not completed
+        long length = inputFile.length();
+        long lastModified = inputFile.lastModified();
+        if (progress != null)
+            Core.logger.info(progress + "Reduce file: " + getFileInformation(inputFile));
+        File newFile = reductionProcess.reduceFile(inputFile, isVerbose);
+        if (manifest != null)
+            manifest.write();
+        if (journal != null)
+            journal.complete(inputFile, length, lastModified);
+        return newFile;
+    }
+
+    private String progress(int number, int total) {
+        return "(" + number + "/" + total + ") - ";
+    }
+
+    private String getFileInformation(File file) {
+        if (!isVerbose)
+            return file.getName();
+        else {
+            return file.getName() + "(" + getLengthInMegaBytes(file) + " MB)";
+        }
+    }
+
+    private static final NumberFormat megabyteFormat = DecimalFormat.getNumberInstance();
+
+    static {
+        megabyteFormat.setMaximumFractionDigits(3);
+    }
+
+    private String getLengthInMegaBytes(File file) {
+        long length = file.length();
+        double res = length / 1024 / 1024;
+        res += (res - (length / 1024) * 0.001);
+
+        return megabyteFormat.format(res);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a directory for new files and passes every file to a pool of workers as soon as it was written completely.
+ * A file is complete, if its size and its modification time have not changed for a given time. Used to reduce the
+ * plot files of a running simulation.
+ * <p>
+ * The files existing when the watch starts are handled, too. Files created by the reduction itself, like the reduced
+ * files or the journal, are ignored, so the input directory can be the output directory. If the events of the directory
+ * overflow, the whole directory is listed again and only the files changed since they were handled are handled again.
+ */
+public class DirectoryWatcher {
+
+    /**
+     * Handles a single complete file
+     */
+    public interface FileHandler {
+        void handle(File file) throws Exception;
+    }
+
+    private final File directory;
+    private final FileHandler handler;
+    private final int threads;
+    private final long stableMillis;
+
+    // The files waiting to be complete, only accessed by the watching thread
+    private final Map<File, PendingFile> pending = new HashMap<>();
+    // The files passed to the workers and not finished yet
+    private final Set<File> inProgress = ConcurrentHashMap.newKeySet();
+    // The state of the files passed to the workers, only accessed by the watching thread
+    private final Map<File, PendingFile> handled = new HashMap<>();
+
+    /**
+     * @param directory    The directory to watch
+     * @param handler      Handles the complete files. Called by multiple threads at once
+     * @param threads      The maximum amount of files handled at the same time. Must be at least 1
+     * @param stableMillis The time in milliseconds the size of a file must not change to be complete
+     */
+    public DirectoryWatcher(File directory, FileHandler handler, int threads, long stableMillis) {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one thread is required, but was " + threads);
+        if (stableMillis < 0)
+            throw new IllegalArgumentException("The stable time must not be negative, but was " + stableMillis);
+        this.directory = directory;
+        this.handler = handler;
+        this.threads = threads;
+        this.stableMillis = stableMillis;
+    }
+
+    /**
+     * Watch the directory until the thread is interrupted. The files passed to the workers are finished before this
+     * method returns.
+     *
+     * @throws IOException          The directory can't be watched
+     * @throws InterruptedException The watching thread was interrupted while waiting for the workers
+     */
+    public void watch() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (WatchService service = FileSystems.getDefault().newWatchService()) {
+            directory.toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            // Register before listing, so no file is missed between both
+            trackAll();
+
+            long pollMillis = Math.max(10L, Math.min(stableMillis / 2, 1000L));
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key;
+                try {
+                    key = service.poll(pollMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                            trackAll();
+                        else
+                            track(new File(directory, event.context().toString()));
+                    }
+                    if (!key.reset()) {
+                        Core.logger.error("The directory '" + directory + "' is not accessible anymore!");
+                        break;
+                    }
+                }
+                submitCompleteFiles(executor);
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+    }
+
+    /**
+     * Track every file of the directory, which was not handled in its current state
+     */
+    void trackAll() {
+        handled.keySet().removeIf(file -> !file.exists());
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            PendingFile state = handled.get(file);
+            if (state == null || state.hasChanged())
+                track(file);
+        }
+    }
+
+    private void track(File file) {
+        if (file.isDirectory() || isReductionFile(file.getName()) || pending.containsKey(file))
+            return;
+        pending.put(file, new PendingFile(file));
+    }
+
+    /**
+     * @return true, if the file is created by the reduction and not a plot file
+     */
+    private boolean isReductionFile(String name) {
+        return name.contains("_reduced") || name.endsWith(".tmp") || name.equals(BatchJournal.FILE_NAME);
+    }
+
+    /**
+     * Pass the files, which have not changed for the stable time, to the workers
+     */
+    void submitCompleteFiles(ExecutorService executor) {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<File, PendingFile>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<File, PendingFile> entry = iterator.next();
+            File file = entry.getKey();
+            if (!file.exists()) {
+                iterator.remove();
+                continue;
+            }
+            // A file modified while it is handled is handled again afterwards
+            if (!entry.getValue().isComplete(now) || inProgress.contains(file))
+                continue;
+
+            iterator.remove();
+            handled.put(file, entry.getValue());
+            inProgress.add(file);
+            executor.submit(() -> {
+                try {
+                    handler.handle(file);
+                } catch (Exception e) {
+                    Core.logger.error("An error occurred while processing file '" + file + "'!", e);
+                } finally {
+                    inProgress.remove(file);
+                }
+            });
+        }
+    }
+
+    /**
+     * The last seen state of a file
+     */
+    private class PendingFile {
+        private final File file;
+        private long length;
+        private long lastModified;
+        private long unchangedSince;
+
+        private PendingFile(File file) {
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.unchangedSince = System.currentTimeMillis();
+        }
+
+        /**
+         * @return true, if the size or the modification time of the file differs from the last seen state
+         */
+        private boolean hasChanged() {
+            return file.length() != length || file.lastModified() != lastModified;
+        }
+
+        /**
+         * @param now The current time in milliseconds
+         * @return true, if the file has not changed for the stable time
+         */
+        private boolean isComplete(long now) {
+            long currentLength = file.length();
+            long currentLastModified = file.lastModified();
+            if (currentLength != length || currentLastModified != lastModified) {
+                length = currentLength;
+                lastModified = currentLastModified;
+                unchangedSince = now;
+                return false;
+            }
+            return now - unchangedSince >= stableMillis;
+        }
+    }
+}
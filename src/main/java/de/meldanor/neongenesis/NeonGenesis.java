@@ -26,14 +26,17 @@ package de.meldanor.neongenesis;
 
 import com.beust.jcommander.JCommander;
 import de.meldanor.neongenesis.downsample.AbstractReductionProcess;
+import de.meldanor.neongenesis.downsample.ParentBlockMode;
 import de.meldanor.neongenesis.downsample.ReducerType;
 import de.meldanor.neongenesis.downsample.ReductionProcessBuilder;
+import de.meldanor.neongenesis.hdf5.BlockOrder;
 import de.meldanor.neongenesis.physicalReduce.PhysicalReducerType;
 import de.meldanor.neongenesis.statisticalReduce.StatisticalReducerFactory;
 
+import javafx.geometry.Point3D;
+
 import java.io.File;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
+import java.io.IOException;
 
 /**
  * The actually program
@@ -51,9 +54,9 @@ public class NeonGenesis {
             return;
         }
 
-        // Check if the input director has files
+        // Check if the input director has files - a watched directory is filled later
         File[] files = inputDirectory.listFiles(pathname -> !pathname.isDirectory());
-        if (files == null || files.length == 0) {
+        if (!options.watch && (files == null || files.length == 0)) {
             Core.logger.error("The input directory '" + inputDirectory + "' is empty!");
             return;
         }
@@ -106,6 +109,132 @@ public class NeonGenesis {
             Core.logger.info("Reduce only the following datasets: " + String.join(",", options.datasetsToReduce));
         }
 
+        if (options.threads < 1) {
+            Core.logger.error("At least one thread is required, but was " + options.threads + "!");
+            return;
+        }
+
+        builder.parallelBlocks(options.parallelBlocks);
+        if (options.parallelBlocks)
+            Core.logger.info("Reduce the blocks of a dataset in parallel");
+
+        if (options.pipelineDepth < 0) {
+            Core.logger.error("The pipeline depth must not be negative, but was " + options.pipelineDepth + "!");
+            return;
+        }
+        builder.pipelineDepth(options.pipelineDepth);
+        if (options.pipelineDepth > 0)
+            Core.logger.info("Pipeline reading, reducing and writing with a depth of " + options.pipelineDepth);
+
+        if (options.batchSize < 1) {
+            Core.logger.error("The batch size must be at least 1, but was " + options.batchSize + "!");
+            return;
+        }
+        builder.batchSize(options.batchSize);
+
+        int[] factors = parseReductionFactors(options.reductionFactors);
+        if (factors == null) {
+            Core.logger.error("Invalid reduction factors '" + options.reductionFactors + "'! Use one factor or three factors like 2,2,1");
+            return;
+        }
+        builder.reductionFactors(factors[0], factors[1], factors[2]);
+        Core.logger.info("The reduction factors are " + factors[0] + "x" + factors[1] + "x" + factors[2]);
+
+        if (options.pyramidLevels < 1) {
+            Core.logger.error("At least one pyramid level is required, but was " + options.pyramidLevels + "!");
+            return;
+        }
+        builder.pyramidLevels(options.pyramidLevels);
+        if (options.pyramidLevels > 1)
+            Core.logger.info("Create " + options.pyramidLevels + " pyramid levels per file");
+
+        if (options.deflateLevel < 0 || options.deflateLevel > 9) {
+            Core.logger.error("The deflate level must be between 0 and 9, but was " + options.deflateLevel + "!");
+            return;
+        }
+        builder.compression(options.chunked, options.deflateLevel, options.shuffle);
+        if (options.chunked || options.deflateLevel > 0 || options.shuffle)
+            Core.logger.info("Store the reduced datasets in chunks with deflate level " + options.deflateLevel + (options.shuffle ? " and shuffle" : ""));
+
+        builder.javaReader(options.javaReader);
+        if (options.javaReader)
+            Core.logger.info("Read the values by the pure Java reader");
+
+        if (options.cacheSize < 0) {
+            Core.logger.error("The cache size must not be negative, but was " + options.cacheSize + "!");
+            return;
+        }
+        builder.cacheSize(options.cacheSize * 1024L * 1024L);
+        if (options.cacheSize > 0)
+            Core.logger.info("Cache up to " + options.cacheSize + " MB of the read values per file");
+
+        ParentBlockMode parentBlockMode;
+        switch (options.parentBlocks.toLowerCase()) {
+            case "reduce":
+                parentBlockMode = ParentBlockMode.REDUCE;
+                break;
+            case "fill":
+                parentBlockMode = ParentBlockMode.FILL;
+                break;
+            case "restrict":
+                parentBlockMode = ParentBlockMode.RESTRICT;
+                break;
+            default:
+                Core.logger.error("Unknown parent block mode '" + options.parentBlocks + "'!");
+                StringBuilder tmp = new StringBuilder();
+                commander.usage("-pbm", tmp);
+                Core.logger.info(tmp.toString());
+                return;
+        }
+        builder.parentBlocks(parentBlockMode);
+        if (parentBlockMode != ParentBlockMode.REDUCE)
+            Core.logger.info("Read and reduce only the leaf blocks, the parent blocks are " + (parentBlockMode == ParentBlockMode.FILL ? "filled" : "restricted from their children"));
+
+        if (options.dropLevels < 0) {
+            Core.logger.error("The amount of dropped levels must not be negative, but was " + options.dropLevels + "!");
+            return;
+        }
+        builder.dropLevels(options.dropLevels);
+        if (options.dropLevels > 0)
+            Core.logger.info("Remove the " + options.dropLevels + " finest refinement level(s) of the block tree");
+
+        if (options.region != null) {
+            Point3D[] region = parseRegion(options.region);
+            if (region == null) {
+                Core.logger.error("Invalid region '" + options.region + "'! Use six coordinates like x0,y0,z0,x1,y1,z1 with x0 <= x1, y0 <= y1 and z0 <= z1");
+                return;
+            }
+            builder.region(region[0], region[1]);
+            Core.logger.info("Reduce only the blocks intersecting the region from " + region[0] + " to " + region[1]);
+        }
+
+        if (options.densityWeightedDatasets != null && !options.densityWeightedDatasets.isEmpty()) {
+            builder.densityWeighted(options.densityWeightedDatasets);
+            if (reducer instanceof PhysicalReducerType)
+                Core.logger.info("Reduce the following datasets by the density weighted mean: " + String.join(",", options.densityWeightedDatasets));
+            else
+                Core.logger.info("The density weighted datasets are only used by the physical reducers");
+        }
+
+        BlockOrder blockOrder;
+        switch (options.blockOrder.toLowerCase()) {
+            case "original":
+                blockOrder = BlockOrder.ORIGINAL;
+                break;
+            case "morton":
+                blockOrder = BlockOrder.MORTON;
+                break;
+            default:
+                Core.logger.error("Unknown block order '" + options.blockOrder + "'!");
+                StringBuilder tmp = new StringBuilder();
+                commander.usage("-bo", tmp);
+                Core.logger.info(tmp.toString());
+                return;
+        }
+        builder.blockOrder(blockOrder);
+        if (blockOrder != BlockOrder.ORIGINAL)
+            Core.logger.info("Order the blocks of the reduced files along the " + blockOrder.name() + " curve");
+
         boolean isVerbose = options.verbose;
         if (isVerbose)
             Core.logger.info("Verbose mode active. Display more information about the process");
@@ -113,45 +242,85 @@ public class NeonGenesis {
         // Create the process and invoke it
         AbstractReductionProcess reductionProcess = builder.build();
 
-        Core.logger.info("Start reduction process of " + files.length + " files");
-
-        for (int i = 0; i < files.length; i++) {
-            File inputFile = files[i];
-
-            try {
-                Core.logger.info("(" + (i + 1) + "/" + files.length + ") - Reduce file: " + getFileInformation(isVerbose, inputFile));
-                File newFile = reductionProcess.reduceFile(inputFile, isVerbose);
-                Core.logger.info("(" + (i + 1) + "/" + files.length + ") - Finished! Reduced file: " + getFileInformation(isVerbose, newFile));
+        if (options.watchStableSeconds < 0) {
+            Core.logger.error("The stable time of watched files must not be negative, but was " + options.watchStableSeconds + "!");
+            return;
+        }
 
-            } catch (Exception e) {
-                Core.logger.error("An error occurred while processing file '" + inputFile + "'!");
-                e.printStackTrace();
+        if (options.incremental)
+            Core.logger.info("Incremental mode active. Skip files whose reduced files are up to date");
+        if (options.resume)
+            Core.logger.info("Resume mode active. Skip the files finished by earlier resumable runs and record the finished files in '" + BatchJournal.FILE_NAME + "'");
+        // Only a resumable run reads and writes the journal, other runs leave it untouched
+        try (BatchJournal journal = options.resume ? new BatchJournal(outputDirectory, true, reductionProcess.getConfiguration()) : null) {
+            BatchReduction batchReduction = new BatchReduction(reductionProcess, options.threads, isVerbose, options.incremental, journal);
+            if (options.watch) {
+                Core.logger.info("Watch '" + inputDirectory + "' for new files using " + options.threads + " thread(s). A file is reduced after it has not changed for " + options.watchStableSeconds + "s");
+                new DirectoryWatcher(inputDirectory, batchReduction::reduceSingle, options.threads, options.watchStableSeconds * 1000L).watch();
+            } else {
+                Core.logger.info("Start reduction process of " + files.length + " files using " + options.threads + " thread(s)");
+                batchReduction.reduce(files);
             }
+        } catch (IOException e) {
+            Core.logger.error("Can't use the journal or watch the directory: " + e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Core.logger.error("Interrupted while waiting for the reduced files!");
+            return;
         }
         Core.logger.info("Finished reduction process!");
 
     }
 
-    private String getFileInformation(boolean isVerbose, File file) throws Exception {
-        if (!isVerbose)
-            return file.getName();
-        else {
-            return file.getName() + "(" + getLengthInMegaBytes(file) + " MB)";
+    /**
+     * Parse the region of the command line
+     *
+     * @param value Six comma separated coordinates, the lower corner followed by the upper corner
+     * @return The lower and the upper corner or <code>null</code>, if the value is invalid
+     */
+    private Point3D[] parseRegion(String value) {
+        String[] split = value.split(",");
+        if (split.length != 6)
+            return null;
+        double[] coordinates = new double[6];
+        try {
+            for (int i = 0; i < coordinates.length; i++) {
+                coordinates[i] = Double.parseDouble(split[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            return null;
         }
+        for (int axis = 0; axis < 3; axis++) {
+            if (coordinates[axis] > coordinates[axis + 3])
+                return null;
+        }
+        return new Point3D[]{
+                new Point3D(coordinates[0], coordinates[1], coordinates[2]),
+                new Point3D(coordinates[3], coordinates[4], coordinates[5])};
     }
 
-    private static final NumberFormat megabyteFormat = DecimalFormat.getNumberInstance();
-
-    static {
-        megabyteFormat.setMaximumFractionDigits(3);
-    }
-
-    private String getLengthInMegaBytes(File file) {
-        long length = file.length();
-        double res = length / 1024 / 1024;
-        res += (res - (length / 1024) * 0.001);
-
-        return megabyteFormat.format(res);
+    /**
+     * Parse the reduction factors of the command line
+     *
+     * @param value Either a single factor for all axes or three comma separated factors for the x, y and z axis
+     * @return The factors of the x, y and z axis or <code>null</code>, if the value is invalid
+     */
+    private int[] parseReductionFactors(String value) {
+        String[] split = value.split(",");
+        if (split.length != 1 && split.length != 3)
+            return null;
+        int[] factors = new int[3];
+        try {
+            for (int i = 0; i < factors.length; i++) {
+                factors[i] = Integer.parseInt(split[split.length == 1 ? 0 : i].trim());
+                if (factors[i] < 1)
+                    return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return factors;
     }
 
 }
@@ -26,6 +26,7 @@ package de.meldanor.neongenesis;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
+import de.meldanor.neongenesis.statisticalReduce.StatisticalDatasetReducer;
 
 import java.util.List;
 
@@ -53,6 +54,87 @@ public class NeonGenesisOptions {
             description = "Show more information about the file to reduce.")
     boolean verbose = false;
 
+    @Parameter(names = {"-inc", "--incremental"},
+            description = "Skip files whose reduced files are up to date. A manifest is stored next to every reduced file")
+    boolean incremental = false;
+
+    @Parameter(names = {"-r", "--resume"},
+            description = "Record the finished files in a journal in the output directory and skip the files finished by earlier runs with this option and the same settings. Without this option the journal is neither read nor written")
+    boolean resume = false;
+
+    @Parameter(names = {"-w", "--watch"},
+            description = "Keep running and reduce every new file of the input directory as soon as it was written completely")
+    boolean watch = false;
+
+    @Parameter(names = {"-wst", "--watchStableSeconds"},
+            description = "The time in seconds a watched file must not change to be reduced")
+    int watchStableSeconds = 10;
+
+    @Parameter(names = {"-t", "--threads"},
+            description = "The amount of files to reduce at the same time.")
+    int threads = 1;
+
+    @Parameter(names = {"-pb", "--parallelBlocks"},
+            description = "Reduce the blocks of a single dataset using all cores.")
+    boolean parallelBlocks = false;
+
+    @Parameter(names = {"-pd", "--pipelineDepth"},
+            description = "The amount of batches of blocks buffered between reading, reducing and writing. 0 disables the pipeline. Not used by the parent block mode restrict and the physical reducers")
+    int pipelineDepth = 0;
+
+    @Parameter(names = {"-bs", "--batchSize"},
+            description = "The amount of blocks read at once.")
+    int batchSize = StatisticalDatasetReducer.DEFAULT_BATCH_SIZE;
+
+    @Parameter(names = {"-rf", "--reductionFactors"},
+            description = "The amount of cells combined per axis. Either one factor for all axes or x,y,z like 2,2,1")
+    String reductionFactors = "2";
+
+    @Parameter(names = {"-pl", "--pyramidLevels"},
+            description = "The amount of reduced files per file. Every level is reduced from the previous one")
+    int pyramidLevels = 1;
+
+    @Parameter(names = {"-ch", "--chunked"},
+            description = "Store every block of a reduced dataset in its own chunk.")
+    boolean chunked = false;
+
+    @Parameter(names = {"-dl", "--deflateLevel"},
+            description = "Compress the chunks of the reduced datasets by deflate from 1 to 9. 0 disables the compression")
+    int deflateLevel = 0;
+
+    @Parameter(names = {"-sh", "--shuffle"},
+            description = "Shuffle the bytes of the values before compressing them. Improves the compression of floats")
+    boolean shuffle = false;
+
+    @Parameter(names = {"-jr", "--javaReader"},
+            description = "Read the original files by a pure Java reader with memory mapped files instead of the native HDF5 library")
+    boolean javaReader = false;
+
+    @Parameter(names = {"-cs", "--cacheSize"},
+            description = "The size of the LRU cache for the values read from a file in MB. Ranges of blocks read again are copied from the cache, the verbose mode shows the hits and misses. 0 disables the cache")
+    int cacheSize = 0;
+
+    @Parameter(names = {"-pbm", "--parentBlocks"},
+            description = "How to reduce blocks with children: reduce, fill or restrict. Fill and restrict read only the leaves")
+    String parentBlocks = "reduce";
+
+    @Parameter(names = {"-drl", "--dropLevels"},
+            description = "The amount of the finest refinement levels to remove. Their parents become the new leaves")
+    int dropLevels = 0;
+
+    @Parameter(names = {"-rg", "--region"},
+            description = "Reduce only the blocks intersecting the box x0,y0,z0,x1,y1,z1 in cm. If not used, the whole domain is reduced")
+    String region;
+
+    @Parameter(names = {"-bo", "--blockOrder"},
+            description = "The order of the blocks in the reduced files. Possible values: original, morton. Morton orders the blocks along the Z-order curve, so blocks close to each other are stored close to each other")
+    String blockOrder = "original";
+
+    @Parameter(names = {"-dw", "--densityWeighted"},
+            description = "A list of datasets reduced by the density weighted mean by the physical reducers. If not used, only the temperature is weighted",
+            variableArity = true)
+    List<String> densityWeightedDatasets;
+
     @Parameter(names = {"-ds", "--datasets"},
             description = "A list of datasets to reduce. If not used, all datasets are to be reduced",
             variableArity = true)
@@ -0,0 +1,119 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis;
+
+import de.meldanor.neongenesis.downsample.AbstractReductionProcess;
+
+import java.io.*;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Records what a reduced file was created from, so an unchanged original file is not reduced again. The manifest is a
+ * properties file next to the reduced file containing the size and the last modification time of the original file
+ * and the configuration of the reduction process.
+ * <p>
+ * A reduced file is up to date, if all reduced files exist and the stored manifest is equal to the manifest of the
+ * current original file and process.
+ */
+public class ReductionManifest {
+
+    private static final String SUFFIX = ".manifest";
+    private static final String SOURCE_LENGTH = "source.length";
+    private static final String SOURCE_LAST_MODIFIED = "source.lastModified";
+    private static final String CONFIGURATION_PREFIX = "configuration.";
+
+    private final List<File> reducedFiles;
+    private final Properties properties = new Properties();
+
+    /**
+     * Create the manifest of the current state of the original file. The state is captured before reducing, so a file
+     * changed while reducing is reduced again on the next run.
+     *
+     * @param source  The original file
+     * @param process The process reducing the file
+     */
+    public ReductionManifest(File source, AbstractReductionProcess process) {
+        this.reducedFiles = process.getReducedFiles(source);
+        properties.setProperty(SOURCE_LENGTH, Long.toString(source.length()));
+        properties.setProperty(SOURCE_LAST_MODIFIED, Long.toString(source.lastModified()));
+        for (Map.Entry<String, String> entry : process.getConfiguration().entrySet()) {
+            properties.setProperty(CONFIGURATION_PREFIX + entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return The file the manifest is stored in
+     */
+    public File getManifestFile() {
+        File reducedFile = reducedFiles.get(0);
+        return new File(reducedFile.getParentFile(), reducedFile.getName() + SUFFIX);
+    }
+
+    /**
+     * @return true, if every reduced file exists and was created from the same original file by the same
+     * configuration
+     * @throws IOException The stored manifest can't be read
+     */
+    public boolean isUpToDate() throws IOException {
+        File manifestFile = getManifestFile();
+        if (!manifestFile.exists())
+            return false;
+        for (File reducedFile : reducedFiles) {
+            if (!reducedFile.exists())
+                return false;
+        }
+
+        Properties stored = new Properties();
+        try (InputStream in = new FileInputStream(manifestFile)) {
+            stored.load(in);
+        }
+        return stored.equals(properties);
+    }
+
+    /**
+     * Store the manifest after the reduced files were written completely
+     *
+     * @throws IOException The manifest can't be written
+     */
+    public void write() throws IOException {
+        try (OutputStream out = new FileOutputStream(getManifestFile())) {
+            properties.store(out, "Created by NeonGenesis - delete to reduce the file again");
+        }
+    }
+
+    /**
+     * Delete the stored manifest before the reduced files are overwritten, so an incomplete reduction is never up to
+     * date
+     *
+     * @throws IOException The manifest exists, but can't be deleted
+     */
+    public void delete() throws IOException {
+        File manifestFile = getManifestFile();
+        if (manifestFile.exists() && !manifestFile.delete())
+            throw new IOException("Can't delete the manifest '" + manifestFile + "'");
+    }
+}
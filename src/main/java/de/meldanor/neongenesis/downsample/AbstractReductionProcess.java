@@ -25,6 +25,10 @@
 package de.meldanor.neongenesis.downsample;
 
 import de.meldanor.neongenesis.Core;
+import de.meldanor.neongenesis.hdf5.Block;
+import de.meldanor.neongenesis.hdf5.BlockCache;
+import de.meldanor.neongenesis.hdf5.BlockTree;
+import de.meldanor.neongenesis.hdf5.BlockSelection;
 import de.meldanor.neongenesis.hdf5.Flash3DataTypes;
 import de.meldanor.neongenesis.hdf5.Flash3MetaData;
 import de.meldanor.neongenesis.hdf5.Flash3Reader;
@@ -33,14 +37,23 @@ import de.meldanor.neongenesis.statisticalReduce.StatisticalDatasetReducer;
 import de.meldanor.neongenesis.statisticalReduce.StatisticalReducerFactory;
 import javafx.geometry.Point3D;
 import ncsa.hdf.object.Attribute;
-import ncsa.hdf.object.Dataset;
 import ncsa.hdf.object.Datatype;
+import ncsa.hdf.object.h5.H5ScalarDS;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 /**
- *
+ * The base of a process reducing single FLASH3 files.
+ * <p>
+ * A process does not hold any state of a single file - every call of {@link #reduceFile(File, boolean)} uses its own
+ * reader, writer and buffers. Therefore one instance can be shared by multiple threads reducing different files.
  */
 public abstract class AbstractReductionProcess {
     public static final String GLOBALNUMBLOCKS = "globalnumblocks";
@@ -49,42 +62,222 @@ public abstract class AbstractReductionProcess {
     private static final String Z_DIMENSION = "nzb";
     private static final String NAME_DATATYPE = "name";
     private static final String VALUE_DATATYPE = "value";
+    /**
+     * The datasets containing one entry per block, which are copied for the remaining blocks
+     */
+    private static final Set<Flash3MetaData.Flash3Dataset> COPIED_BLOCK_DATASETS = EnumSet.of(
+            Flash3MetaData.Flash3Dataset.B_FLAGS,
+            Flash3MetaData.Flash3Dataset.BLOCK_SIZE,
+            Flash3MetaData.Flash3Dataset.BOUNDING_BOX,
+            Flash3MetaData.Flash3Dataset.COORDINATES,
+            Flash3MetaData.Flash3Dataset.PROCESSOR_NUMBER);
+    /**
+     * The names of all datasets containing one entry per block
+     */
+    private static final Set<String> BLOCK_DATASETS = new HashSet<>();
+
+    static {
+        for (Flash3MetaData.Flash3Dataset dataset : COPIED_BLOCK_DATASETS) {
+            BLOCK_DATASETS.add(dataset.getDatasetName());
+        }
+        BLOCK_DATASETS.add(Flash3MetaData.Flash3Dataset.GID.getDatasetName());
+        BLOCK_DATASETS.add(Flash3MetaData.Flash3Dataset.NODE_TYPE.getDatasetName());
+        BLOCK_DATASETS.add(Flash3MetaData.Flash3Dataset.REFINE_LEVEL.getDatasetName());
+        BLOCK_DATASETS.add(Flash3MetaData.Flash3Dataset.WHICH_CHILD.getDatasetName());
+    }
     protected final StatisticalReducerFactory.StatisticalReducerType strategy;
     protected final List<String> variableDatasetsNames;
     protected final File targetDirectory;
+    protected final ReductionSettings settings;
+    /**
+     * The arrays for the reduced values of a batch, shared by all files to reuse them
+     */
+    protected final BufferManager buffers = new BufferManager();
 
-    public AbstractReductionProcess(List<String> variableDatasetsNames, File targetDirectory, StatisticalReducerFactory.StatisticalReducerType strategy) {
+    public AbstractReductionProcess(List<String> variableDatasetsNames, File targetDirectory, StatisticalReducerFactory.StatisticalReducerType strategy, ReductionSettings settings) {
         this.variableDatasetsNames = variableDatasetsNames;
         this.targetDirectory = targetDirectory;
         this.strategy = strategy;
+        this.settings = settings;
     }
 
     /**
      * Reduce a single HDF5 FLASH3 file using the given reducer strategy. The reduced file will be written to the
-     * target directory
+     * target directory. If more than one pyramid level is configured, every further level is written to its own file
+     * with the suffix <code>_reduced_level</code> and the number of the level.
+     * <p>
+     * The files are written with the suffix <code>.tmp</code> and renamed after all files were written completely, so
+     * a reduced file is either complete or does not exist. The temporary files are deleted, if the reduction fails.
      *
      * @param file The file to reduce. Must be a HDF5 FLASH3 formatted file.
      * @throws Exception An error occurred while reducing (can't open file, file is not existing)
      */
     public File reduceFile(File file, boolean verbose) throws Exception {
-        Flash3Reader reader = new Flash3Reader(file);
-        if (verbose) {
-            Core.logger.info("Blocks: " + reader.getMetaData().getBlockCount());
+        List<File> reducedFiles = getReducedFiles(file);
+        Flash3Reader reader = new Flash3Reader(file, settings.isJavaReader(), settings.getCacheSize());
+        Hdf5Writer writer = null;
+        Buffer buffer = null;
+        try {
+            BlockSelection blocks = new BlockSelection(reader.getMetaData().getBlockTree(), settings.getDroppedLevels(), settings.getRegionLower(), settings.getRegionUpper(), settings.getBlockOrder());
+            if (verbose) {
+                Core.logger.info("Blocks: " + reader.getMetaData().getBlockCount() + (blocks.size() < reader.getMetaData().getBlockCount() ? ", remaining: " + blocks.size() : ""));
+            }
+            Point3D originalDimensions = getDimension(reader.getMetaData());
+            StatisticalDatasetReducer reducer = new StatisticalDatasetReducer(originalDimensions, settings.getReductionFactors(), strategy, settings.isParallelBlocks(), settings.getBatchSize(), buffers);
+
+            writer = new Hdf5Writer(getTemporaryFile(reducedFiles.get(0)), settings.getCompression());
+            copyMetaData(reader, writer, blocks);
+            createIntegerScalars(reader, writer, settings.getReductionFactors(), blocks.size());
+
+            Point3D reducedDimension = getReducedDimension(reader.getMetaData());
+            buffer = new Buffer(blocks);
+            createPyramidLevels(reader, reducedDimension, buffer, reducedFiles);
+
+            reduceDatasets(reducer, reader, writer, buffer);
+
+            if (verbose && reader.getCache() != null) {
+                BlockCache cache = reader.getCache();
+                Core.logger.info("Cache hits: " + cache.getHits() + ", misses: " + cache.getMisses());
+            }
+            // Every file is closed, even if closing another one fails
+            closeAll(reader, writer, buffer);
+        } catch (Exception e) {
+            // Never leave an incomplete reduced file behind
+            closeQuietly(reader);
+            closeQuietly(writer);
+            if (buffer != null) {
+                for (PyramidLevel level : buffer.pyramidLevels) {
+                    closeQuietly(level.writer);
+                }
+            }
+            for (File reducedFile : reducedFiles) {
+                //noinspection ResultOfMethodCallIgnored
+                getTemporaryFile(reducedFile).delete();
+            }
+            throw e;
+        }
+
+        for (File reducedFile : reducedFiles) {
+            moveAtomically(getTemporaryFile(reducedFile), reducedFile);
+        }
+        return reducedFiles.get(0);
+    }
+
+    /**
+     * @param reducedFile The final reduced file
+     * @return The file the reduced file is written to until it is complete
+     */
+    private File getTemporaryFile(File reducedFile) {
+        return new File(reducedFile.getParentFile(), reducedFile.getName() + ".tmp");
+    }
+
+    private void moveAtomically(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Close the reader and all writers
+     *
+     * @throws IOException The first exception thrown while closing, after all others were closed
+     */
+    private void closeAll(Flash3Reader reader, Hdf5Writer writer, Buffer buffer) throws IOException {
+        List<Closeable> closeables = new ArrayList<>();
+        closeables.add(reader);
+        closeables.add(writer);
+        for (PyramidLevel level : buffer.pyramidLevels) {
+            closeables.add(level.writer);
+        }
+
+        IOException error = null;
+        for (Closeable closeable : closeables) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                if (error == null)
+                    error = e;
+                else
+                    error.addSuppressed(e);
+            }
         }
-        Point3D originalDimensions = getDimension(reader.getMetaData());
-        StatisticalDatasetReducer reducer = new StatisticalDatasetReducer(originalDimensions, strategy);
+        if (error != null)
+            throw error;
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Core.logger.error("Can't close " + closeable + " after a failed reduction: " + e.getMessage());
+        }
+    }
 
-        File newFile = new File(targetDirectory, file.getName() + "_reduced");
+    /**
+     * Create the writers of the further pyramid levels. Every level is reduced from the previous level by the same
+     * reduction factors, so the original data is read only once. Datasets reduced by a weighted mean are weighted by
+     * the mean weights of the previous level, see {@link #createWeightedFloatDataset(String, Flash3Reader, Hdf5Writer, Buffer)}.
+     */
+    private void createPyramidLevels(Flash3Reader reader, Point3D reducedDimension, Buffer buffer, List<File> reducedFiles) throws Exception {
+        Point3D factors = settings.getReductionFactors();
+        Point3D levelFactors = factors;
+        Point3D dimension = reducedDimension;
+        for (int level = 2; level <= settings.getPyramidLevels(); level++) {
+            StatisticalDatasetReducer levelReducer = new StatisticalDatasetReducer(dimension, factors, strategy, settings.isParallelBlocks(), settings.getBatchSize(), buffers);
+            dimension = new Point3D(
+                    (int) dimension.getX() / (int) factors.getX(),
+                    (int) dimension.getY() / (int) factors.getY(),
+                    (int) dimension.getZ() / (int) factors.getZ());
+            levelFactors = new Point3D(
+                    levelFactors.getX() * factors.getX(),
+                    levelFactors.getY() * factors.getY(),
+                    levelFactors.getZ() * factors.getZ());
 
-        Hdf5Writer writer = new Hdf5Writer(newFile);
-        copyMetaData(reader, writer);
-        createIntegerScalars(reader, writer);
+            // Add the level before writing, so the writer is closed if writing fails
+            Hdf5Writer levelWriter = new Hdf5Writer(getTemporaryFile(reducedFiles.get(level - 1)), settings.getCompression());
+            buffer.pyramidLevels.add(new PyramidLevel(levelWriter, levelReducer, dimension));
+
+            copyMetaData(reader, levelWriter, buffer.blocks);
+            createIntegerScalars(reader, levelWriter, levelFactors, buffer.blocks.size());
+        }
+    }
 
-        reduceDatasets(reducer, reader, writer);
-        reader.close();
-        writer.close();
+    /**
+     * @param file The original file
+     * @return The files created by reducing the original file. The first file is the reduced file followed by the
+     * files of the further pyramid levels
+     */
+    public List<File> getReducedFiles(File file) {
+        List<File> files = new ArrayList<>(settings.getPyramidLevels());
+        files.add(new File(targetDirectory, file.getName() + "_reduced"));
+        for (int level = 2; level <= settings.getPyramidLevels(); level++) {
+            files.add(new File(targetDirectory, file.getName() + "_reduced_level" + level));
+        }
+        return files;
+    }
 
-        return newFile;
+    /**
+     * @return Everything except the original file the content of the reduced files depends on, for example the
+     * strategy and the reduction factors. Settings only affecting the performance are not part of the configuration
+     */
+    public Map<String, String> getConfiguration() {
+        Map<String, String> configuration = new LinkedHashMap<>();
+        configuration.put("process", getClass().getSimpleName());
+        configuration.put("strategy", strategy.name());
+        configuration.put("datasets", variableDatasetsNames.isEmpty() ? "all" : String.join(",", variableDatasetsNames));
+        Point3D factors = settings.getReductionFactors();
+        configuration.put("reductionFactors", (int) factors.getX() + "," + (int) factors.getY() + "," + (int) factors.getZ());
+        configuration.put("pyramidLevels", Integer.toString(settings.getPyramidLevels()));
+        configuration.put("compression", settings.getCompression().toString());
+        configuration.put("parentBlocks", settings.getParentBlockMode().name());
+        configuration.put("droppedLevels", Integer.toString(settings.getDroppedLevels()));
+        configuration.put("blockOrder", settings.getBlockOrder().name());
+        configuration.put("region", settings.getRegionLower() == null ? "all" : settings.getRegionLower() + "," + settings.getRegionUpper());
+        return configuration;
     }
 
     protected Point3D getDimension(Flash3MetaData metaData) {
@@ -95,35 +288,73 @@ public abstract class AbstractReductionProcess {
         return new Point3D(xDimension, yDimension, zDimension);
     }
 
-    private void copyMetaData(Flash3Reader source, Hdf5Writer destination) throws Exception {
+    /**
+     * @param metaData The meta data of the original file
+     * @return The dimension of a reduced block, which is the original dimension divided by the reduction factors
+     */
+    protected Point3D getReducedDimension(Flash3MetaData metaData) {
+        Point3D dimension = getDimension(metaData);
+        Point3D factors = settings.getReductionFactors();
+        return new Point3D(
+                (int) dimension.getX() / (int) factors.getX(),
+                (int) dimension.getY() / (int) factors.getY(),
+                (int) dimension.getZ() / (int) factors.getZ());
+    }
+
+    private void copyMetaData(Flash3Reader source, Hdf5Writer destination, BlockSelection blocks) throws Exception {
         Flash3MetaData metaData = source.getMetaData();
 
-        Map<String, Dataset> variableMap = metaData.getVariableMap();
+        Set<String> variableNames = metaData.getVariableNames();
         // Get all datasets, which are not variable data like density or pressure
-        metaData.getDatasetMap().entrySet().stream()
-                .filter(e -> !variableMap.containsKey(e.getKey()))
+        metaData.getDatasetNames().stream()
+                .filter(name -> !variableNames.contains(name))
                         // Don't copy the logical scalar map - we have to modify it
-                .filter(e -> !e.getKey().equals(Flash3MetaData.Flash3Dataset.INTEGER_SCALARS.getDatasetName()))
+                .filter(name -> !name.equals(Flash3MetaData.Flash3Dataset.INTEGER_SCALARS.getDatasetName()))
+                        // The block datasets are rewritten for the remaining blocks
+                .filter(name -> !blocks.isRewritten() || !BLOCK_DATASETS.contains(name))
                         // Copy all metadata
-                .forEach(e -> {
+                .forEach(name -> {
                     try {
-                        destination.copyDataset(e.getValue());
+                        destination.copyDataset(metaData, name);
                     } catch (Exception e1) {
                         throw new RuntimeException(e1);
                     }
                 });
 
+        if (blocks.isRewritten())
+            writeBlockMetaData(source, destination, blocks);
+    }
+
+    /**
+     * Write the meta data of the remaining blocks. The datasets of the tree structure are rewritten, the other block
+     * datasets are copied for the remaining blocks only.
+     */
+    private void writeBlockMetaData(Flash3Reader source, Hdf5Writer destination, BlockSelection blocks) throws Exception {
+        Flash3MetaData metaData = source.getMetaData();
+        int[] runs = blocks.getOriginalRuns(settings.getBatchSize());
+        for (Flash3MetaData.Flash3Dataset dataset : COPIED_BLOCK_DATASETS) {
+            if (metaData.containsDataset(dataset.getDatasetName()))
+                destination.copyDatasetEntries(metaData, dataset.getDatasetName(), runs);
+        }
 
+        int size = blocks.size();
+        int[] gid = blocks.getGid();
+        destination.writeIntDataset(Flash3MetaData.Flash3Dataset.GID.getDatasetName(), gid, size, gid.length / size);
+        destination.writeIntDataset(Flash3MetaData.Flash3Dataset.NODE_TYPE.getDatasetName(), blocks.getNodeTypes(), size);
+        destination.writeIntDataset(Flash3MetaData.Flash3Dataset.REFINE_LEVEL.getDatasetName(), blocks.getRefineLevels(), size);
+        destination.writeIntDataset(Flash3MetaData.Flash3Dataset.WHICH_CHILD.getDatasetName(), blocks.getWhichChildren(), size);
     }
 
-    private void createIntegerScalars(Flash3Reader source, Hdf5Writer destination) throws Exception {
+    private void createIntegerScalars(Flash3Reader source, Hdf5Writer destination, Point3D factors, int blockCount) throws Exception {
         Flash3MetaData metaData = source.getMetaData();
         Map<String, Integer> integerSclars = new LinkedHashMap<>(metaData.getIntegerSclars());
 
-        // Reduce the cell dimensions to half
-        integerSclars.computeIfPresent(X_DIMENSION, (key, value) -> value / 2);
-        integerSclars.computeIfPresent(Y_DIMENSION, (key, value) -> value / 2);
-        integerSclars.computeIfPresent(Z_DIMENSION, (key, value) -> value / 2);
+        // Reduce the cell dimensions by the reduction factors
+        integerSclars.computeIfPresent(X_DIMENSION, (key, value) -> value / (int) factors.getX());
+        integerSclars.computeIfPresent(Y_DIMENSION, (key, value) -> value / (int) factors.getY());
+        integerSclars.computeIfPresent(Z_DIMENSION, (key, value) -> value / (int) factors.getZ());
+        // Less blocks remain, if levels are dropped
+        integerSclars.computeIfPresent(GLOBALNUMBLOCKS, (key, value) -> blockCount);
 
         // Create data vector -> transform the map to two arrays with their content
         Vector<Object> data = new Vector<>();
@@ -140,69 +371,921 @@ public abstract class AbstractReductionProcess {
         destination.writeCompound(Flash3MetaData.Flash3Dataset.INTEGER_SCALARS.getDatasetName(), data, datatypes, memberSizes, integerSclars.size());
     }
 
-    protected abstract void reduceDatasets(StatisticalDatasetReducer reducer, Flash3Reader source, Hdf5Writer destination) throws Exception;
+    /**
+     * Reduce the variable datasets of the source and write them to the destination
+     *
+     * @param reducer     The reducer for the datasets of the source
+     * @param source      The original file
+     * @param destination The reduced file
+     * @param buffer      The buffer for writing the reduced datasets
+     * @throws Exception Something went wrong while reading, reducing or writing
+     */
+    protected abstract void reduceDatasets(StatisticalDatasetReducer reducer, Flash3Reader source, Hdf5Writer destination, Buffer buffer) throws Exception;
+
+    /**
+     * Reduce an int dataset and pass the reduced blocks to the stream. Depending on the
+     * {@link ReductionSettings#getParentBlockMode()} every block is reduced or only the leaves are read and reduced. If
+     * blocks are removed or reordered, only the remaining blocks are passed to the stream using their new indices.
+     *
+     * @param reducer     The reducer of the first level
+     * @param source      The original file
+     * @param datasetName The name of the dataset to reduce
+     * @param stream      Receives the reduced blocks. Is not finished by this method
+     * @param buffer      The buffer of the reduced file
+     * @throws Exception Something went wrong while reading, reducing or writing
+     */
+    protected void reduceIntDataset(StatisticalDatasetReducer reducer, Flash3Reader source, String datasetName, IntDatasetStream stream, Buffer buffer) throws Exception {
+        BlockSelection blocks = buffer.blocks;
+        int reducedBlockSize = reducer.getReducedBlockSize();
+        // Every range is consecutive in the original and in the selected tree, so it is moved as a whole
+        StatisticalDatasetReducer.ReducedBlocksConsumer<int[]> renumbered = (firstBlock, reduced) -> stream.accept(blocks.getNewIndex(firstBlock), reduced);
+        switch (settings.getParentBlockMode()) {
+            case REDUCE:
+                if (blocks.isRewritten())
+                    reducer.reduceIntRuns(source, datasetName, blocks.getOriginalRuns(settings.getBatchSize()), renumbered);
+                else
+                    reducer.reduceIntDataset(source, datasetName, stream);
+                break;
+            case FILL:
+                reducer.reduceIntRuns(source, datasetName, getLeafRuns(buffer), renumbered);
+                fillParents(stream, reducedBlockSize, buffer);
+                break;
+            case RESTRICT:
+                // Restrict in the original tree, so the new leaves are restricted from the dropped levels. Only the
+                // subtrees of the remaining blocks are read and restricted, one batch of subtrees after another. The
+                // values of the roots of split subtrees are carried to the batches of the blocks above them
+                Map<Integer, Object> carry = new HashMap<>();
+                for (Subtrees subtrees : Subtrees.batches(blocks, settings.getBatchSize())) {
+                    int[] values = buffers.acquireInts(subtrees.size * reducedBlockSize);
+                    try {
+                        subtrees.takeCarried(carry, values, reducedBlockSize);
+                        reducer.reduceIntBlocks(source, datasetName, subtrees.leaves, (firstBlock, reduced) -> subtrees.copyReduced(reduced, firstBlock, values, reducedBlockSize));
+                        for (int parent : subtrees.parents) {
+                            reducer.restrictIntBlock(values, subtrees.slot(parent), subtrees.childSlots(parent));
+                        }
+                        subtrees.putCarries(values, carry, reducedBlockSize);
+                        for (int[] run : subtrees.remainingRuns(settings.getBatchSize())) {
+                            int[] remaining = buffers.acquireInts(run[1] * reducedBlockSize);
+                            try {
+                                subtrees.copyRemaining(values, run, remaining, reducedBlockSize);
+                                stream.accept(run[0], remaining);
+                            } finally {
+                                buffers.release(remaining);
+                            }
+                        }
+                    } finally {
+                        buffers.release(values);
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported parent block mode " + settings.getParentBlockMode());
+        }
+    }
+
+    /**
+     * Reduce a float dataset and pass the reduced blocks to the stream. Depending on the
+     * {@link ReductionSettings#getParentBlockMode()} every block is reduced or only the leaves are read and reduced. If
+     * blocks are removed or reordered, only the remaining blocks are passed to the stream using their new indices.
+     *
+     * @param reducer     The reducer of the first level
+     * @param source      The original file
+     * @param datasetName The name of the dataset to reduce
+     * @param stream      Receives the reduced blocks. Is not finished by this method
+     * @param buffer      The buffer of the reduced file
+     * @throws Exception Something went wrong while reading, reducing or writing
+     */
+    protected void reduceFloatDataset(StatisticalDatasetReducer reducer, Flash3Reader source, String datasetName, FloatDatasetStream stream, Buffer buffer) throws Exception {
+        BlockSelection blocks = buffer.blocks;
+        int reducedBlockSize = reducer.getReducedBlockSize();
+        // Every range is consecutive in the original and in the selected tree, so it is moved as a whole
+        StatisticalDatasetReducer.ReducedBlocksConsumer<float[]> renumbered = (firstBlock, reduced) -> stream.accept(blocks.getNewIndex(firstBlock), reduced);
+        switch (settings.getParentBlockMode()) {
+            case REDUCE:
+                if (blocks.isRewritten())
+                    reducer.reduceFloatRuns(source, datasetName, blocks.getOriginalRuns(settings.getBatchSize()), renumbered);
+                else
+                    reducer.reduceFloatDataset(source, datasetName, stream);
+                break;
+            case FILL:
+                reducer.reduceFloatRuns(source, datasetName, getLeafRuns(buffer), renumbered);
+                fillParents(stream, reducedBlockSize, buffer);
+                break;
+            case RESTRICT:
+                // Restrict in the original tree, so the new leaves are restricted from the dropped levels. Only the
+                // subtrees of the remaining blocks are read and restricted, one batch of subtrees after another. The
+                // values of the roots of split subtrees are carried to the batches of the blocks above them
+                Map<Integer, Object> carry = new HashMap<>();
+                for (Subtrees subtrees : Subtrees.batches(blocks, settings.getBatchSize())) {
+                    float[] values = buffers.acquireFloats(subtrees.size * reducedBlockSize);
+                    try {
+                        subtrees.takeCarried(carry, values, reducedBlockSize);
+                        reducer.reduceFloatBlocks(source, datasetName, subtrees.leaves, (firstBlock, reduced) -> subtrees.copyReduced(reduced, firstBlock, values, reducedBlockSize));
+                        for (int parent : subtrees.parents) {
+                            reducer.restrictFloatBlock(values, subtrees.slot(parent), subtrees.childSlots(parent));
+                        }
+                        subtrees.putCarries(values, carry, reducedBlockSize);
+                        for (int[] run : subtrees.remainingRuns(settings.getBatchSize())) {
+                            float[] remaining = buffers.acquireFloats(run[1] * reducedBlockSize);
+                            try {
+                                subtrees.copyRemaining(values, run, remaining, reducedBlockSize);
+                                stream.accept(run[0], remaining);
+                            } finally {
+                                buffers.release(remaining);
+                            }
+                        }
+                    } finally {
+                        buffers.release(values);
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported parent block mode " + settings.getParentBlockMode());
+        }
+    }
+
+    /**
+     * Restrict several float datasets together like the {@link ParentBlockMode#RESTRICT} requires, for datasets which
+     * depend on each other. The subtrees of the remaining blocks are restricted one batch after another and every
+     * range of leaves of a batch is reduced once for all datasets. Subtrees exceeding the batch size are split.
+     *
+     * @param streams          Receive the remaining blocks of every dataset. A <code>null</code> stream marks values,
+     *                         which are only needed to restrict the other datasets, like weights. The streams are not
+     *                         finished by this method
+     * @param weights          The index of the values passed as weights to the streams, see
+     *                         {@link FloatDatasetStream#accept(int, float[], float[])}. -1 if no weights are passed
+     * @param reducedBlockSize The amount of values of a reduced block
+     * @param buffer           The buffer of the reduced file
+     * @param restriction      Reduces the leaves and restricts the parents of all datasets
+     * @throws Exception Something went wrong while reading, reducing or writing
+     */
+    protected void restrictFloatDatasets(List<FloatDatasetStream> streams, int weights, int reducedBlockSize, Buffer buffer, FloatRestriction restriction) throws Exception {
+        int datasetCount = streams.size();
+        List<Map<Integer, Object>> carry = new ArrayList<>();
+        for (int dataset = 0; dataset < datasetCount; dataset++) {
+            carry.add(new HashMap<>());
+        }
+        for (Subtrees subtrees : Subtrees.batches(buffer.blocks, settings.getBatchSize())) {
+            float[][] values = new float[datasetCount][];
+            try {
+                for (int dataset = 0; dataset < datasetCount; dataset++) {
+                    values[dataset] = buffers.acquireFloats(subtrees.size * reducedBlockSize);
+                    subtrees.takeCarried(carry.get(dataset), values[dataset], reducedBlockSize);
+                }
+                for (int[] run : toRunList(subtrees.leaves, settings.getBatchSize())) {
+                    float[][] reduced = new float[datasetCount][];
+                    try {
+                        for (int dataset = 0; dataset < datasetCount; dataset++) {
+                            reduced[dataset] = buffers.acquireFloats(run[1] * reducedBlockSize);
+                        }
+                        restriction.reduceLeaves(run[0], run[1], reduced);
+                        for (int dataset = 0; dataset < datasetCount; dataset++) {
+                            subtrees.copyReduced(reduced[dataset], run[0], values[dataset], reducedBlockSize);
+                        }
+                    } finally {
+                        release(reduced);
+                    }
+                }
+                for (int parent : subtrees.parents) {
+                    restriction.restrictParent(values, subtrees.slot(parent), subtrees.childSlots(parent));
+                }
+                for (int dataset = 0; dataset < datasetCount; dataset++) {
+                    subtrees.putCarries(values[dataset], carry.get(dataset), reducedBlockSize);
+                }
+                for (int[] run : subtrees.remainingRuns(settings.getBatchSize())) {
+                    float[] remaining = buffers.acquireFloats(run[1] * reducedBlockSize);
+                    float[] remainingWeights = weights >= 0 ? buffers.acquireFloats(run[1] * reducedBlockSize) : null;
+                    try {
+                        if (remainingWeights != null)
+                            subtrees.copyRemaining(values[weights], run, remainingWeights, reducedBlockSize);
+                        for (int dataset = 0; dataset < datasetCount; dataset++) {
+                            if (streams.get(dataset) == null)
+                                continue;
+                            subtrees.copyRemaining(values[dataset], run, remaining, reducedBlockSize);
+                            streams.get(dataset).accept(run[0], remaining, remainingWeights);
+                        }
+                    } finally {
+                        buffers.release(remaining);
+                        if (remainingWeights != null)
+                            buffers.release(remainingWeights);
+                    }
+                }
+            } finally {
+                release(values);
+            }
+        }
+    }
 
-    protected void writeReducedIntDataset(List<int[]> ints, String datasetName, Flash3Reader source, Hdf5Writer writer, Buffer buffer) throws Exception {
+    private void release(float[][] arrays) {
+        for (float[] array : arrays) {
+            if (array != null)
+                buffers.release(array);
+        }
+    }
 
-        int[] flattenArray = buffer.flattenIntArray;
-        int min = Integer.MAX_VALUE;
-        int max = Integer.MIN_VALUE;
-        for (int i = 0; i < ints.size(); i++) {
-            int[] values = ints.get(i);
-            for (int value : values) {
-                min = Math.min(min, value);
-                max = Math.max(max, value);
+    /**
+     * @return The ranges of the remaining leaves in the original tree, see {@link BlockSelection#toOriginalRuns(int[], int)}
+     */
+    protected int[] getLeafRuns(Buffer buffer) {
+        return buffer.blocks.toOriginalRuns(blockIndices(buffer.blocks.getTree().getLeaves()), settings.getBatchSize());
+    }
+
+    /**
+     * Write zeros for all blocks with children, like the {@link ParentBlockMode#FILL} requires. The zeros are not part
+     * of the minimum and the maximum.
+     *
+     * @param stream           Receives the zeros of the parents. Is not finished by this method
+     * @param reducedBlockSize The amount of values of a reduced block
+     * @param buffer           The buffer of the reduced file
+     */
+    protected void fillParents(IntDatasetStream stream, int reducedBlockSize, Buffer buffer) throws Exception {
+        for (int[] run : parentRuns(buffer.blocks.getTree())) {
+            int[] fill = buffers.acquireInts(run[1] * reducedBlockSize);
+            try {
+                Arrays.fill(fill, 0);
+                // The filled parents are no values of the simulation and must not change the minimum and maximum
+                stream.acceptFill(run[0], fill);
+            } finally {
+                buffers.release(fill);
+            }
+        }
+    }
+
+    /**
+     * Write zeros for all blocks with children, like the {@link ParentBlockMode#FILL} requires. The zeros are not part
+     * of the minimum and the maximum.
+     *
+     * @param stream           Receives the zeros of the parents. Is not finished by this method
+     * @param reducedBlockSize The amount of values of a reduced block
+     * @param buffer           The buffer of the reduced file
+     */
+    protected void fillParents(FloatDatasetStream stream, int reducedBlockSize, Buffer buffer) throws Exception {
+        for (int[] run : parentRuns(buffer.blocks.getTree())) {
+            float[] fill = buffers.acquireFloats(run[1] * reducedBlockSize);
+            try {
+                Arrays.fill(fill, 0F);
+                // The filled parents are no values of the simulation and must not change the minimum and maximum
+                stream.acceptFill(run[0], fill);
+            } finally {
+                buffers.release(fill);
             }
-            System.arraycopy(values, 0, flattenArray, i * values.length, values.length);
         }
+    }
 
-        Attribute maxAttribute = new Attribute("maximum", Flash3DataTypes.INT.getDatatype(), new long[]{1L});
-        maxAttribute.setValue(new int[]{max});
-        Attribute minAttribute = new Attribute("minimum", Flash3DataTypes.INT.getDatatype(), new long[]{1L});
-        minAttribute.setValue(new int[]{max});
+    /**
+     * @return The indices of the blocks, which are the (block id - 1), in the order of the list
+     */
+    private int[] blockIndices(List<Block> blocks) {
+        int[] indices = new int[blocks.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = blocks.get(i).getId() - 1;
+        }
+        return indices;
+    }
 
-        Point3D dimension = getDimension(source.getMetaData());
-        int xDim = (int) (dimension.getX() / 2);
-        int yDim = (int) (dimension.getY() / 2);
-        int zDim = (int) (dimension.getZ() / 2);
+    /**
+     * @return The ranges of consecutive blocks with children, at most the batch size blocks. Every range is the first
+     * block index and the amount of blocks
+     */
+    private List<int[]> parentRuns(BlockTree tree) {
+        int[] parents = new int[tree.size()];
+        int count = 0;
+        for (int id = 1; id <= tree.size(); id++) {
+            if (!tree.isLeaf(id))
+                parents[count++] = id - 1;
+        }
+        return toRunList(Arrays.copyOf(parents, count), settings.getBatchSize());
+    }
 
-        writer.writeIntDataset(datasetName, flattenArray, Arrays.asList(maxAttribute, minAttribute), ints.size(), xDim, yDim, zDim);
+    /**
+     * @return The ranges of {@link StatisticalDatasetReducer#toRuns(int[], int)}, every range is the first block index
+     * and the amount of blocks
+     */
+    private static List<int[]> toRunList(int[] blockIndices, int maxLength) {
+        int[] runs = StatisticalDatasetReducer.toRuns(blockIndices, maxLength);
+        List<int[]> result = new ArrayList<>(runs.length / 2);
+        for (int i = 0; i < runs.length; i += 2) {
+            result.add(new int[]{runs[i], runs[i + 1]});
+        }
+        return result;
     }
 
-    protected void writeReducedFloatDataset(List<float[]> floats, String datasetName, Flash3Reader source, Hdf5Writer writer, Buffer buffer) throws Exception {
+    /**
+     * Reduces the leaves and restricts the parents of several float datasets, see
+     * {@link #restrictFloatDatasets(List, int, int, Buffer, FloatRestriction)}.
+     */
+    protected interface FloatRestriction {
 
-        float[] flattenArray = buffer.flattenFloatArray;
-        float min = Float.MAX_VALUE;
-        float max = Float.MIN_VALUE;
-        for (int i = 0; i < floats.size(); i++) {
-            float[] values = floats.get(i);
-            for (float value : values) {
-                min = Math.min(min, value);
-                max = Math.max(max, value);
+        /**
+         * @param firstBlock The original index of the first leaf, which is the (block id - 1)
+         * @param count      The amount of consecutive leaves
+         * @param reduced    Receive the reduced values of the leaves, one array per dataset
+         * @throws Exception Something went wrong while reading or reducing
+         */
+        void reduceLeaves(int firstBlock, int count, float[][] reduced) throws Exception;
+
+        /**
+         * @param values     The reduced values of the batch, one array per dataset. The values of the parent are
+         *                   overwritten
+         * @param parentSlot The slot of the parent in the values
+         * @param childSlots The slots of the children in the order of FLASH3
+         */
+        void restrictParent(float[][] values, int parentSlot, int[] childSlots);
+    }
+
+    /**
+     * A batch of subtrees of the original tree, which are rooted at remaining roots. A subtree contains the remaining
+     * blocks and all their descendants, which are needed to restrict the remaining blocks. Every block of the batch
+     * has a slot in a compact array of values.
+     * <p>
+     * A subtree with more blocks than the batch size is split: the largest subtrees below it, which fit into a batch,
+     * are restricted like the subtrees of the remaining roots and the values of their roots are carried to the batches
+     * of the blocks above them. These blocks are restricted from the finest to the coarsest level, a batch of parents
+     * and their carried children after another.
+     */
+    private static class Subtrees {
+        private final BlockSelection blocks;
+        private final BlockTree original;
+        /**
+         * The ascending original indices of all blocks of the batch. The position of a block is its slot
+         */
+        private final int[] indices;
+        /**
+         * The ascending original indices of the leaves
+         */
+        private final int[] leaves;
+        /**
+         * The original indices of the blocks, which were restricted by an earlier batch and are taken from the carry
+         */
+        private final int[] carried;
+        /**
+         * The original indices of the blocks, which are needed by a later batch and are put into the carry
+         */
+        private final int[] carries;
+        /**
+         * The original indices of the blocks with children ordered from the finest to the coarsest level, so every
+         * child is restricted before its parent
+         */
+        private final int[] parents;
+        /**
+         * The ascending new indices of the remaining blocks
+         */
+        private final int[] remaining;
+        private final int size;
+
+        private Subtrees(BlockSelection blocks, Collection<Integer> members, Set<Integer> carried, List<Integer> carries) {
+            this.blocks = blocks;
+            this.original = blocks.getOriginal();
+
+            this.indices = members.stream().mapToInt(Integer::intValue).distinct().sorted().toArray();
+            int[] leaves = new int[indices.length];
+            int[] remaining = new int[indices.length];
+            List<Integer> parents = new ArrayList<>();
+            int leafCount = 0;
+            int remainingCount = 0;
+            for (int index : indices) {
+                // A carried block was restricted and written by its own batch
+                if (carried.contains(index))
+                    continue;
+                if (original.isLeaf(index + 1))
+                    leaves[leafCount++] = index;
+                else
+                    parents.add(index);
+                if (blocks.getNewIndex(index) >= 0)
+                    remaining[remainingCount++] = blocks.getNewIndex(index);
+            }
+            parents.sort(Comparator.comparingInt((Integer index) -> original.get(index + 1).getRefineLevel()).reversed());
+
+            this.leaves = Arrays.copyOf(leaves, leafCount);
+            this.carried = carried.stream().mapToInt(Integer::intValue).sorted().toArray();
+            this.carries = carries.stream().mapToInt(Integer::intValue).toArray();
+            this.parents = parents.stream().mapToInt(Integer::intValue).toArray();
+            this.remaining = Arrays.copyOf(remaining, remainingCount);
+            Arrays.sort(this.remaining);
+            this.size = indices.length;
+        }
+
+        /**
+         * Split the subtrees of the remaining roots into batches. A batch is closed before it would exceed the batch
+         * size. A subtree, which exceeds the batch size on its own, is split into the largest subtrees below it, which
+         * fit into a batch, and batches of the blocks above them. The batches must be restricted in the returned order,
+         * because the later batches take the values of the carried blocks of the earlier ones.
+         *
+         * @param blocks    The remaining blocks
+         * @param batchSize The maximum amount of blocks of a batch. A batch of parents has at least one parent and its
+         *                  children
+         * @return The batches
+         */
+        private static List<Subtrees> batches(BlockSelection blocks, int batchSize) {
+            BlockTree original = blocks.getOriginal();
+            int[] sizes = subtreeSizes(original);
+
+            List<Subtrees> batches = new ArrayList<>();
+            List<Integer> members = new ArrayList<>();
+            List<Integer> carries = new ArrayList<>();
+            // The blocks of the oversized subtrees above the split
+            List<Integer> upper = new ArrayList<>();
+            Deque<Integer> stack = new ArrayDeque<>();
+            for (int root : blocks.getKeptIndices()) {
+                Block parent = original.getParentOf(root + 1);
+                if (parent != null && blocks.getNewIndex(parent.getId() - 1) >= 0)
+                    continue;
+                stack.push(root);
+                while (!stack.isEmpty()) {
+                    int index = stack.pop();
+                    if (sizes[index] > batchSize) {
+                        upper.add(index);
+                        for (Block child : original.getChildrenOf(index + 1)) {
+                            stack.push(child.getId() - 1);
+                        }
+                        continue;
+                    }
+                    if (!members.isEmpty() && members.size() + sizes[index] > batchSize) {
+                        batches.add(new Subtrees(blocks, members, Collections.emptySet(), carries));
+                        members = new ArrayList<>();
+                        carries = new ArrayList<>();
+                    }
+                    addSubtree(original, index, members);
+                    if (index != root)
+                        carries.add(index);
+                }
+            }
+            if (!members.isEmpty())
+                batches.add(new Subtrees(blocks, members, Collections.emptySet(), carries));
+            if (upper.isEmpty())
+                return batches;
+
+            Core.logger.debug(upper.size() + " blocks have subtrees exceeding the batch size of " + batchSize + " blocks and are restricted from carried children");
+            Set<Integer> split = new HashSet<>(upper);
+            upper.sort(Comparator.comparingInt((Integer index) -> original.get(index + 1).getRefineLevel()).reversed());
+            Set<Integer> parents = new HashSet<>();
+            members = new ArrayList<>();
+            carries = new ArrayList<>();
+            for (int index : upper) {
+                List<Block> children = original.getChildrenOf(index + 1);
+                if (!parents.isEmpty() && members.size() + 1 + children.size() > batchSize) {
+                    batches.add(upperBatch(blocks, members, parents, carries));
+                    parents = new HashSet<>();
+                    members = new ArrayList<>();
+                    carries = new ArrayList<>();
+                }
+                parents.add(index);
+                members.add(index);
+                for (Block child : children) {
+                    members.add(child.getId() - 1);
+                }
+                Block parent = original.getParentOf(index + 1);
+                if (parent != null && split.contains(parent.getId() - 1))
+                    carries.add(index);
+            }
+            batches.add(upperBatch(blocks, members, parents, carries));
+            return batches;
+        }
+
+        /**
+         * @param members The parents and their children
+         * @param parents The parents, which are restricted by the batch
+         * @param carries The parents, which are needed by a later batch
+         * @return A batch of parents, which restricts the parents from their children. Every child is a parent of the
+         * same batch or carried from an earlier batch
+         */
+        private static Subtrees upperBatch(BlockSelection blocks, List<Integer> members, Set<Integer> parents, List<Integer> carries) {
+            Set<Integer> carried = new HashSet<>(members);
+            carried.removeAll(parents);
+            // A parent of the same batch is restricted before its parent and is not carried
+            carries.removeIf(index -> parents.contains(blocks.getOriginal().getParentOf(index + 1).getId() - 1));
+            return new Subtrees(blocks, members, carried, carries);
+        }
+
+        /**
+         * Add a block and all its descendants to the members.
+         */
+        private static void addSubtree(BlockTree original, int root, List<Integer> members) {
+            Deque<Integer> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                int index = stack.pop();
+                members.add(index);
+                for (Block child : original.getChildrenOf(index + 1)) {
+                    stack.push(child.getId() - 1);
+                }
+            }
+        }
+
+        /**
+         * @return The amount of blocks of the subtree of every original block index including the block itself
+         */
+        private static int[] subtreeSizes(BlockTree original) {
+            int[] sizes = new int[original.size()];
+            Arrays.fill(sizes, 1);
+            // Every child is finer than its parent, so its size is complete, before it is added to its parent
+            List<Block> finestFirst = new ArrayList<>(original.getAll());
+            finestFirst.sort(Comparator.comparingInt(Block::getRefineLevel).reversed());
+            for (Block block : finestFirst) {
+                Block parent = original.getParentOf(block.getId());
+                if (parent != null)
+                    sizes[parent.getId() - 1] += sizes[block.getId() - 1];
+            }
+            return sizes;
+        }
+
+        /**
+         * @param index The original index of a block of the batch
+         * @return The slot of the block
+         */
+        private int slot(int index) {
+            return Arrays.binarySearch(indices, index);
+        }
+
+        /**
+         * @param parent The original index of a block with children
+         * @return The slots of the children in the order of the tree
+         */
+        private int[] childSlots(int parent) {
+            List<Block> children = original.getChildrenOf(parent + 1);
+            int[] childSlots = new int[children.size()];
+            for (int i = 0; i < childSlots.length; i++) {
+                childSlots[i] = slot(children.get(i).getId() - 1);
+            }
+            return childSlots;
+        }
+
+        /**
+         * @param maxLength The maximum length of a range
+         * @return The ranges of consecutive new indices of the remaining blocks. Every range is the first new block
+         * index and the amount of blocks
+         */
+        private List<int[]> remainingRuns(int maxLength) {
+            return toRunList(remaining, maxLength);
+        }
+
+        /**
+         * Copy the reduced values of consecutive original blocks into their slots.
+         *
+         * @param reduced          The int[] or float[] reduced values
+         * @param firstBlock       The original index of the first block
+         * @param values           The values of all slots of the same type
+         * @param reducedBlockSize The amount of values of a reduced block
+         */
+        private void copyReduced(Object reduced, int firstBlock, Object values, int reducedBlockSize) {
+            for (int i = 0; i < Array.getLength(reduced) / reducedBlockSize; i++) {
+                System.arraycopy(reduced, i * reducedBlockSize, values, slot(firstBlock + i) * reducedBlockSize, reducedBlockSize);
+            }
+        }
+
+        /**
+         * Move the values of the carried blocks out of the carry into their slots.
+         *
+         * @param carry            The values of the carried blocks of the same type by their original index
+         * @param values           The int[] or float[] values of all slots
+         * @param reducedBlockSize The amount of values of a reduced block
+         */
+        private void takeCarried(Map<Integer, Object> carry, Object values, int reducedBlockSize) {
+            for (int index : carried) {
+                System.arraycopy(carry.remove(index), 0, values, slot(index) * reducedBlockSize, reducedBlockSize);
+            }
+        }
+
+        /**
+         * Copy the values of the blocks needed by a later batch out of their slots into the carry.
+         *
+         * @param values           The int[] or float[] restricted values of all slots
+         * @param carry            Receives the values by the original index of the block
+         * @param reducedBlockSize The amount of values of a reduced block
+         */
+        private void putCarries(Object values, Map<Integer, Object> carry, int reducedBlockSize) {
+            for (int index : carries) {
+                Object block = Array.newInstance(values.getClass().getComponentType(), reducedBlockSize);
+                System.arraycopy(values, slot(index) * reducedBlockSize, block, 0, reducedBlockSize);
+                carry.put(index, block);
             }
-            System.arraycopy(values, 0, flattenArray, i * values.length, values.length);
         }
 
-        Attribute maxAttribute = new Attribute("maximum", Flash3DataTypes.FLOAT.getDatatype(), new long[]{1L});
-        maxAttribute.setValue(new float[]{max});
-        Attribute minAttribute = new Attribute("minimum", Flash3DataTypes.FLOAT.getDatatype(), new long[]{1L});
-        minAttribute.setValue(new float[]{min});
+        /**
+         * Copy the values of a range of remaining blocks out of their slots.
+         *
+         * @param values           The int[] or float[] values of all slots
+         * @param run              The first new block index and the amount of blocks
+         * @param remaining        Receives the values of the range, the same type as the values
+         * @param reducedBlockSize The amount of values of a reduced block
+         */
+        private void copyRemaining(Object values, int[] run, Object remaining, int reducedBlockSize) {
+            for (int i = 0; i < run[1]; i++) {
+                System.arraycopy(values, slot(blocks.getOriginalIndex(run[0] + i)) * reducedBlockSize, remaining, i * reducedBlockSize, reducedBlockSize);
+            }
+        }
+    }
+
+    /**
+     * Write the reduced values of an int dataset and every further level of the pyramid, which is reduced from the
+     * previous level.
+     *
+     * @param ints The flat reduced values of all blocks ordered by the block id
+     */
+    protected void writeReducedIntDataset(int[] ints, String datasetName, Flash3Reader source, Hdf5Writer writer, Buffer buffer) throws Exception {
+        IntDatasetStream stream = createReducedIntDataset(datasetName, source, writer, buffer);
+        stream.accept(0, ints);
+        stream.finish();
+    }
+
+    /**
+     * Create the reduced int dataset and the dataset of every further level of the pyramid. The reduced blocks passed
+     * to the stream are written immediately, so the reduced dataset must never exist at once.
+     *
+     * @return The stream to write the reduced blocks. Must be finished after all blocks were written
+     */
+    protected IntDatasetStream createReducedIntDataset(String datasetName, Flash3Reader source, Hdf5Writer writer, Buffer buffer) throws Exception {
+        int blockCount = buffer.blocks.size();
+
+        // Begin with the coarsest level, because every level passes its blocks to the next level
+        IntDatasetStream next = null;
+        StatisticalDatasetReducer nextReducer = null;
+        for (int i = buffer.pyramidLevels.size() - 1; i >= 0; i--) {
+            PyramidLevel level = buffer.pyramidLevels.get(i);
+            H5ScalarDS dataset = level.writer.createIntDataset(datasetName, datasetDimension(blockCount, level.dimension));
+            next = new IntDatasetStream(level.writer, dataset, nextReducer, next, buffers);
+            nextReducer = level.reducer;
+        }
+
+        H5ScalarDS dataset = writer.createIntDataset(datasetName, datasetDimension(blockCount, getReducedDimension(source.getMetaData())));
+        return new IntDatasetStream(writer, dataset, nextReducer, next, buffers);
+    }
+
+    /**
+     * Write the reduced values of a float dataset and every further level of the pyramid, which is reduced from the
+     * previous level.
+     *
+     * @param floats The flat reduced values of all blocks ordered by the block id
+     */
+    protected void writeReducedFloatDataset(float[] floats, String datasetName, Flash3Reader source, Hdf5Writer writer, Buffer buffer) throws Exception {
+        FloatDatasetStream stream = createReducedFloatDataset(datasetName, source, writer, buffer);
+        stream.accept(0, floats);
+        stream.finish();
+    }
+
+    /**
+     * Create the reduced float dataset and the dataset of every further level of the pyramid. The reduced blocks
+     * passed to the stream are written immediately, so the reduced dataset must never exist at once.
+     *
+     * @return The stream to write the reduced blocks. Must be finished after all blocks were written
+     */
+    protected FloatDatasetStream createReducedFloatDataset(String datasetName, Flash3Reader source, Hdf5Writer writer, Buffer buffer) throws Exception {
+        return createReducedFloatDataset(datasetName, source, writer, buffer, false);
+    }
+
+    /**
+     * Create the reduced float dataset of a dataset reduced by a weighted mean, like the density weighted mean, and
+     * the dataset of every further level of the pyramid. The further levels are reduced by the mean weighted with the
+     * weights passed to {@link FloatDatasetStream#accept(int, float[], float[])} instead of the strategy, so every
+     * level is the weighted mean of the original cells.
+     *
+     * @return The stream to write the reduced blocks. Must be finished after all blocks were written
+     */
+    protected FloatDatasetStream createWeightedFloatDataset(String datasetName, Flash3Reader source, Hdf5Writer writer, Buffer buffer) throws Exception {
+        return createReducedFloatDataset(datasetName, source, writer, buffer, true);
+    }
+
+    private FloatDatasetStream createReducedFloatDataset(String datasetName, Flash3Reader source, Hdf5Writer writer, Buffer buffer, boolean weighted) throws Exception {
+        int blockCount = buffer.blocks.size();
 
-        Point3D dimension = getDimension(source.getMetaData());
-        int xDim = (int) (dimension.getX() / 2);
-        int yDim = (int) (dimension.getY() / 2);
-        int zDim = (int) (dimension.getZ() / 2);
+        // Begin with the coarsest level, because every level passes its blocks to the next level
+        FloatDatasetStream next = null;
+        StatisticalDatasetReducer nextReducer = null;
+        for (int i = buffer.pyramidLevels.size() - 1; i >= 0; i--) {
+            PyramidLevel level = buffer.pyramidLevels.get(i);
+            H5ScalarDS dataset = level.writer.createFloatDataset(datasetName, datasetDimension(blockCount, level.dimension));
+            next = new FloatDatasetStream(level.writer, dataset, nextReducer, next, weighted, buffers);
+            nextReducer = level.reducer;
+        }
+
+        H5ScalarDS dataset = writer.createFloatDataset(datasetName, datasetDimension(blockCount, getReducedDimension(source.getMetaData())));
+        return new FloatDatasetStream(writer, dataset, nextReducer, next, weighted, buffers);
+    }
 
-        writer.writeFloatDataset(datasetName, flattenArray, Arrays.asList(maxAttribute, minAttribute), floats.size(), xDim, yDim, zDim);
+    private long[] datasetDimension(int blockCount, Point3D dimension) {
+        // FLASH3 stores the cells of a block in z, y, x order
+        return new long[]{blockCount, (long) dimension.getZ(), (long) dimension.getY(), (long) dimension.getX()};
     }
 
     protected class Buffer {
-        float[] flattenFloatArray;
-        int[] flattenIntArray;
 
-        public Buffer(Flash3MetaData metaData, int xDim, int yDim, int zDim) {
-            flattenFloatArray = new float[metaData.getIntegerSclar(GLOBALNUMBLOCKS) * xDim * yDim * zDim];
-            flattenIntArray = new int[metaData.getIntegerSclar(GLOBALNUMBLOCKS) * xDim * yDim * zDim];
+        /**
+         * The further levels of the pyramid. Empty, if only one level is created
+         */
+        final List<PyramidLevel> pyramidLevels = new ArrayList<>();
+        /**
+         * The blocks written to the reduced files
+         */
+        final BlockSelection blocks;
+
+        Buffer(BlockSelection blocks) {
+            this.blocks = blocks;
+        }
+
+        /**
+         * @return The blocks written to the reduced files. Without dropped levels these are all blocks of the original
+         */
+        public BlockSelection getBlocks() {
+            return blocks;
+        }
+    }
+
+    /**
+     * Writes the reduced blocks of an int dataset batch by batch and passes them reduced again to the next level of
+     * the pyramid. The minimum and the maximum are written as attributes when the stream is finished.
+     * <p>
+     * Batches can be written by multiple threads at once.
+     */
+    protected static class IntDatasetStream implements StatisticalDatasetReducer.ReducedBlocksConsumer<int[]> {
+        private final Hdf5Writer writer;
+        private final H5ScalarDS dataset;
+        private final StatisticalDatasetReducer nextReducer;
+        private final IntDatasetStream next;
+        private final BufferManager buffers;
+
+        private int min = Integer.MAX_VALUE;
+        private int max = Integer.MIN_VALUE;
+
+        private IntDatasetStream(Hdf5Writer writer, H5ScalarDS dataset, StatisticalDatasetReducer nextReducer, IntDatasetStream next, BufferManager buffers) {
+            this.writer = writer;
+            this.dataset = dataset;
+            this.nextReducer = nextReducer;
+            this.next = next;
+            this.buffers = buffers;
+        }
+
+        @Override
+        public void accept(int firstBlock, int[] values) throws Exception {
+            write(firstBlock, values, true);
+        }
+
+        /**
+         * Write blocks, which are not part of the minimum and the maximum of this and every further level, like the
+         * filled parents
+         */
+        public void acceptFill(int firstBlock, int[] values) throws Exception {
+            write(firstBlock, values, false);
+        }
+
+        private void write(int firstBlock, int[] values, boolean statistics) throws Exception {
+            int batchMin = Integer.MAX_VALUE;
+            int batchMax = Integer.MIN_VALUE;
+            for (int value : values) {
+                batchMin = Math.min(batchMin, value);
+                batchMax = Math.max(batchMax, value);
+            }
+
+            synchronized (this) {
+                writer.writeIntSlab(dataset, firstBlock, values);
+                if (statistics) {
+                    min = Math.min(min, batchMin);
+                    max = Math.max(max, batchMax);
+                }
+            }
+
+            if (next == null)
+                return;
+
+            int blockCount = values.length / nextReducer.getBlockSize();
+            int[] reduced = buffers.acquireInts(blockCount * nextReducer.getReducedBlockSize());
+            try {
+                nextReducer.reduceIntValues(values, reduced);
+                next.write(firstBlock, reduced, statistics);
+            } finally {
+                buffers.release(reduced);
+            }
+        }
+
+        /**
+         * Write the minimum and the maximum of this and every further level
+         */
+        public synchronized void finish() throws Exception {
+            Attribute maxAttribute = new Attribute("maximum", Flash3DataTypes.INT.getDatatype(), new long[]{1L});
+            maxAttribute.setValue(new int[]{max});
+            Attribute minAttribute = new Attribute("minimum", Flash3DataTypes.INT.getDatatype(), new long[]{1L});
+            minAttribute.setValue(new int[]{min});
+            writer.writeAttributes(dataset, Arrays.asList(maxAttribute, minAttribute));
+
+            if (next != null)
+                next.finish();
+        }
+    }
+
+    /**
+     * Writes the reduced blocks of a float dataset batch by batch and passes them reduced again to the next level of
+     * the pyramid. The minimum and the maximum are written as attributes when the stream is finished.
+     * <p>
+     * Batches can be written by multiple threads at once.
+     */
+    protected static class FloatDatasetStream implements StatisticalDatasetReducer.ReducedBlocksConsumer<float[]> {
+        private final Hdf5Writer writer;
+        private final H5ScalarDS dataset;
+        private final StatisticalDatasetReducer nextReducer;
+        private final FloatDatasetStream next;
+        private final boolean weighted;
+        private final BufferManager buffers;
+
+        private float min = Float.MAX_VALUE;
+        private float max = -Float.MAX_VALUE;
+
+        private FloatDatasetStream(Hdf5Writer writer, H5ScalarDS dataset, StatisticalDatasetReducer nextReducer, FloatDatasetStream next, boolean weighted, BufferManager buffers) {
+            this.writer = writer;
+            this.dataset = dataset;
+            this.nextReducer = nextReducer;
+            this.next = next;
+            this.weighted = weighted;
+            this.buffers = buffers;
+        }
+
+        @Override
+        public void accept(int firstBlock, float[] values) throws Exception {
+            write(firstBlock, values, null, true);
+        }
+
+        /**
+         * Write the blocks of a weighted dataset. If the stream was created by
+         * {@link AbstractReductionProcess#createWeightedFloatDataset(String, Flash3Reader, Hdf5Writer, Buffer)}, every
+         * further level is reduced by the mean weighted with the weights. Otherwise the weights are ignored.
+         *
+         * @param weights The weights of the values in the same order, like the mean density of the reduced cells. Only
+         *                valid while writing them
+         */
+        public void accept(int firstBlock, float[] values, float[] weights) throws Exception {
+            write(firstBlock, values, weighted ? weights : null, true);
+        }
+
+        /**
+         * Write blocks, which are not part of the minimum and the maximum of this and every further level, like the
+         * filled parents
+         */
+        public void acceptFill(int firstBlock, float[] values) throws Exception {
+            write(firstBlock, values, null, false);
+        }
+
+        private void write(int firstBlock, float[] values, float[] weights, boolean statistics) throws Exception {
+            float batchMin = Float.MAX_VALUE;
+            float batchMax = -Float.MAX_VALUE;
+            for (float value : values) {
+                batchMin = Math.min(batchMin, value);
+                batchMax = Math.max(batchMax, value);
+            }
+
+            synchronized (this) {
+                writer.writeFloatSlab(dataset, firstBlock, values);
+                if (statistics) {
+                    min = Math.min(min, batchMin);
+                    max = Math.max(max, batchMax);
+                }
+            }
+
+            if (next == null)
+                return;
+
+            int blockCount = values.length / nextReducer.getBlockSize();
+            float[] reduced = buffers.acquireFloats(blockCount * nextReducer.getReducedBlockSize());
+            // The mean of the weights weights the level after the next one
+            float[] reducedWeights = weights != null && next.next != null ? buffers.acquireFloats(reduced.length) : null;
+            try {
+                if (weights != null)
+                    nextReducer.reduceWeightedFloatValues(values, weights, reduced, reducedWeights);
+                else
+                    nextReducer.reduceFloatValues(values, reduced);
+                next.write(firstBlock, reduced, reducedWeights, statistics);
+            } finally {
+                buffers.release(reduced);
+                if (reducedWeights != null)
+                    buffers.release(reducedWeights);
+            }
+        }
+
+        /**
+         * Write the minimum and the maximum of this and every further level
+         */
+        public synchronized void finish() throws Exception {
+            Attribute maxAttribute = new Attribute("maximum", Flash3DataTypes.FLOAT.getDatatype(), new long[]{1L});
+            maxAttribute.setValue(new float[]{max});
+            Attribute minAttribute = new Attribute("minimum", Flash3DataTypes.FLOAT.getDatatype(), new long[]{1L});
+            minAttribute.setValue(new float[]{min});
+            writer.writeAttributes(dataset, Arrays.asList(maxAttribute, minAttribute));
+
+            if (next != null)
+                next.finish();
+        }
+    }
+
+    /**
+     * A further level of the pyramid written to its own file. The values of a level are reduced from the values of the
+     * previous level.
+     */
+    private static class PyramidLevel {
+        private final Hdf5Writer writer;
+        private final StatisticalDatasetReducer reducer;
+        private final Point3D dimension;
+
+        private PyramidLevel(Hdf5Writer writer, StatisticalDatasetReducer reducer, Point3D dimension) {
+            this.writer = writer;
+            this.reducer = reducer;
+            this.dimension = dimension;
         }
     }
 }
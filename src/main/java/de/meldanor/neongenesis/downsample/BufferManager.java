@@ -0,0 +1,163 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.downsample;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Manages the flat arrays holding the reduced values of consecutive blocks. An array is allocated for its datatype and
+ * length on the first use and reused after it was released, so reducing files with the same geometry does not allocate
+ * new arrays.
+ * <p>
+ * The released arrays are retained up to a maximum amount of bytes. If a released array does not fit anymore, all
+ * retained arrays are dropped, so the arrays of files with another geometry do not stay in memory.
+ * <p>
+ * The content of an acquired array is undefined - it must be overwritten completely.
+ * <p>
+ * This class is thread-safe!
+ */
+public class BufferManager {
+
+    /**
+     * The default maximum amount of bytes of the retained arrays
+     */
+    public static final long DEFAULT_MAX_RETAINED_BYTES = 64L * 1024L * 1024L;
+
+    private final Map<Integer, Queue<float[]>> floatBuffers = new ConcurrentHashMap<>();
+    private final Map<Integer, Queue<int[]>> intBuffers = new ConcurrentHashMap<>();
+
+    private final long maxRetainedBytes;
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    public BufferManager() {
+        this(DEFAULT_MAX_RETAINED_BYTES);
+    }
+
+    /**
+     * @param maxRetainedBytes The maximum amount of bytes of the released arrays kept for reuse. 0 disables the reuse
+     */
+    public BufferManager(long maxRetainedBytes) {
+        if (maxRetainedBytes < 0)
+            throw new IllegalArgumentException("The maximum retained bytes must not be negative, but was " + maxRetainedBytes);
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /**
+     * @param length The length of the array
+     * @return A released array of the length or a new one, if no array is available
+     */
+    public float[] acquireFloats(int length) {
+        Queue<float[]> queue = floatBuffers.get(length);
+        float[] buffer = queue == null ? null : queue.poll();
+        if (buffer == null)
+            return new float[length];
+        retainedBytes.addAndGet(-(long) length * Float.BYTES);
+        return buffer;
+    }
+
+    /**
+     * Release an array, so it can be acquired again. The array must not be used afterwards.
+     *
+     * @param buffer The array acquired by {@link #acquireFloats(int)}
+     */
+    public void release(float[] buffer) {
+        if (retain((long) buffer.length * Float.BYTES))
+            floatBuffers.computeIfAbsent(buffer.length, key -> new ConcurrentLinkedQueue<>()).offer(buffer);
+    }
+
+    /**
+     * @param length The length of the array
+     * @return A released array of the length or a new one, if no array is available
+     */
+    public int[] acquireInts(int length) {
+        Queue<int[]> queue = intBuffers.get(length);
+        int[] buffer = queue == null ? null : queue.poll();
+        if (buffer == null)
+            return new int[length];
+        retainedBytes.addAndGet(-(long) length * Integer.BYTES);
+        return buffer;
+    }
+
+    /**
+     * Release an array, so it can be acquired again. The array must not be used afterwards.
+     *
+     * @param buffer The array acquired by {@link #acquireInts(int)}
+     */
+    public void release(int[] buffer) {
+        if (retain((long) buffer.length * Integer.BYTES))
+            intBuffers.computeIfAbsent(buffer.length, key -> new ConcurrentLinkedQueue<>()).offer(buffer);
+    }
+
+    /**
+     * Reserve the bytes of a released array. If they exceed the maximum, all retained arrays are dropped first.
+     *
+     * @return True, if the array can be retained
+     */
+    private boolean retain(long bytes) {
+        if (bytes > maxRetainedBytes)
+            return false;
+        if (retainedBytes.addAndGet(bytes) <= maxRetainedBytes)
+            return true;
+
+        // The retained arrays are probably of another geometry
+        retainedBytes.addAndGet(-bytes);
+        clear();
+        if (retainedBytes.addAndGet(bytes) <= maxRetainedBytes)
+            return true;
+
+        // Other threads have filled the pool again in the meantime
+        retainedBytes.addAndGet(-bytes);
+        return false;
+    }
+
+    /**
+     * Drop all retained arrays
+     */
+    public void clear() {
+        for (Queue<float[]> queue : floatBuffers.values()) {
+            float[] buffer;
+            while ((buffer = queue.poll()) != null) {
+                retainedBytes.addAndGet(-(long) buffer.length * Float.BYTES);
+            }
+        }
+        for (Queue<int[]> queue : intBuffers.values()) {
+            int[] buffer;
+            while ((buffer = queue.poll()) != null) {
+                retainedBytes.addAndGet(-(long) buffer.length * Integer.BYTES);
+            }
+        }
+    }
+
+    /**
+     * @return The amount of bytes of the retained arrays
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+}
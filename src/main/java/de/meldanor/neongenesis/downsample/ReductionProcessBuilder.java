@@ -24,12 +24,17 @@
 
 package de.meldanor.neongenesis.downsample;
 
+import de.meldanor.neongenesis.hdf5.BlockOrder;
+import de.meldanor.neongenesis.hdf5.Hdf5Compression;
 import de.meldanor.neongenesis.physicalReduce.PhysicalReducerType;
 import de.meldanor.neongenesis.physicalReduce.PhysicalReductionProcess;
+import de.meldanor.neongenesis.statisticalReduce.StatisticalDatasetReducer;
 import de.meldanor.neongenesis.statisticalReduce.StatisticalReducerFactory;
 import de.meldanor.neongenesis.statisticalReduce.StatisticalReductionProcess;
+import javafx.geometry.Point3D;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -45,6 +50,21 @@ public class ReductionProcessBuilder {
 
     private File targetDirectory;
 
+    private boolean parallelBlocks;
+    private int pipelineDepth;
+    private int batchSize = StatisticalDatasetReducer.DEFAULT_BATCH_SIZE;
+    private Point3D reductionFactors = StatisticalDatasetReducer.DEFAULT_FACTORS;
+    private int pyramidLevels = 1;
+    private Hdf5Compression compression = Hdf5Compression.NONE;
+    private boolean javaReader;
+    private long cacheSize;
+    private ParentBlockMode parentBlockMode = ParentBlockMode.REDUCE;
+    private int droppedLevels;
+    private Point3D regionLower;
+    private Point3D regionUpper;
+    private BlockOrder blockOrder = BlockOrder.ORIGINAL;
+    private List<String> densityWeightedDatasets = PhysicalReductionProcess.DEFAULT_DENSITY_WEIGHTED;
+
     private ReductionProcessBuilder() {
         this.strategy = StatisticalReducerFactory.StatisticalReducerType.MEDIAN;
     }
@@ -72,6 +92,186 @@ public class ReductionProcessBuilder {
         return this;
     }
 
+    /**
+     * Reduce the blocks of a single dataset using all available cores. The result is equal to the sequential reduction.
+     *
+     * @param parallelBlocks true to enable the parallel reduction of blocks
+     * @return This instance
+     */
+    public ReductionProcessBuilder parallelBlocks(boolean parallelBlocks) {
+        this.parallelBlocks = parallelBlocks;
+        return this;
+    }
+
+    /**
+     * Read the next batch of blocks while the current one is reduced and the previous one is written. The depth is
+     * the maximum amount of batches waiting between two stages and limits the used memory together with the batch
+     * size. The {@link ParentBlockMode#RESTRICT} and the physical reducers do not use the pipeline.
+     *
+     * @param pipelineDepth The depth of the pipeline. 0 disables the pipeline
+     * @return This instance
+     */
+    public ReductionProcessBuilder pipelineDepth(int pipelineDepth) {
+        if (pipelineDepth < 0)
+            throw new IllegalArgumentException("The pipeline depth must not be negative, but was " + pipelineDepth);
+        this.pipelineDepth = pipelineDepth;
+        return this;
+    }
+
+    /**
+     * Read the values of multiple blocks at once instead of reading every single block. A bigger batch means less
+     * reads, but more memory.
+     *
+     * @param batchSize The amount of blocks read at once. Must be at least 1
+     * @return This instance
+     */
+    public ReductionProcessBuilder batchSize(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("The batch size must be at least 1, but was " + batchSize);
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Set the amount of cells combined to one cell per axis. For example, the factors 2x2x1 reduce a block of 8x8x8
+     * cells to 4x4x8 cells. The default is 2x2x2.
+     *
+     * @param xFactor The reduction factor of the x axis. Must be at least 1
+     * @param yFactor The reduction factor of the y axis. Must be at least 1
+     * @param zFactor The reduction factor of the z axis. Must be at least 1
+     * @return This instance
+     */
+    public ReductionProcessBuilder reductionFactors(int xFactor, int yFactor, int zFactor) {
+        if (xFactor < 1 || yFactor < 1 || zFactor < 1)
+            throw new IllegalArgumentException("The reduction factors must be at least 1, but were " + xFactor + "x" + yFactor + "x" + zFactor);
+        this.reductionFactors = new Point3D(xFactor, yFactor, zFactor);
+        return this;
+    }
+
+    /**
+     * Create multiple resolutions from one read of the original data. Every level is written to its own file and is
+     * reduced from the previous level, for example 1/2, 1/4 and 1/8 for three levels with the default factors.
+     *
+     * @param pyramidLevels The amount of levels. Must be at least 1
+     * @return This instance
+     */
+    public ReductionProcessBuilder pyramidLevels(int pyramidLevels) {
+        if (pyramidLevels < 1)
+            throw new IllegalArgumentException("At least one pyramid level is required, but was " + pyramidLevels);
+        this.pyramidLevels = pyramidLevels;
+        return this;
+    }
+
+    /**
+     * Store the reduced variable datasets in chunks of one block and compress them. Filters require chunks, so the
+     * datasets are chunked if a filter is used.
+     *
+     * @param chunked      If true, every block is stored in its own chunk
+     * @param deflateLevel The deflate level from 0 to 9. 0 disables the compression
+     * @param shuffle      If true, the bytes of the values are shuffled before compressing
+     * @return This instance
+     */
+    public ReductionProcessBuilder compression(boolean chunked, int deflateLevel, boolean shuffle) {
+        this.compression = new Hdf5Compression(chunked, deflateLevel, shuffle);
+        return this;
+    }
+
+    /**
+     * Read the values of the original files by the pure Java reader instead of the native HDF5 library. The meta data
+     * and the reduced files are still handled by the native library.
+     *
+     * @param javaReader If true, use the pure Java reader
+     * @return This instance
+     */
+    public ReductionProcessBuilder javaReader(boolean javaReader) {
+        this.javaReader = javaReader;
+        return this;
+    }
+
+    /**
+     * Cache the values read from an original file by the dataset and the range of blocks, so reading the same range
+     * again costs a copy only. The least recently used ranges are removed first. The cache is disabled by default,
+     * because a single reduction pass reads every range once and the cache only pays off for ranges read again. The
+     * verbose mode logs the hits and misses of the cache.
+     *
+     * @param bytes The size of the cache per file in bytes, 0 disables the cache
+     * @return This instance
+     */
+    public ReductionProcessBuilder cacheSize(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("The cache size must not be negative, but was " + bytes);
+        this.cacheSize = bytes;
+        return this;
+    }
+
+    /**
+     * Set how the blocks with children are reduced. The default is {@link ParentBlockMode#REDUCE}, which reduces every
+     * block of the tree.
+     *
+     * @param parentBlockMode The mode for the blocks with children
+     * @return This instance
+     */
+    public ReductionProcessBuilder parentBlocks(ParentBlockMode parentBlockMode) {
+        this.parentBlockMode = parentBlockMode;
+        return this;
+    }
+
+    /**
+     * Remove the finest refinement levels of the block tree. The parents of the removed blocks become the new leaves
+     * and the remaining blocks are renumbered. The values of the new leaves are the stored values of the parents or
+     * restricted from the children, if the parent blocks are restricted.
+     *
+     * @param droppedLevels The amount of levels to remove, 0 keeps all blocks
+     * @return This instance
+     * @see #parentBlocks(ParentBlockMode)
+     */
+    public ReductionProcessBuilder dropLevels(int droppedLevels) {
+        this.droppedLevels = droppedLevels;
+        return this;
+    }
+
+    /**
+     * Reduce only the blocks intersecting a box. Their ancestors and siblings are kept, too, so the reduced files
+     * contain a consistent sub tree. Blocks outside of the region are not read.
+     *
+     * @param lower The lower corner of the region in cm or <code>null</code> to reduce the whole domain
+     * @param upper The upper corner of the region in cm or <code>null</code> to reduce the whole domain
+     * @return This instance
+     */
+    public ReductionProcessBuilder region(Point3D lower, Point3D upper) {
+        if ((lower == null) != (upper == null))
+            throw new IllegalArgumentException("Both corners of the region are required");
+        if (lower != null && (lower.getX() > upper.getX() || lower.getY() > upper.getY() || lower.getZ() > upper.getZ()))
+            throw new IllegalArgumentException("The lower corner " + lower + " of the region is above the upper corner " + upper);
+        this.regionLower = lower;
+        this.regionUpper = upper;
+        return this;
+    }
+
+    /**
+     * Reorder the blocks of the reduced files. The ids in the gid dataset are rewritten for the new order.
+     *
+     * @param blockOrder The order of the blocks, {@link BlockOrder#ORIGINAL} keeps the order of the original files
+     * @return This instance
+     */
+    public ReductionProcessBuilder blockOrder(BlockOrder blockOrder) {
+        this.blockOrder = blockOrder;
+        return this;
+    }
+
+    /**
+     * Set the datasets reduced by the density weighted mean, if a {@link PhysicalReducerType} is used. The density is
+     * read once for all of them. The density itself is always reduced by the statistical strategy. In
+     * {@link ParentBlockMode#RESTRICT} the weighted datasets are restricted by the reduced density of the children.
+     *
+     * @param names The names of the datasets, for example the temperature, the velocities and the abundances
+     * @return This instance
+     */
+    public ReductionProcessBuilder densityWeighted(List<String> names) {
+        this.densityWeightedDatasets = Collections.unmodifiableList(new ArrayList<>(names));
+        return this;
+    }
+
     public AbstractReductionProcess build() {
         File targetDirectory = this.targetDirectory;
         if (targetDirectory == null)
@@ -80,10 +280,12 @@ public class ReductionProcessBuilder {
             //noinspection ResultOfMethodCallIgnored
             targetDirectory.mkdirs();
         }
+        ReductionSettings settings = new ReductionSettings(parallelBlocks, pipelineDepth, batchSize, reductionFactors, pyramidLevels, compression, javaReader, parentBlockMode, droppedLevels, regionLower, regionUpper, blockOrder, densityWeightedDatasets, cacheSize);
         if (strategy instanceof StatisticalReducerFactory.StatisticalReducerType)
             return new StatisticalReductionProcess((StatisticalReducerFactory.StatisticalReducerType) strategy,
                     (variableDatasetsNames == null ? Collections.emptyList() : variableDatasetsNames),
-                    targetDirectory
+                    targetDirectory,
+                    settings
             );
         else if (strategy instanceof PhysicalReducerType) {
 
@@ -97,7 +299,8 @@ public class ReductionProcessBuilder {
 
             return new PhysicalReductionProcess((StatisticalReducerFactory.StatisticalReducerType) strategy,
                     (variableDatasetsNames == null ? Collections.emptyList() : variableDatasetsNames),
-                    targetDirectory
+                    targetDirectory,
+                    settings
             );
         }
         else {
@@ -0,0 +1,174 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.downsample;
+
+import de.meldanor.neongenesis.hdf5.BlockOrder;
+import de.meldanor.neongenesis.hdf5.Hdf5Compression;
+import javafx.geometry.Point3D;
+
+import java.util.List;
+
+/**
+ * Settings of a reduction process which are independent of the reduction strategy. The settings are immutable and
+ * created by the {@link ReductionProcessBuilder}.
+ *
+ * @see ReductionProcessBuilder
+ */
+public class ReductionSettings {
+
+    private final boolean parallelBlocks;
+    private final int pipelineDepth;
+    private final int batchSize;
+    private final Point3D reductionFactors;
+    private final int pyramidLevels;
+    private final Hdf5Compression compression;
+    private final boolean javaReader;
+    private final ParentBlockMode parentBlockMode;
+    private final int droppedLevels;
+    private final Point3D regionLower;
+    private final Point3D regionUpper;
+    private final BlockOrder blockOrder;
+    private final List<String> densityWeightedDatasets;
+    private final long cacheSize;
+
+    ReductionSettings(boolean parallelBlocks, int pipelineDepth, int batchSize, Point3D reductionFactors, int pyramidLevels, Hdf5Compression compression, boolean javaReader, ParentBlockMode parentBlockMode, int droppedLevels, Point3D regionLower, Point3D regionUpper, BlockOrder blockOrder, List<String> densityWeightedDatasets, long cacheSize) {
+        this.parallelBlocks = parallelBlocks;
+        this.pipelineDepth = pipelineDepth;
+        this.batchSize = batchSize;
+        this.reductionFactors = reductionFactors;
+        this.pyramidLevels = pyramidLevels;
+        this.compression = compression;
+        this.javaReader = javaReader;
+        this.parentBlockMode = parentBlockMode;
+        this.droppedLevels = droppedLevels;
+        this.regionLower = regionLower;
+        this.regionUpper = regionUpper;
+        this.blockOrder = blockOrder;
+        this.densityWeightedDatasets = densityWeightedDatasets;
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * @return true, if the blocks of a single dataset are reduced by all available cores
+     */
+    public boolean isParallelBlocks() {
+        return parallelBlocks;
+    }
+
+    /**
+     * @return The maximum amount of batches waiting between the read, reduce and write stages. 0, if the batches are
+     * read, reduced and written one after another without a pipeline
+     */
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /**
+     * @return The amount of blocks with consecutive ids read at once
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return The reduction factor of the x, y and z axis. A factor of 2 halves the cells of an axis
+     */
+    public Point3D getReductionFactors() {
+        return reductionFactors;
+    }
+
+    /**
+     * @return The amount of created files per original file. Every level is reduced from the previous level by the
+     * reduction factors
+     */
+    public int getPyramidLevels() {
+        return pyramidLevels;
+    }
+
+    /**
+     * @return The chunks and the compression of the reduced variable datasets
+     */
+    public Hdf5Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return true, if the original files are read without the native HDF5 library
+     */
+    public boolean isJavaReader() {
+        return javaReader;
+    }
+
+    /**
+     * @return The size of the cache for the values read from an original file in bytes, 0 if the values are not cached
+     */
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * @return How the blocks with children are reduced
+     */
+    public ParentBlockMode getParentBlockMode() {
+        return parentBlockMode;
+    }
+
+    /**
+     * @return The amount of the finest refinement levels removed from the block tree. 0, if all blocks are kept
+     */
+    public int getDroppedLevels() {
+        return droppedLevels;
+    }
+
+    /**
+     * @return The lower corner of the region in cm, only blocks intersecting the region are reduced. <code>null</code>,
+     * if the whole domain is reduced
+     */
+    public Point3D getRegionLower() {
+        return regionLower;
+    }
+
+    /**
+     * @return The upper corner of the region in cm, only blocks intersecting the region are reduced. <code>null</code>,
+     * if the whole domain is reduced
+     */
+    public Point3D getRegionUpper() {
+        return regionUpper;
+    }
+
+    /**
+     * @return The order of the blocks in the reduced files
+     */
+    public BlockOrder getBlockOrder() {
+        return blockOrder;
+    }
+
+    /**
+     * @return The names of the datasets reduced by the density weighted mean by the physical reducers
+     */
+    public List<String> getDensityWeightedDatasets() {
+        return densityWeightedDatasets;
+    }
+}
@@ -26,37 +26,37 @@ package de.meldanor.neongenesis.hdf5;
 
 import javafx.geometry.Point3D;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 /**
  * A cube in the adaptive mesh. Contains the necessary information to localize the block. To get the variable values
  * of a cube, use one of the read functions of {@link de.meldanor.neongenesis.hdf5.Flash3Reader} and the block.
+ * <p>
+ * The block is a view on the meta data of all blocks, which is stored in primitive arrays. The coordinates, the
+ * bounding box and the neighbors are created on every access, use the primitive getters in loops.
  *
- * @implNote This class is nearly immutable. To mutate the block, use {@link de.meldanor.neongenesis.hdf5.BlockChanger}
+ * @implNote This class is immutable. To mutate the block, use {@link de.meldanor.neongenesis.hdf5.BlockChanger}
  */
 public class Block {
 
     private final int id;
 
-    private byte bflags;
-    private float blockSize;
-    private byte whichChild;
-    private byte nodeType;
-
-    private Point3D coordinates;
-    private Point3D boundingBox;
-    private byte refineLevel;
-
-    private List<Block> neighbors;
+    private final BlockMetaData data;
+    private final int index;
 
     /**
-     * Constructs an empty block with a fixed id
+     * Constructs a view on a block of the meta data
      *
-     * @param id The unique id. 1 based
+     * @param id    The unique id. 1 based
+     * @param data  The meta data of the blocks
+     * @param index The index of this block in the meta data
      */
-    Block(int id) {
+    Block(int id, BlockMetaData data, int index) {
         this.id = id;
+        this.data = data;
+        this.index = index;
     }
 
     /**
@@ -72,7 +72,7 @@ public class Block {
      * @return Some FLASH3 specific flags.
      */
     public byte getBflags() {
-        return bflags;
+        return data.bflags[index];
     }
 
     /**
@@ -81,106 +81,58 @@ public class Block {
      * -1 indicates, this is a root.
      */
     public byte getWhichChild() {
-        return whichChild;
+        return data.whichChild[index];
     }
 
     /**
      * @return The size of the cube in cm
      */
     public float getBlockSize() {
-        return blockSize;
+        return data.blockSize[index];
     }
 
     /**
      * @return The 3D coordinates in cm
      */
     public Point3D getCoordinates() {
-        return coordinates;
-    }
-
-    /**
-     * @return The bounding box of the cube in cm
-     */
-    public Point3D getBoundingBox() {
-        return boundingBox;
-    }
-
-    /**
-     * @return The refinement level of the cube. It is also the level of the node in the tree. 1 based
-     */
-    public byte getRefineLevel() {
-        return refineLevel;
-    }
-
-    /**
-     * @return 1, if the block is a leaf, 2 if its a parent, 3 otherwise(like the root)
-     */
-    public byte getNodeType() {
-        return nodeType;
-    }
-
-    /**
-     * Set the Bflags
-     *
-     * @param bflags See {@link #getBflags()}
-     */
-    void setBflags(byte bflags) {
-        this.bflags = bflags;
+        return new Point3D(getCoordinate(0), getCoordinate(1), getCoordinate(2));
     }
 
     /**
-     * Set the BlockSize
-     *
-     * @param blockSize See {@link #getBlockSize()}
+     * @param axis The axis, 0 for x, 1 for y and 2 for z
+     * @return The coordinate of the axis in cm
      */
-    void setBlockSize(float blockSize) {
-        this.blockSize = blockSize;
+    public float getCoordinate(int axis) {
+        return data.coordinates[index * 3 + axis];
     }
 
     /**
-     * Set the WhichChild
-     *
-     * @param whichChild See {@link #getWhichChild()}
-     */
-    void setWhichChild(byte whichChild) {
-        this.whichChild = whichChild;
-    }
-
-    /**
-     * Set the Coordinates
-     *
-     * @param coordinates See {@link #getCoordinates()}
+     * @return The bounding box of the cube in cm
      */
-    void setCoordinates(Point3D coordinates) {
-        this.coordinates = coordinates;
+    public Point3D getBoundingBox() {
+        return new Point3D(getBoundingBox(0), getBoundingBox(1), getBoundingBox(2));
     }
 
     /**
-     * Set the bounding box
-     *
-     * @param boundingBox See {@link #getBoundingBox()}
+     * @param axis The axis, 0 for x, 1 for y and 2 for z
+     * @return The bounding box of the axis in cm
      */
-    void setBoundingBox(Point3D boundingBox) {
-        this.boundingBox = boundingBox;
+    public float getBoundingBox(int axis) {
+        return data.boundingBox[index * 3 + axis];
     }
 
     /**
-     * Set the refine level
-     *
-     * @param refineLevel See {@link #getRefineLevel()}
+     * @return The refinement level of the cube. It is also the level of the node in the tree. 1 based
      */
-    void setRefineLevel(byte refineLevel) {
-        this.refineLevel = refineLevel;
+    public byte getRefineLevel() {
+        return data.refineLevel[index];
     }
 
-
     /**
-     * Set the refine level
-     *
-     * @param nodeType See {@link #getNodeType()}
+     * @return 1, if the block is a leaf, 2 if its a parent, 3 otherwise(like the root)
      */
-    void setNodeType(byte nodeType) {
-        this.nodeType = nodeType;
+    public byte getNodeType() {
+        return data.nodeType[index];
     }
 
     /**
@@ -191,7 +143,11 @@ public class Block {
      * @return List of Neighbors. If there is no neighbor at a certain position, the member will be <code>null</code>
      */
     public List<Block> getNeighbors() {
-        return neighbors;
+        List<Block> neighbors = new ArrayList<>(6);
+        for (BlockFace face : BlockFace.values()) {
+            neighbors.add(getNeighbor(face));
+        }
+        return Collections.unmodifiableList(neighbors);
     }
 
     /**
@@ -201,16 +157,14 @@ public class Block {
      * @return A neighbor if there is one, otherwise <code>null</code>
      */
     public Block getNeighbor(BlockFace face) {
-        return neighbors.get(face.neighborListIndex);
+        return data.getNeighbor(index, face);
     }
 
     /**
-     * Set the neighbors
-     *
-     * @param neighbors See {@link #getNeighbors()}
+     * @return The meta data this block is a view on
      */
-    void setNeighbors(List<Block> neighbors) {
-        this.neighbors = Collections.unmodifiableList(neighbors);
+    BlockMetaData getData() {
+        return data;
     }
 
     @Override
@@ -233,12 +187,12 @@ public class Block {
     public String toString() {
         return "Block{" +
                 "id=" + id +
-                ", bflags=" + bflags +
-                ", blockSize=" + blockSize +
-                ", whichChild=" + whichChild +
-                ", coordinates=" + coordinates +
-                ", boundingBox=" + boundingBox +
-                ", refineLevel=" + refineLevel +
+                ", bflags=" + getBflags() +
+                ", blockSize=" + getBlockSize() +
+                ", whichChild=" + getWhichChild() +
+                ", coordinates=" + getCoordinates() +
+                ", boundingBox=" + getBoundingBox() +
+                ", refineLevel=" + getRefineLevel() +
                 '}';
     }
 
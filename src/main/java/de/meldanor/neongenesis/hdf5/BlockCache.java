@@ -0,0 +1,202 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.hdf5;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Caches the values of ranges of blocks read from a file. The cache is bounded by the size of the values in bytes, if
+ * a new range exceeds the bound, the least recently used ranges are removed. A range is only found again, if it is
+ * requested with the same dataset, first block and amount of blocks.
+ * <p>
+ * The arrays are copied when put into and taken from the cache, so the callers may modify them.
+ * <p>
+ * This class is thread-safe!
+ */
+public class BlockCache {
+
+    private final long capacity;
+    // Iterates from the least to the most recently used range
+    private final LinkedHashMap<Key, Object> entries = new LinkedHashMap<>(16, 0.75F, true);
+    private long size;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity The maximum size of all cached values in bytes. Must be positive
+     */
+    public BlockCache(long capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The capacity must be positive, but was " + capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param dataSetName  The name of the dataset
+     * @param firstBlockId The id of the first block, 1 based
+     * @param count        The amount of blocks
+     * @return A copy of the cached values or <code>null</code>, if the range is not cached
+     */
+    public synchronized float[] getFloats(String dataSetName, int firstBlockId, int count) {
+        float[] values = (float[]) get(new Key(float[].class, dataSetName, firstBlockId, count));
+        return values == null ? null : values.clone();
+    }
+
+    /**
+     * Cache a copy of the values. Values larger than the capacity are not cached.
+     *
+     * @param dataSetName  The name of the dataset
+     * @param firstBlockId The id of the first block, 1 based
+     * @param count        The amount of blocks
+     * @param values       The values of the blocks
+     */
+    public synchronized void putFloats(String dataSetName, int firstBlockId, int count, float[] values) {
+        put(new Key(float[].class, dataSetName, firstBlockId, count), values.clone(), (long) values.length * Float.BYTES);
+    }
+
+    /**
+     * @param dataSetName  The name of the dataset
+     * @param firstBlockId The id of the first block, 1 based
+     * @param count        The amount of blocks
+     * @return A copy of the cached values or <code>null</code>, if the range is not cached
+     */
+    public synchronized int[] getInts(String dataSetName, int firstBlockId, int count) {
+        int[] values = (int[]) get(new Key(int[].class, dataSetName, firstBlockId, count));
+        return values == null ? null : values.clone();
+    }
+
+    /**
+     * Cache a copy of the values. Values larger than the capacity are not cached.
+     *
+     * @param dataSetName  The name of the dataset
+     * @param firstBlockId The id of the first block, 1 based
+     * @param count        The amount of blocks
+     * @param values       The values of the blocks
+     */
+    public synchronized void putInts(String dataSetName, int firstBlockId, int count, int[] values) {
+        put(new Key(int[].class, dataSetName, firstBlockId, count), values.clone(), (long) values.length * Integer.BYTES);
+    }
+
+    private Object get(Key key) {
+        Object values = entries.get(key);
+        if (values == null)
+            misses++;
+        else
+            hits++;
+        return values;
+    }
+
+    private void put(Key key, Object values, long bytes) {
+        if (bytes > capacity)
+            return;
+        Object previous = entries.put(key, values);
+        if (previous != null)
+            size -= sizeOf(previous);
+        size += bytes;
+
+        Iterator<Object> iterator = entries.values().iterator();
+        while (size > capacity) {
+            size -= sizeOf(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    private static long sizeOf(Object values) {
+        if (values instanceof float[])
+            return (long) ((float[]) values).length * Float.BYTES;
+        return (long) ((int[]) values).length * Integer.BYTES;
+    }
+
+    /**
+     * Remove all cached values. The counters are kept
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * @return The maximum size of all cached values in bytes
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The size of all cached values in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return The amount of requests answered by the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The amount of requests, which had to be read from the file
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static class Key {
+
+        // The values of a range are either floats or ints
+        private final Class<?> type;
+        private final String dataSetName;
+        private final int firstBlockId;
+        private final int count;
+
+        private Key(Class<?> type, String dataSetName, int firstBlockId, int count) {
+            this.type = type;
+            this.dataSetName = dataSetName;
+            this.firstBlockId = firstBlockId;
+            this.count = count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return firstBlockId == key.firstBlockId && count == key.count && type == key.type && dataSetName.equals(key.dataSetName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, dataSetName, firstBlockId, count);
+        }
+    }
+}
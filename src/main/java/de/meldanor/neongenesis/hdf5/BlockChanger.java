@@ -26,6 +26,7 @@ package de.meldanor.neongenesis.hdf5;
 
 import javafx.geometry.Point3D;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -48,6 +49,9 @@ public class BlockChanger {
 
     private List<Block> neighbors;
 
+    // The neighbors are resolved by their ids in the blocks of the original
+    private BlockMetaData neighborSource;
+
     /**
      * Initially create the changer with a Block. The block it self will no be changed.
      *
@@ -72,6 +76,7 @@ public class BlockChanger {
         this.boundingBox = original.getBoundingBox();
         this.refineLevel = original.getRefineLevel();
         this.neighbors = original.getNeighbors();
+        this.neighborSource = original.getData();
     }
 
     /**
@@ -81,17 +86,27 @@ public class BlockChanger {
      */
     public Block change() {
 
-        Block b = new Block(id);
-        b.setBflags(bflags);
-        b.setBlockSize(blockSize);
-        b.setWhichChild(whichChild);
-        b.setNodeType(nodeType);
-        b.setCoordinates(coordinates);
-        b.setBoundingBox(boundingBox);
-        b.setRefineLevel(refineLevel);
-        b.setNeighbors(neighbors);
-
-        return b;
+        BlockMetaData data = new BlockMetaData(id, neighborSource);
+        data.bflags[0] = bflags;
+        data.blockSize[0] = blockSize;
+        data.whichChild[0] = whichChild;
+        data.nodeType[0] = nodeType;
+        data.coordinates[0] = (float) coordinates.getX();
+        data.coordinates[1] = (float) coordinates.getY();
+        data.coordinates[2] = (float) coordinates.getZ();
+        data.boundingBox[0] = (float) boundingBox.getX();
+        data.boundingBox[1] = (float) boundingBox.getY();
+        data.boundingBox[2] = (float) boundingBox.getZ();
+        data.refineLevel[0] = refineLevel;
+        // The changed block is not part of the tree
+        Arrays.fill(data.gid, -1);
+        for (int i = 0; i < neighbors.size(); i++) {
+            Block neighbor = neighbors.get(i);
+            if (neighbor != null)
+                data.gid[i] = neighbor.getId();
+        }
+
+        return data.getBlockAt(0);
     }
 
     /**
@@ -167,7 +182,8 @@ public class BlockChanger {
     }
 
     /**
-     * @param neighbors See {@link Block#getNeighbors()}
+     * @param neighbors See {@link Block#getNeighbors()}. The neighbors must be blocks of the same tree as the original
+     *                  block
      * @return This instance
      */
     public BlockChanger setNeighbors(List<Block> neighbors) {
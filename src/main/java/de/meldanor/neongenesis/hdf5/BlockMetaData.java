@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.hdf5;
+
+/**
+ * The meta data of all blocks of a file stored as primitive arrays, one array per attribute. {@link Block} objects are
+ * views on a single index of these arrays, which are created on demand and are equal by their id.
+ */
+final class BlockMetaData {
+
+    /**
+     * The amount of ids per block in the gid dataset: 6 neighbors, the parent and 8 children
+     */
+    static final int GID_STRIDE = 15;
+    static final int PARENT_OFFSET = 6;
+    static final int CHILDREN_OFFSET = 7;
+
+    private final int size;
+
+    final byte[] bflags;
+    final float[] blockSize;
+    final byte[] whichChild;
+    final byte[] nodeType;
+    final byte[] refineLevel;
+    // 3 values per block, x, y and z
+    final float[] coordinates;
+    final float[] boundingBox;
+    // The rows of the gid dataset
+    final int[] gid;
+
+    private final int firstId;
+    private final BlockMetaData neighborSource;
+
+    /**
+     * Create the meta data of a single block, which neighbors are blocks of another meta data
+     *
+     * @param id             The id of the block
+     * @param neighborSource The meta data containing the neighbors
+     */
+    BlockMetaData(int id, BlockMetaData neighborSource) {
+        this(1, new int[GID_STRIDE], neighborSource, id);
+    }
+
+    /**
+     * Create the meta data of all blocks of a file
+     *
+     * @param size The amount of blocks
+     * @param gid  The complete gid dataset, 15 ids per block
+     */
+    BlockMetaData(int size, int[] gid) {
+        this(size, gid, null, 1);
+    }
+
+    private BlockMetaData(int size, int[] gid, BlockMetaData neighborSource, int firstId) {
+        if (gid.length != size * GID_STRIDE)
+            throw new IllegalArgumentException("The gid dataset must contain " + GID_STRIDE + " ids per block, but has " + gid.length + " ids for " + size + " blocks!");
+        this.size = size;
+        this.bflags = new byte[size];
+        this.blockSize = new float[size];
+        this.whichChild = new byte[size];
+        this.nodeType = new byte[size];
+        this.refineLevel = new byte[size];
+        this.coordinates = new float[size * 3];
+        this.boundingBox = new float[size * 3];
+        this.gid = gid;
+        this.neighborSource = neighborSource == null ? this : neighborSource;
+        this.firstId = firstId;
+    }
+
+    /**
+     * @return The amount of blocks
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param index The index of the block, 0 based
+     * @return A new view on the block
+     */
+    Block getBlockAt(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Block index " + index + " is out of the range [0, " + (size - 1) + "]");
+        return new Block(firstId + index, this, index);
+    }
+
+    /**
+     * @param index The index of the block, 0 based
+     * @param face  The direction of the neighbor
+     * @return The neighbor or <code>null</code>, if there is none
+     */
+    Block getNeighbor(int index, Block.BlockFace face) {
+        int neighborId = gid[index * GID_STRIDE + face.getNeighborListIndex()];
+        return neighborId > 0 ? neighborSource.getBlockAt(neighborId - 1) : null;
+    }
+
+    /**
+     * @param index The index of the block, 0 based
+     * @return The id of the parent, negative if the block is a root
+     */
+    int getParentId(int index) {
+        return gid[index * GID_STRIDE + PARENT_OFFSET];
+    }
+
+    /**
+     * @param index The index of the block, 0 based
+     * @param child The index of the child from 0 to 7
+     * @return The id of the child, negative if the block has no children
+     */
+    int getChildId(int index, int child) {
+        return gid[index * GID_STRIDE + CHILDREN_OFFSET + child];
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.hdf5;
+
+import javafx.geometry.Point3D;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * The blocks of a tree written to the reduced files. Blocks can be removed by dropping the finest refinement levels
+ * and by a region: only the blocks intersecting the region are kept together with their ancestors and their siblings,
+ * so every remaining parent has all of its children or none. Parents without remaining children become the new
+ * leaves. The remaining blocks are renumbered compactly in the order of their original ids or in the order of a
+ * {@link BlockOrder}.
+ * <p>
+ * The meta data of the remaining blocks is rewritten like a {@link BlockChanger} does for a single block: the ids of
+ * the gid dataset refer to the new ids and the node types are updated to the new leaves.
+ */
+public class BlockSelection {
+
+    /**
+     * The node types used by FLASH3
+     */
+    private static final byte LEAF = 1;
+    private static final byte PARENT = 2;
+    private static final byte ANCESTOR = 3;
+
+    /**
+     * The FLASH3 boundary condition written for removed neighbors. Every code up to -20 is a boundary of the domain,
+     * while -1 is a neighbor at a coarser level
+     */
+    static final int OUTFLOW = -21;
+
+    // 21 bits per axis fit into the 63 bits of a Morton code
+    private static final long MAX_GRID_POSITION = (1L << 21) - 1;
+
+    private final BlockTree original;
+    private final BlockTree tree;
+    // The original index of every new index
+    private final int[] keptIndices;
+    // The new index of every original index, -1 for removed blocks
+    private final int[] newIndices;
+
+    /**
+     * Remove the finest levels of a tree.
+     *
+     * @param original      The complete tree of a file
+     * @param droppedLevels The amount of levels to remove. If 0, the original tree is used
+     */
+    public BlockSelection(BlockTree original, int droppedLevels) {
+        this(original, droppedLevels, null, null, BlockOrder.ORIGINAL);
+    }
+
+    /**
+     * Remove the finest levels of a tree and the blocks outside of a region.
+     *
+     * @param original      The complete tree of a file
+     * @param droppedLevels The amount of levels to remove
+     * @param regionLower   The lower corner of the region in cm or <code>null</code> for the whole domain
+     * @param regionUpper   The upper corner of the region in cm or <code>null</code> for the whole domain
+     * @param order         The order of the remaining blocks
+     */
+    public BlockSelection(BlockTree original, int droppedLevels, Point3D regionLower, Point3D regionUpper, BlockOrder order) {
+        if (droppedLevels < 0 || droppedLevels >= original.getLevelCount())
+            throw new IllegalArgumentException("The amount of dropped levels must be in the range [0, " + (original.getLevelCount() - 1) + "], but was " + droppedLevels);
+        this.original = original;
+
+        int size = original.size();
+        boolean[] kept = new boolean[size];
+        for (int level = 0; level < original.getLevelCount() - droppedLevels; level++) {
+            for (Block block : original.getLevel(level)) {
+                kept[block.getId() - 1] = true;
+            }
+        }
+        if (regionLower != null && regionUpper != null) {
+            boolean[] inRegion = selectRegion(original, regionLower, regionUpper);
+            for (int i = 0; i < size; i++) {
+                kept[i] &= inRegion[i];
+            }
+        }
+
+        int[] indices = IntStream.range(0, size).filter(i -> kept[i]).toArray();
+        if (indices.length == 0)
+            throw new IllegalArgumentException("No block intersects the region " + regionLower + " to " + regionUpper);
+        if (order == BlockOrder.MORTON)
+            indices = mortonOrder(original.getData(), indices);
+        this.keptIndices = indices;
+
+        boolean identity = keptIndices.length == size;
+        this.newIndices = new int[size];
+        Arrays.fill(newIndices, -1);
+        for (int i = 0; i < keptIndices.length; i++) {
+            newIndices[keptIndices[i]] = i;
+            identity &= keptIndices[i] == i;
+        }
+
+        this.tree = identity ? original : new BlockTree(rewrite(original.getData()));
+    }
+
+    /**
+     * Sort the blocks by the Morton code of their lower corner. The corners are placed on a grid with the extent of
+     * the smallest block, so the code of every block is unique except for a parent and its first child. They are
+     * sorted by their refine level, so the parent comes first.
+     */
+    private static int[] mortonOrder(BlockMetaData data, int[] indices) {
+        float[] min = new float[3];
+        float[] cell = new float[3];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(cell, Float.POSITIVE_INFINITY);
+        for (int index : indices) {
+            for (int axis = 0; axis < 3; axis++) {
+                float lower = data.boundingBox[index * 3 + axis];
+                float extent = 2.0F * (data.coordinates[index * 3 + axis] - lower);
+                min[axis] = Math.min(min[axis], lower);
+                // Not refined axes have no extent
+                if (extent > 0.0F)
+                    cell[axis] = Math.min(cell[axis], extent);
+            }
+        }
+
+        long[] codes = new long[data.size()];
+        for (int index : indices) {
+            long code = 0L;
+            for (int axis = 0; axis < 3; axis++) {
+                long position = 0L;
+                if (cell[axis] != Float.POSITIVE_INFINITY)
+                    position = Math.round((data.boundingBox[index * 3 + axis] - min[axis]) / cell[axis]);
+                code |= spreadBits(Math.min(position, MAX_GRID_POSITION)) << axis;
+            }
+            codes[index] = code;
+        }
+
+        return Arrays.stream(indices).boxed()
+                .sorted(Comparator.<Integer>comparingLong(i -> codes[i]).thenComparingInt(i -> data.refineLevel[i]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /**
+     * Insert two zero bits between every bit of the position, so the codes of the three axes can be interleaved
+     */
+    private static long spreadBits(long position) {
+        long bits = position & MAX_GRID_POSITION;
+        bits = (bits | bits << 32) & 0x1F00000000FFFFL;
+        bits = (bits | bits << 16) & 0x1F0000FF0000FFL;
+        bits = (bits | bits << 8) & 0x100F00F00F00F00FL;
+        bits = (bits | bits << 4) & 0x10C30C30C30C30C3L;
+        bits = (bits | bits << 2) & 0x1249249249249249L;
+        return bits;
+    }
+
+    /**
+     * Select the blocks intersecting the region, their ancestors and the siblings of all of them
+     */
+    private static boolean[] selectRegion(BlockTree tree, Point3D lower, Point3D upper) {
+        boolean[] selected = new boolean[tree.size()];
+        for (Block block : tree.getIntersecting(lower, upper)) {
+            // A selected block was selected with its siblings and ancestors before
+            for (Block current = block; current != null && !selected[current.getId() - 1]; current = tree.getParentOf(current)) {
+                Block parent = tree.getParentOf(current);
+                if (parent == null) {
+                    selected[current.getId() - 1] = true;
+                } else {
+                    for (Block sibling : tree.getChildrenOf(parent)) {
+                        selected[sibling.getId() - 1] = true;
+                    }
+                }
+            }
+        }
+        return selected;
+    }
+
+    private BlockMetaData rewrite(BlockMetaData source) {
+        int size = keptIndices.length;
+        int[] gid = new int[size * BlockMetaData.GID_STRIDE];
+        for (int i = 0; i < size; i++) {
+            int offset = keptIndices[i] * BlockMetaData.GID_STRIDE;
+            for (int j = 0; j < BlockMetaData.GID_STRIDE; j++) {
+                int id = source.gid[offset + j];
+                // Negative ids are boundaries and kept, a removed parent or child is marked as missing
+                if (id > 0 && newIndices[id - 1] >= 0)
+                    id = newIndices[id - 1] + 1;
+                else if (id > 0)
+                    id = j < BlockMetaData.PARENT_OFFSET ? removedNeighbor(id) : -1;
+                gid[i * BlockMetaData.GID_STRIDE + j] = id;
+            }
+        }
+
+        BlockMetaData data = new BlockMetaData(size, gid);
+        for (int i = 0; i < size; i++) {
+            int index = keptIndices[i];
+            data.bflags[i] = source.bflags[index];
+            data.blockSize[i] = source.blockSize[index];
+            data.whichChild[i] = source.whichChild[index];
+            data.refineLevel[i] = source.refineLevel[index];
+            System.arraycopy(source.coordinates, index * 3, data.coordinates, i * 3, 3);
+            System.arraycopy(source.boundingBox, index * 3, data.boundingBox, i * 3, 3);
+        }
+        for (int i = 0; i < size; i++) {
+            data.nodeType[i] = nodeType(data, i);
+        }
+        return data;
+    }
+
+    /**
+     * A removed neighbor is covered by a coarser neighbor, if one of its ancestors remains. Otherwise it is at the
+     * border of the region, which becomes a boundary of the domain.
+     *
+     * @param id The original id of the removed neighbor
+     * @return -1 for a coarser neighbor or {@link #OUTFLOW}
+     */
+    private int removedNeighbor(int id) {
+        for (Block ancestor = original.getParentOf(id); ancestor != null; ancestor = original.getParentOf(ancestor)) {
+            if (newIndices[ancestor.getId() - 1] >= 0)
+                return -1;
+        }
+        return OUTFLOW;
+    }
+
+    private static byte nodeType(BlockMetaData data, int index) {
+        if (data.getChildId(index, 0) <= 0)
+            return LEAF;
+        for (int child = 0; child < 8 && data.getChildId(index, child) > 0; child++) {
+            if (data.getChildId(data.getChildId(index, child) - 1, 0) > 0)
+                return ANCESTOR;
+        }
+        return PARENT;
+    }
+
+    /**
+     * @return The complete tree of the file
+     */
+    public BlockTree getOriginal() {
+        return original;
+    }
+
+    /**
+     * @return The tree of the remaining and renumbered blocks
+     */
+    public BlockTree getTree() {
+        return tree;
+    }
+
+    /**
+     * @return true, if at least one block was removed or the blocks were reordered
+     */
+    public boolean isRewritten() {
+        return tree != original;
+    }
+
+    /**
+     * @return The amount of remaining blocks
+     */
+    public int size() {
+        return keptIndices.length;
+    }
+
+    /**
+     * @return The original indices of the remaining blocks, which are the (original block id - 1), ordered by the new
+     * indices
+     */
+    public int[] getKeptIndices() {
+        return keptIndices.clone();
+    }
+
+    /**
+     * @param newIndex The index of a remaining block, 0 based
+     * @return The index of the block in the original tree
+     */
+    public int getOriginalIndex(int newIndex) {
+        return keptIndices[newIndex];
+    }
+
+    /**
+     * Split ascending new indices into ranges, which are consecutive in the new and in the original tree. Every range
+     * can be read from the original file and written to the reduced file at once.
+     *
+     * @param newIndices The ascending indices of remaining blocks, 0 based
+     * @param maxLength  The maximum length of a range
+     * @return Two elements per range: the first original block index and the amount of blocks
+     */
+    public int[] toOriginalRuns(int[] newIndices, int maxLength) {
+        int[] runs = new int[newIndices.length * 2];
+        int count = 0;
+        for (int i = 0; i < newIndices.length; i++) {
+            if (i > 0 && newIndices[i] <= newIndices[i - 1])
+                throw new IllegalArgumentException("The block indices must be ascending, but " + newIndices[i] + " follows " + newIndices[i - 1]);
+            int originalIndex = keptIndices[newIndices[i]];
+            int last = count - 2;
+            if (count > 0 && newIndices[i] == newIndices[i - 1] + 1 && runs[last] + runs[last + 1] == originalIndex && runs[last + 1] < maxLength) {
+                runs[last + 1]++;
+            } else {
+                runs[count++] = originalIndex;
+                runs[count++] = 1;
+            }
+        }
+        return Arrays.copyOf(runs, count);
+    }
+
+    /**
+     * @param maxLength The maximum length of a range
+     * @return The ranges of all remaining blocks, see {@link #toOriginalRuns(int[], int)}
+     */
+    public int[] getOriginalRuns(int maxLength) {
+        return toOriginalRuns(IntStream.range(0, keptIndices.length).toArray(), maxLength);
+    }
+
+    /**
+     * @param originalIndex The index of a block in the original tree, 0 based
+     * @return The index of the remaining block or -1, if the block was removed
+     */
+    public int getNewIndex(int originalIndex) {
+        return newIndices[originalIndex];
+    }
+
+    /**
+     * @return The rewritten gid dataset, {@link BlockMetaData#GID_STRIDE} ids per block
+     */
+    public int[] getGid() {
+        return tree.getData().gid.clone();
+    }
+
+    /**
+     * @return The rewritten node type dataset
+     */
+    public int[] getNodeTypes() {
+        return toInts(tree.getData().nodeType);
+    }
+
+    /**
+     * @return The refine level dataset of the remaining blocks
+     */
+    public int[] getRefineLevels() {
+        return toInts(tree.getData().refineLevel);
+    }
+
+    /**
+     * @return The which child dataset of the remaining blocks
+     */
+    public int[] getWhichChildren() {
+        return toInts(tree.getData().whichChild);
+    }
+
+    private static int[] toInts(byte[] values) {
+        int[] ints = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ints[i] = values[i];
+        }
+        return ints;
+    }
+}
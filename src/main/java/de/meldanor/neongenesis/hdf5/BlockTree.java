@@ -24,46 +24,256 @@
 
 package de.meldanor.neongenesis.hdf5;
 
-import java.util.*;
-import java.util.stream.Collectors;
+import javafx.geometry.Point3D;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * An implementation of an oct tree. The tree structure represents the inheritance of blocks. A parent always have
  * 8 children, each placed in an even space in the parents block.
+ * <p>
+ * The structure is stored in primitive arrays indexed by the block index (the id - 1). The orderings of the blocks are
+ * computed once as indices while constructing the tree and returned as unmodifiable lists, which create the
+ * {@link Block} views on access. So there is no object per block kept in memory.
  */
 public class BlockTree {
 
-    private Node root;
+    private final BlockMetaData data;
+
+    // The index of the parent, -1 for roots
+    private final int[] parents;
+    // The indices of all blocks without a parent
+    private final int[] roots;
+    // The children of block i are the indices children[childOffsets[i]] to children[childOffsets[i + 1] - 1]
+    private final int[] childOffsets;
+    private final int[] children;
+    // Level l of the level order starts at levelOffsets[l], the last element is the amount of blocks
+    private final int[] levelOffsets;
+    // The lower and the upper corner of every block, 3 values per block
+    private final float[] lowerCorners;
+    private final float[] upperCorners;
+    // The corners of the domain covered by all roots
+    private final float[] domainLower = new float[3];
+    private final float[] domainUpper = new float[3];
+    // The roots on their regular grid, x varies fastest. null, if the roots are not on a regular grid
+    private final int[] rootGrid;
+    private final int[] rootGridSize = new int[3];
+    private final float[] rootCellSize = new float[3];
+
+    private final List<Block> all;
+    private final List<Block> childList;
+    private final List<Block> levelOrder;
+    private final List<Block> depthFirstOrder;
+    private final List<Block> leaves;
+
+    /**
+     * Creates the structure of the block tree using the parent and children ids of the meta data.
+     *
+     * @param data The meta data of all blocks
+     */
+    BlockTree(BlockMetaData data) {
+        this.data = data;
+        int size = data.size();
+
+        this.parents = new int[size];
+        this.childOffsets = new int[size + 1];
+        int childCount = 0;
+        for (int i = 0; i < size; i++) {
+            int parentId = data.getParentId(i);
+            parents[i] = parentId > 0 ? parentId - 1 : -1;
+            childOffsets[i] = childCount;
+            childCount += countChildren(i);
+        }
+        childOffsets[size] = childCount;
+
+        int[] rootIndices = new int[size];
+        int rootCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (parents[i] < 0)
+                rootIndices[rootCount++] = i;
+        }
+        this.roots = Arrays.copyOf(rootIndices, rootCount);
+
+        this.children = new int[childCount];
+        for (int i = 0; i < size; i++) {
+            for (int j = childOffsets[i]; j < childOffsets[i + 1]; j++) {
+                children[j] = data.getChildId(i, j - childOffsets[i]) - 1;
+            }
+        }
+
+        this.all = new BlockList(null, size);
+        this.childList = toList(children);
+
+        int[] levelOrderIndices = new int[size];
+        List<Integer> levelStarts = new ArrayList<>();
+        int levelOrderCount = computeLevelOrder(levelOrderIndices, levelStarts);
+        this.levelOrder = toList(Arrays.copyOf(levelOrderIndices, levelOrderCount));
+        this.levelOffsets = new int[levelStarts.size() + 1];
+        for (int i = 0; i < levelStarts.size(); i++) {
+            levelOffsets[i] = levelStarts.get(i);
+        }
+        levelOffsets[levelStarts.size()] = levelOrderCount;
+
+        this.depthFirstOrder = toList(computeDepthFirstOrder());
+
+        int[] leafIndices = new int[size];
+        int leafCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (childOffsets[i] == childOffsets[i + 1])
+                leafIndices[leafCount++] = i;
+        }
+        this.leaves = toList(Arrays.copyOf(leafIndices, leafCount));
+
+        // The bounding box contains the lower corner, the coordinates are the center of the block
+        this.lowerCorners = data.boundingBox.clone();
+        this.upperCorners = new float[size * 3];
+        for (int i = 0; i < upperCorners.length; i++) {
+            upperCorners[i] = 2.0F * data.coordinates[i] - lowerCorners[i];
+        }
+        this.rootGrid = createRootGrid();
+    }
 
     /**
-     * Helper class
+     * FLASH3 places the roots on a regular grid, so the root containing a point is found without a search. Computes
+     * the domain and the grid.
+     *
+     * @return The index of the root of every cell of the grid or <code>null</code>, if the roots do not fill a regular
+     * grid
      */
-    private class Node {
+    private int[] createRootGrid() {
+        if (roots.length == 0)
+            return null;
+        Arrays.fill(domainLower, Float.POSITIVE_INFINITY);
+        Arrays.fill(domainUpper, Float.NEGATIVE_INFINITY);
+        for (int root : roots) {
+            for (int axis = 0; axis < 3; axis++) {
+                domainLower[axis] = Math.min(domainLower[axis], lowerCorners[root * 3 + axis]);
+                domainUpper[axis] = Math.max(domainUpper[axis], upperCorners[root * 3 + axis]);
+            }
+        }
 
-        private Block value;
-        private Node parent;
-        private Node[] children;
+        long cells = 1L;
+        for (int axis = 0; axis < 3; axis++) {
+            rootCellSize[axis] = upperCorners[roots[0] * 3 + axis] - lowerCorners[roots[0] * 3 + axis];
+            // Not refined axes have no extent and a single cell
+            rootGridSize[axis] = rootCellSize[axis] > 0.0F ? Math.round((domainUpper[axis] - domainLower[axis]) / rootCellSize[axis]) : 1;
+            cells *= rootGridSize[axis];
+        }
+        if (cells != roots.length)
+            return null;
 
-        public Node(Block value) {
-            this.value = value;
+        int[] grid = new int[roots.length];
+        Arrays.fill(grid, -1);
+        for (int root : roots) {
+            int cell = 0;
+            for (int axis = 2; axis >= 0; axis--) {
+                int position = 0;
+                if (rootCellSize[axis] > 0.0F)
+                    position = Math.round((lowerCorners[root * 3 + axis] - domainLower[axis]) / rootCellSize[axis]);
+                if (position < 0 || position >= rootGridSize[axis])
+                    return null;
+                cell = cell * rootGridSize[axis] + position;
+            }
+            if (grid[cell] >= 0)
+                return null;
+            grid[cell] = root;
         }
+        return grid;
     }
 
-    private Node[] nodes;
+    private int countChildren(int index) {
+        // There are always 8 or 0 children, the first missing child ends the list
+        int count = 0;
+        while (count < 8 && data.getChildId(index, count) > 0) {
+            count++;
+        }
+        return count;
+    }
 
     /**
-     * Creates the structure of the block tree using the relation array.
+     * Breadth first traversal starting at all roots
      *
-     * @param relationArray The relation array. Every 9 elements are one block.
-     *                      The first is the parents id(-1 if no parent), the next 8 are the children
-     * @param size          The amount of blocks
+     * @return The amount of visited blocks
      */
-    BlockTree(int[] relationArray, int size) {
-        this.nodes = new Node[size];
-        for (int i = 0; i < size; i++) {
-            this.nodes[i] = new Node(new Block(i + 1));
+    private int computeLevelOrder(int[] order, List<Integer> levelStarts) {
+        int end = 0;
+        for (int i = 0; i < parents.length; i++) {
+            if (parents[i] < 0)
+                order[end++] = i;
+        }
+        int start = 0;
+        while (start < end) {
+            levelStarts.add(start);
+            int levelEnd = end;
+            for (int i = start; i < levelEnd; i++) {
+                int node = order[i];
+                for (int j = childOffsets[node]; j < childOffsets[node + 1]; j++) {
+                    order[end++] = children[j];
+                }
+            }
+            start = levelEnd;
+        }
+        return end;
+    }
+
+    /**
+     * Pre order traversal starting at all roots
+     */
+    private int[] computeDepthFirstOrder() {
+        int[] order = new int[parents.length];
+        int[] stack = new int[parents.length];
+        int count = 0;
+        for (int root = 0; root < parents.length; root++) {
+            if (parents[root] >= 0)
+                continue;
+            int top = 0;
+            stack[top++] = root;
+            while (top > 0) {
+                int node = stack[--top];
+                order[count++] = node;
+                // Push in reverse order to visit the first child first
+                for (int j = childOffsets[node + 1] - 1; j >= childOffsets[node]; j--) {
+                    stack[top++] = children[j];
+                }
+            }
+        }
+        return Arrays.copyOf(order, count);
+    }
+
+    private List<Block> toList(int[] indices) {
+        return new BlockList(indices, indices.length);
+    }
+
+    /**
+     * An unmodifiable list of blocks, which creates the views of the blocks on access
+     */
+    private class BlockList extends AbstractList<Block> implements RandomAccess {
+
+        // The block indices of the list or null, if the list contains all blocks ordered by their index
+        private final int[] indices;
+        private final int size;
+
+        private BlockList(int[] indices, int size) {
+            this.indices = indices;
+            this.size = size;
+        }
+
+        @Override
+        public Block get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index " + index + " is out of the range [0, " + (size - 1) + "]");
+            return data.getBlockAt(indices == null ? index : indices[index]);
+        }
+
+        @Override
+        public int size() {
+            return size;
         }
-        construct(relationArray);
     }
 
     /**
@@ -73,16 +283,23 @@ public class BlockTree {
      * @return The block at the given block id
      */
     public Block get(int blockId) {
-        return getNode(blockId).value;
+        return all.get(blockId - 1);
+    }
+
+    /**
+     * @return The amount of blocks in the tree
+     */
+    public int size() {
+        return parents.length;
     }
 
     /**
      * Get all blocks ordered by their id as a list
      *
-     * @return An ordered Array List
+     * @return An unmodifiable list ordered by the id
      */
     public List<Block> getAll() {
-        return Arrays.stream(nodes).map(n -> n.value).collect(Collectors.toCollection(ArrayList::new));
+        return all;
     }
 
     /**
@@ -103,15 +320,15 @@ public class BlockTree {
      * @see #getParentOf(Block)
      */
     public Block getParentOf(int blockId) {
-        Node parent = getNode(blockId).parent;
-        return parent != null ? parent.value : null;
+        int parent = parents[blockId - 1];
+        return parent >= 0 ? all.get(parent) : null;
     }
 
     /**
      * Return the children of the parents block if there are any.
      *
      * @param block The parent block
-     * @return A list of the children or an empty list, if there are no children
+     * @return An unmodifiable list of the children or an empty list, if there are no children
      */
     public List<Block> getChildrenOf(Block block) {
         return getChildrenOf(block.getId());
@@ -121,71 +338,239 @@ public class BlockTree {
      * Return the children of the parents block if there are any.
      *
      * @param blockId The parents block id, 1 based
-     * @return A list of the children or an empty list, if there are no children
+     * @return An unmodifiable list of the children or an empty list, if there are no children
      * @see #getChildrenOf(Block)
      */
     public List<Block> getChildrenOf(int blockId) {
-        Node[] children = getNode(blockId).children;
-        if (children == null)
+        int from = childOffsets[blockId - 1];
+        int to = childOffsets[blockId];
+        if (from == to)
             return Collections.emptyList();
-        else
-            return Arrays.stream(children).map(n -> n.value).collect(Collectors.toCollection(ArrayList::new));
+        return childList.subList(from, to);
+    }
 
+    /**
+     * @param blockId The block id, 1 based
+     * @return true, if the block has no children
+     */
+    public boolean isLeaf(int blockId) {
+        return childOffsets[blockId - 1] == childOffsets[blockId];
     }
 
-    private Node getNode(int blockId) {
-        return nodes[blockId - 1];
+    /**
+     * Traverse the tree in level order
+     *
+     * @return An unmodifiable list with blocks ordered by their refinement level
+     */
+    public List<Block> levelOrder() {
+        return levelOrder;
     }
 
-    private void construct(int[] relationArray) {
-        for (int i = 0; i < relationArray.length; i += 9) {
-            // Every 9 ids are one block
-            // First id = id of the parent
-            int nodeIndex = (i / 9);
-            int parentId = relationArray[i];
-            Node node = nodes[nodeIndex];
-            if (parentId >= 0) {
-                node.parent = getNode(parentId);
-            }
-            // Last 8 ids = ids of the children
-            for (int j = 0; j < 8; ++j) {
-                int childId = relationArray[i + 1 + j];
-                // if there is no children, break the loop
-                // there are always 8 or 0 children
-                if (childId < 0)
-                    break;
-                if (node.children == null)
-                    node.children = new Node[8];
+    /**
+     * @return The amount of levels of the tree
+     */
+    public int getLevelCount() {
+        return levelOffsets.length - 1;
+    }
+
+    /**
+     * Get the blocks of a single level of the {@link #levelOrder()}
+     *
+     * @param level The level, 0 for the roots
+     * @return An unmodifiable list of the blocks of the level
+     */
+    public List<Block> getLevel(int level) {
+        if (level < 0 || level >= getLevelCount())
+            throw new IndexOutOfBoundsException("Level " + level + " is out of the range [0, " + (getLevelCount() - 1) + "]");
+        return levelOrder.subList(levelOffsets[level], levelOffsets[level + 1]);
+    }
+
+    /**
+     * Traverse the tree in depth first pre order. A parent is followed by its first child and all its descendants,
+     * then by the second child and so on
+     *
+     * @return An unmodifiable list with the blocks in depth first order
+     */
+    public List<Block> depthFirstOrder() {
+        return depthFirstOrder;
+    }
 
-                node.children[j] = getNode(childId);
+    /**
+     * Find all blocks intersecting a box by descending from the roots. The children of a block lie within the block,
+     * so a block outside of the box is skipped together with all of its descendants.
+     *
+     * @param lower The lower corner of the box in cm
+     * @param upper The upper corner of the box in cm
+     * @return The intersecting blocks of all levels in depth first order
+     */
+    public List<Block> getIntersecting(Point3D lower, Point3D upper) {
+        return collectIntersecting(lower, upper, false);
+    }
+
+    /**
+     * Find all leaves intersecting a box. Only the blocks intersecting the box are visited, see
+     * {@link #getIntersecting(Point3D, Point3D)}.
+     *
+     * @param lower The lower corner of the box in cm
+     * @param upper The upper corner of the box in cm
+     * @return The intersecting leaves in depth first order
+     */
+    public List<Block> getLeavesIntersecting(Point3D lower, Point3D upper) {
+        return collectIntersecting(lower, upper, true);
+    }
+
+    private List<Block> collectIntersecting(Point3D lower, Point3D upper, boolean leavesOnly) {
+        double[] min = {lower.getX(), lower.getY(), lower.getZ()};
+        double[] max = {upper.getX(), upper.getY(), upper.getZ()};
+
+        List<Block> result = new ArrayList<>();
+        int[] stack = new int[parents.length];
+        for (int root : roots) {
+            int top = 0;
+            stack[top++] = root;
+            while (top > 0) {
+                int node = stack[--top];
+                if (!intersects(node, min, max))
+                    continue;
+                if (!leavesOnly || childOffsets[node] == childOffsets[node + 1])
+                    result.add(data.getBlockAt(node));
+                for (int j = childOffsets[node + 1] - 1; j >= childOffsets[node]; j--) {
+                    stack[top++] = children[j];
+                }
             }
         }
-        this.root = nodes[0];
+        return result;
     }
 
     /**
-     * Traverse the tree in level order
+     * Find the leaf containing a point by descending from the root containing the point to the child containing the
+     * point until a leaf is reached. The root is looked up on the grid of the roots, so this needs O(depth) steps. A
+     * point on the face between two blocks belongs to the upper of them, a point on the upper boundary of the domain
+     * to the last block.
      *
-     * @return A list with blocks ordered by their refinement level
+     * @param point The point in cm
+     * @return The leaf containing the point or <code>null</code>, if the point is outside of the domain
      */
-    public List<Block> levelOrder() {
-        List<Block> res = new ArrayList<>();
-
-        Queue<Node> queue = new LinkedList<>();
-        queue.offer(root);
-        while (!queue.isEmpty()) {
-            Node node = queue.poll();
-            res.add(node.value);
-
-            if (node.children != null) {
-                for (Node child : node.children) {
-                    if (child != null)
-                        queue.add(child);
+    public Block getLeafAt(Point3D point) {
+        int index = locate(-1, point.getX(), point.getY(), point.getZ());
+        return index < 0 ? null : data.getBlockAt(index);
+    }
+
+    /**
+     * Find the leaves containing many points, see {@link #getLeafAt(Point3D)}. The search for a point starts at the
+     * leaf of the previous point and ascends only until a block contains the point, so points close to each other -
+     * like the points of a probe line or a slice - are located in a few steps.
+     *
+     * @param points The coordinates of the points in cm, 3 values (x, y and z) per point
+     * @return The ids of the leaves containing the points, -1 for points outside of the domain
+     */
+    public int[] locateLeaves(double[] points) {
+        if (points.length % 3 != 0)
+            throw new IllegalArgumentException("Expected 3 coordinates per point, but got " + points.length + " values");
+        int[] ids = new int[points.length / 3];
+        int previous = -1;
+        for (int i = 0; i < ids.length; i++) {
+            int index = locate(previous, points[i * 3], points[i * 3 + 1], points[i * 3 + 2]);
+            ids[i] = index < 0 ? -1 : index + 1;
+            if (index >= 0)
+                previous = index;
+        }
+        return ids;
+    }
+
+    /**
+     * @param start The index of a block to start the search at or -1 to start at the roots
+     * @return The index of the leaf containing the point or -1
+     */
+    private int locate(int start, double x, double y, double z) {
+        int node = start;
+        // Ascend until a block contains the point
+        while (node >= 0 && !contains(node, x, y, z)) {
+            node = parents[node];
+        }
+        if (node < 0) {
+            node = locateRoot(x, y, z);
+            if (node < 0)
+                return -1;
+        }
+        // Descend to the leaf
+        while (childOffsets[node] != childOffsets[node + 1]) {
+            int next = -1;
+            for (int j = childOffsets[node]; j < childOffsets[node + 1]; j++) {
+                if (contains(children[j], x, y, z)) {
+                    next = children[j];
+                    break;
                 }
             }
+            // Only possible with inconsistent extents, the parent is the finest block containing the point
+            if (next < 0)
+                break;
+            node = next;
         }
+        return node;
+    }
 
-        return res;
+    /**
+     * @return The index of the root containing the point or -1
+     */
+    private int locateRoot(double x, double y, double z) {
+        if (rootGrid != null) {
+            double[] point = {x, y, z};
+            int cell = 0;
+            for (int axis = 2; axis >= 0; axis--) {
+                if (point[axis] < domainLower[axis] || point[axis] > domainUpper[axis])
+                    return -1;
+                int position = 0;
+                // The upper boundary of the domain belongs to the last root
+                if (rootCellSize[axis] > 0.0F)
+                    position = Math.min((int) ((point[axis] - domainLower[axis]) / rootCellSize[axis]), rootGridSize[axis] - 1);
+                cell = cell * rootGridSize[axis] + position;
+            }
+            int root = rootGrid[cell];
+            // The cell may differ from the extents of the root by rounding, then the roots are searched
+            if (contains(root, x, y, z))
+                return root;
+        }
+        for (int root : roots) {
+            if (contains(root, x, y, z))
+                return root;
+        }
+        return -1;
+    }
+
+    /**
+     * The extent of a block is half-open, so every point on a face between two blocks is contained in one of them
+     * only. The upper boundary of the domain is contained.
+     */
+    private boolean contains(int index, double x, double y, double z) {
+        return contains(index, 0, x) && contains(index, 1, y) && contains(index, 2, z);
+    }
+
+    private boolean contains(int index, int axis, double value) {
+        float lower = lowerCorners[index * 3 + axis];
+        float upper = upperCorners[index * 3 + axis];
+        return value >= lower && (value < upper || value == upper && upper >= domainUpper[axis]);
+    }
+
+    private boolean intersects(int index, double[] min, double[] max) {
+        for (int axis = 0; axis < 3; axis++) {
+            if (upperCorners[index * 3 + axis] < min[axis] || lowerCorners[index * 3 + axis] > max[axis])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The meta data of all blocks of the tree
+     */
+    BlockMetaData getData() {
+        return data;
+    }
 
+    /**
+     * @return An unmodifiable list of all blocks without children ordered by their id
+     */
+    public List<Block> getLeaves() {
+        return leaves;
     }
 }
@@ -24,13 +24,14 @@
 
 package de.meldanor.neongenesis.hdf5;
 
-import javafx.geometry.Point3D;
+import de.meldanor.neongenesis.hdf5.nio.NioHdf5Reader;
 import ncsa.hdf.object.Dataset;
 
 import java.util.*;
 
 /**
- * The meta data of a FLASH3 HDF5 plot file.
+ * The meta data of a FLASH3 HDF5 plot file. If the file is read without the native library, the meta data is read by
+ * the {@link NioHdf5Reader}.
  */
 public class Flash3MetaData extends Hdf5MetaData {
 
@@ -73,6 +74,7 @@ public class Flash3MetaData extends Hdf5MetaData {
     private final BlockTree blockTree;
 
     private final Map<String, Dataset> variableMap;
+    private final Set<String> variableNames;
 
     private final Map<String, Integer> integerRuntimeParameter;
     private final Map<String, Integer> integerSclars;
@@ -93,12 +95,13 @@ public class Flash3MetaData extends Hdf5MetaData {
      * @throws Exception Some error while reading
      */
     public Flash3MetaData(Hdf5MetaData data) throws Exception {
-        super(data.getDatasetMap());
+        super(data);
 
-        this.blockTree = constructBlockTree();
-        readBlockMetaData();
+        BlockMetaData blockData = readBlockMetaData();
+        this.blockTree = new BlockTree(blockData);
 
-        this.variableMap = constructVariableMap();
+        this.variableNames = constructVariableNames();
+        this.variableMap = getNioReader() == null ? constructVariableMap() : null;
 
         this.integerRuntimeParameter = fillIntegerInfos(Flash3Dataset.INTEGER_RUNTIME_PARAMETER);
         this.integerSclars = fillIntegerInfos(Flash3Dataset.INTEGER_SCALARS);
@@ -113,109 +116,174 @@ public class Flash3MetaData extends Hdf5MetaData {
         this.stringSclars = fillStringInfos(Flash3Dataset.STRING_SCALARS);
     }
 
-    private void readBlockMetaData() throws Exception {
-        fillBFlags();
-        fillBlockSize();
-        fillBoundingBox();
-        fillCoordinates();
-        fillNeighbors();
-        fillNodeType();
-        fillWhichChild();
-        fillRefineLevel();
+    /**
+     * Read every block dataset once into the primitive arrays of the meta data
+     */
+    private BlockMetaData readBlockMetaData() throws Exception {
+        int[] gid = readGid();
+        BlockMetaData data = new BlockMetaData(gid.length / BlockMetaData.GID_STRIDE, gid);
+        fillBFlags(data);
+        fillBlockSize(data);
+        fillBoundingBox(data);
+        fillCoordinates(data);
+        fillNodeType(data);
+        fillWhichChild(data);
+        fillRefineLevel(data);
+        return data;
     }
 
-    private void fillBFlags() throws Exception {
-        Dataset set = getDataset(Flash3Dataset.B_FLAGS.datasetName);
+    private int[] readGid() throws Exception {
+        // The neighbors(6), the parent(1) and the children(8) are used
+        if (getNioReader() != null)
+            return readIntColumns(Flash3Dataset.GID, BlockMetaData.GID_STRIDE);
+
+        Dataset set = getDataset(Flash3Dataset.GID.datasetName);
         set.init();
-        int[] data = (int[]) set.read();
-        for (int i = 0; i < data.length; ++i) {
-            blockTree.get(i + 1).setBflags((byte) data[i]);
-        }
+        set.getStartDims()[1] = 0;
+        set.getSelectedDims()[1] = BlockMetaData.GID_STRIDE;
+        return (int[]) set.read();
     }
 
-    private void fillBlockSize() throws Exception {
-        Dataset set = getDataset(Flash3Dataset.BLOCK_SIZE.datasetName);
-        set.init();
+    private void fillBFlags(BlockMetaData data) throws Exception {
+        copyBytes(readInts(Flash3Dataset.B_FLAGS), data.bflags);
+    }
+
+    private void fillBlockSize(BlockMetaData data) throws Exception {
         // Restrict values to one dimension
         // The block size is equal in every dimension, so we need only a third of memory
-        set.getSelectedDims()[1] = 1;
-        float[] data = (float[]) set.read();
-        for (int i = 0; i < data.length; ++i) {
-            blockTree.get(i + 1).setBlockSize(data[i]);
+        float[] values;
+        if (getNioReader() != null) {
+            values = readFloatColumns(Flash3Dataset.BLOCK_SIZE, 1);
+        } else {
+            Dataset set = getDataset(Flash3Dataset.BLOCK_SIZE.datasetName);
+            set.init();
+            set.getSelectedDims()[1] = 1;
+            values = (float[]) set.read();
         }
+        System.arraycopy(values, 0, data.blockSize, 0, data.blockSize.length);
     }
 
-    private void fillBoundingBox() throws Exception {
-        Dataset set = getDataset(Flash3Dataset.BOUNDING_BOX.datasetName);
-        set.init();
-        set.getSelectedDims()[1] = 3;
-        float[] data = (float[]) set.read();
-        for (int i = 0, j = 0; i < data.length; i = i + 3, ++j) {
-            blockTree.get(j + 1).setBoundingBox(new Point3D(data[i], data[i + 1], data[i + 2]));
+    private void fillBoundingBox(BlockMetaData data) throws Exception {
+        // Only the lower corners
+        float[] values;
+        if (getNioReader() != null) {
+            values = readFloatColumns(Flash3Dataset.BOUNDING_BOX, 3, 1);
+        } else {
+            Dataset set = getDataset(Flash3Dataset.BOUNDING_BOX.datasetName);
+            set.init();
+            set.getSelectedDims()[1] = 3;
+            values = (float[]) set.read();
         }
+        System.arraycopy(values, 0, data.boundingBox, 0, data.boundingBox.length);
     }
 
-    private void fillCoordinates() throws Exception {
-        Dataset set = getDataset(Flash3Dataset.COORDINATES.datasetName);
-        set.init();
-        set.getSelectedDims()[1] = 3;
-        float[] data = (float[]) set.read();
-        for (int i = 0, j = 0; i < data.length; i = i + 3, ++j) {
-            blockTree.get(j + 1).setCoordinates(new Point3D(data[i], data[i + 1], data[i + 2]));
+    private void fillCoordinates(BlockMetaData data) throws Exception {
+        float[] values;
+        if (getNioReader() != null) {
+            values = readFloatColumns(Flash3Dataset.COORDINATES, 3);
+        } else {
+            Dataset set = getDataset(Flash3Dataset.COORDINATES.datasetName);
+            set.init();
+            set.getSelectedDims()[1] = 3;
+            values = (float[]) set.read();
         }
+        System.arraycopy(values, 0, data.coordinates, 0, data.coordinates.length);
     }
 
-    private void fillNeighbors() throws Exception {
-        Dataset set = getDataset(Flash3Dataset.GID.datasetName);
+    private void fillNodeType(BlockMetaData data) throws Exception {
+        copyBytes(readInts(Flash3Dataset.NODE_TYPE), data.nodeType);
+    }
+
+    private void fillRefineLevel(BlockMetaData data) throws Exception {
+        copyBytes(readInts(Flash3Dataset.REFINE_LEVEL), data.refineLevel);
+    }
+
+    private void fillWhichChild(BlockMetaData data) throws Exception {
+        copyBytes(readInts(Flash3Dataset.WHICH_CHILD), data.whichChild);
+    }
+
+    private int[] readInts(Flash3Dataset dataset) throws Exception {
+        if (getNioReader() != null)
+            return getNioReader().readIntValues(dataset.datasetName);
+
+        Dataset set = getDataset(dataset.datasetName);
         set.init();
-        // Select only the neighbors(6)
-        set.getSelectedDims()[1] = 6;
-        int[] data = (int[]) set.read();
-        int height = set.getHeight();
-        for (int i = 0; i < height; i++) {
-            Block b = blockTree.get(i + 1);
-            List<Block> neighbors = new ArrayList<>(6);
-            for (int j = 0; j < 6; ++j) {
-                int neighborId = data[(i * 6) + j];
-                if (neighborId > 0)
-                    neighbors.add(blockTree.get(neighborId));
-                else
-                    neighbors.add(null);
-            }
-            b.setNeighbors(neighbors);
+        return (int[]) set.read();
+    }
+
+    /**
+     * Read the first entries of every dimension except the first one, like the selection of the native library
+     */
+    private int[] readIntColumns(Flash3Dataset dataset, int... selected) throws Exception {
+        int[] values = getNioReader().readIntValues(dataset.datasetName);
+        int[] indices = selectedIndices(getDimensions(dataset.datasetName), selected);
+        int[] result = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            result[i] = values[indices[i]];
         }
+        return result;
     }
 
-    private void fillNodeType() throws Exception {
-        Dataset set = getDataset(Flash3Dataset.NODE_TYPE.datasetName);
-        set.init();
-        int[] data = (int[]) set.read();
-        for (int i = 0; i < data.length; ++i) {
-            blockTree.get(i + 1).setNodeType((byte) data[i]);
+    /**
+     * Read the first entries of every dimension except the first one, like the selection of the native library
+     */
+    private float[] readFloatColumns(Flash3Dataset dataset, int... selected) throws Exception {
+        float[] values = getNioReader().readFloatValues(dataset.datasetName);
+        int[] indices = selectedIndices(getDimensions(dataset.datasetName), selected);
+        float[] result = new float[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            result[i] = values[indices[i]];
         }
+        return result;
     }
 
-    private void fillRefineLevel() throws Exception {
-        Dataset set = getDataset(Flash3Dataset.REFINE_LEVEL.datasetName);
-        set.init();
-        int[] data = (int[]) set.read();
-        for (int i = 0; i < data.length; ++i) {
-            blockTree.get(i + 1).setRefineLevel((byte) data[i]);
+    /**
+     * @param dimensions The dimensions of the dataset
+     * @param selected   The amount of selected entries of every dimension except the first one
+     * @return The flat indices of the selected values ordered like the flat values
+     */
+    static int[] selectedIndices(long[] dimensions, int... selected) {
+        if (selected.length != dimensions.length - 1)
+            throw new IllegalArgumentException("Expected " + (dimensions.length - 1) + " selected dimensions, but got " + selected.length);
+        int rowSize = 1;
+        int selectedSize = 1;
+        for (int d = 1; d < dimensions.length; d++) {
+            if (selected[d - 1] < 1 || selected[d - 1] > dimensions[d])
+                throw new IndexOutOfBoundsException("Can not select " + selected[d - 1] + " of " + dimensions[d] + " entries");
+            rowSize *= (int) dimensions[d];
+            selectedSize *= selected[d - 1];
         }
+
+        // The offsets of the selected values inside of a single row
+        int[] offsets = new int[selectedSize];
+        for (int i = 0; i < selectedSize; i++) {
+            int rest = i;
+            int stride = 1;
+            for (int d = dimensions.length - 1; d >= 1; d--) {
+                offsets[i] += (rest % selected[d - 1]) * stride;
+                rest /= selected[d - 1];
+                stride *= (int) dimensions[d];
+            }
+        }
+
+        int[] indices = new int[(int) dimensions[0] * selectedSize];
+        for (int row = 0, i = 0; row < dimensions[0]; row++) {
+            for (int offset : offsets) {
+                indices[i++] = row * rowSize + offset;
+            }
+        }
+        return indices;
     }
 
-    private void fillWhichChild() throws Exception {
-        Dataset set = getDataset(Flash3Dataset.WHICH_CHILD.datasetName);
-        set.init();
-        int[] data = (int[]) set.read();
-        for (int i = 0; i < data.length; ++i) {
-            blockTree.get(i + 1).setWhichChild((byte) data[i]);
+    private static void copyBytes(int[] source, byte[] target) {
+        for (int i = 0; i < target.length; ++i) {
+            target[i] = (byte) source[i];
         }
     }
 
     private Map<String, Integer> fillIntegerInfos(Flash3Dataset dataset) throws Exception {
         Map<String, Integer> map = new LinkedHashMap<>();
-        Vector data = getParameterVector(dataset.datasetName);
+        List<?> data = readParameterColumns(dataset.datasetName);
         String[] names = (String[]) data.get(0);
         int[] values = (int[]) data.get(1);
         for (int i = 0; i < names.length; i++) {
@@ -227,7 +295,7 @@ public class Flash3MetaData extends Hdf5MetaData {
 
     private Map<String, Boolean> fillBooleanInfos(Flash3Dataset dataset) throws Exception {
         Map<String, Boolean> map = new LinkedHashMap<>();
-        Vector data = getParameterVector(dataset.datasetName);
+        List<?> data = readParameterColumns(dataset.datasetName);
         String[] names = (String[]) data.get(0);
         int[] values = (int[]) data.get(1);
         for (int i = 0; i < names.length; i++) {
@@ -239,7 +307,7 @@ public class Flash3MetaData extends Hdf5MetaData {
 
     private Map<String, Float> fillFloatInfos(Flash3Dataset dataset) throws Exception {
         Map<String, Float> map = new LinkedHashMap<>();
-        Vector data = getParameterVector(dataset.datasetName);
+        List<?> data = readParameterColumns(dataset.datasetName);
         String[] names = (String[]) data.get(0);
         double[] values = (double[]) data.get(1);
         for (int i = 0; i < names.length; i++) {
@@ -251,7 +319,7 @@ public class Flash3MetaData extends Hdf5MetaData {
 
     private Map<String, String> fillStringInfos(Flash3Dataset dataset) throws Exception {
         Map<String, String> map = new LinkedHashMap<>();
-        Vector data = getParameterVector(dataset.datasetName);
+        List<?> data = readParameterColumns(dataset.datasetName);
         String[] names = (String[]) data.get(0);
         String[] values = (String[]) data.get(1);
         for (int i = 0; i < names.length; i++) {
@@ -261,32 +329,36 @@ public class Flash3MetaData extends Hdf5MetaData {
         return Collections.unmodifiableMap(map);
     }
 
-    private Vector getParameterVector(String datasetName) throws Exception {
+    /**
+     * @return The columns of the compound dataset - the names and the values
+     */
+    private List<?> readParameterColumns(String datasetName) throws Exception {
+        NioHdf5Reader nioReader = getNioReader();
+        if (nioReader != null)
+            return new ArrayList<>(nioReader.readCompound(datasetName).values());
+
         Dataset dataset = getDataset(datasetName);
-        return (Vector) dataset.getData();
+        return (Vector<?>) dataset.getData();
     }
 
-    private Map<String, Dataset> constructVariableMap() {
-        Map<String, Dataset> map = new HashMap<>(getDatasetMap());
+    private Set<String> constructVariableNames() {
+        Set<String> names = new LinkedHashSet<>(getDatasetNames());
 
         for (Flash3Dataset dataset : Flash3Dataset.values()) {
-            map.remove(dataset.datasetName);
+            names.remove(dataset.datasetName);
         }
 
-        return Collections.unmodifiableMap(map);
+        return Collections.unmodifiableSet(names);
     }
 
-    private BlockTree constructBlockTree() throws Exception {
-        Dataset dataset = getDataset(Flash3Dataset.GID.datasetName);
-        dataset.init();
+    private Map<String, Dataset> constructVariableMap() {
+        Map<String, Dataset> map = new HashMap<>(getDatasetMap());
 
-        // Skip the neighbor dimensions
-        dataset.getStartDims()[1] = 6;
-        // Select only the parent(1) and children dimensions(8)
-        dataset.getSelectedDims()[1] = 9;
+        for (Flash3Dataset dataset : Flash3Dataset.values()) {
+            map.remove(dataset.datasetName);
+        }
 
-        int[] data = (int[]) dataset.read();
-        return new BlockTree(data, dataset.getHeight());
+        return Collections.unmodifiableMap(map);
     }
 
     /**
@@ -299,16 +371,32 @@ public class Flash3MetaData extends Hdf5MetaData {
     /**
      * Get a map of datasets which are holding variable data.
      * <p>
-     * Will throw an IllegalStateException if the reader was closed.
+     * Will throw an IllegalStateException if the reader was closed or the file was read without the native library.
      *
      * @return Map matching their name
+     * @see #getVariableNames()
      */
     public Map<String, Dataset> getVariableMap() {
         if (isClosed)
             throw new IllegalStateException("Reader was closed, no access to datasets!");
+        if (variableMap == null)
+            throw new IllegalStateException("The file was read without the native library, no access to datasets!");
         return variableMap;
     }
 
+    /**
+     * Get the names of the datasets which are holding variable data.
+     * <p>
+     * Will throw an IllegalStateException if the reader was closed.
+     *
+     * @return The unmodifiable names
+     */
+    public Set<String> getVariableNames() {
+        if (isClosed)
+            throw new IllegalStateException("Reader was closed, no access to datasets!");
+        return variableNames;
+    }
+
     /**
      * Get the value of a runtime parameter.
      *
@@ -27,16 +27,24 @@ package de.meldanor.neongenesis.hdf5;
 import ncsa.hdf.object.Dataset;
 
 import java.io.File;
+import java.nio.FloatBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
- * A reader for FLASH3 HDF5 files.
+ * A reader for FLASH3 HDF5 files. The block read methods can be called from multiple threads at the same time.
  *
  * @see Hdf5Reader
  */
 public class Flash3Reader extends Hdf5Reader {
 
     private final Flash3MetaData metaData;
+    private final BlockCache cache;
+    // The names of the cached datasets, null for all datasets
+    private volatile Set<String> cachedDatasets;
 
     /**
      * Opens the file and parse the meta data. Other data will be read by invoking the read methods
@@ -46,8 +54,43 @@ public class Flash3Reader extends Hdf5Reader {
      * @see Hdf5Reader#Hdf5Reader(java.io.File)
      */
     public Flash3Reader(File file) throws Exception {
-        super(file);
-        this.metaData = new Flash3MetaData(super.getMetaData());
+        this(file, false);
+    }
+
+    /**
+     * Opens the file and parse the meta data. Other data will be read by invoking the read methods
+     *
+     * @param file       The file to open. Must exists and the file must be a FLASH3 HDF5 file
+     * @param javaReader If true, the values are read without the native library
+     * @throws Exception Something went wrong while reading
+     * @see Hdf5Reader#Hdf5Reader(java.io.File, boolean)
+     */
+    public Flash3Reader(File file, boolean javaReader) throws Exception {
+        this(file, javaReader, 0L);
+    }
+
+    /**
+     * Opens the file and parse the meta data. Other data will be read by invoking the read methods. The values read by
+     * {@link #readFloatValues(String, int, int)} and {@link #readIntValues(String, int, int)} are cached, so reading a
+     * range of blocks again costs a copy only.
+     *
+     * @param file       The file to open. Must exists and the file must be a FLASH3 HDF5 file
+     * @param javaReader If true, the values are read without the native library
+     * @param cacheSize  The size of the cache in bytes, 0 disables the cache
+     * @throws Exception Something went wrong while reading
+     * @see BlockCache
+     */
+    public Flash3Reader(File file, boolean javaReader, long cacheSize) throws Exception {
+        super(file, javaReader);
+        try {
+            if (cacheSize < 0)
+                throw new IllegalArgumentException("The cache size must not be negative, but was " + cacheSize);
+            this.metaData = new Flash3MetaData(super.getMetaData());
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
+        this.cache = cacheSize > 0 ? new BlockCache(cacheSize) : null;
     }
 
     @Override
@@ -55,6 +98,28 @@ public class Flash3Reader extends Hdf5Reader {
         return metaData;
     }
 
+    /**
+     * @return The cache of the read values or <code>null</code>, if the values are not cached
+     */
+    public BlockCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Cache only the values of some datasets. The other datasets are read past the cache, so ranges read once don't
+     * evict the ranges read again.
+     *
+     * @param dataSetNames The names of the cached datasets or <code>null</code> to cache all datasets, the default
+     */
+    public void setCachedDatasets(Collection<String> dataSetNames) {
+        this.cachedDatasets = dataSetNames == null ? null : Collections.unmodifiableSet(new HashSet<>(dataSetNames));
+    }
+
+    private boolean isCached(String dataSetName) {
+        Set<String> cachedDatasets = this.cachedDatasets;
+        return cache != null && (cachedDatasets == null || cachedDatasets.contains(dataSetName));
+    }
+
     /**
      * Read the values of the given dataset only for the block instead of all values.
      *
@@ -63,17 +128,72 @@ public class Flash3Reader extends Hdf5Reader {
      * @return An array containing the values
      * @throws Exception Something went wrong while reading
      * @see #readFloatValues(String)
+     * @see #readFloatValues(String, int, int)
      */
     public float[] readFloatValues(String dataSetName, Block block) throws Exception {
+        return readFloatValues(dataSetName, block.getId(), 1);
+    }
+
+    /**
+     * Read the values of the given dataset for a range of blocks with consecutive ids. The blocks are read at once,
+     * which is much faster than reading every single block.
+     *
+     * @param dataSetName  The name of the dataset. Must hold float values
+     * @param firstBlockId The id of the first block, 1 based
+     * @param count        The amount of blocks to read
+     * @return An array containing the values of all blocks ordered by their id
+     * @throws Exception Something went wrong while reading
+     * @see #readFloatValues(String, Block)
+     */
+    public float[] readFloatValues(String dataSetName, int firstBlockId, int count) throws Exception {
+        if (!isCached(dataSetName))
+            return readUncachedFloatValues(dataSetName, firstBlockId, count);
+
+        float[] values = cache.getFloats(dataSetName, firstBlockId, count);
+        if (values == null) {
+            values = readUncachedFloatValues(dataSetName, firstBlockId, count);
+            cache.putFloats(dataSetName, firstBlockId, count, values);
+        }
+        return values;
+    }
+
+    private float[] readUncachedFloatValues(String dataSetName, int firstBlockId, int count) throws Exception {
+        if (getNioReader() != null) {
+            checkBlockRange(metaData.getDimensions(dataSetName), firstBlockId, count);
+            return getNioReader().readFloatValues(dataSetName, firstBlockId - 1, count);
+        }
+
         Dataset dataset = metaData.getDataset(dataSetName);
         if (dataset == null)
             throw new NoSuchElementException("No dataset named '" + dataSetName + "' found!");
 
-        dataset.init();
-        selectAll(dataset);
+        // The selection is part of the dataset object and must not be changed while reading
+        synchronized (dataset) {
+            dataset.init();
+            selectAll(dataset);
+
+            restrictToBlocks(dataset, firstBlockId, count);
+            return (float[]) dataset.read();
+        }
+    }
+
+    /**
+     * Get the values of the given dataset for a range of blocks with consecutive ids as a read only buffer. If the
+     * values are read without the native library, the dataset is not cached and stored contiguous, the buffer is a
+     * view on the memory mapped file. Otherwise the values are read by {@link #readFloatValues(String, int, int)}
+     *
+     * @param dataSetName  The name of the dataset. Must hold float values
+     * @param firstBlockId The id of the first block, 1 based
+     * @param count        The amount of blocks
+     * @return A buffer containing the values of all blocks ordered by their id
+     * @throws Exception Something went wrong while reading
+     */
+    public FloatBuffer readFloatView(String dataSetName, int firstBlockId, int count) throws Exception {
+        if (getNioReader() == null || isCached(dataSetName))
+            return FloatBuffer.wrap(readFloatValues(dataSetName, firstBlockId, count)).asReadOnlyBuffer();
 
-        restrictToBlock(dataset, block);
-        return (float[]) dataset.read();
+        checkBlockRange(metaData.getDimensions(dataSetName), firstBlockId, count);
+        return getNioReader().readFloatView(dataSetName, firstBlockId - 1, count);
     }
 
     /**
@@ -84,22 +204,65 @@ public class Flash3Reader extends Hdf5Reader {
      * @return An array containing the values
      * @throws Exception Something went wrong while reading
      * @see #readIntValues(String)
+     * @see #readIntValues(String, int, int)
      */
     public int[] readIntValues(String dataSetName, Block block) throws Exception {
+        return readIntValues(dataSetName, block.getId(), 1);
+    }
+
+    /**
+     * Read the values of the given dataset for a range of blocks with consecutive ids. The blocks are read at once,
+     * which is much faster than reading every single block.
+     *
+     * @param dataSetName  The name of the dataset. Must hold int values
+     * @param firstBlockId The id of the first block, 1 based
+     * @param count        The amount of blocks to read
+     * @return An array containing the values of all blocks ordered by their id
+     * @throws Exception Something went wrong while reading
+     * @see #readIntValues(String, Block)
+     */
+    public int[] readIntValues(String dataSetName, int firstBlockId, int count) throws Exception {
+        if (!isCached(dataSetName))
+            return readUncachedIntValues(dataSetName, firstBlockId, count);
+
+        int[] values = cache.getInts(dataSetName, firstBlockId, count);
+        if (values == null) {
+            values = readUncachedIntValues(dataSetName, firstBlockId, count);
+            cache.putInts(dataSetName, firstBlockId, count, values);
+        }
+        return values;
+    }
+
+    private int[] readUncachedIntValues(String dataSetName, int firstBlockId, int count) throws Exception {
+        if (getNioReader() != null) {
+            checkBlockRange(metaData.getDimensions(dataSetName), firstBlockId, count);
+            return getNioReader().readIntValues(dataSetName, firstBlockId - 1, count);
+        }
+
         Dataset dataset = metaData.getDataset(dataSetName);
         if (dataset == null)
             throw new NoSuchElementException("No dataset named '" + dataSetName + "' found!");
 
-        dataset.init();
-        selectAll(dataset);
+        // The selection is part of the dataset object and must not be changed while reading
+        synchronized (dataset) {
+            dataset.init();
+            selectAll(dataset);
 
-        restrictToBlock(dataset, block);
-        return (int[]) dataset.read();
+            restrictToBlocks(dataset, firstBlockId, count);
+            return (int[]) dataset.read();
+        }
     }
 
-    private void restrictToBlock(Dataset dataset, Block block) {
+    private void restrictToBlocks(Dataset dataset, int firstBlockId, int count) {
+        checkBlockRange(dataset.getDims(), firstBlockId, count);
+
+        dataset.getSelectedDims()[0] = count;
+        dataset.getStartDims()[0] = firstBlockId - 1;
+    }
 
-        dataset.getSelectedDims()[0] = 1;
-        dataset.getStartDims()[0] = block.getId() - 1;
+    private void checkBlockRange(long[] dimensions, int firstBlockId, int count) {
+        long blocks = dimensions[0];
+        if (firstBlockId < 1 || count < 1 || firstBlockId - 1 + count > blocks)
+            throw new IndexOutOfBoundsException("Blocks [" + firstBlockId + ", " + (firstBlockId + count - 1) + "] are out of the range [1, " + blocks + "]");
     }
 }
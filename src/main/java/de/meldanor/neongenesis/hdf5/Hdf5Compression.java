@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.hdf5;
+
+/**
+ * The storage layout of the variable datasets written by a {@link Hdf5Writer}. Datasets can be stored in chunks of
+ * a single entry of the first dimension - for FLASH3 data one chunk per block - and every chunk can be filtered by
+ * shuffle and compressed by deflate. Filters require chunks, so they are enabled automatically if a filter is used.
+ * <p>
+ * The class is immutable.
+ */
+public class Hdf5Compression {
+
+    /**
+     * Contiguous datasets without any compression
+     */
+    public static final Hdf5Compression NONE = new Hdf5Compression(false, 0, false);
+
+    private final boolean chunked;
+    private final int deflateLevel;
+    private final boolean shuffle;
+
+    /**
+     * @param chunked      If true, every entry of the first dimension is stored in its own chunk
+     * @param deflateLevel The deflate level from 0 to 9. 0 disables the compression
+     * @param shuffle      If true, the bytes of the values are shuffled before compressing them. This improves the
+     *                     compression of float values
+     */
+    public Hdf5Compression(boolean chunked, int deflateLevel, boolean shuffle) {
+        if (deflateLevel < 0 || deflateLevel > 9)
+            throw new IllegalArgumentException("The deflate level must be between 0 and 9, but was " + deflateLevel);
+        this.chunked = chunked || deflateLevel > 0 || shuffle;
+        this.deflateLevel = deflateLevel;
+        this.shuffle = shuffle;
+    }
+
+    /**
+     * @return true, if the datasets are stored in chunks
+     */
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    /**
+     * @return The deflate level from 0 to 9. 0, if the datasets are not compressed
+     */
+    public int getDeflateLevel() {
+        return deflateLevel;
+    }
+
+    /**
+     * @return true, if the bytes of the values are shuffled before compressing
+     */
+    public boolean isShuffle() {
+        return shuffle;
+    }
+
+    /**
+     * @param dimensions The dimensions of a dataset
+     * @return The dimensions of a chunk containing a single entry of the first dimension
+     */
+    long[] getChunkDimensions(long... dimensions) {
+        long[] chunks = dimensions.clone();
+        chunks[0] = 1L;
+        return chunks;
+    }
+
+    @Override
+    public String toString() {
+        return "Hdf5Compression{" +
+                "chunked=" + chunked +
+                ", deflateLevel=" + deflateLevel +
+                ", shuffle=" + shuffle +
+                '}';
+    }
+}
@@ -24,45 +24,163 @@
 
 package de.meldanor.neongenesis.hdf5;
 
+import de.meldanor.neongenesis.hdf5.nio.DataType;
+import de.meldanor.neongenesis.hdf5.nio.NioHdf5Reader;
 import ncsa.hdf.object.Dataset;
+import ncsa.hdf.object.Datatype;
 
-import java.util.Collections;
-import java.util.Map;
+import java.util.*;
 
 /**
- * A general class for HDF5 files metadata describing the datasets
+ * A general class for HDF5 files metadata describing the datasets. The datasets are described by the native library
+ * or, if the file is read without it, by the {@link NioHdf5Reader}.
  */
 public class Hdf5MetaData {
 
-    private Map<String, Dataset> datasetMap;
+    private final Map<String, Dataset> datasetMap;
+    private final NioHdf5Reader nioReader;
+    private final Set<String> datasetNames;
 
     boolean isClosed = false;
 
     public Hdf5MetaData(Map<String, Dataset> datasetMap) {
         this.datasetMap = Collections.unmodifiableMap(datasetMap);
+        this.nioReader = null;
+        this.datasetNames = this.datasetMap.keySet();
     }
 
     /**
-     * Will result in an IllegalStateException if the reader was closed
+     * @param nioReader Describes the datasets without the native library
+     */
+    public Hdf5MetaData(NioHdf5Reader nioReader) {
+        this.datasetMap = null;
+        this.nioReader = nioReader;
+        this.datasetNames = Collections.unmodifiableSet(nioReader.getDatasets().keySet());
+    }
+
+    /**
+     * Describes the same datasets as the other meta data
+     *
+     * @param data The meta data of the same file
+     */
+    protected Hdf5MetaData(Hdf5MetaData data) {
+        this.datasetMap = data.datasetMap;
+        this.nioReader = data.nioReader;
+        this.datasetNames = data.datasetNames;
+    }
+
+    /**
+     * @return The pure Java reader describing the datasets or null, if they are described by the native library
+     */
+    NioHdf5Reader getNioReader() {
+        return nioReader;
+    }
+
+    /**
+     * Will result in an IllegalStateException if the reader was closed or the file was read without the native
+     * library
      *
      * @return an unmodifiable version of the dataset map
      */
     public Map<String, Dataset> getDatasetMap() {
-        if (isClosed)
-            throw new IllegalStateException("Reader was closed, no access to datasets!");
+        checkNative();
         return datasetMap;
     }
 
     /**
-     * Will result in an IllegalStateException if the reader was closed
+     * Will result in an IllegalStateException if the reader was closed or the file was read without the native
+     * library
      *
      * @return The given dataset
      */
     public Dataset getDataset(String datasetName) {
-        if (isClosed)
-            throw new IllegalStateException("Reader was closed, no access to datasets!");
+        checkNative();
         return datasetMap.get(datasetName);
     }
 
+    /**
+     * Will result in an IllegalStateException if the reader was closed
+     *
+     * @return The unmodifiable names of all datasets
+     */
+    public Set<String> getDatasetNames() {
+        checkOpen();
+        return datasetNames;
+    }
 
+    /**
+     * Will result in an IllegalStateException if the reader was closed
+     *
+     * @param datasetName The name of the dataset
+     * @return True, if the file contains the dataset
+     */
+    public boolean containsDataset(String datasetName) {
+        checkOpen();
+        return datasetNames.contains(datasetName);
+    }
+
+    /**
+     * Will result in an IllegalStateException if the reader was closed
+     *
+     * @param datasetName The name of the dataset
+     * @return The class of the datatype of the dataset, for example {@link Datatype#CLASS_FLOAT} or
+     * {@link Datatype#CLASS_INTEGER}
+     * @throws Exception The dataset does not exist or something went wrong while reading its description
+     */
+    public int getDatatypeClass(String datasetName) throws Exception {
+        checkOpen();
+        if (nioReader != null) {
+            switch (nioReader.getDataset(datasetName).getDataType().getTypeClass()) {
+                case DataType.CLASS_FIXED_POINT:
+                    return Datatype.CLASS_INTEGER;
+                case DataType.CLASS_FLOATING_POINT:
+                    return Datatype.CLASS_FLOAT;
+                case DataType.CLASS_STRING:
+                    return Datatype.CLASS_STRING;
+                case DataType.CLASS_COMPOUND:
+                    return Datatype.CLASS_COMPOUND;
+                default:
+                    return Datatype.CLASS_NO_CLASS;
+            }
+        }
+
+        Dataset dataset = getExistingDataset(datasetName);
+        dataset.init();
+        return dataset.getDatatype().getDatatypeClass();
+    }
+
+    /**
+     * Will result in an IllegalStateException if the reader was closed
+     *
+     * @param datasetName The name of the dataset
+     * @return The dimensions of the dataset
+     * @throws Exception The dataset does not exist or something went wrong while reading its description
+     */
+    public long[] getDimensions(String datasetName) throws Exception {
+        checkOpen();
+        if (nioReader != null)
+            return nioReader.getDataset(datasetName).getDimensions().clone();
+
+        Dataset dataset = getExistingDataset(datasetName);
+        dataset.init();
+        return dataset.getDims().clone();
+    }
+
+    private Dataset getExistingDataset(String datasetName) {
+        Dataset dataset = datasetMap.get(datasetName);
+        if (dataset == null)
+            throw new NoSuchElementException("No dataset named '" + datasetName + "' found!");
+        return dataset;
+    }
+
+    private void checkOpen() {
+        if (isClosed)
+            throw new IllegalStateException("Reader was closed, no access to datasets!");
+    }
+
+    private void checkNative() {
+        checkOpen();
+        if (datasetMap == null)
+            throw new IllegalStateException("The file was read without the native library, no access to datasets!");
+    }
 }
@@ -24,6 +24,7 @@
 
 package de.meldanor.neongenesis.hdf5;
 
+import de.meldanor.neongenesis.hdf5.nio.NioHdf5Reader;
 import ncsa.hdf.object.Dataset;
 import ncsa.hdf.object.FileFormat;
 import ncsa.hdf.object.Group;
@@ -45,11 +46,12 @@ import java.util.stream.Collectors;
  */
 public class Hdf5Reader implements Closeable {
 
-    private static final FileFormat FILE_FORMAT = FileFormat.getFileFormat(FileFormat.FILE_TYPE_HDF5);
     private final FileFormat instance;
 
     private final Hdf5MetaData metaData;
 
+    private final NioHdf5Reader nioReader;
+
     /**
      * Opens the file and parse the meta data. Other data will be read by invoking the read methods
      *
@@ -57,10 +59,42 @@ public class Hdf5Reader implements Closeable {
      * @throws Exception Something went wrong while reading
      */
     public Hdf5Reader(File file) throws Exception {
-        instance = FILE_FORMAT.createInstance(file.getAbsolutePath(), FileFormat.READ);
-        instance.open();
-        Group root = (Group) ((javax.swing.tree.DefaultMutableTreeNode) instance.getRootNode()).getUserObject();
-        metaData = new Hdf5MetaData(getObjectMap(root));
+        this(file, false);
+    }
+
+    /**
+     * Opens the file and parse the meta data. Other data will be read by invoking the read methods
+     *
+     * @param file       The file to open. Must exists and the file must be a FLASH3 HDF5 file
+     * @param javaReader If true, the meta data and the values are read by the {@link NioHdf5Reader} and the native
+     *                   library is not used at all
+     * @throws Exception Something went wrong while reading
+     */
+    public Hdf5Reader(File file, boolean javaReader) throws Exception {
+        if (javaReader) {
+            instance = null;
+            nioReader = new NioHdf5Reader(file);
+            metaData = new Hdf5MetaData(nioReader);
+            return;
+        }
+
+        nioReader = null;
+        instance = NativeFormat.FILE_FORMAT.createInstance(file.getAbsolutePath(), FileFormat.READ);
+        try {
+            instance.open();
+            Group root = (Group) ((javax.swing.tree.DefaultMutableTreeNode) instance.getRootNode()).getUserObject();
+            metaData = new Hdf5MetaData(getObjectMap(root));
+        } catch (Exception e) {
+            instance.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Holds the file format of the native library, so the library is only loaded if a file is read by it
+     */
+    private static class NativeFormat {
+        private static final FileFormat FILE_FORMAT = FileFormat.getFileFormat(FileFormat.FILE_TYPE_HDF5);
     }
 
     /**
@@ -71,8 +105,14 @@ public class Hdf5Reader implements Closeable {
     @Override
     public void close() throws IOException {
         try {
-            getMetaData().isClosed = true;
-            instance.close();
+            metaData.isClosed = true;
+            // Subclasses can provide their own meta data, which is null if parsing it has failed
+            if (getMetaData() != null)
+                getMetaData().isClosed = true;
+            if (nioReader != null)
+                nioReader.close();
+            if (instance != null)
+                instance.close();
         } catch (Exception e) {
             throw new IOException(e);
         }
@@ -83,6 +123,13 @@ public class Hdf5Reader implements Closeable {
                 .collect(Collectors.toMap(HObject::getName, Function.identity()));
     }
 
+    /**
+     * @return The pure Java reader of the values or null, if the values are read by the native library
+     */
+    protected NioHdf5Reader getNioReader() {
+        return nioReader;
+    }
+
     /**
      * @return The files meta data
      */
@@ -98,13 +145,20 @@ public class Hdf5Reader implements Closeable {
      * @throws Exception Something went wrong while reading
      */
     public float[] readFloatValues(String dataSetName) throws Exception {
+        if (nioReader != null) {
+            if (metaData.isClosed)
+                throw new IllegalStateException("Reader was closed, no access to datasets!");
+            return nioReader.readFloatValues(dataSetName);
+        }
+
         Dataset dataset = metaData.getDataset(dataSetName);
         if (dataset == null)
             throw new NoSuchElementException("No dataset named '" + dataSetName + "' found!");
-
-        dataset.init();
-        selectAll(dataset);
-        return (float[]) dataset.read();
+        synchronized (dataset) {
+            dataset.init();
+            selectAll(dataset);
+            return (float[]) dataset.read();
+        }
     }
 
     /**
@@ -115,13 +169,20 @@ public class Hdf5Reader implements Closeable {
      * @throws Exception Something went wrong while reading
      */
     public int[] readIntValues(String dataSetName) throws Exception {
+        if (nioReader != null) {
+            if (metaData.isClosed)
+                throw new IllegalStateException("Reader was closed, no access to datasets!");
+            return nioReader.readIntValues(dataSetName);
+        }
+
         Dataset dataset = metaData.getDataset(dataSetName);
         if (dataset == null)
             throw new NoSuchElementException("No dataset named '" + dataSetName + "' found!");
-
-        dataset.init();
-        selectAll(dataset);
-        return (int[]) dataset.read();
+        synchronized (dataset) {
+            dataset.init();
+            selectAll(dataset);
+            return (int[]) dataset.read();
+        }
     }
 
     /**
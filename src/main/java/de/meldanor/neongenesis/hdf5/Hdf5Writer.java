@@ -24,21 +24,26 @@
 
 package de.meldanor.neongenesis.hdf5;
 
+import de.meldanor.neongenesis.hdf5.nio.DataType;
+import de.meldanor.neongenesis.hdf5.nio.NioHdf5Reader;
+import ncsa.hdf.hdf5lib.H5;
+import ncsa.hdf.hdf5lib.HDF5Constants;
 import ncsa.hdf.hdf5lib.exceptions.HDF5Exception;
 import ncsa.hdf.object.*;
 import ncsa.hdf.object.h5.H5CompoundDS;
+import ncsa.hdf.object.h5.H5Datatype;
 import ncsa.hdf.object.h5.H5File;
 import ncsa.hdf.object.h5.H5ScalarDS;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
-import java.util.Map;
-import java.util.Vector;
+import java.lang.reflect.Array;
+import java.util.*;
 
 /**
- * A writer for HDF5 files. The files are always without any compression or chunks to keep it simple.
+ * A writer for HDF5 files. Datasets written at once are always without any compression or chunks to keep it simple.
+ * Datasets created empty and written slab by slab use the {@link Hdf5Compression} of the writer.
  */
 public class Hdf5Writer implements Closeable {
 
@@ -49,6 +54,7 @@ public class Hdf5Writer implements Closeable {
 
     private final H5File hdf5File;
     private final Group root;
+    private final Hdf5Compression compression;
 
     /**
      * Opens a writer to the file and create the file, if not exists.
@@ -60,6 +66,18 @@ public class Hdf5Writer implements Closeable {
         this(file.getAbsolutePath());
     }
 
+    /**
+     * Opens a writer to the file and create the file, if not exists.
+     *
+     * @param file        The file to write to
+     * @param compression The layout of the datasets created by {@link #createIntDataset(String, long...)} and
+     *                    {@link #createFloatDataset(String, long...)}
+     * @throws Exception Can't create or modify the file.
+     */
+    public Hdf5Writer(File file, Hdf5Compression compression) throws Exception {
+        this(file.getAbsolutePath(), compression);
+    }
+
     /**
      * Opens a writer to the files path and create the file if necessary.
      *
@@ -67,6 +85,19 @@ public class Hdf5Writer implements Closeable {
      * @throws Exception Can't create or modify the file.
      */
     public Hdf5Writer(String file) throws Exception {
+        this(file, Hdf5Compression.NONE);
+    }
+
+    /**
+     * Opens a writer to the files path and create the file if necessary.
+     *
+     * @param file        The file to write to.
+     * @param compression The layout of the datasets created by {@link #createIntDataset(String, long...)} and
+     *                    {@link #createFloatDataset(String, long...)}
+     * @throws Exception Can't create or modify the file.
+     */
+    public Hdf5Writer(String file, Hdf5Compression compression) throws Exception {
+        this.compression = compression;
         this.hdf5File = (H5File) FILE_FORMAT.createFile(file, FileFormat.FILE_CREATE_DELETE);
         if (hdf5File == null)
             throw new IOException("Failed to create file: " + file);
@@ -166,6 +197,148 @@ public class Hdf5Writer implements Closeable {
         return dataset;
     }
 
+    /**
+     * Create a dataset of integer without writing any values. The values are written afterwards slab by slab using
+     * {@link #writeIntSlab(H5ScalarDS, long, int[])}, so the whole data must never exist at once.
+     *
+     * @param name       The name of the dataset. Must be unique, otherwise an error is thrown.
+     * @param dimensions The single dimensions of the data.
+     * @return The created dataset.
+     * @throws Exception The writer was closed or the dataset already exists.
+     */
+    public H5ScalarDS createIntDataset(String name, long... dimensions) throws Exception {
+        return createDataset(name, Flash3DataTypes.INT.getDatatype(), dimensions);
+    }
+
+    /**
+     * Create a dataset of float without writing any values. The values are written afterwards slab by slab using
+     * {@link #writeFloatSlab(H5ScalarDS, long, float[])}, so the whole data must never exist at once.
+     *
+     * @param name       The name of the dataset. Must be unique, otherwise an error is thrown.
+     * @param dimensions The single dimensions of the data.
+     * @return The created dataset.
+     * @throws Exception The writer was closed or the dataset already exists.
+     */
+    public H5ScalarDS createFloatDataset(String name, long... dimensions) throws Exception {
+        return createDataset(name, Flash3DataTypes.FLOAT.getDatatype(), dimensions);
+    }
+
+    private H5ScalarDS createDataset(String name, Datatype datatype, long... dimensions) throws Exception {
+        H5ScalarDS dataset;
+        if (compression.isChunked())
+            dataset = createChunkedDataset(name, datatype, dimensions);
+        else
+            dataset = (H5ScalarDS) hdf5File.createScalarDS(name, root, datatype, dimensions, SAME_MAX_DIMENSION,
+                    NO_CHUNKS, NO_COMPRESSION, null);
+
+        if (dataset == null)
+            throw new IOException("Can't create dataset '" + name + "' in file: " + hdf5File.getName());
+
+        dataset.init();
+        return dataset;
+    }
+
+    /**
+     * Create the dataset by the low level API, because the object API does not support the shuffle filter. The
+     * shuffle filter must be set before the deflate filter to take effect.
+     */
+    private H5ScalarDS createChunkedDataset(String name, Datatype datatype, long... dimensions) throws Exception {
+        int typeId = -1;
+        int spaceId = -1;
+        int propertiesId = -1;
+        int datasetId = -1;
+        try {
+            typeId = datatype.toNative();
+            spaceId = H5.H5Screate_simple(dimensions.length, dimensions, SAME_MAX_DIMENSION);
+            propertiesId = H5.H5Pcreate(HDF5Constants.H5P_DATASET_CREATE);
+            long[] chunks = compression.getChunkDimensions(dimensions);
+            H5.H5Pset_chunk(propertiesId, chunks.length, chunks);
+            if (compression.isShuffle())
+                H5.H5Pset_shuffle(propertiesId);
+            if (compression.getDeflateLevel() > 0)
+                H5.H5Pset_deflate(propertiesId, compression.getDeflateLevel());
+
+            datasetId = H5.H5Dcreate(hdf5File.getFID(), "/" + name, typeId, spaceId, HDF5Constants.H5P_DEFAULT, propertiesId, HDF5Constants.H5P_DEFAULT);
+        } finally {
+            if (datasetId >= 0)
+                H5.H5Dclose(datasetId);
+            if (propertiesId >= 0)
+                H5.H5Pclose(propertiesId);
+            if (spaceId >= 0)
+                H5.H5Sclose(spaceId);
+            if (typeId >= 0)
+                H5.H5Tclose(typeId);
+        }
+
+        return (H5ScalarDS) hdf5File.get("/" + name);
+    }
+
+    /**
+     * Write a slab of integer to a dataset. A slab are consecutive entries of the first dimension, for example some
+     * blocks of a FLASH3 variable.
+     * <p>
+     * The selection is part of the dataset object, so a dataset must not be written by multiple threads at once.
+     *
+     * @param dataset     The dataset created by {@link #createIntDataset(String, long...)}
+     * @param firstIndex  The index of the first entry of the first dimension to write, 0 based
+     * @param flattenData The flatten data. The length must be a multiple of the size of a single entry.
+     * @throws Exception The writer was closed or the slab does not fit in the dataset.
+     */
+    public void writeIntSlab(H5ScalarDS dataset, long firstIndex, int[] flattenData) throws Exception {
+        selectSlab(dataset, firstIndex, flattenData.length);
+        dataset.write(flattenData);
+    }
+
+    /**
+     * Write a slab of float to a dataset. A slab are consecutive entries of the first dimension, for example some
+     * blocks of a FLASH3 variable.
+     * <p>
+     * The selection is part of the dataset object, so a dataset must not be written by multiple threads at once.
+     *
+     * @param dataset     The dataset created by {@link #createFloatDataset(String, long...)}
+     * @param firstIndex  The index of the first entry of the first dimension to write, 0 based
+     * @param flattenData The flatten data. The length must be a multiple of the size of a single entry.
+     * @throws Exception The writer was closed or the slab does not fit in the dataset.
+     */
+    public void writeFloatSlab(H5ScalarDS dataset, long firstIndex, float[] flattenData) throws Exception {
+        selectSlab(dataset, firstIndex, flattenData.length);
+        dataset.write(flattenData);
+    }
+
+    private void selectSlab(H5ScalarDS dataset, long firstIndex, int length) {
+        long[] dims = dataset.getDims();
+        long entrySize = 1L;
+        for (int i = 1; i < dims.length; i++) {
+            entrySize *= dims[i];
+        }
+        if (length % entrySize != 0)
+            throw new IllegalArgumentException("The length " + length + " is not a multiple of the entry size " + entrySize);
+
+        long count = length / entrySize;
+        if (firstIndex < 0 || count < 1 || firstIndex + count > dims[0])
+            throw new IndexOutOfBoundsException("Entries [" + firstIndex + ", " + (firstIndex + count - 1) + "] are out of the range [0, " + (dims[0] - 1) + "]");
+
+        long[] selectedDims = dataset.getSelectedDims();
+        long[] startDims = dataset.getStartDims();
+        System.arraycopy(dims, 0, selectedDims, 0, selectedDims.length);
+        Arrays.fill(startDims, 0L);
+        selectedDims[0] = count;
+        startDims[0] = firstIndex;
+    }
+
+    /**
+     * Write attributes to a dataset. An attribute is a metadata about the data, for example the maximum or minimum.
+     *
+     * @param dataset    The dataset of this file
+     * @param attributes A list of attributes written as metadata to the dataset.
+     * @throws Exception The writer was closed or an attribute already exists.
+     */
+    public void writeAttributes(Dataset dataset, List<Attribute> attributes) throws Exception {
+        for (Attribute attribute : attributes) {
+            dataset.writeMetadata(attribute);
+        }
+    }
+
     /**
      * Create a compound dataset, containing different datatypes. The data is a vector containing the different data arrays.
      * For gods sake, what have they done?
@@ -219,6 +392,160 @@ public class Hdf5Writer implements Closeable {
         hdf5File.copy(original, root, newName);
     }
 
+    /**
+     * Creates a copy of a dataset of another file. If the file was read without the native library, the values are
+     * read by the {@link NioHdf5Reader} and written with the same dimensions and precision.
+     *
+     * @param source The meta data of the other file. Must be open.
+     * @param name   The name of the dataset, which is the name of the copy too
+     * @throws Exception The writer was closed, the dataset already exists or something went wrong while reading
+     * @see #copyDataset(ncsa.hdf.object.Dataset)
+     */
+    public void copyDataset(Hdf5MetaData source, String name) throws Exception {
+        NioHdf5Reader nioReader = source.getNioReader();
+        if (nioReader == null) {
+            copyDataset(source.getDataset(name));
+            return;
+        }
+
+        DataType type = nioReader.getDataset(name).getDataType();
+        long[] dims = source.getDimensions(name);
+        if (dims.length == 0)
+            dims = new long[]{1L};
+
+        if (type.getTypeClass() == DataType.CLASS_COMPOUND) {
+            Map<String, Object> columns = nioReader.readCompound(name);
+            List<DataType.Member> members = type.getMembers();
+            Map<String, Datatype> datatypes = new LinkedHashMap<>();
+            for (DataType.Member member : members) {
+                datatypes.put(member.getName(), toDatatype(member.getType()));
+            }
+            int[] memberSizes = new int[members.size()];
+            Arrays.fill(memberSizes, 1);
+            writeCompound(name, new Vector<>(columns.values()), datatypes, memberSizes, dims);
+        } else {
+            writeValues(name, toDatatype(type), nioReader.readValues(name), dims);
+        }
+    }
+
+    /**
+     * @param type The type of the values in the file
+     * @return The datatype matching the array type of the values read by the {@link NioHdf5Reader}
+     */
+    private static Datatype toDatatype(DataType type) {
+        // Fixed and floating point values are read as 4 or 8 byte values
+        int size = type.getSize() == 8 ? 8 : 4;
+        switch (type.getTypeClass()) {
+            case DataType.CLASS_FIXED_POINT:
+                return new H5Datatype(Datatype.CLASS_INTEGER, size, Datatype.NATIVE, Datatype.NATIVE);
+            case DataType.CLASS_FLOATING_POINT:
+                return new H5Datatype(Datatype.CLASS_FLOAT, size, Datatype.NATIVE, Datatype.NATIVE);
+            case DataType.CLASS_STRING:
+                return new H5Datatype(Datatype.CLASS_STRING, type.getSize(), Datatype.NATIVE, Datatype.NATIVE);
+            default:
+                throw new UnsupportedOperationException("Can not copy values of type " + type);
+        }
+    }
+
+    private H5ScalarDS writeValues(String name, Datatype datatype, Object values, long... dimensions) throws Exception {
+        H5ScalarDS dataset = (H5ScalarDS) hdf5File.createScalarDS(name, root, datatype, dimensions, SAME_MAX_DIMENSION,
+                NO_CHUNKS, NO_COMPRESSION, values);
+        if (dataset == null)
+            throw new IOException("Can't write dataset '" + name + "' to file: " + hdf5File.getName());
+
+        return dataset;
+    }
+
+    /**
+     * Creates a copy of some entries of the first dimension of a dataset, for example some blocks of a FLASH3 meta
+     * data dataset. Only the ranges are read and written consecutively in their order, the datatype and the other
+     * dimensions are kept.
+     *
+     * @param original The original dataset. Must be open.
+     * @param runs     Two elements per range of entries of the first dimension: the first index, 0 based, and the
+     *                 amount of entries
+     * @return The created dataset.
+     * @throws Exception The writer was closed, the dataset already exists or an entry does not exist.
+     * @see BlockSelection#getOriginalRuns(int)
+     */
+    public H5ScalarDS copyDatasetEntries(Dataset original, int[] runs) throws Exception {
+        original.init();
+        long[] dims = original.getDims().clone();
+        // Select the whole other dimensions, init selects only a two dimensional plane
+        System.arraycopy(dims, 0, original.getSelectedDims(), 0, dims.length);
+        Arrays.fill(original.getStartDims(), 0L);
+
+        Object selected = null;
+        int position = 0;
+        for (int i = 0; i < runs.length; i += 2) {
+            checkRun(runs[i], runs[i + 1], dims);
+            original.getStartDims()[0] = runs[i];
+            original.getSelectedDims()[0] = runs[i + 1];
+            Object values = original.read();
+            if (selected == null)
+                selected = Array.newInstance(values.getClass().getComponentType(), entryCount(runs) * (Array.getLength(values) / runs[i + 1]));
+            System.arraycopy(values, 0, selected, position, Array.getLength(values));
+            position += Array.getLength(values);
+        }
+        dims[0] = entryCount(runs);
+
+        H5ScalarDS dataset = (H5ScalarDS) hdf5File.createScalarDS(original.getName(), root, original.getDatatype(), dims, SAME_MAX_DIMENSION,
+                NO_CHUNKS, NO_COMPRESSION, selected);
+        if (dataset == null)
+            throw new IOException("Can't write dataset '" + original.getName() + "' to file: " + hdf5File.getName());
+
+        return dataset;
+    }
+
+    /**
+     * Creates a copy of some entries of the first dimension of a dataset of another file. If the file was read without
+     * the native library, the values are read by the {@link NioHdf5Reader}.
+     *
+     * @param source The meta data of the other file. Must be open.
+     * @param name   The name of the dataset, which is the name of the copy too
+     * @param runs   Two elements per range of entries of the first dimension: the first index, 0 based, and the
+     *               amount of entries
+     * @return The created dataset.
+     * @throws Exception The writer was closed, the dataset already exists or an entry does not exist.
+     * @see #copyDatasetEntries(ncsa.hdf.object.Dataset, int[])
+     */
+    public H5ScalarDS copyDatasetEntries(Hdf5MetaData source, String name, int[] runs) throws Exception {
+        NioHdf5Reader nioReader = source.getNioReader();
+        if (nioReader == null)
+            return copyDatasetEntries(source.getDataset(name), runs);
+
+        DataType type = nioReader.getDataset(name).getDataType();
+        long[] dims = source.getDimensions(name);
+        Object selected = null;
+        int position = 0;
+        for (int i = 0; i < runs.length; i += 2) {
+            checkRun(runs[i], runs[i + 1], dims);
+            Object values = nioReader.readValues(name, runs[i], runs[i + 1]);
+            if (selected == null)
+                selected = Array.newInstance(values.getClass().getComponentType(), entryCount(runs) * (Array.getLength(values) / runs[i + 1]));
+            System.arraycopy(values, 0, selected, position, Array.getLength(values));
+            position += Array.getLength(values);
+        }
+        dims[0] = entryCount(runs);
+        return writeValues(name, toDatatype(type), selected, dims);
+    }
+
+    private static void checkRun(int first, int count, long[] dims) {
+        if (first < 0 || count <= 0 || first + count > dims[0])
+            throw new IndexOutOfBoundsException("Entries [" + first + ", " + (first + count - 1) + "] are out of the range [0, " + (dims[0] - 1) + "]");
+    }
+
+    /**
+     * @return The amount of entries of all ranges
+     */
+    private static int entryCount(int[] runs) {
+        int count = 0;
+        for (int i = 1; i < runs.length; i += 2) {
+            count += runs[i];
+        }
+        return count;
+    }
+
     @Override
     public void close() throws IOException {
         try {
@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.hdf5.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The version 1 B-tree indexing the chunks of a dataset
+ */
+class ChunkIndex {
+
+    private static final int CHUNK_NODE = 1;
+
+    private ChunkIndex() {
+    }
+
+    /**
+     * Read all chunks of the B-tree
+     *
+     * @param reader  The reader of the file
+     * @param address The address of the root node
+     * @param rank    The rank of the dataset
+     * @return All allocated chunks. Chunks never written are missing
+     * @throws IOException Error while reading the file
+     */
+    static List<Chunk> read(NioHdf5Reader reader, long address, int rank) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        if (address != NioHdf5Reader.UNDEFINED_ADDRESS)
+            readNode(reader, address, rank, chunks);
+        return chunks;
+    }
+
+    private static void readNode(NioHdf5Reader reader, long address, int rank, List<Chunk> chunks) throws IOException {
+        int offsetSize = reader.getOffsetSize();
+        ByteBuffer header = reader.read(address, 8);
+        if (header.get() != 'T' || header.get() != 'R' || header.get() != 'E' || header.get() != 'E')
+            throw new IOException("No B-tree node at " + address + "!");
+        int type = header.get() & 0xFF;
+        if (type != CHUNK_NODE)
+            throw new IOException("B-tree node at " + address + " is not a chunk node!");
+        int level = header.get() & 0xFF;
+        int entries = header.getShort() & 0xFFFF;
+
+        // The key consists of the chunk size, the filter mask and the offsets including the element size dimension
+        int keySize = 4 + 4 + 8 * (rank + 1);
+        ByteBuffer node = reader.read(address + 8 + 2 * offsetSize, entries * (keySize + offsetSize) + keySize);
+        for (int i = 0; i < entries; i++) {
+            int size = node.getInt();
+            int filterMask = node.getInt();
+            long[] offsets = new long[rank];
+            for (int j = 0; j < rank; j++) {
+                offsets[j] = node.getLong();
+            }
+            node.getLong();
+            long child = reader.readOffset(node);
+            if (level > 0)
+                readNode(reader, child, rank, chunks);
+            else
+                chunks.add(new Chunk(offsets, size, filterMask, child));
+        }
+    }
+
+    /**
+     * A single stored chunk of a dataset
+     */
+    static class Chunk {
+        private final long[] offsets;
+        private final int size;
+        private final int filterMask;
+        private final long address;
+
+        Chunk(long[] offsets, int size, int filterMask, long address) {
+            this.offsets = offsets;
+            this.size = size;
+            this.filterMask = filterMask;
+            this.address = address;
+        }
+
+        /**
+         * @return The position of the first element of the chunk in the dataset
+         */
+        long[] getOffsets() {
+            return offsets;
+        }
+
+        /**
+         * @return The stored size in bytes
+         */
+        int getSize() {
+            return size;
+        }
+
+        int getFilterMask() {
+            return filterMask;
+        }
+
+        long getAddress() {
+            return address;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.hdf5.nio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The storage of the raw data of a dataset. Compact, contiguous and chunked layouts of version 1 to 3 are supported.
+ */
+class DataLayout {
+
+    static final int COMPACT = 0;
+    static final int CONTIGUOUS = 1;
+    static final int CHUNKED = 2;
+
+    private final int layoutClass;
+    private final long address;
+    private final long size;
+    private final int[] chunkDimensions;
+    private final ByteBuffer compactData;
+
+    private DataLayout(int layoutClass, long address, long size, int[] chunkDimensions, ByteBuffer compactData) {
+        this.layoutClass = layoutClass;
+        this.address = address;
+        this.size = size;
+        this.chunkDimensions = chunkDimensions;
+        this.compactData = compactData;
+    }
+
+    /**
+     * Parse a data layout message
+     *
+     * @param reader      The reader of the file
+     * @param buffer      The message
+     * @param dimensions  The dimensions of the dataspace
+     * @param elementSize The size of a single element in bytes
+     * @return The parsed layout
+     */
+    static DataLayout parse(NioHdf5Reader reader, ByteBuffer buffer, long[] dimensions, int elementSize) {
+        int version = buffer.get() & 0xFF;
+        if (version < 3)
+            return parseVersion1(reader, buffer, dimensions, elementSize);
+        if (version > 3)
+            throw new UnsupportedOperationException("Unsupported data layout version " + version + "!");
+
+        int layoutClass = buffer.get() & 0xFF;
+        switch (layoutClass) {
+            case COMPACT:
+                int size = buffer.getShort() & 0xFFFF;
+                return new DataLayout(layoutClass, NioHdf5Reader.UNDEFINED_ADDRESS, size, null, compactData(buffer, size));
+            case CONTIGUOUS:
+                long address = reader.readOffset(buffer);
+                return new DataLayout(layoutClass, address, reader.readLength(buffer), null, null);
+            case CHUNKED:
+                int dimensionality = buffer.get() & 0xFF;
+                long btreeAddress = reader.readOffset(buffer);
+                return new DataLayout(layoutClass, btreeAddress, -1, readChunkDimensions(buffer, dimensionality), null);
+            default:
+                throw new UnsupportedOperationException("Unsupported data layout class " + layoutClass + "!");
+        }
+    }
+
+    private static DataLayout parseVersion1(NioHdf5Reader reader, ByteBuffer buffer, long[] dimensions, int elementSize) {
+        int dimensionality = buffer.get() & 0xFF;
+        int layoutClass = buffer.get() & 0xFF;
+        buffer.position(buffer.position() + 5);
+        long address = layoutClass == COMPACT ? NioHdf5Reader.UNDEFINED_ADDRESS : reader.readOffset(buffer);
+        switch (layoutClass) {
+            case COMPACT:
+                buffer.position(buffer.position() + 4 * dimensionality);
+                int size = buffer.getInt();
+                return new DataLayout(layoutClass, address, size, null, compactData(buffer, size));
+            case CONTIGUOUS:
+                buffer.position(buffer.position() + 4 * dimensionality);
+                long contiguousSize = elementSize;
+                for (long dimension : dimensions) {
+                    contiguousSize *= dimension;
+                }
+                return new DataLayout(layoutClass, address, contiguousSize, null, null);
+            case CHUNKED:
+                return new DataLayout(layoutClass, address, -1, readChunkDimensions(buffer, dimensionality), null);
+            default:
+                throw new UnsupportedOperationException("Unsupported data layout class " + layoutClass + "!");
+        }
+    }
+
+    private static int[] readChunkDimensions(ByteBuffer buffer, int dimensionality) {
+        // The last dimension is the size of an element and not a dimension of the dataspace
+        int[] chunkDimensions = new int[dimensionality - 1];
+        for (int i = 0; i < chunkDimensions.length; i++) {
+            chunkDimensions[i] = buffer.getInt();
+        }
+        return chunkDimensions;
+    }
+
+    private static ByteBuffer compactData(ByteBuffer buffer, int size) {
+        ByteBuffer data = buffer.slice();
+        data.limit(size);
+        return data;
+    }
+
+    int getLayoutClass() {
+        return layoutClass;
+    }
+
+    /**
+     * @return The address of the contiguous data or the address of the chunk B-tree
+     */
+    long getAddress() {
+        return address;
+    }
+
+    /**
+     * @return The size of the contiguous or compact data in bytes
+     */
+    long getSize() {
+        return size;
+    }
+
+    int[] getChunkDimensions() {
+        return chunkDimensions;
+    }
+
+    ByteBuffer getCompactData() {
+        return compactData.duplicate();
+    }
+}
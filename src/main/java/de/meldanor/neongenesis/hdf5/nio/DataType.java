@@ -0,0 +1,270 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.hdf5.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The datatype of a dataset or a member of a compound datatype. Only the classes used by FLASH3 are supported: fixed
+ * point and floating point numbers, fixed length strings, compounds and arrays as members of compounds.
+ */
+public class DataType {
+
+    public static final int CLASS_FIXED_POINT = 0;
+    public static final int CLASS_FLOATING_POINT = 1;
+    public static final int CLASS_STRING = 3;
+    public static final int CLASS_COMPOUND = 6;
+    public static final int CLASS_ARRAY = 10;
+
+    private final int typeClass;
+    private final int size;
+    private final ByteOrder byteOrder;
+    private final boolean signed;
+    private final List<Member> members;
+    private final DataType baseType;
+    private final int[] arrayDimensions;
+
+    private DataType(int typeClass, int size, ByteOrder byteOrder, boolean signed, List<Member> members, DataType baseType, int[] arrayDimensions) {
+        this.typeClass = typeClass;
+        this.size = size;
+        this.byteOrder = byteOrder;
+        this.signed = signed;
+        this.members = members;
+        this.baseType = baseType;
+        this.arrayDimensions = arrayDimensions;
+    }
+
+    /**
+     * Parse a datatype message. The position of the buffer is moved behind the datatype.
+     *
+     * @param buffer The message in little endian order
+     * @return The parsed datatype
+     */
+    static DataType parse(ByteBuffer buffer) {
+        int classAndVersion = buffer.get() & 0xFF;
+        int typeClass = classAndVersion & 0x0F;
+        int version = classAndVersion >>> 4;
+        int bitField0 = buffer.get() & 0xFF;
+        int bitField1 = buffer.get() & 0xFF;
+        // The third byte of the bit field is not used by the supported classes
+        buffer.get();
+        int size = buffer.getInt();
+
+        ByteOrder byteOrder = (bitField0 & 0x01) == 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        switch (typeClass) {
+            case CLASS_FIXED_POINT:
+                // Bit offset and bit precision
+                skip(buffer, 4);
+                return new DataType(typeClass, size, byteOrder, (bitField0 & 0x08) != 0, Collections.emptyList(), null, null);
+            case CLASS_FLOATING_POINT:
+                if ((bitField0 & 0x40) != 0)
+                    throw new UnsupportedOperationException("VAX floating point numbers are not supported!");
+                // Bit offset, bit precision, exponent and mantissa location and size, exponent bias
+                skip(buffer, 12);
+                return new DataType(typeClass, size, byteOrder, true, Collections.emptyList(), null, null);
+            case CLASS_STRING:
+                return new DataType(typeClass, size, byteOrder, false, Collections.emptyList(), null, null);
+            case CLASS_COMPOUND:
+                return parseCompound(buffer, version, size, bitField0 | (bitField1 << 8));
+            case CLASS_ARRAY:
+                return parseArray(buffer, version, size);
+            default:
+                throw new UnsupportedOperationException("Unsupported datatype class " + typeClass + "!");
+        }
+    }
+
+    private static DataType parseCompound(ByteBuffer buffer, int version, int size, int memberCount) {
+        List<Member> members = new ArrayList<>(memberCount);
+        for (int i = 0; i < memberCount; i++) {
+            int nameStart = buffer.position();
+            String name = readNullTerminated(buffer);
+            int offset;
+            if (version < 3) {
+                // The name is padded to a multiple of eight bytes
+                int nameLength = buffer.position() - nameStart;
+                skip(buffer, (8 - nameLength % 8) % 8);
+                offset = buffer.getInt();
+                if (version == 1) {
+                    // Dimensionality, reserved, permutation, reserved and four dimension sizes of the old array members
+                    int dimensionality = buffer.get() & 0xFF;
+                    skip(buffer, 3 + 4 + 4 + 16);
+                    if (dimensionality > 0)
+                        throw new UnsupportedOperationException("Array members of version 1 compounds are not supported!");
+                }
+            } else {
+                offset = (int) NioHdf5Reader.readUnsigned(buffer, bytesForOffset(size));
+            }
+            members.add(new Member(name, offset, parse(buffer)));
+        }
+        return new DataType(CLASS_COMPOUND, size, ByteOrder.LITTLE_ENDIAN, false, Collections.unmodifiableList(members), null, null);
+    }
+
+    private static int bytesForOffset(int size) {
+        if (size < (1 << 8))
+            return 1;
+        else if (size < (1 << 16))
+            return 2;
+        else if (size < (1 << 24))
+            return 3;
+        return 4;
+    }
+
+    private static DataType parseArray(ByteBuffer buffer, int version, int size) {
+        int dimensionality = buffer.get() & 0xFF;
+        if (version < 3)
+            skip(buffer, 3);
+        int[] dimensions = new int[dimensionality];
+        for (int i = 0; i < dimensionality; i++) {
+            dimensions[i] = buffer.getInt();
+        }
+        // The permutation indices are not used
+        if (version < 3)
+            skip(buffer, 4 * dimensionality);
+
+        return new DataType(CLASS_ARRAY, size, ByteOrder.LITTLE_ENDIAN, false, Collections.emptyList(), parse(buffer), dimensions);
+    }
+
+    private static String readNullTerminated(ByteBuffer buffer) {
+        StringBuilder builder = new StringBuilder();
+        byte b;
+        while ((b = buffer.get()) != 0) {
+            builder.append((char) (b & 0xFF));
+        }
+        return builder.toString();
+    }
+
+    private static void skip(ByteBuffer buffer, int bytes) {
+        buffer.position(buffer.position() + bytes);
+    }
+
+    /**
+     * @return The class of the datatype, for example {@link #CLASS_FLOATING_POINT}
+     */
+    public int getTypeClass() {
+        return typeClass;
+    }
+
+    /**
+     * @return The size of a single element in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The byte order of numbers
+     */
+    public ByteOrder getByteOrder() {
+        return byteOrder;
+    }
+
+    /**
+     * @return true, if the fixed point number is signed
+     */
+    public boolean isSigned() {
+        return signed;
+    }
+
+    /**
+     * @return The members of a compound datatype. Empty for other classes
+     */
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    /**
+     * @return The type of the elements of an array datatype. Null for other classes
+     */
+    public DataType getBaseType() {
+        return baseType;
+    }
+
+    /**
+     * @return The dimensions of an array datatype. Null for other classes
+     */
+    public int[] getArrayDimensions() {
+        return arrayDimensions;
+    }
+
+    @Override
+    public String toString() {
+        return "DataType{" +
+                "typeClass=" + typeClass +
+                ", size=" + size +
+                ", byteOrder=" + byteOrder +
+                ", signed=" + signed +
+                ", members=" + members +
+                '}';
+    }
+
+    /**
+     * A named member of a compound datatype
+     */
+    public static class Member {
+        private final String name;
+        private final int offset;
+        private final DataType type;
+
+        private Member(String name, int offset, DataType type) {
+            this.name = name;
+            this.offset = offset;
+            this.type = type;
+        }
+
+        /**
+         * @return The name of the member
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The byte offset of the member in a compound element
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return The type of the member
+         */
+        public DataType getType() {
+            return type;
+        }
+
+        @Override
+        public String toString() {
+            return "Member{" +
+                    "name='" + name + '\'' +
+                    ", offset=" + offset +
+                    ", type=" + type +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.hdf5.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The filters applied to the chunks of a dataset. Deflate, shuffle and Fletcher32 are supported, the Fletcher32
+ * checksum of every chunk is verified.
+ */
+class FilterPipeline {
+
+    static final int DEFLATE = 1;
+    static final int SHUFFLE = 2;
+    static final int FLETCHER32 = 3;
+
+    static final FilterPipeline EMPTY = new FilterPipeline(Collections.emptyList());
+
+    private final List<int[]> filters;
+
+    private FilterPipeline(List<int[]> filters) {
+        this.filters = filters;
+    }
+
+    /**
+     * Parse a filter pipeline message
+     *
+     * @param buffer The message
+     * @return The filters in the order they were applied while writing
+     */
+    static FilterPipeline parse(ByteBuffer buffer) {
+        int version = buffer.get() & 0xFF;
+        int count = buffer.get() & 0xFF;
+        if (version == 1)
+            buffer.position(buffer.position() + 6);
+        else if (version != 2)
+            throw new UnsupportedOperationException("Unsupported filter pipeline version " + version + "!");
+
+        List<int[]> filters = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int id = buffer.getShort() & 0xFFFF;
+            int nameLength = version == 1 || id >= 256 ? buffer.getShort() & 0xFFFF : 0;
+            // Flags, for example the filter is optional
+            buffer.getShort();
+            int valueCount = buffer.getShort() & 0xFFFF;
+            if (version == 1)
+                nameLength = (nameLength + 7) & ~7;
+            buffer.position(buffer.position() + nameLength);
+
+            // The first element is the id of the filter, the others are the client data
+            int[] filter = new int[valueCount + 1];
+            filter[0] = id;
+            for (int j = 0; j < valueCount; j++) {
+                filter[j + 1] = buffer.getInt();
+            }
+            if (version == 1 && valueCount % 2 == 1)
+                buffer.getInt();
+            filters.add(filter);
+        }
+        return new FilterPipeline(Collections.unmodifiableList(filters));
+    }
+
+    boolean isEmpty() {
+        return filters.isEmpty();
+    }
+
+    /**
+     * Reverse the filters of a chunk
+     *
+     * @param chunk        The stored chunk
+     * @param filterMask   The filters skipped for this chunk, one bit for each filter
+     * @param expectedSize The size of the chunk after decoding in bytes
+     * @return The decoded chunk
+     * @throws IOException The chunk is corrupted or a filter is not supported
+     */
+    byte[] decode(byte[] chunk, int filterMask, int expectedSize) throws IOException {
+        byte[] data = chunk;
+        for (int i = filters.size() - 1; i >= 0; i--) {
+            if ((filterMask & (1 << i)) != 0)
+                continue;
+            int[] filter = filters.get(i);
+            switch (filter[0]) {
+                case DEFLATE:
+                    data = inflate(data, expectedSize);
+                    break;
+                case SHUFFLE:
+                    data = unshuffle(data, filter.length > 1 ? filter[1] : 1);
+                    break;
+                case FLETCHER32:
+                    data = checkFletcher32(data);
+                    break;
+                default:
+                    throw new IOException("Unsupported filter " + filter[0] + "!");
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Verify the Fletcher32 checksum appended to the chunk. Like the native library, the checksum with swapped bytes
+     * written by HDF5 versions before 1.6.3 is accepted too.
+     *
+     * @return The chunk without the checksum
+     * @throws IOException The checksum does not match
+     */
+    static byte[] checkFletcher32(byte[] data) throws IOException {
+        if (data.length < 4)
+            throw new IOException("Chunk is too short for a Fletcher32 checksum!");
+        int length = data.length - 4;
+        // The stored checksum is little endian
+        int stored = (data[length] & 0xFF) | (data[length + 1] & 0xFF) << 8 | (data[length + 2] & 0xFF) << 16 | (data[length + 3] & 0xFF) << 24;
+        int checksum = fletcher32(data, length);
+        int reversed = (checksum & 0x00FF00FF) << 8 | (checksum >>> 8) & 0x00FF00FF;
+        if (stored != checksum && stored != reversed)
+            throw new IOException("Fletcher32 checksum mismatch of chunk, stored " + Integer.toHexString(stored) + " but computed " + Integer.toHexString(checksum) + "!");
+
+        byte[] stripped = new byte[length];
+        System.arraycopy(data, 0, stripped, 0, length);
+        return stripped;
+    }
+
+    /**
+     * The Fletcher32 checksum of HDF5 over big endian 16 bit words. An odd last byte is padded with zero.
+     */
+    static int fletcher32(byte[] data, int length) {
+        long sum1 = 0;
+        long sum2 = 0;
+        int words = length / 2;
+        int index = 0;
+        while (words > 0) {
+            // The sums are unsigned 32 bit integers in the native library and are folded every 360 words
+            int block = Math.min(words, 360);
+            words -= block;
+            for (int i = 0; i < block; i++, index += 2) {
+                sum1 = (sum1 + ((data[index] & 0xFF) << 8 | data[index + 1] & 0xFF)) & 0xFFFFFFFFL;
+                sum2 = (sum2 + sum1) & 0xFFFFFFFFL;
+            }
+            sum1 = (sum1 & 0xFFFF) + (sum1 >>> 16);
+            sum2 = (sum2 & 0xFFFF) + (sum2 >>> 16);
+        }
+        if (length % 2 != 0) {
+            sum1 += (data[index] & 0xFF) << 8;
+            sum2 += sum1;
+            sum1 = (sum1 & 0xFFFF) + (sum1 >>> 16);
+            sum2 = (sum2 & 0xFFFF) + (sum2 >>> 16);
+        }
+        sum1 = (sum1 & 0xFFFF) + (sum1 >>> 16);
+        sum2 = (sum2 & 0xFFFF) + (sum2 >>> 16);
+        return (int) (sum2 << 16 | sum1);
+    }
+
+    private static byte[] inflate(byte[] data, int expectedSize) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] result = new byte[expectedSize];
+            int length = 0;
+            while (length < expectedSize && !inflater.finished()) {
+                int inflated = inflater.inflate(result, length, expectedSize - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                length += inflated;
+            }
+            if (length != expectedSize)
+                throw new IOException("Inflated chunk has " + length + " bytes, but " + expectedSize + " were expected!");
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted deflated chunk!", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] unshuffle(byte[] data, int elementSize) {
+        if (elementSize <= 1)
+            return data;
+        byte[] result = new byte[data.length];
+        int elements = data.length / elementSize;
+        for (int b = 0; b < elementSize; b++) {
+            int offset = b * elements;
+            for (int i = 0; i < elements; i++) {
+                result[i * elementSize + b] = data[offset + i];
+            }
+        }
+        // Leftover bytes are not shuffled
+        int shuffled = elements * elementSize;
+        System.arraycopy(data, shuffled, result, shuffled, data.length - shuffled);
+        return result;
+    }
+}
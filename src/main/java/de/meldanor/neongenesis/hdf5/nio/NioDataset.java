@@ -0,0 +1,115 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.hdf5.nio;
+
+import java.util.List;
+
+/**
+ * A dataset of a HDF5 file read by the {@link NioHdf5Reader}. Holds the parsed object header, the values are read by
+ * the reader.
+ */
+public class NioDataset {
+
+    private final String name;
+    private final long[] dimensions;
+    private final DataType dataType;
+    private final DataLayout layout;
+    private final FilterPipeline filters;
+
+    // Read on first access of a chunked dataset
+    private List<ChunkIndex.Chunk> chunks;
+
+    NioDataset(String name, long[] dimensions, DataType dataType, DataLayout layout, FilterPipeline filters) {
+        this.name = name;
+        this.dimensions = dimensions;
+        this.dataType = dataType;
+        this.layout = layout;
+        this.filters = filters;
+    }
+
+    /**
+     * @return The name of the dataset
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return A copy of the dimensions of the dataset. Empty for scalar datasets
+     */
+    public long[] getDimensions() {
+        return dimensions.clone();
+    }
+
+    /**
+     * @return The type of a single element
+     */
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    /**
+     * @return true, if the values are stored in chunks
+     */
+    public boolean isChunked() {
+        return layout.getLayoutClass() == DataLayout.CHUNKED;
+    }
+
+    /**
+     * @return The amount of elements of the dataset
+     */
+    public long getElementCount() {
+        long count = 1;
+        for (long dimension : dimensions) {
+            count *= dimension;
+        }
+        return count;
+    }
+
+    DataLayout getLayout() {
+        return layout;
+    }
+
+    FilterPipeline getFilters() {
+        return filters;
+    }
+
+    List<ChunkIndex.Chunk> getChunks() {
+        return chunks;
+    }
+
+    void setChunks(List<ChunkIndex.Chunk> chunks) {
+        this.chunks = chunks;
+    }
+
+    @Override
+    public String toString() {
+        return "NioDataset{" +
+                "name='" + name + '\'' +
+                ", dimensions=" + java.util.Arrays.toString(dimensions) +
+                ", dataType=" + dataType +
+                '}';
+    }
+}
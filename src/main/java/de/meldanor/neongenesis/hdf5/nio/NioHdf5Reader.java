@@ -0,0 +1,746 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.hdf5.nio;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A reader for HDF5 files written in pure Java without the native HDF5 library. It supports the subset used by FLASH3
+ * files: the datasets of the root group with fixed point, floating point, string and compound types stored compact,
+ * contiguous or in chunks filtered by deflate, shuffle and Fletcher32.
+ * <p>
+ * The contiguous datasets are memory mapped on first access, so {@link #readFloatView(String, long, int)} can return
+ * views on the file without copying. All read methods can be called from multiple threads at the same time.
+ */
+public class NioHdf5Reader implements Closeable {
+
+    /**
+     * The value of an address, which was never allocated
+     */
+    static final long UNDEFINED_ADDRESS = -1L;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'H', 'D', 'F', '\r', '\n', 0x1A, '\n'};
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    private int offsetSize;
+    private int lengthSize;
+    private long baseAddress;
+
+    private final Map<String, NioDataset> datasets;
+    private final Map<String, MappedByteBuffer> mappedData = new HashMap<>();
+
+    /**
+     * Opens the file and parse the object headers of all datasets in the root group. The values are read by invoking
+     * the read methods
+     *
+     * @param file The file to open. Must exists and must be a HDF5 file
+     * @throws IOException Something went wrong while reading or the file uses unsupported features
+     */
+    public NioHdf5Reader(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        try {
+            long rootAddress = readSuperblock();
+            this.datasets = Collections.unmodifiableMap(readRootGroup(rootAddress));
+        } catch (IOException | RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    private long readSuperblock() throws IOException {
+        // The superblock is at the beginning of the file or at 512, 1024, 2048 and so on
+        long superblockAddress = -1;
+        for (long address = 0; address + SIGNATURE.length <= channel.size(); address = address == 0 ? 512 : address * 2) {
+            if (hasSignature(readAbsolute(address, SIGNATURE.length))) {
+                superblockAddress = address;
+                break;
+            }
+        }
+        if (superblockAddress < 0)
+            throw new IOException("The file is not a HDF5 file!");
+
+        ByteBuffer buffer = readAbsolute(superblockAddress + SIGNATURE.length, 1);
+        int version = buffer.get() & 0xFF;
+        if (version < 2) {
+            buffer = readAbsolute(superblockAddress + SIGNATURE.length, 16);
+            // Versions of the free space storage, the root group symbol table entry, a reserved byte and the version of
+            // the shared header message format
+            buffer.position(5);
+            offsetSize = buffer.get() & 0xFF;
+            lengthSize = buffer.get() & 0xFF;
+            // Reserved byte, group leaf node K, group internal node K and the file consistency flags
+            int headerSize = SIGNATURE.length + 16 + (version == 1 ? 4 : 0);
+            buffer = readAbsolute(superblockAddress + headerSize, 4 * offsetSize + 2 * offsetSize + 8 + 16);
+            baseAddress = readOffset(buffer);
+            // Free space address, end of file address and driver information block address
+            buffer.position(4 * offsetSize);
+            // The root group symbol table entry starts with the offset of its name
+            readOffset(buffer);
+            return readOffset(buffer);
+        } else if (version <= 3) {
+            buffer = readAbsolute(superblockAddress + SIGNATURE.length + 1, 3);
+            offsetSize = buffer.get() & 0xFF;
+            lengthSize = buffer.get() & 0xFF;
+            buffer = readAbsolute(superblockAddress + SIGNATURE.length + 4, 4 * offsetSize);
+            baseAddress = readOffset(buffer);
+            // Superblock extension address and end of file address
+            buffer.position(3 * offsetSize);
+            return readOffset(buffer);
+        }
+        throw new IOException("Unsupported superblock version " + version + "!");
+    }
+
+    private static boolean hasSignature(ByteBuffer buffer) {
+        for (byte b : SIGNATURE) {
+            if (buffer.get() != b)
+                return false;
+        }
+        return true;
+    }
+
+    private Map<String, NioDataset> readRootGroup(long rootAddress) throws IOException {
+        ObjectHeader root = ObjectHeader.read(this, rootAddress);
+        Map<String, Long> members = new LinkedHashMap<>();
+
+        ByteBuffer symbolTable = root.getMessage(ObjectHeader.MESSAGE_SYMBOL_TABLE);
+        if (symbolTable != null) {
+            long btreeAddress = readOffset(symbolTable);
+            long heapAddress = readOffset(symbolTable);
+            readSymbolTable(btreeAddress, readLocalHeap(heapAddress), members);
+        } else {
+            List<ByteBuffer> links = root.getMessages(ObjectHeader.MESSAGE_LINK);
+            if (links.isEmpty() && root.getMessage(ObjectHeader.MESSAGE_LINK_INFO) != null)
+                throw new UnsupportedOperationException("Groups with dense link storage are not supported!");
+            for (ByteBuffer link : links) {
+                readLink(link, members);
+            }
+        }
+
+        Map<String, NioDataset> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : members.entrySet()) {
+            NioDataset dataset = readDataset(entry.getKey(), ObjectHeader.read(this, entry.getValue()));
+            // Other objects like sub groups are ignored
+            if (dataset != null)
+                result.put(entry.getKey(), dataset);
+        }
+        return result;
+    }
+
+    private ByteBuffer readLocalHeap(long address) throws IOException {
+        ByteBuffer heap = read(address, 8 + 2 * lengthSize + offsetSize);
+        if (heap.get() != 'H' || heap.get() != 'E' || heap.get() != 'A' || heap.get() != 'P')
+            throw new IOException("No local heap at " + address + "!");
+        heap.position(8);
+        long dataSize = readLength(heap);
+        // Offset to the head of the free list
+        readLength(heap);
+        long dataAddress = readOffset(heap);
+        return read(dataAddress, (int) dataSize);
+    }
+
+    private void readSymbolTable(long address, ByteBuffer heap, Map<String, Long> members) throws IOException {
+        ByteBuffer header = read(address, 8);
+        if (header.get() != 'T' || header.get() != 'R' || header.get() != 'E' || header.get() != 'E')
+            throw new IOException("No B-tree node at " + address + "!");
+        // The node type is 0 for group nodes
+        header.get();
+        int level = header.get() & 0xFF;
+        int entries = header.getShort() & 0xFFFF;
+
+        ByteBuffer node = read(address + 8 + 2 * offsetSize, entries * (lengthSize + offsetSize) + lengthSize);
+        for (int i = 0; i < entries; i++) {
+            readLength(node);
+            long child = readOffset(node);
+            if (level > 0)
+                readSymbolTable(child, heap, members);
+            else
+                readSymbolTableNode(child, heap, members);
+        }
+    }
+
+    private void readSymbolTableNode(long address, ByteBuffer heap, Map<String, Long> members) throws IOException {
+        ByteBuffer header = read(address, 8);
+        if (header.get() != 'S' || header.get() != 'N' || header.get() != 'O' || header.get() != 'D')
+            throw new IOException("No symbol table node at " + address + "!");
+        header.position(6);
+        int symbols = header.getShort() & 0xFFFF;
+
+        // The link name offset and the object header address are both offsets, followed by the cache of the entry
+        int entrySize = 2 * offsetSize + 24;
+        ByteBuffer node = read(address + 8, symbols * entrySize);
+        for (int i = 0; i < symbols; i++) {
+            node.position(i * entrySize);
+            long nameOffset = readOffset(node);
+            long headerAddress = readOffset(node);
+            members.put(readString(heap, (int) nameOffset), headerAddress);
+        }
+    }
+
+    private void readLink(ByteBuffer link, Map<String, Long> members) {
+        // Version
+        link.get();
+        int flags = link.get() & 0xFF;
+        int linkType = (flags & 0x08) != 0 ? link.get() & 0xFF : 0;
+        if ((flags & 0x04) != 0)
+            link.getLong();
+        if ((flags & 0x10) != 0)
+            link.get();
+        int nameLength = (int) readUnsigned(link, 1 << (flags & 0x03));
+        byte[] name = new byte[nameLength];
+        link.get(name);
+        // Soft and external links are ignored
+        if (linkType == 0)
+            members.put(new String(name, java.nio.charset.StandardCharsets.UTF_8), readOffset(link));
+    }
+
+    private static String readString(ByteBuffer buffer, int offset) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = offset; i < buffer.limit() && buffer.get(i) != 0; i++) {
+            builder.append((char) (buffer.get(i) & 0xFF));
+        }
+        return builder.toString();
+    }
+
+    private NioDataset readDataset(String name, ObjectHeader header) {
+        ByteBuffer dataspace = header.getMessage(ObjectHeader.MESSAGE_DATASPACE);
+        ByteBuffer datatype = header.getMessage(ObjectHeader.MESSAGE_DATATYPE);
+        ByteBuffer layout = header.getMessage(ObjectHeader.MESSAGE_DATA_LAYOUT);
+        if (dataspace == null || datatype == null || layout == null)
+            return null;
+
+        long[] dimensions = readDataspace(dataspace);
+        DataType type = DataType.parse(datatype);
+        ByteBuffer pipeline = header.getMessage(ObjectHeader.MESSAGE_FILTER_PIPELINE);
+        FilterPipeline filters = pipeline == null ? FilterPipeline.EMPTY : FilterPipeline.parse(pipeline);
+        return new NioDataset(name, dimensions, type, DataLayout.parse(this, layout, dimensions, type.getSize()), filters);
+    }
+
+    private long[] readDataspace(ByteBuffer buffer) {
+        int version = buffer.get() & 0xFF;
+        int rank = buffer.get() & 0xFF;
+        // Flags and a reserved byte for version 1, the flags and the type for version 2
+        buffer.position(version == 1 ? 8 : 4);
+        long[] dimensions = new long[rank];
+        for (int i = 0; i < rank; i++) {
+            dimensions[i] = readLength(buffer);
+        }
+        return dimensions;
+    }
+
+    /**
+     * Close the file. Views returned by {@link #readFloatView(String, long, int)} stay valid
+     *
+     * @throws IOException Error while closing the file
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * @return The datasets of the root group mapped by their names
+     */
+    public Map<String, NioDataset> getDatasets() {
+        return datasets;
+    }
+
+    /**
+     * @param name The name of the dataset
+     * @return The dataset
+     * @throws NoSuchElementException There is no dataset with this name
+     */
+    public NioDataset getDataset(String name) {
+        NioDataset dataset = datasets.get(name);
+        if (dataset == null)
+            throw new NoSuchElementException("No dataset named '" + name + "' found!");
+        return dataset;
+    }
+
+    /**
+     * Read ALL values of the dataset at once and store them in ONE array. Be careful, this can be very big!
+     *
+     * @param dataSetName The dataset name. Must contain floating point values
+     * @return A float array containing ALL values in once
+     * @throws IOException Something went wrong while reading
+     */
+    public float[] readFloatValues(String dataSetName) throws IOException {
+        NioDataset dataset = getDataset(dataSetName);
+        return toFloats(dataset, readRaw(dataset, 0, rows(dataset)));
+    }
+
+    /**
+     * Read the values of a range along the first dimension of the dataset
+     *
+     * @param dataSetName The dataset name. Must contain floating point values
+     * @param firstIndex  The first index of the first dimension, 0 based
+     * @param count       The amount of indices of the first dimension to read
+     * @return An array containing the values of the range
+     * @throws IOException Something went wrong while reading
+     */
+    public float[] readFloatValues(String dataSetName, long firstIndex, int count) throws IOException {
+        NioDataset dataset = getDataset(dataSetName);
+        return toFloats(dataset, readRaw(dataset, firstIndex, count));
+    }
+
+    /**
+     * Read ALL values of the dataset at once and store them in ONE array. Be careful, this can be very big!
+     *
+     * @param dataSetName The dataset name. Must contain fixed point values
+     * @return An int array containing ALL values in once
+     * @throws IOException Something went wrong while reading
+     */
+    public int[] readIntValues(String dataSetName) throws IOException {
+        NioDataset dataset = getDataset(dataSetName);
+        return toInts(dataset, readRaw(dataset, 0, rows(dataset)));
+    }
+
+    /**
+     * Read the values of a range along the first dimension of the dataset
+     *
+     * @param dataSetName The dataset name. Must contain fixed point values
+     * @param firstIndex  The first index of the first dimension, 0 based
+     * @param count       The amount of indices of the first dimension to read
+     * @return An array containing the values of the range
+     * @throws IOException Something went wrong while reading
+     */
+    public int[] readIntValues(String dataSetName, long firstIndex, int count) throws IOException {
+        NioDataset dataset = getDataset(dataSetName);
+        return toInts(dataset, readRaw(dataset, firstIndex, count));
+    }
+
+    /**
+     * Get the values of a range along the first dimension of the dataset as a read only buffer. If the dataset is
+     * stored contiguous as 32 bit floats, the buffer is a view on the memory mapped file and no values are copied.
+     * Otherwise the values are read into a new buffer
+     *
+     * @param dataSetName The dataset name. Must contain floating point values
+     * @param firstIndex  The first index of the first dimension, 0 based
+     * @param count       The amount of indices of the first dimension
+     * @return A buffer containing the values of the range
+     * @throws IOException Something went wrong while reading
+     */
+    public FloatBuffer readFloatView(String dataSetName, long firstIndex, int count) throws IOException {
+        NioDataset dataset = getDataset(dataSetName);
+        DataType type = dataset.getDataType();
+        DataLayout layout = dataset.getLayout();
+        if (layout.getLayoutClass() != DataLayout.CONTIGUOUS || layout.getAddress() == UNDEFINED_ADDRESS
+                || type.getTypeClass() != DataType.CLASS_FLOATING_POINT || type.getSize() != 4)
+            return FloatBuffer.wrap(readFloatValues(dataSetName, firstIndex, count)).asReadOnlyBuffer();
+
+        ByteBuffer raw = readRaw(dataset, firstIndex, count);
+        return raw.order(type.getByteOrder()).asFloatBuffer();
+    }
+
+    /**
+     * Read all values of a dataset with a compound type. Every member is returned as one column: fixed point members
+     * as int[] or long[], floating point members as float[] or double[] and strings as String[] without trailing
+     * blanks
+     *
+     * @param dataSetName The dataset name. Must have a compound type
+     * @return The columns mapped by the names of the members in the order of the type
+     * @throws IOException Something went wrong while reading
+     */
+    public Map<String, Object> readCompound(String dataSetName) throws IOException {
+        NioDataset dataset = getDataset(dataSetName);
+        DataType type = dataset.getDataType();
+        if (type.getTypeClass() != DataType.CLASS_COMPOUND)
+            throw new IllegalArgumentException("Dataset '" + dataSetName + "' has no compound type!");
+
+        ByteBuffer raw = readRaw(dataset, 0, rows(dataset));
+        int count = (int) dataset.getElementCount();
+        Map<String, Object> columns = new LinkedHashMap<>();
+        for (DataType.Member member : type.getMembers()) {
+            columns.put(member.getName(), readColumn(raw, count, type.getSize(), member.getOffset(), member.getType(), member.getName()));
+        }
+        return columns;
+    }
+
+    /**
+     * Read ALL values of a dataset with a fixed point, floating point or string type in their stored precision: fixed
+     * point values as int[] or long[], floating point values as float[] or double[] and strings as String[] without
+     * trailing blanks
+     *
+     * @param dataSetName The dataset name
+     * @return An array containing ALL values in once
+     * @throws IOException Something went wrong while reading
+     */
+    public Object readValues(String dataSetName) throws IOException {
+        return readValues(dataSetName, 0, (int) rows(getDataset(dataSetName)));
+    }
+
+    /**
+     * Read the values of a range along the first dimension of the dataset in their stored precision
+     *
+     * @param dataSetName The dataset name. Must have a fixed point, floating point or string type
+     * @param firstIndex  The first index of the first dimension, 0 based
+     * @param count       The amount of indices of the first dimension to read
+     * @return An array containing the values of the range
+     * @throws IOException Something went wrong while reading
+     * @see #readValues(String)
+     */
+    public Object readValues(String dataSetName, long firstIndex, int count) throws IOException {
+        NioDataset dataset = getDataset(dataSetName);
+        DataType type = dataset.getDataType();
+        ByteBuffer raw = readRaw(dataset, firstIndex, count);
+        return readColumn(raw, raw.remaining() / type.getSize(), type.getSize(), 0, type, dataSetName);
+    }
+
+    private Object readColumn(ByteBuffer raw, int count, int stride, int offset, DataType type, String name) {
+        ByteBuffer buffer = raw.slice().order(type.getByteOrder());
+        int size = type.getSize();
+        switch (type.getTypeClass()) {
+            case DataType.CLASS_FIXED_POINT:
+                if (size == 8) {
+                    long[] longs = new long[count];
+                    for (int i = 0; i < count; i++) {
+                        longs[i] = buffer.getLong(i * stride + offset);
+                    }
+                    return longs;
+                }
+                int[] ints = new int[count];
+                for (int i = 0; i < count; i++) {
+                    ints[i] = readInt(buffer, i * stride + offset, type);
+                }
+                return ints;
+            case DataType.CLASS_FLOATING_POINT:
+                if (size == 8) {
+                    double[] doubles = new double[count];
+                    for (int i = 0; i < count; i++) {
+                        doubles[i] = buffer.getDouble(i * stride + offset);
+                    }
+                    return doubles;
+                }
+                float[] floats = new float[count];
+                for (int i = 0; i < count; i++) {
+                    floats[i] = buffer.getFloat(i * stride + offset);
+                }
+                return floats;
+            case DataType.CLASS_STRING:
+                String[] strings = new String[count];
+                for (int i = 0; i < count; i++) {
+                    strings[i] = readFixedString(buffer, i * stride + offset, size);
+                }
+                return strings;
+            default:
+                throw new UnsupportedOperationException("Unsupported type of '" + name + "'!");
+        }
+    }
+
+    private static String readFixedString(ByteBuffer buffer, int offset, int size) {
+        int length = 0;
+        while (length < size && buffer.get(offset + length) != 0) {
+            length++;
+        }
+        while (length > 0 && buffer.get(offset + length - 1) == ' ') {
+            length--;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (buffer.get(offset + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    private static long rows(NioDataset dataset) {
+        long[] dimensions = dataset.getDimensions();
+        return dimensions.length == 0 ? 1 : dimensions[0];
+    }
+
+    private float[] toFloats(NioDataset dataset, ByteBuffer raw) {
+        DataType type = dataset.getDataType();
+        if (type.getTypeClass() != DataType.CLASS_FLOATING_POINT)
+            throw new IllegalArgumentException("Dataset '" + dataset.getName() + "' does not hold floating point values!");
+
+        raw.order(type.getByteOrder());
+        float[] values;
+        if (type.getSize() == 4) {
+            FloatBuffer buffer = raw.asFloatBuffer();
+            values = new float[buffer.remaining()];
+            buffer.get(values);
+        } else if (type.getSize() == 8) {
+            DoubleBuffer buffer = raw.asDoubleBuffer();
+            values = new float[buffer.remaining()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (float) buffer.get(i);
+            }
+        } else {
+            throw new UnsupportedOperationException("Unsupported floating point size " + type.getSize() + "!");
+        }
+        return values;
+    }
+
+    private int[] toInts(NioDataset dataset, ByteBuffer raw) {
+        DataType type = dataset.getDataType();
+        if (type.getTypeClass() != DataType.CLASS_FIXED_POINT)
+            throw new IllegalArgumentException("Dataset '" + dataset.getName() + "' does not hold fixed point values!");
+
+        raw.order(type.getByteOrder());
+        int[] values = new int[raw.remaining() / type.getSize()];
+        if (type.getSize() == 4) {
+            raw.asIntBuffer().get(values);
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readInt(raw, raw.position() + i * type.getSize(), type);
+            }
+        }
+        return values;
+    }
+
+    private static int readInt(ByteBuffer buffer, int index, DataType type) {
+        switch (type.getSize()) {
+            case 1:
+                return type.isSigned() ? buffer.get(index) : buffer.get(index) & 0xFF;
+            case 2:
+                return type.isSigned() ? buffer.getShort(index) : buffer.getShort(index) & 0xFFFF;
+            case 4:
+                return buffer.getInt(index);
+            case 8:
+                return (int) buffer.getLong(index);
+            default:
+                throw new UnsupportedOperationException("Unsupported fixed point size " + type.getSize() + "!");
+        }
+    }
+
+    /**
+     * Read the raw bytes of a range along the first dimension
+     */
+    private ByteBuffer readRaw(NioDataset dataset, long firstIndex, long count) throws IOException {
+        long[] dimensions = dataset.getDimensions();
+        long rows = rows(dataset);
+        if (firstIndex < 0 || count < 1 || firstIndex + count > rows)
+            throw new IndexOutOfBoundsException("Range [" + firstIndex + ", " + (firstIndex + count - 1) + "] is out of the range [0, " + (rows - 1) + "]");
+
+        long rowSize = dataset.getDataType().getSize();
+        for (int i = 1; i < dimensions.length; i++) {
+            rowSize *= dimensions[i];
+        }
+        long length = rowSize * count;
+        if (length > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Can not read " + length + " bytes at once!");
+
+        DataLayout layout = dataset.getLayout();
+        switch (layout.getLayoutClass()) {
+            case DataLayout.COMPACT:
+                return slice(layout.getCompactData(), firstIndex * rowSize, (int) length);
+            case DataLayout.CONTIGUOUS:
+                // Not allocated datasets are filled with zeros
+                if (layout.getAddress() == UNDEFINED_ADDRESS)
+                    return ByteBuffer.allocate((int) length);
+                if (layout.getSize() > Integer.MAX_VALUE)
+                    return read(layout.getAddress() + firstIndex * rowSize, (int) length);
+                return slice(map(dataset), firstIndex * rowSize, (int) length);
+            case DataLayout.CHUNKED:
+                return ByteBuffer.wrap(readChunked(dataset, firstIndex, count, (int) length));
+            default:
+                throw new UnsupportedOperationException("Unsupported data layout class " + layout.getLayoutClass() + "!");
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, long offset, int length) {
+        ByteBuffer result = buffer.duplicate();
+        result.position((int) offset);
+        result.limit((int) offset + length);
+        return result.slice();
+    }
+
+    private synchronized ByteBuffer map(NioDataset dataset) throws IOException {
+        MappedByteBuffer mapped = mappedData.get(dataset.getName());
+        if (mapped == null) {
+            DataLayout layout = dataset.getLayout();
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, baseAddress + layout.getAddress(), layout.getSize());
+            mappedData.put(dataset.getName(), mapped);
+        }
+        return mapped;
+    }
+
+    private byte[] readChunked(NioDataset dataset, long firstIndex, long count, int length) throws IOException {
+        long[] dimensions = dataset.getDimensions();
+        int rank = dimensions.length;
+        int elementSize = dataset.getDataType().getSize();
+        int[] chunkDimensions = dataset.getLayout().getChunkDimensions();
+
+        List<ChunkIndex.Chunk> chunks;
+        synchronized (dataset) {
+            chunks = dataset.getChunks();
+            if (chunks == null) {
+                chunks = ChunkIndex.read(this, dataset.getLayout().getAddress(), rank);
+                dataset.setChunks(chunks);
+            }
+        }
+
+        // The strides of the decoded chunk and of the result in elements
+        long[] chunkStrides = new long[rank];
+        long[] resultStrides = new long[rank];
+        long chunkElements = 1;
+        long resultElements = 1;
+        for (int i = rank - 1; i >= 0; i--) {
+            chunkStrides[i] = chunkElements;
+            resultStrides[i] = resultElements;
+            chunkElements *= chunkDimensions[i];
+            resultElements *= i == 0 ? count : dimensions[i];
+        }
+
+        byte[] result = new byte[length];
+        long[] start = new long[rank];
+        long[] end = new long[rank];
+        long[] index = new long[rank];
+        for (ChunkIndex.Chunk chunk : chunks) {
+            long[] offsets = chunk.getOffsets();
+            // Intersect the chunk with the selected range, the chunks can exceed the dimensions at the edges
+            boolean empty = false;
+            for (int i = 0; i < rank; i++) {
+                long selectionStart = i == 0 ? firstIndex : 0;
+                long selectionEnd = i == 0 ? firstIndex + count : dimensions[i];
+                start[i] = Math.max(offsets[i], selectionStart);
+                end[i] = Math.min(offsets[i] + chunkDimensions[i], selectionEnd);
+                empty |= start[i] >= end[i];
+            }
+            if (empty)
+                continue;
+
+            byte[] data = readBytes(chunk.getAddress(), chunk.getSize());
+            if (!dataset.getFilters().isEmpty())
+                data = dataset.getFilters().decode(data, chunk.getFilterMask(), (int) chunkElements * elementSize);
+
+            // Copy the rows along the last dimension
+            int last = rank - 1;
+            int rowLength = (int) (end[last] - start[last]) * elementSize;
+            System.arraycopy(start, 0, index, 0, rank);
+            while (true) {
+                long source = 0;
+                long target = 0;
+                for (int i = 0; i < rank; i++) {
+                    source += (index[i] - offsets[i]) * chunkStrides[i];
+                    target += (index[i] - (i == 0 ? firstIndex : 0)) * resultStrides[i];
+                }
+                System.arraycopy(data, (int) source * elementSize, result, (int) target * elementSize, rowLength);
+
+                int i = last - 1;
+                while (i >= 0 && ++index[i] >= end[i]) {
+                    index[i] = start[i];
+                    i--;
+                }
+                if (i < 0)
+                    break;
+            }
+        }
+        return result;
+    }
+
+    private byte[] readBytes(long address, int length) throws IOException {
+        ByteBuffer buffer = read(address, length);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Read bytes of the file
+     *
+     * @param address The address relative to the base address of the file
+     * @param length  The amount of bytes
+     * @return A little endian buffer containing the bytes
+     * @throws IOException The file ends before all bytes could be read
+     */
+    ByteBuffer read(long address, int length) throws IOException {
+        return readAbsolute(baseAddress + address, length);
+    }
+
+    /**
+     * Read at most the amount of bytes. Used for structures of variable size at the end of the file
+     */
+    ByteBuffer readAvailable(long address, int length) throws IOException {
+        return read(address, (int) Math.min(length, channel.size() - baseAddress - address));
+    }
+
+    private ByteBuffer readAbsolute(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Unexpected end of file while reading " + length + " bytes at " + position + "!");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    int getOffsetSize() {
+        return offsetSize;
+    }
+
+    /**
+     * Read an address
+     *
+     * @param buffer The buffer to read from
+     * @return The address or {@link #UNDEFINED_ADDRESS}, if the address was never allocated
+     */
+    long readOffset(ByteBuffer buffer) {
+        long value = readUnsigned(buffer, offsetSize);
+        return offsetSize < 8 && value == (1L << (8 * offsetSize)) - 1 ? UNDEFINED_ADDRESS : value;
+    }
+
+    /**
+     * Read a length
+     *
+     * @param buffer The buffer to read from
+     * @return The length
+     */
+    long readLength(ByteBuffer buffer) {
+        return readUnsigned(buffer, lengthSize);
+    }
+
+    /**
+     * Read an unsigned little endian number
+     *
+     * @param buffer The buffer to read from
+     * @param size   The size of the number in bytes
+     * @return The number
+     */
+    static long readUnsigned(ByteBuffer buffer, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value |= (buffer.get() & 0xFFL) << (8 * i);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.hdf5.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * The messages of an object header. Version 1 and version 2 headers are supported, continuation blocks are followed.
+ */
+class ObjectHeader {
+
+    static final int MESSAGE_DATASPACE = 0x01;
+    static final int MESSAGE_LINK_INFO = 0x02;
+    static final int MESSAGE_DATATYPE = 0x03;
+    static final int MESSAGE_LINK = 0x06;
+    static final int MESSAGE_DATA_LAYOUT = 0x08;
+    static final int MESSAGE_FILTER_PIPELINE = 0x0B;
+    static final int MESSAGE_CONTINUATION = 0x10;
+    static final int MESSAGE_SYMBOL_TABLE = 0x11;
+
+    private static final int FLAG_SHARED = 0x02;
+
+    private final List<Message> messages;
+
+    private ObjectHeader(List<Message> messages) {
+        this.messages = messages;
+    }
+
+    /**
+     * Read the object header at the address
+     *
+     * @param reader  The reader of the file
+     * @param address The address of the object header
+     * @return The header with all its messages
+     * @throws IOException Error while reading the file
+     */
+    static ObjectHeader read(NioHdf5Reader reader, long address) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        ByteBuffer prefix = reader.readAvailable(address, 16);
+        if (prefix.get(0) == 'O' && prefix.get(1) == 'H' && prefix.get(2) == 'D' && prefix.get(3) == 'R')
+            readVersion2(reader, address, messages);
+        else if (prefix.get(0) == 1)
+            readVersion1(reader, address, prefix, messages);
+        else
+            throw new IOException("Unsupported object header version " + prefix.get(0) + " at " + address + "!");
+        return new ObjectHeader(Collections.unmodifiableList(messages));
+    }
+
+    private static void readVersion1(NioHdf5Reader reader, long address, ByteBuffer prefix, List<Message> messages) throws IOException {
+        int headerSize = prefix.getInt(8);
+        // The messages are aligned to eight bytes, so the twelve bytes of the prefix are padded
+        Deque<long[]> blocks = new ArrayDeque<>();
+        blocks.add(new long[]{address + 16, headerSize});
+        while (!blocks.isEmpty()) {
+            long[] block = blocks.poll();
+            ByteBuffer buffer = reader.read(block[0], (int) block[1]);
+            while (buffer.remaining() >= 8) {
+                int type = buffer.getShort() & 0xFFFF;
+                int size = buffer.getShort() & 0xFFFF;
+                int flags = buffer.get() & 0xFF;
+                skip(buffer, 3);
+                ByteBuffer data = slice(buffer, size);
+                addMessage(reader, type, flags, data, messages, blocks);
+            }
+        }
+    }
+
+    private static void readVersion2(NioHdf5Reader reader, long address, List<Message> messages) throws IOException {
+        ByteBuffer prefix = reader.readAvailable(address, 32);
+        skip(prefix, 4);
+        int version = prefix.get() & 0xFF;
+        if (version != 2)
+            throw new IOException("Unsupported object header version " + version + " at " + address + "!");
+        int flags = prefix.get() & 0xFF;
+        // Access, modification, change and birth time
+        if ((flags & 0x20) != 0)
+            skip(prefix, 16);
+        // Maximum number of compact attributes and minimum number of dense attributes
+        if ((flags & 0x10) != 0)
+            skip(prefix, 4);
+        long chunkSize = NioHdf5Reader.readUnsigned(prefix, 1 << (flags & 0x03));
+        boolean creationOrder = (flags & 0x04) != 0;
+
+        Deque<long[]> blocks = new ArrayDeque<>();
+        readVersion2Messages(reader, reader.read(address + prefix.position(), (int) chunkSize), creationOrder, messages, blocks);
+        while (!blocks.isEmpty()) {
+            long[] block = blocks.poll();
+            // The continuation block starts with the signature OCHK and ends with a checksum
+            ByteBuffer buffer = reader.read(block[0] + 4, (int) block[1] - 8);
+            readVersion2Messages(reader, buffer, creationOrder, messages, blocks);
+        }
+    }
+
+    private static void readVersion2Messages(NioHdf5Reader reader, ByteBuffer buffer, boolean creationOrder, List<Message> messages, Deque<long[]> blocks) throws IOException {
+        int headerSize = creationOrder ? 6 : 4;
+        // A gap smaller than a message header can remain at the end of the block
+        while (buffer.remaining() >= headerSize) {
+            int type = buffer.get() & 0xFF;
+            int size = buffer.getShort() & 0xFFFF;
+            int flags = buffer.get() & 0xFF;
+            if (creationOrder)
+                skip(buffer, 2);
+            ByteBuffer data = slice(buffer, size);
+            addMessage(reader, type, flags, data, messages, blocks);
+        }
+    }
+
+    private static void addMessage(NioHdf5Reader reader, int type, int flags, ByteBuffer data, List<Message> messages, Deque<long[]> blocks) {
+        if (type == MESSAGE_CONTINUATION) {
+            long offset = reader.readOffset(data);
+            long length = reader.readLength(data);
+            blocks.add(new long[]{offset, length});
+        } else {
+            messages.add(new Message(type, flags, data));
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int size) {
+        ByteBuffer data = buffer.slice();
+        data.limit(size);
+        data.order(buffer.order());
+        skip(buffer, size);
+        return data;
+    }
+
+    private static void skip(ByteBuffer buffer, int bytes) {
+        buffer.position(buffer.position() + bytes);
+    }
+
+    /**
+     * Find the first message of a type
+     *
+     * @param type The type of the message
+     * @return The data of the message, positioned at its start, or null, if the header has no such message
+     */
+    ByteBuffer getMessage(int type) {
+        for (Message message : messages) {
+            if (message.type == type) {
+                if ((message.flags & FLAG_SHARED) != 0)
+                    throw new UnsupportedOperationException("Shared messages of type " + type + " are not supported!");
+                return message.data.duplicate().order(message.data.order());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find all messages of a type
+     *
+     * @param type The type of the messages
+     * @return The data of the messages, positioned at their start
+     */
+    List<ByteBuffer> getMessages(int type) {
+        List<ByteBuffer> result = new ArrayList<>();
+        for (Message message : messages) {
+            if (message.type == type)
+                result.add(message.data.duplicate().order(message.data.order()));
+        }
+        return result;
+    }
+
+    private static class Message {
+        private final int type;
+        private final int flags;
+        private final ByteBuffer data;
+
+        private Message(int type, int flags, ByteBuffer data) {
+            this.type = type;
+            this.flags = flags;
+            this.data = data;
+        }
+    }
+}
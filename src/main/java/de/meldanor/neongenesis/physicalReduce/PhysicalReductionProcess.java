@@ -25,147 +25,205 @@
 package de.meldanor.neongenesis.physicalReduce;
 
 import de.meldanor.neongenesis.downsample.AbstractReductionProcess;
+import de.meldanor.neongenesis.downsample.ParentBlockMode;
+import de.meldanor.neongenesis.downsample.ReductionSettings;
 import de.meldanor.neongenesis.hdf5.*;
 import de.meldanor.neongenesis.statisticalReduce.StatisticalDatasetReducer;
 import de.meldanor.neongenesis.statisticalReduce.StatisticalReducerFactory;
 import javafx.geometry.Point3D;
-import ncsa.hdf.object.Dataset;
 import ncsa.hdf.object.Datatype;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 /**
- *
+ * Reduces the variables, which are intensive quantities per mass like the temperature, the velocities or the
+ * abundances, by the mean weighted with the density. All other variables are reduced by the statistical strategy.
  */
 public class PhysicalReductionProcess extends AbstractReductionProcess {
 
-    public PhysicalReductionProcess(StatisticalReducerFactory.StatisticalReducerType strategy, List<String> variableDatasetsNames, File targetDirectory) {
-        super(variableDatasetsNames, targetDirectory, strategy);
+    /**
+     * The name of the density dataset used as the weight
+     */
+    public static final String DENSITY = "dens";
+
+    /**
+     * The datasets reduced by the density weighted mean, if no other datasets are configured
+     */
+    public static final List<String> DEFAULT_DENSITY_WEIGHTED = Collections.singletonList("temp");
+
+    public PhysicalReductionProcess(StatisticalReducerFactory.StatisticalReducerType strategy, List<String> variableDatasetsNames, File targetDirectory, ReductionSettings settings) {
+        super(variableDatasetsNames, targetDirectory, strategy, settings);
     }
 
     @Override
-    protected void reduceDatasets(StatisticalDatasetReducer reducer, Flash3Reader source, Hdf5Writer destination) throws Exception {
-        Map<String, Dataset> variableMap = source.getMetaData().getVariableMap();
-
+    protected void reduceDatasets(StatisticalDatasetReducer reducer, Flash3Reader source, Hdf5Writer destination, Buffer buffer) throws Exception {
         Point3D dimension = getDimension(source.getMetaData());
-        int xDim = (int) (dimension.getX() / 2);
-        int yDim = (int) (dimension.getY() / 2);
-        int zDim = (int) (dimension.getZ() / 2);
-
-        Buffer buffer = new Buffer(source.getMetaData(), xDim, yDim, zDim);
-
         List<String> datasetsToReduce = this.variableDatasetsNames;
         if (datasetsToReduce.isEmpty())
-            datasetsToReduce = new ArrayList<>(variableMap.keySet());
+            datasetsToReduce = new ArrayList<>(source.getMetaData().getVariableNames());
 
+        List<String> weighted = new ArrayList<>();
+        for (String dataset : datasetsToReduce) {
+            if (!dataset.equals(DENSITY) && settings.getDensityWeightedDatasets().contains(dataset))
+                weighted.add(dataset);
+        }
+        // The density itself is reduced by the statistical strategy. If it is the weight, it is reduced in the same pass
+        boolean fusedDensity = !weighted.isEmpty() && datasetsToReduce.contains(DENSITY);
         for (String dataset : datasetsToReduce) {
-            reduceDataset(dataset, reducer, source, destination, buffer, dimension);
+            if (!weighted.contains(dataset) && !(fusedDensity && dataset.equals(DENSITY)))
+                reduceDataset(dataset, reducer, source, destination, buffer);
         }
+        if (!weighted.isEmpty())
+            reduceDensityWeightedDatasets(weighted, fusedDensity ? reducer : null, source, destination, buffer, dimension);
     }
 
-    private void reduceDataset(String datasetName, StatisticalDatasetReducer reducer, Flash3Reader source, Hdf5Writer destination, Buffer buffer, Point3D dimensions) throws Exception {
-        Dataset dataset = source.getMetaData().getDataset(datasetName);
-        dataset.init();
+    @Override
+    public Map<String, String> getConfiguration() {
+        Map<String, String> configuration = super.getConfiguration();
+        configuration.put("densityWeighted", String.join(",", settings.getDensityWeightedDatasets()));
+        return configuration;
+    }
 
-        if (dataset.getDatatype().getDatatypeClass() != Datatype.CLASS_FLOAT)
-            throw new IllegalArgumentException("Unsupported datatype found while reducing! Datatype: " + dataset.getDatatype());
+    private void reduceDataset(String datasetName, StatisticalDatasetReducer reducer, Flash3Reader source, Hdf5Writer destination, Buffer buffer) throws Exception {
+        checkFloatDataset(source, datasetName);
 
+        FloatDatasetStream floats = createReducedFloatDataset(datasetName, source, destination, buffer);
+        reduceFloatDataset(reducer, source, datasetName, floats, buffer);
+        floats.finish();
+    }
 
-        switch (datasetName) {
-            case "temp":
-                List<float[]> temperatures = reduceTemperaturDateset(source, dataset, dimensions);
-                writeReducedFloatDataset(temperatures, datasetName, source, destination, buffer);
-                break;
-            default:
-                List<float[]> floats = reducer.reduceFloatDataset(source, datasetName);
-                writeReducedFloatDataset(floats, datasetName, source, destination, buffer);
-                break;
-        }
+    private void checkFloatDataset(Flash3Reader source, String datasetName) throws Exception {
+        int datatypeClass = source.getMetaData().getDatatypeClass(datasetName);
+        if (datatypeClass != Datatype.CLASS_FLOAT)
+            throw new IllegalArgumentException("Unsupported datatype found while reducing! Datatype class: " + datatypeClass);
     }
 
-    private List<float[]> reduceTemperaturDateset(Flash3Reader source, Dataset dataset, Point3D dimensions) throws Exception {
+    /**
+     * Reduce all density weighted datasets in one pass over the blocks. The density of a range of blocks is read once
+     * and used for every weighted dataset, before the next range is read. In {@link ParentBlockMode#FILL} only the
+     * leaves are read and the parents are filled with zeros, in {@link ParentBlockMode#RESTRICT} the parents are
+     * restricted by the mean weighted with the reduced density of their children. The further levels of the pyramid
+     * are weighted by the mean density of the previous level, so every level is the density weighted mean of the
+     * original cells.
+     *
+     * @param densityReducer Reduces the density itself in the same pass or <code>null</code>, if the density is not
+     *                       written
+     */
+    private void reduceDensityWeightedDatasets(List<String> datasetNames, StatisticalDatasetReducer densityReducer, Flash3Reader source, Hdf5Writer destination, Buffer buffer, Point3D dimensions) throws Exception {
 
         Flash3MetaData metaData = source.getMetaData();
-        // We need the density for calculating the mix temperature
-        Dataset densityDataset = metaData.getDataset("dens");
+        if (!metaData.getVariableNames().contains(DENSITY))
+            throw new IllegalArgumentException("The density weighted datasets " + datasetNames + " require the density dataset '" + DENSITY + "'");
 
-        List<float[]> results = new ArrayList<>(metaData.getBlockCount());
-
-        BlockTree tree = metaData.getBlockTree();
-
-        for (Block block : tree.getAll()) {
-            float[] flatOriginalTemperature = source.readFloatValues(dataset.getName(), block);
-            float[] flatOriginalDensity = source.readFloatValues(densityDataset.getName(), block);
-            results.add(reduceTemperateValues(flatOriginalTemperature, flatOriginalDensity, dimensions));
+        List<FloatDatasetStream> streams = new ArrayList<>(datasetNames.size());
+        for (String datasetName : datasetNames) {
+            checkFloatDataset(source, datasetName);
+            streams.add(createWeightedFloatDataset(datasetName, source, destination, buffer));
+        }
+        FloatDatasetStream densityStream = null;
+        if (densityReducer != null) {
+            checkFloatDataset(source, DENSITY);
+            densityStream = createReducedFloatDataset(DENSITY, source, destination, buffer);
         }
 
-        return results;
-    }
-
-    private float[] reduceTemperateValues(float[] flatOriginalTemperature, float[] flatOriginalDensity, Point3D dimensions) {
-        float[] result = new float[flatOriginalTemperature.length / 8];
-        float[] temperature = new float[8];
-        float[] density = new float[8];
-        int xDim = (int) dimensions.getX();
-        int yDim = (int) dimensions.getY();
-        int zDim = (int) dimensions.getZ();
-        for (int i = 0, x = 0; x < xDim; x += 2) {
-            for (int y = 0; y < yDim; y += 2) {
-                for (int z = 0; z < zDim; z += 2, i++) {
-
-                    // The temperature
-                    temperature[0] = flatOriginalTemperature[index(x, y, yDim, z, zDim)];
-                    temperature[1] = flatOriginalTemperature[index(x + 1, y, yDim, z, zDim)];
-                    temperature[2] = flatOriginalTemperature[index(x, y + 1, yDim, z, zDim)];
-                    temperature[3] = flatOriginalTemperature[index(x + 1, y + 1, yDim, z, zDim)];
-
-                    temperature[4] = flatOriginalTemperature[index(x, y, yDim, z + 1, zDim)];
-                    temperature[5] = flatOriginalTemperature[index(x + 1, y, yDim, z + 1, zDim)];
-                    temperature[6] = flatOriginalTemperature[index(x, y + 1, yDim, z + 1, zDim)];
-                    temperature[7] = flatOriginalTemperature[index(x + 1, y + 1, yDim, z + 1, zDim)];
-
-                    // The density
-                    density[0] = flatOriginalDensity[index(x, y, yDim, z, zDim)];
-                    density[1] = flatOriginalDensity[index(x + 1, y, yDim, z, zDim)];
-                    density[2] = flatOriginalDensity[index(x, y + 1, yDim, z, zDim)];
-                    density[3] = flatOriginalDensity[index(x + 1, y + 1, yDim, z, zDim)];
-
-                    density[4] = flatOriginalDensity[index(x, y, yDim, z + 1, zDim)];
-                    density[5] = flatOriginalDensity[index(x + 1, y, yDim, z + 1, zDim)];
-                    density[6] = flatOriginalDensity[index(x, y + 1, yDim, z + 1, zDim)];
-                    density[7] = flatOriginalDensity[index(x + 1, y + 1, yDim, z + 1, zDim)];
- 
-                    // Calculate the value
-                    result[i] = calculateMixTemperature(temperature, density);
+        // Reduces the values weighted by the density and the density to the weights of the reduced cells
+        StatisticalDatasetReducer weightReducer = new StatisticalDatasetReducer(dimensions, settings.getReductionFactors(), StatisticalReducerFactory.StatisticalReducerType.MEAN, false, settings.getBatchSize(), buffers);
+        int reducedBlockSize = weightReducer.getReducedBlockSize();
+        BlockSelection blocks = buffer.getBlocks();
+
+        boolean fill = settings.getParentBlockMode() == ParentBlockMode.FILL;
+        if (settings.getParentBlockMode() == ParentBlockMode.RESTRICT) {
+            restrictDensityWeightedDatasets(datasetNames, streams, densityReducer, densityStream, weightReducer, source, buffer);
+        } else {
+            // Read only the remaining blocks in ranges, which are consecutive in the original and in the selected tree
+            int[] runs = fill ? getLeafRuns(buffer) : blocks.getOriginalRuns(settings.getBatchSize());
+            for (int run = 0; run < runs.length; run += 2) {
+                int firstBlock = runs[run] + 1;
+                int count = runs[run + 1];
+                float[] flatOriginalDensity = source.readFloatValues(DENSITY, firstBlock, count);
+                if (densityStream != null) {
+                    float[] results = buffers.acquireFloats(count * reducedBlockSize);
+                    try {
+                        densityReducer.reduceFloatValues(flatOriginalDensity, results);
+                        densityStream.accept(blocks.getNewIndex(firstBlock - 1), results);
+                    } finally {
+                        buffers.release(results);
+                    }
+                }
+                // The mean density of the reduced cells weights the further levels of the pyramid
+                float[] weights = settings.getPyramidLevels() > 1 ? buffers.acquireFloats(count * reducedBlockSize) : null;
+                try {
+                    if (weights != null)
+                        weightReducer.reduceFloatValues(flatOriginalDensity, weights);
+                    for (int dataset = 0; dataset < datasetNames.size(); dataset++) {
+                        float[] flatOriginalValues = source.readFloatValues(datasetNames.get(dataset), firstBlock, count);
+                        float[] results = buffers.acquireFloats(count * reducedBlockSize);
+                        try {
+                            weightReducer.reduceWeightedFloatValues(flatOriginalValues, flatOriginalDensity, results, null);
+                            streams.get(dataset).accept(blocks.getNewIndex(firstBlock - 1), results, weights);
+                        } finally {
+                            buffers.release(results);
+                        }
+                    }
+                } finally {
+                    if (weights != null)
+                        buffers.release(weights);
                 }
             }
         }
 
-        return result;
-    }
-
-    private float calculateMixTemperature(float[] temperature, float[] density) {
-        float res = 0.0F;
-
-        float sumDensity = 0.0F;
-        for (float dens : density) {
-            sumDensity += dens;
+        if (densityStream != null)
+            streams.add(densityStream);
+        for (FloatDatasetStream stream : streams) {
+            if (fill)
+                fillParents(stream, reducedBlockSize, buffer);
+            stream.finish();
         }
-
-        for (int i = 0; i < temperature.length && i < density.length; i++) {
-            float temp = temperature[i];
-            float dens = density[i];
-
-            res += ((temp * dens) / sumDensity);
-        }
-
-        return res;
     }
 
-    private int index(int x, int y, int ySize, int z, int zSize) {
-        return x * ySize * zSize + y * zSize + z;
+    /**
+     * Restrict the density weighted datasets and the density, if it is written. The mean of the density is the weight
+     * of a reduced cell, so the weighted mean of the reduced children equals the weighted mean of their original cells.
+     */
+    private void restrictDensityWeightedDatasets(List<String> datasetNames, List<FloatDatasetStream> streams, StatisticalDatasetReducer densityReducer, FloatDatasetStream densityStream, StatisticalDatasetReducer weightReducer, Flash3Reader source, Buffer buffer) throws Exception {
+        int reducedBlockSize = weightReducer.getReducedBlockSize();
+
+        // The weighted datasets are followed by the density, if it is written, and the weights, which are not written
+        List<FloatDatasetStream> restricted = new ArrayList<>(streams);
+        if (densityStream != null)
+            restricted.add(densityStream);
+        restricted.add(null);
+        int density = datasetNames.size();
+        int weights = restricted.size() - 1;
+
+        // The weights of the remaining blocks weight the further levels of the pyramid
+        restrictFloatDatasets(restricted, weights, reducedBlockSize, buffer, new FloatRestriction() {
+            @Override
+            public void reduceLeaves(int firstBlock, int count, float[][] reduced) throws Exception {
+                float[] flatOriginalDensity = source.readFloatValues(DENSITY, firstBlock + 1, count);
+                weightReducer.reduceFloatValues(flatOriginalDensity, reduced[weights]);
+                if (densityStream != null)
+                    densityReducer.reduceFloatValues(flatOriginalDensity, reduced[density]);
+                for (int dataset = 0; dataset < datasetNames.size(); dataset++) {
+                    float[] flatOriginalValues = source.readFloatValues(datasetNames.get(dataset), firstBlock + 1, count);
+                    weightReducer.reduceWeightedFloatValues(flatOriginalValues, flatOriginalDensity, reduced[dataset], null);
+                }
+            }
+
+            @Override
+            public void restrictParent(float[][] values, int parentSlot, int[] childSlots) {
+                // The weights of the children are not changed, so they are restricted after the weighted datasets
+                for (int dataset = 0; dataset < datasetNames.size(); dataset++) {
+                    weightReducer.restrictWeightedFloatBlock(values[dataset], values[weights], parentSlot, childSlots);
+                }
+                if (densityStream != null)
+                    densityReducer.restrictFloatBlock(values[density], parentSlot, childSlots);
+                weightReducer.restrictFloatBlock(values[weights], parentSlot, childSlots);
+            }
+        });
     }
 }
@@ -0,0 +1,168 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.statisticalReduce;
+
+/**
+ * Reduce an array to its median like {@link MedianReducer}, but select the middle elements by quickselect instead of
+ * sorting the whole array. This needs linear instead of n*log(n) time and is used for big stencils like 4x4x4.
+ *
+ * @apiNote The array is partially reordered, no memory is allocated.
+ * <p>
+ * NaN values are not ordered like {@link java.util.Arrays#sort} orders them.
+ * @see StatisticalReducerFactory#getReducer(StatisticalReducerFactory.StatisticalReducerType, int)
+ */
+public class QuickSelectMedianReducer implements StatisticalReducer {
+
+    QuickSelectMedianReducer() {
+    }
+
+    @Override
+    public int reduce(int[] array) {
+        return median(array);
+    }
+
+    @Override
+    public float reduce(float[] array) {
+        return median(array);
+    }
+
+    /**
+     * Calculate the median by selecting the middle elements. The array is partially reordered.
+     *
+     * @param array The values
+     * @return The median
+     */
+    static int median(int[] array) {
+        int middle = array.length / 2;
+        int upper = select(array, middle);
+        if (array.length % 2 == 1)
+            return upper;
+
+        // All elements before the middle are not greater - the biggest of them is the lower middle
+        int lower = array[0];
+        for (int i = 1; i < middle; i++) {
+            if (array[i] > lower)
+                lower = array[i];
+        }
+        return (int) Math.round((upper + lower) / 2.0);
+    }
+
+    /**
+     * Select the k-th smallest element. Afterwards, the element is at the index k, all smaller elements are before
+     * and all greater elements after it.
+     */
+    private static int select(int[] array, int k) {
+        int left = 0;
+        int right = array.length - 1;
+        while (left < right) {
+            // Use the middle as pivot and move it to the end
+            int pivotIndex = (left + right) >>> 1;
+            int pivot = array[pivotIndex];
+            swap(array, pivotIndex, right);
+
+            int store = left;
+            for (int i = left; i < right; i++) {
+                if (array[i] < pivot) {
+                    swap(array, i, store);
+                    ++store;
+                }
+            }
+            swap(array, store, right);
+
+            if (store == k)
+                return array[k];
+            else if (k < store)
+                right = store - 1;
+            else
+                left = store + 1;
+        }
+        return array[k];
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+
+    /**
+     * Calculate the median by selecting the middle elements. The array is partially reordered.
+     *
+     * @param array The values
+     * @return The median
+     */
+    static float median(float[] array) {
+        int middle = array.length / 2;
+        float upper = select(array, middle);
+        if (array.length % 2 == 1)
+            return upper;
+
+        // All elements before the middle are not greater - the biggest of them is the lower middle
+        float lower = array[0];
+        for (int i = 1; i < middle; i++) {
+            if (array[i] > lower)
+                lower = array[i];
+        }
+        return (upper + lower) / 2.0F;
+    }
+
+    /**
+     * Select the k-th smallest element. Afterwards, the element is at the index k, all smaller elements are before
+     * and all greater elements after it.
+     */
+    private static float select(float[] array, int k) {
+        int left = 0;
+        int right = array.length - 1;
+        while (left < right) {
+            // Use the middle as pivot and move it to the end
+            int pivotIndex = (left + right) >>> 1;
+            float pivot = array[pivotIndex];
+            swap(array, pivotIndex, right);
+
+            int store = left;
+            for (int i = left; i < right; i++) {
+                if (array[i] < pivot) {
+                    swap(array, i, store);
+                    ++store;
+                }
+            }
+            swap(array, store, right);
+
+            if (store == k)
+                return array[k];
+            else if (k < store)
+                right = store - 1;
+            else
+                left = store + 1;
+        }
+        return array[k];
+    }
+
+    private static void swap(float[] array, int i, int j) {
+        float tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.statisticalReduce;
+
+/**
+ * Reduce an array of exactly 8 values to its median, which is the stencil of a 2x2x2 reduction. The median is
+ * calculated like {@link MedianReducer} does, but uses a sorting network on local variables instead of sorting the
+ * array. The array is neither modified nor is any memory allocated.
+ *
+ * @apiNote Arrays with another length are reduced by {@link QuickSelectMedianReducer}.
+ * <p>
+ * NaN values are not ordered like {@link java.util.Arrays#sort} orders them.
+ * @see StatisticalReducerFactory#getReducer(StatisticalReducerFactory.StatisticalReducerType, int)
+ */
+public class SortingNetworkMedianReducer implements StatisticalReducer {
+
+    /**
+     * The amount of values this reducer is specialized on
+     */
+    public static final int STENCIL_SIZE = 8;
+
+    SortingNetworkMedianReducer() {
+    }
+
+    @Override
+    public int reduce(int[] array) {
+        if (array.length != STENCIL_SIZE)
+            return QuickSelectMedianReducer.median(array);
+
+        // Optimal sorting network for 8 values with 19 comparators
+        int v0 = array[0], v1 = array[1], v2 = array[2], v3 = array[3];
+        int v4 = array[4], v5 = array[5], v6 = array[6], v7 = array[7];
+        int t;
+
+        if (v0 > v2) { t = v0; v0 = v2; v2 = t; }
+        if (v1 > v3) { t = v1; v1 = v3; v3 = t; }
+        if (v4 > v6) { t = v4; v4 = v6; v6 = t; }
+        if (v5 > v7) { t = v5; v5 = v7; v7 = t; }
+        if (v0 > v4) { t = v0; v0 = v4; v4 = t; }
+        if (v1 > v5) { t = v1; v1 = v5; v5 = t; }
+        if (v2 > v6) { t = v2; v2 = v6; v6 = t; }
+        if (v3 > v7) { t = v3; v3 = v7; v7 = t; }
+        if (v0 > v1) { t = v0; v0 = v1; v1 = t; }
+        if (v2 > v3) { t = v2; v2 = v3; v3 = t; }
+        if (v4 > v5) { t = v4; v4 = v5; v5 = t; }
+        if (v6 > v7) { t = v6; v6 = v7; v7 = t; }
+        if (v2 > v4) { t = v2; v2 = v4; v4 = t; }
+        if (v3 > v5) { t = v3; v3 = v5; v5 = t; }
+        if (v1 > v4) { t = v1; v1 = v4; v4 = t; }
+        if (v3 > v6) { t = v3; v3 = v6; v6 = t; }
+        if (v1 > v2) { t = v1; v1 = v2; v2 = t; }
+        if (v3 > v4) { t = v3; v3 = v4; v4 = t; }
+        if (v5 > v6) { t = v5; v5 = v6; v6 = t; }
+        return (int) Math.round((v4 + v3) / 2.0);
+    }
+
+    @Override
+    public float reduce(float[] array) {
+        if (array.length != STENCIL_SIZE)
+            return QuickSelectMedianReducer.median(array);
+
+        // Optimal sorting network for 8 values with 19 comparators
+        float v0 = array[0], v1 = array[1], v2 = array[2], v3 = array[3];
+        float v4 = array[4], v5 = array[5], v6 = array[6], v7 = array[7];
+        float t;
+
+        if (v0 > v2) { t = v0; v0 = v2; v2 = t; }
+        if (v1 > v3) { t = v1; v1 = v3; v3 = t; }
+        if (v4 > v6) { t = v4; v4 = v6; v6 = t; }
+        if (v5 > v7) { t = v5; v5 = v7; v7 = t; }
+        if (v0 > v4) { t = v0; v0 = v4; v4 = t; }
+        if (v1 > v5) { t = v1; v1 = v5; v5 = t; }
+        if (v2 > v6) { t = v2; v2 = v6; v6 = t; }
+        if (v3 > v7) { t = v3; v3 = v7; v7 = t; }
+        if (v0 > v1) { t = v0; v0 = v1; v1 = t; }
+        if (v2 > v3) { t = v2; v2 = v3; v3 = t; }
+        if (v4 > v5) { t = v4; v4 = v5; v5 = t; }
+        if (v6 > v7) { t = v6; v6 = v7; v7 = t; }
+        if (v2 > v4) { t = v2; v2 = v4; v4 = t; }
+        if (v3 > v5) { t = v3; v3 = v5; v5 = t; }
+        if (v1 > v4) { t = v1; v1 = v4; v4 = t; }
+        if (v3 > v6) { t = v3; v3 = v6; v6 = t; }
+        if (v1 > v2) { t = v1; v1 = v2; v2 = t; }
+        if (v3 > v4) { t = v3; v3 = v4; v4 = t; }
+        if (v5 > v6) { t = v5; v5 = v6; v6 = t; }
+        return (v4 + v3) / 2.0F;
+    }
+}
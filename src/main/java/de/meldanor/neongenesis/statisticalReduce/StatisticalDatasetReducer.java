@@ -24,18 +24,22 @@
 
 package de.meldanor.neongenesis.statisticalReduce;
 
+import de.meldanor.neongenesis.downsample.BufferManager;
 import de.meldanor.neongenesis.hdf5.Block;
-import de.meldanor.neongenesis.hdf5.BlockTree;
-import de.meldanor.neongenesis.hdf5.Flash3MetaData;
 import de.meldanor.neongenesis.hdf5.Flash3Reader;
 import javafx.geometry.Point3D;
 
-import java.util.ArrayList;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Reduce a single block by halving their cells. The strategy for summarizing the content is defined by its
- * {@link StatisticalReducer}.
+ * Reduce a single block by combining neighbored cells. How many cells are combined is defined by the reduction factor
+ * of every axis - by default 2x2x2 cells are combined to one cell, which halves the resolution. The strategy for
+ * summarizing the content is defined by its {@link StatisticalReducer}.
  * <p>
  * This class is thread-safe!
  *
@@ -48,7 +52,35 @@ public class StatisticalDatasetReducer {
     private final int originalYDimension;
     private final int originalZDimension;
 
+    private final int xFactor;
+    private final int yFactor;
+    private final int zFactor;
+
+    private final StatisticalReducerFactory.StatisticalReducerType type;
     private final StatisticalReducer reducer;
+    /**
+     * If true, the mean is calculated by the fused kernels instead of gathering the cells for the reducer
+     */
+    private final boolean fusedMean;
+
+    /**
+     * The default reduction factors, which halves the resolution of every axis
+     */
+    public static final Point3D DEFAULT_FACTORS = new Point3D(2, 2, 2);
+
+    /**
+     * The default amount of blocks read at once
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * The maximum amount of blocks reduced by a single task in parallel mode, if the values were already read
+     */
+    private static final int BLOCKS_PER_TASK = 64;
+
+    private final boolean parallel;
+    private final int batchSize;
+    private final BufferManager buffers;
 
     /**
      * Construct a cell reducer to reduce an amount of cells of a {@link Block}
@@ -58,11 +90,75 @@ public class StatisticalDatasetReducer {
      * @param type               The strategy to reduce an amount of cells
      */
     public StatisticalDatasetReducer(Point3D originalDimensions, StatisticalReducerFactory.StatisticalReducerType type) {
+        this(originalDimensions, type, false);
+    }
+
+    /**
+     * Construct a cell reducer to reduce an amount of cells of a {@link Block}
+     *
+     * @param originalDimensions The original dimensions. For example, the original resolution was 8x8x8, the target
+     *                           resolution will be 4x4x4
+     * @param type               The strategy to reduce an amount of cells
+     * @param parallel           If true, the blocks of a dataset are split in ranges and reduced on all cores. The
+     *                           result is equal to the sequential reduction.
+     */
+    public StatisticalDatasetReducer(Point3D originalDimensions, StatisticalReducerFactory.StatisticalReducerType type, boolean parallel) {
+        this(originalDimensions, DEFAULT_FACTORS, type, parallel, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Construct a cell reducer to reduce an amount of cells of a {@link Block}
+     *
+     * @param originalDimensions The original dimensions. For example, the original resolution was 8x8x8 and the
+     *                           factors are 2x2x1, the target resolution will be 4x4x8
+     * @param factors            The reduction factor of every axis. Every original dimension must be a multiple of
+     *                           its factor
+     * @param type               The strategy to reduce an amount of cells
+     * @param parallel           If true, the blocks of a dataset are split in ranges and reduced on all cores. The
+     *                           result is equal to the sequential reduction.
+     * @param batchSize          The amount of blocks with consecutive ids read at once. Must be at least 1
+     */
+    public StatisticalDatasetReducer(Point3D originalDimensions, Point3D factors, StatisticalReducerFactory.StatisticalReducerType type, boolean parallel, int batchSize) {
+        this(originalDimensions, factors, type, parallel, batchSize, new BufferManager());
+    }
+
+    /**
+     * Construct a cell reducer to reduce an amount of cells of a {@link Block}
+     *
+     * @param originalDimensions The original dimensions. For example, the original resolution was 8x8x8 and the
+     *                           factors are 2x2x1, the target resolution will be 4x4x8
+     * @param factors            The reduction factor of every axis. Every original dimension must be a multiple of
+     *                           its factor
+     * @param type               The strategy to reduce an amount of cells
+     * @param parallel           If true, the blocks of a dataset are split in ranges and reduced on all cores. The
+     *                           result is equal to the sequential reduction.
+     * @param batchSize          The amount of blocks with consecutive ids read at once. Must be at least 1
+     * @param buffers            Provides the arrays for the reduced values of a batch. Can be shared by multiple
+     *                           reducers to reuse the arrays
+     */
+    public StatisticalDatasetReducer(Point3D originalDimensions, Point3D factors, StatisticalReducerFactory.StatisticalReducerType type, boolean parallel, int batchSize, BufferManager buffers) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("The batch size must be at least 1, but was " + batchSize);
         this.originalXDimension = (int) originalDimensions.getX();
         this.originalYDimension = (int) originalDimensions.getY();
         this.originalZDimension = (int) originalDimensions.getZ();
 
-        this.reducer = StatisticalReducerFactory.getInstance().getReducer(type);
+        this.xFactor = checkFactor(originalXDimension, (int) factors.getX());
+        this.yFactor = checkFactor(originalYDimension, (int) factors.getY());
+        this.zFactor = checkFactor(originalZDimension, (int) factors.getZ());
+
+        this.type = type;
+        this.reducer = StatisticalReducerFactory.getInstance().getReducer(type, xFactor * yFactor * zFactor);
+        this.fusedMean = type == StatisticalReducerFactory.StatisticalReducerType.MEAN;
+        this.parallel = parallel;
+        this.batchSize = batchSize;
+        this.buffers = buffers;
+    }
+
+    private static int checkFactor(int dimension, int factor) {
+        if (factor < 1 || dimension % factor != 0)
+            throw new IllegalArgumentException("The dimension " + dimension + " is not divisible by the reduction factor " + factor);
+        return factor;
     }
 
     /**
@@ -72,56 +168,174 @@ public class StatisticalDatasetReducer {
      * @param datasetName The name of the dataset. Must exist, otherwise an Exception is thrown
      * @return A list of reduced values. The index of the value is the (block id + 1).
      * @throws Exception The source was closed, the datasetName does not exists or something went wrong while reading
-     * @see #reduceFloatDataset(Flash3Reader, String)
+     * @see #reduceIntDataset(Flash3Reader, String, ReducedBlocksConsumer)
      */
     public List<int[]> reduceIntDataset(Flash3Reader source, String datasetName) throws Exception {
 
-        Flash3MetaData metaData = source.getMetaData();
+        int reducedBlockSize = getReducedBlockSize();
+        int[][] result = new int[source.getMetaData().getBlockCount()][];
+        reduceIntDataset(source, datasetName, (firstBlock, values) -> {
+            // The values are only valid while consuming them
+            for (int i = 0; i < values.length / reducedBlockSize; i++) {
+                result[firstBlock + i] = Arrays.copyOfRange(values, i * reducedBlockSize, (i + 1) * reducedBlockSize);
+            }
+        });
 
-        List<int[]> result = new ArrayList<>(metaData.getBlockCount());
-        BlockTree blockTree = metaData.getBlockTree();
+        return Arrays.asList(result);
+    }
 
-        for (Block block : blockTree.getAll()) {
-            int[] flatOriginal = source.readIntValues(datasetName, block);
-            result.add(reduceInt(flatOriginal));
-        }
+    /**
+     * Reduce a dataset containing int values batch by batch. Every reduced batch is passed to the consumer, so the
+     * reduced dataset must never exist at once. The arrays passed to the consumer are reused afterwards.
+     *
+     * @param source      The source to access the dataset. Must be open, otherwise an exception is thrown
+     * @param datasetName The name of the dataset. Must exist, otherwise an Exception is thrown
+     * @param consumer    Receives the reduced batches. In parallel mode the consumer is called by multiple threads at
+     *                    once and the batches are not ordered.
+     * @throws Exception The source was closed, the datasetName does not exists, something went wrong while reading or
+     *                   the consumer has failed
+     * @see #reduceIntDataset(Flash3Reader, String)
+     */
+    public void reduceIntDataset(Flash3Reader source, String datasetName, ReducedBlocksConsumer<int[]> consumer) throws Exception {
+
+        int blockCount = source.getMetaData().getBlockCount();
+        int blockSize = getBlockSize();
+        int reducedBlockSize = getReducedBlockSize();
+
+        reduceBlocks(blockCount, batchSize, (from, to) -> {
+            // The blocks are ordered by their id, so the range is one batch
+            int[] flatOriginal = source.readIntValues(datasetName, from + 1, to - from);
+            int[] result = buffers.acquireInts((to - from) * reducedBlockSize);
+            try {
+                for (int i = 0; i < to - from; i++) {
+                    reduceInt(flatOriginal, i * blockSize, result, i * reducedBlockSize);
+                }
+                consumer.accept(from, result);
+            } finally {
+                buffers.release(result);
+            }
+        });
+    }
 
+    /**
+     * Reduce only some blocks of a dataset containing int values. Blocks with consecutive indices are read at once, at
+     * most the batch size blocks. Every reduced range of blocks is passed to the consumer, the arrays passed to the
+     * consumer are reused afterwards.
+     *
+     * @param source       The source to access the dataset. Must be open, otherwise an exception is thrown
+     * @param datasetName  The name of the dataset. Must exist, otherwise an Exception is thrown
+     * @param blockIndices The indices of the blocks to reduce, which are the (block id - 1). Must be ascending
+     * @param consumer     Receives the reduced ranges. In parallel mode the consumer is called by multiple threads at
+     *                     once and the ranges are not ordered.
+     * @throws Exception The source was closed, the datasetName does not exists, something went wrong while reading or
+     *                   the consumer has failed
+     * @see #reduceIntDataset(Flash3Reader, String, ReducedBlocksConsumer)
+     */
+    public void reduceIntBlocks(Flash3Reader source, String datasetName, int[] blockIndices, ReducedBlocksConsumer<int[]> consumer) throws Exception {
+        reduceIntRuns(source, datasetName, toRuns(blockIndices, batchSize), consumer);
+    }
+
+    /**
+     * Reduce ranges of blocks of a dataset containing int values. Every range is read at once and passed to the
+     * consumer, the arrays passed to the consumer are reused afterwards.
+     *
+     * @param source      The source to access the dataset. Must be open, otherwise an exception is thrown
+     * @param datasetName The name of the dataset. Must exist, otherwise an Exception is thrown
+     * @param runs        Two elements per range: the first block index, which is the (block id - 1), and the amount
+     *                    of blocks. The ranges may have any order
+     * @param consumer    Receives the reduced ranges. In parallel mode the consumer is called by multiple threads at
+     *                    once and the ranges are not ordered.
+     * @throws Exception The source was closed, the datasetName does not exists, something went wrong while reading or
+     *                   the consumer has failed
+     * @see #toRuns(int[], int)
+     */
+    public void reduceIntRuns(Flash3Reader source, String datasetName, int[] runs, ReducedBlocksConsumer<int[]> consumer) throws Exception {
+
+        int blockSize = getBlockSize();
+        int reducedBlockSize = getReducedBlockSize();
+
+        reduceBlocks(runs.length / 2, 1, (from, to) -> {
+            for (int run = from; run < to; run++) {
+                int firstBlock = runs[2 * run];
+                int count = runs[2 * run + 1];
+                int[] flatOriginal = source.readIntValues(datasetName, firstBlock + 1, count);
+                int[] result = buffers.acquireInts(count * reducedBlockSize);
+                try {
+                    for (int i = 0; i < count; i++) {
+                        reduceInt(flatOriginal, i * blockSize, result, i * reducedBlockSize);
+                    }
+                    consumer.accept(firstBlock, result);
+                } finally {
+                    buffers.release(result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reduce all values of an int dataset, which were read at once.
+     *
+     * @param flatValues All values of the dataset ordered by the block id
+     * @return The reduced values of all blocks ordered by the block id
+     * @throws Exception Something went wrong while reducing
+     * @see #reduceIntDataset(Flash3Reader, String)
+     */
+    public int[] reduceIntValues(int[] flatValues) throws Exception {
+        int[] result = new int[flatValues.length / getBlockSize() * getReducedBlockSize()];
+        reduceIntValues(flatValues, result);
         return result;
     }
 
+    /**
+     * Reduce all values of an int dataset, which were read at once, and write them to the result. Useful to reduce the
+     * result of another reduction again.
+     *
+     * @param flatValues All values of the dataset ordered by the block id
+     * @param result     The array for the reduced values of all blocks ordered by the block id
+     * @throws Exception Something went wrong while reducing
+     */
+    public void reduceIntValues(int[] flatValues, int[] result) throws Exception {
+        int blockSize = getBlockSize();
+        int reducedBlockSize = getReducedBlockSize();
+        reduceBlocks(flatValues.length / blockSize, BLOCKS_PER_TASK, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                reduceInt(flatValues, i * blockSize, result, i * reducedBlockSize);
+            }
+        });
+    }
+
     private ThreadLocal<int[]> intBuffer = new ThreadLocal<int[]>() {
         @Override
         protected int[] initialValue() {
-            return new int[8];
+            return new int[xFactor * yFactor * zFactor];
         }
     };
 
-    private int[] reduceInt(int[] flatOriginal) {
+    private void reduceInt(int[] flatOriginal, int offset, int[] result, int resultOffset) {
+        if (fusedMean) {
+            reduceIntMean(flatOriginal, offset, result, resultOffset);
+            return;
+        }
 
-        // TODO: Replace with variable dimension. At the moment the dimension is 2*2*2 for a half reduction
-        int[] result = new int[flatOriginal.length / 8];
         int[] array = intBuffer.get();
-        for (int i = 0, x = 0; x < originalXDimension; x += 2) {
-            for (int y = 0; y < originalYDimension; y += 2) {
-                for (int z = 0; z < originalZDimension; z += 2, i++) {
+        for (int i = resultOffset, z = 0; z < originalZDimension; z += zFactor) {
+            for (int y = 0; y < originalYDimension; y += yFactor) {
+                for (int x = 0; x < originalXDimension; x += xFactor, i++) {
 
                     // The neighbors of the cell
-                    array[0] = flatOriginal[index(x, y, originalYDimension, z, originalZDimension)];
-                    array[1] = flatOriginal[index(x + 1, y, originalYDimension, z, originalZDimension)];
-                    array[2] = flatOriginal[index(x, y + 1, originalYDimension, z, originalZDimension)];
-                    array[3] = flatOriginal[index(x + 1, y + 1, originalYDimension, z, originalZDimension)];
-
-                    array[4] = flatOriginal[index(x, y, originalYDimension, z + 1, originalZDimension)];
-                    array[5] = flatOriginal[index(x + 1, y, originalYDimension, z + 1, originalZDimension)];
-                    array[6] = flatOriginal[index(x, y + 1, originalYDimension, z + 1, originalZDimension)];
-                    array[7] = flatOriginal[index(x + 1, y + 1, originalYDimension, z + 1, originalZDimension)];
+                    int n = 0;
+                    for (int dx = 0; dx < xFactor; dx++) {
+                        for (int dy = 0; dy < yFactor; dy++) {
+                            for (int dz = 0; dz < zFactor; dz++) {
+                                array[n++] = flatOriginal[offset + index(x + dx, y + dy, z + dz)];
+                            }
+                        }
+                    }
 
                     result[i] = reducer.reduce(array);
                 }
             }
         }
-
-        return result;
     }
 
     /**
@@ -131,68 +345,613 @@ public class StatisticalDatasetReducer {
      * @param datasetName The name of the dataset. Must exist, otherwise an Exception is thrown
      * @return A list of reduced values. The index of the value is the (block id + 1).
      * @throws Exception The source was closed, the datasetName does not exists or something went wrong while reading
-     * @see #reduceIntDataset(Flash3Reader, String)
+     * @see #reduceFloatDataset(Flash3Reader, String, ReducedBlocksConsumer)
      */
     public List<float[]> reduceFloatDataset(Flash3Reader source, String datasetName) throws Exception {
-        Flash3MetaData metaData = source.getMetaData();
 
-        List<float[]> result = new ArrayList<>(metaData.getBlockCount());
-        BlockTree blockTree = metaData.getBlockTree();
+        int reducedBlockSize = getReducedBlockSize();
+        float[][] result = new float[source.getMetaData().getBlockCount()][];
+        reduceFloatDataset(source, datasetName, (firstBlock, values) -> {
+            // The values are only valid while consuming them
+            for (int i = 0; i < values.length / reducedBlockSize; i++) {
+                result[firstBlock + i] = Arrays.copyOfRange(values, i * reducedBlockSize, (i + 1) * reducedBlockSize);
+            }
+        });
+
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Reduce a dataset containing float values batch by batch. Every reduced batch is passed to the consumer, so the
+     * reduced dataset must never exist at once. The arrays passed to the consumer are reused afterwards.
+     *
+     * @param source      The source to access the dataset. Must be open, otherwise an exception is thrown
+     * @param datasetName The name of the dataset. Must exist, otherwise an Exception is thrown
+     * @param consumer    Receives the reduced batches. In parallel mode the consumer is called by multiple threads at
+     *                    once and the batches are not ordered.
+     * @throws Exception The source was closed, the datasetName does not exists, something went wrong while reading or
+     *                   the consumer has failed
+     * @see #reduceFloatDataset(Flash3Reader, String)
+     */
+    public void reduceFloatDataset(Flash3Reader source, String datasetName, ReducedBlocksConsumer<float[]> consumer) throws Exception {
+
+        int blockCount = source.getMetaData().getBlockCount();
+        int reducedBlockSize = getReducedBlockSize();
+
+        reduceBlocks(blockCount, batchSize, (from, to) -> {
+            // The blocks are ordered by their id, so the range is one batch
+            float[] result = buffers.acquireFloats((to - from) * reducedBlockSize);
+            try {
+                reduceFloatRange(source, datasetName, from, to - from, result);
+                consumer.accept(from, result);
+            } finally {
+                buffers.release(result);
+            }
+        });
+    }
+
+    /**
+     * Reduce only some blocks of a dataset containing float values. Blocks with consecutive indices are read at once, at
+     * most the batch size blocks. Every reduced range of blocks is passed to the consumer, the arrays passed to the
+     * consumer are reused afterwards.
+     *
+     * @param source       The source to access the dataset. Must be open, otherwise an exception is thrown
+     * @param datasetName  The name of the dataset. Must exist, otherwise an Exception is thrown
+     * @param blockIndices The indices of the blocks to reduce, which are the (block id - 1). Must be ascending
+     * @param consumer     Receives the reduced ranges. In parallel mode the consumer is called by multiple threads at
+     *                     once and the ranges are not ordered.
+     * @throws Exception The source was closed, the datasetName does not exists, something went wrong while reading or
+     *                   the consumer has failed
+     * @see #reduceFloatDataset(Flash3Reader, String, ReducedBlocksConsumer)
+     */
+    public void reduceFloatBlocks(Flash3Reader source, String datasetName, int[] blockIndices, ReducedBlocksConsumer<float[]> consumer) throws Exception {
+        reduceFloatRuns(source, datasetName, toRuns(blockIndices, batchSize), consumer);
+    }
+
+    /**
+     * Reduce ranges of blocks of a dataset containing float values. Every range is read at once and passed to the
+     * consumer, the arrays passed to the consumer are reused afterwards.
+     *
+     * @param source      The source to access the dataset. Must be open, otherwise an exception is thrown
+     * @param datasetName The name of the dataset. Must exist, otherwise an Exception is thrown
+     * @param runs        Two elements per range: the first block index, which is the (block id - 1), and the amount
+     *                    of blocks. The ranges may have any order
+     * @param consumer    Receives the reduced ranges. In parallel mode the consumer is called by multiple threads at
+     *                    once and the ranges are not ordered.
+     * @throws Exception The source was closed, the datasetName does not exists, something went wrong while reading or
+     *                   the consumer has failed
+     * @see #toRuns(int[], int)
+     */
+    public void reduceFloatRuns(Flash3Reader source, String datasetName, int[] runs, ReducedBlocksConsumer<float[]> consumer) throws Exception {
+
+        int reducedBlockSize = getReducedBlockSize();
+
+        reduceBlocks(runs.length / 2, 1, (from, to) -> {
+            for (int run = from; run < to; run++) {
+                int firstBlock = runs[2 * run];
+                int count = runs[2 * run + 1];
+                float[] result = buffers.acquireFloats(count * reducedBlockSize);
+                try {
+                    reduceFloatRange(source, datasetName, firstBlock, count, result);
+                    consumer.accept(firstBlock, result);
+                } finally {
+                    buffers.release(result);
+                }
+            }
+        });
+    }
 
-        for (Block block : blockTree.getAll()) {
-            float[] flatOriginal = source.readFloatValues(datasetName, block);
-            result.add(reduceFloat(flatOriginal));
+    /**
+     * Reduce a range of blocks with consecutive ids. The values are reduced directly from the buffer of
+     * {@link Flash3Reader#readFloatView(String, int, int)}, so a memory mapped dataset is not copied to the heap.
+     */
+    private void reduceFloatRange(Flash3Reader source, String datasetName, int firstBlock, int count, float[] result) throws Exception {
+        int blockSize = getBlockSize();
+        int reducedBlockSize = getReducedBlockSize();
+        FloatBuffer view = source.readFloatView(datasetName, firstBlock + 1, count);
+        for (int i = 0; i < count; i++) {
+            reduceFloat(view, view.position() + i * blockSize, result, i * reducedBlockSize);
         }
+    }
 
+    /**
+     * Reduce all values of a float dataset, which were read at once.
+     *
+     * @param flatValues All values of the dataset ordered by the block id
+     * @return The reduced values of all blocks ordered by the block id
+     * @throws Exception Something went wrong while reducing
+     * @see #reduceFloatDataset(Flash3Reader, String)
+     */
+    public float[] reduceFloatValues(float[] flatValues) throws Exception {
+        float[] result = new float[flatValues.length / getBlockSize() * getReducedBlockSize()];
+        reduceFloatValues(flatValues, result);
         return result;
     }
 
+    /**
+     * Reduce all values of a float dataset, which were read at once, and write them to the result. Useful to reduce
+     * the result of another reduction again.
+     *
+     * @param flatValues All values of the dataset ordered by the block id
+     * @param result     The array for the reduced values of all blocks ordered by the block id
+     * @throws Exception Something went wrong while reducing
+     */
+    public void reduceFloatValues(float[] flatValues, float[] result) throws Exception {
+        int blockSize = getBlockSize();
+        int reducedBlockSize = getReducedBlockSize();
+        FloatBuffer values = FloatBuffer.wrap(flatValues);
+        reduceBlocks(flatValues.length / blockSize, BLOCKS_PER_TASK, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                reduceFloat(values, i * blockSize, result, i * reducedBlockSize);
+            }
+        });
+    }
+
+    /**
+     * Reduce all values of a float dataset, which were read at once, by the mean weighted with the weights of the
+     * cells, like the density weighted mean. If the weights of the combined cells are zero, the cells are weighted
+     * equally. The strategy of this reducer is not used.
+     *
+     * @param flatValues    All values of the dataset ordered by the block id
+     * @param flatWeights   The weights of the values in the same order
+     * @param result        The array for the reduced values of all blocks ordered by the block id
+     * @param resultWeights The array for the mean weight of every reduced cell or <code>null</code>. The mean weights
+     *                      the reduced values, if they are reduced again
+     * @throws Exception Something went wrong while reducing
+     */
+    public void reduceWeightedFloatValues(float[] flatValues, float[] flatWeights, float[] result, float[] resultWeights) throws Exception {
+        int blockSize = getBlockSize();
+        int reducedBlockSize = getReducedBlockSize();
+        reduceBlocks(flatValues.length / blockSize, BLOCKS_PER_TASK, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                reduceWeightedFloat(flatValues, flatWeights, i * blockSize, result, resultWeights, i * reducedBlockSize);
+            }
+        });
+    }
+
+    /**
+     * Reduce a single block by the weighted mean of every stencil, see
+     * {@link #reduceWeightedFloatValues(float[], float[], float[], float[])}
+     */
+    private void reduceWeightedFloat(float[] flatValues, float[] flatWeights, int offset, float[] result, float[] resultWeights, int resultOffset) {
+        int stencilSize = xFactor * yFactor * zFactor;
+        for (int i = resultOffset, z = 0; z < originalZDimension; z += zFactor) {
+            for (int y = 0; y < originalYDimension; y += yFactor) {
+                for (int x = 0; x < originalXDimension; x += xFactor, i++) {
+
+                    // Sum the weights and the values of the neighbored cells
+                    double sumWeights = 0.0;
+                    double sumWeighted = 0.0;
+                    double sumValues = 0.0;
+                    for (int dz = 0; dz < zFactor; dz++) {
+                        for (int dy = 0; dy < yFactor; dy++) {
+                            int index = offset + index(x, y + dy, z + dz);
+                            for (int dx = 0; dx < xFactor; dx++, index++) {
+                                float weight = flatWeights[index];
+                                float value = flatValues[index];
+                                sumWeights += weight;
+                                sumWeighted += (double) value * weight;
+                                sumValues += value;
+                            }
+                        }
+                    }
+
+                    result[i] = (float) (sumWeights != 0.0 ? sumWeighted / sumWeights : sumValues / stencilSize);
+                    if (resultWeights != null)
+                        resultWeights[i] = (float) (sumWeights / stencilSize);
+                }
+            }
+        }
+    }
+
     private ThreadLocal<float[]> floatBuffer = new ThreadLocal<float[]>() {
         @Override
         protected float[] initialValue() {
-            return new float[8];
+            return new float[xFactor * yFactor * zFactor];
         }
     };
 
-    private float[] reduceFloat(float[] flatOriginal) {
+    /**
+     * Reduce a single block. The values are read by the absolute get of the buffer, so arrays are reduced by wrapping
+     * them and memory mapped values are reduced without copying them.
+     */
+    private void reduceFloat(FloatBuffer flatOriginal, int offset, float[] result, int resultOffset) {
+        if (fusedMean) {
+            reduceFloatMean(flatOriginal, offset, result, resultOffset);
+            return;
+        }
 
-        // TODO: Replace with variable dimension. At the moment the dimension is 2*2*2 for a half reduction
-        float[] result = new float[flatOriginal.length / 8];
         float[] array = floatBuffer.get();
-        for (int i = 0, x = 0; x < originalXDimension; x += 2) {
-            for (int y = 0; y < originalYDimension; y += 2) {
-                for (int z = 0; z < originalZDimension; z += 2, i++) {
+        for (int i = resultOffset, z = 0; z < originalZDimension; z += zFactor) {
+            for (int y = 0; y < originalYDimension; y += yFactor) {
+                for (int x = 0; x < originalXDimension; x += xFactor, i++) {
 
                     // The neighbors of the cell
-                    array[0] = flatOriginal[index(x, y, originalYDimension, z, originalZDimension)];
-                    array[1] = flatOriginal[index(x + 1, y, originalYDimension, z, originalZDimension)];
-                    array[2] = flatOriginal[index(x, y + 1, originalYDimension, z, originalZDimension)];
-                    array[3] = flatOriginal[index(x + 1, y + 1, originalYDimension, z, originalZDimension)];
-
-                    array[4] = flatOriginal[index(x, y, originalYDimension, z + 1, originalZDimension)];
-                    array[5] = flatOriginal[index(x + 1, y, originalYDimension, z + 1, originalZDimension)];
-                    array[6] = flatOriginal[index(x, y + 1, originalYDimension, z + 1, originalZDimension)];
-                    array[7] = flatOriginal[index(x + 1, y + 1, originalYDimension, z + 1, originalZDimension)];
+                    int n = 0;
+                    for (int dx = 0; dx < xFactor; dx++) {
+                        for (int dy = 0; dy < yFactor; dy++) {
+                            for (int dz = 0; dz < zFactor; dz++) {
+                                array[n++] = flatOriginal.get(offset + index(x + dx, y + dy, z + dz));
+                            }
+                        }
+                    }
 
                     result[i] = reducer.reduce(array);
                 }
             }
         }
+    }
 
-        return result;
+    private ThreadLocal<long[]> longRowBuffer = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[originalXDimension / xFactor];
+        }
+    };
+
+    /**
+     * Calculate the mean of every stencil without gathering its cells. The cells are read row by row in the order
+     * they are stored and the sums of a row of reduced cells are accumulated, so the only division is the one per
+     * reduced cell.
+     *
+     * @implNote The sums are exact, so the result is the correctly rounded mean. It can differ in the last bit from
+     * {@link MeanReducer}, which divides every single value.
+     */
+    private void reduceIntMean(int[] flatOriginal, int offset, int[] result, int resultOffset) {
+
+        long[] row = longRowBuffer.get();
+        double stencilSize = xFactor * yFactor * zFactor;
+        for (int i = resultOffset, z = 0; z < originalZDimension; z += zFactor) {
+            for (int y = 0; y < originalYDimension; y += yFactor) {
+
+                // Sum up the rows of the stencils - x is the contiguous axis
+                for (int dz = 0; dz < zFactor; dz++) {
+                    for (int dy = 0; dy < yFactor; dy++) {
+                        int source = offset + index(0, y + dy, z + dz);
+                        for (int x = 0; x < row.length; x++) {
+                            long sum = 0L;
+                            for (int dx = 0; dx < xFactor; dx++) {
+                                sum += flatOriginal[source++];
+                            }
+                            row[x] += sum;
+                        }
+                    }
+                }
+
+                for (int x = 0; x < row.length; x++, i++) {
+                    result[i] = (int) Math.round(row[x] / stencilSize);
+                    row[x] = 0L;
+                }
+            }
+        }
+    }
+
+    private ThreadLocal<double[]> doubleRowBuffer = new ThreadLocal<double[]>() {
+        @Override
+        protected double[] initialValue() {
+            return new double[originalXDimension / xFactor];
+        }
+    };
+
+    /**
+     * Calculate the mean of every stencil without gathering its cells.
+     *
+     * @implNote The sums are calculated in double precision, like {@link MeanReducer} does. The result can differ in
+     * the last bit, because {@link MeanReducer} divides every single value.
+     * @see #reduceIntMean(int[], int, int[], int)
+     */
+    private void reduceFloatMean(FloatBuffer flatOriginal, int offset, float[] result, int resultOffset) {
+
+        double[] row = doubleRowBuffer.get();
+        double stencilSize = xFactor * yFactor * zFactor;
+        for (int i = resultOffset, z = 0; z < originalZDimension; z += zFactor) {
+            for (int y = 0; y < originalYDimension; y += yFactor) {
+
+                // Sum up the rows of the stencils - x is the contiguous axis
+                for (int dz = 0; dz < zFactor; dz++) {
+                    for (int dy = 0; dy < yFactor; dy++) {
+                        int source = offset + index(0, y + dy, z + dz);
+                        for (int x = 0; x < row.length; x++) {
+                            double sum = 0.0;
+                            for (int dx = 0; dx < xFactor; dx++) {
+                                sum += flatOriginal.get(source++);
+                            }
+                            row[x] += sum;
+                        }
+                    }
+                }
+
+                for (int x = 0; x < row.length; x++, i++) {
+                    result[i] = (float) (row[x] / stencilSize);
+                    row[x] = 0.0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Split ascending block indices into ranges of consecutive indices
+     *
+     * @param blockIndices The ascending block indices
+     * @param maxLength    The maximum length of a range
+     * @return Two elements per range: the first block index and the amount of blocks
+     */
+    public static int[] toRuns(int[] blockIndices, int maxLength) {
+        int[] runs = new int[blockIndices.length * 2];
+        int count = 0;
+        for (int i = 0; i < blockIndices.length; i++) {
+            if (i > 0 && blockIndices[i] <= blockIndices[i - 1])
+                throw new IllegalArgumentException("The block indices must be ascending, but " + blockIndices[i] + " follows " + blockIndices[i - 1]);
+            int last = count - 2;
+            if (count > 0 && runs[last] + runs[last + 1] == blockIndices[i] && runs[last + 1] < maxLength) {
+                runs[last + 1]++;
+            } else {
+                runs[count++] = blockIndices[i];
+                runs[count++] = 1;
+            }
+        }
+        return Arrays.copyOf(runs, count);
+    }
+
+    /**
+     * Compute the reduced values of a parent block from the reduced values of its children. Every reduced cell of the
+     * parent covers 2x2x2 reduced cells of one child, which are combined by the strategy of this reducer. If the block
+     * has 4 children, the z axis is not refined, if it has 2 children, only the x axis is refined.
+     *
+     * @param values       The flat reduced values of all blocks ordered by the block id. The values of the parent
+     *                     are overwritten
+     * @param parentIndex  The index of the parent, which is the (block id - 1)
+     * @param childIndices The indices of the children in the order of FLASH3 - the x axis is the fastest changing one
+     */
+    public void restrictIntBlock(int[] values, int parentIndex, int[] childIndices) {
+        int[] stencil = restrictionStencil(childIndices.length);
+        int[] array = new int[stencil[0] * stencil[1] * stencil[2]];
+        StatisticalReducer restrictionReducer = StatisticalReducerFactory.getInstance().getReducer(type, array.length);
+
+        restrictCells(stencil, parentIndex, childIndices, (target, sources) -> {
+            for (int n = 0; n < sources.length; n++) {
+                array[n] = values[sources[n]];
+            }
+            values[target] = restrictionReducer.reduce(array);
+        });
+    }
+
+    /**
+     * Compute the reduced values of a parent block from the reduced values of its children. Every reduced cell of the
+     * parent covers 2x2x2 reduced cells of one child, which are combined by the strategy of this reducer. If the block
+     * has 4 children, the z axis is not refined, if it has 2 children, only the x axis is refined.
+     *
+     * @param values       The flat reduced values of all blocks ordered by the block id. The values of the parent
+     *                     are overwritten
+     * @param parentIndex  The index of the parent, which is the (block id - 1)
+     * @param childIndices The indices of the children in the order of FLASH3 - the x axis is the fastest changing one
+     */
+    public void restrictFloatBlock(float[] values, int parentIndex, int[] childIndices) {
+        int[] stencil = restrictionStencil(childIndices.length);
+        float[] array = new float[stencil[0] * stencil[1] * stencil[2]];
+        StatisticalReducer restrictionReducer = StatisticalReducerFactory.getInstance().getReducer(type, array.length);
+
+        restrictCells(stencil, parentIndex, childIndices, (target, sources) -> {
+            for (int n = 0; n < sources.length; n++) {
+                array[n] = values[sources[n]];
+            }
+            values[target] = restrictionReducer.reduce(array);
+        });
+    }
+
+    /**
+     * Compute the reduced values of a parent block from the reduced values of its children by the mean weighted with
+     * the reduced weights of the children, like the density weighted mean. If the weights of the covered cells are
+     * zero, the cells are weighted equally. The strategy of this reducer is not used.
+     *
+     * @param values       The flat reduced values of all blocks ordered by the block id. The values of the parent
+     *                     are overwritten
+     * @param weights      The flat reduced weights of all blocks in the same order. The weights are not changed
+     * @param parentIndex  The index of the parent, which is the (block id - 1)
+     * @param childIndices The indices of the children in the order of FLASH3 - the x axis is the fastest changing one
+     */
+    public void restrictWeightedFloatBlock(float[] values, float[] weights, int parentIndex, int[] childIndices) {
+        restrictCells(restrictionStencil(childIndices.length), parentIndex, childIndices, (target, sources) -> {
+            double sumWeights = 0.0;
+            double sumWeighted = 0.0;
+            double sumValues = 0.0;
+            for (int source : sources) {
+                sumWeights += weights[source];
+                sumWeighted += (double) values[source] * weights[source];
+                sumValues += values[source];
+            }
+            values[target] = (float) (sumWeights != 0.0 ? sumWeighted / sumWeights : sumValues / sources.length);
+        });
+    }
+
+    /**
+     * Walk the reduced cells of a parent block and collect the reduced child cells covered by each of them.
+     *
+     * @param stencil      The amount of child cells combined per axis
+     * @param parentIndex  The index of the parent, which is the (block id - 1)
+     * @param childIndices The indices of the children in the order of FLASH3 - the x axis is the fastest changing one
+     * @param cell         Combines the covered child cells of a single parent cell
+     */
+    private void restrictCells(int[] stencil, int parentIndex, int[] childIndices, RestrictionCell cell) {
+        int[] sources = new int[stencil[0] * stencil[1] * stencil[2]];
+        int reducedBlockSize = getReducedBlockSize();
+        int xDimension = originalXDimension / xFactor;
+        int yDimension = originalYDimension / yFactor;
+        int zDimension = originalZDimension / zFactor;
+        // The amount of parent cells covered by a single child per axis
+        int xHalf = xDimension / stencil[0];
+        int yHalf = yDimension / stencil[1];
+        int zHalf = zDimension / stencil[2];
+
+        for (int i = parentIndex * reducedBlockSize, z = 0; z < zDimension; z++) {
+            for (int y = 0; y < yDimension; y++) {
+                for (int x = 0; x < xDimension; x++, i++) {
+                    int child = (x / xHalf) + ((y / yHalf) + (z / zHalf) * stencil[1]) * stencil[0];
+                    int offset = childIndices[child] * reducedBlockSize;
+                    int childX = (x % xHalf) * stencil[0];
+                    int childY = (y % yHalf) * stencil[1];
+                    int childZ = (z % zHalf) * stencil[2];
+
+                    int n = 0;
+                    for (int dz = 0; dz < stencil[2]; dz++) {
+                        for (int dy = 0; dy < stencil[1]; dy++) {
+                            for (int dx = 0; dx < stencil[0]; dx++) {
+                                sources[n++] = offset + ((childZ + dz) * yDimension + childY + dy) * xDimension + childX + dx;
+                            }
+                        }
+                    }
+                    cell.restrict(i, sources);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param childCount The amount of children of a parent
+     * @return The amount of child cells combined per axis, 2 for refined axes and 1 otherwise
+     */
+    private int[] restrictionStencil(int childCount) {
+        if (childCount != 2 && childCount != 4 && childCount != 8)
+            throw new IllegalArgumentException("A parent must have 2, 4 or 8 children, but has " + childCount);
+        int[] reducedDimensions = {originalXDimension / xFactor, originalYDimension / yFactor, originalZDimension / zFactor};
+        int[] stencil = {1, 1, 1};
+        for (int axis = 0; axis < Integer.numberOfTrailingZeros(childCount); axis++) {
+            if (reducedDimensions[axis] % 2 != 0)
+                throw new IllegalArgumentException("The reduced dimension " + reducedDimensions[axis] + " is not divisible by 2 for the restriction of the children");
+            stencil[axis] = 2;
+        }
+        return stencil;
+    }
+
+    /**
+     * @return The amount of original cells of a single block
+     */
+    public int getBlockSize() {
+        return originalXDimension * originalYDimension * originalZDimension;
+    }
+
+    /**
+     * @return The amount of reduced cells of a single block
+     */
+    public int getReducedBlockSize() {
+        return getBlockSize() / (xFactor * yFactor * zFactor);
+    }
+
+    /**
+     * Reduce the blocks with the index [0, blockCount) in ranges of at most maxRangeSize blocks. In parallel mode the
+     * ranges are reduced on the common {@link ForkJoinPool}, otherwise one after another by the calling thread.
+     *
+     * @param blockCount   The amount of blocks
+     * @param maxRangeSize The maximum amount of blocks of a single range
+     * @param range        Reduce the blocks of a single range. Every block index is only once part of a range
+     * @throws Exception The first exception thrown while reducing a range
+     */
+    private void reduceBlocks(int blockCount, int maxRangeSize, BlockRange range) throws Exception {
+        if (!parallel || blockCount <= maxRangeSize) {
+            for (int from = 0; from < blockCount; from += maxRangeSize) {
+                range.reduce(from, Math.min(from + maxRangeSize, blockCount));
+            }
+            return;
+        }
+
+        AtomicReference<Exception> error = new AtomicReference<>();
+        ForkJoinPool.commonPool().invoke(new BlockRangeTask(range, 0, blockCount, maxRangeSize, error));
+        if (error.get() != null)
+            throw error.get();
+    }
+
+    /**
+     * Receives the reduced values of consecutive blocks.
+     *
+     * @param <T> The type of the flat array holding the values
+     */
+    @FunctionalInterface
+    public interface ReducedBlocksConsumer<T> {
+
+        /**
+         * @param firstBlock The index of the first block, which is the (block id - 1)
+         * @param values     The flat reduced values of the blocks ordered by their id. Only valid while consuming
+         *                   them, because the array is reused afterwards
+         * @throws Exception Something went wrong while processing the values
+         */
+        void accept(int firstBlock, T values) throws Exception;
+    }
+
+    /**
+     * Combines the reduced child cells covered by a single reduced cell of a parent.
+     */
+    @FunctionalInterface
+    private interface RestrictionCell {
+
+        /**
+         * @param target  The index of the parent cell in the flat values
+         * @param sources The indices of the covered child cells in the flat values. Only valid during the call
+         */
+        void restrict(int target, int[] sources);
+    }
+
+    /**
+     * A range of blocks to reduce. The blocks are identified by their index in the block list.
+     */
+    @FunctionalInterface
+    private interface BlockRange {
+
+        /**
+         * @param from The first block index, inclusive
+         * @param to   The last block index, exclusive
+         * @throws Exception Something went wrong while reading or reducing
+         */
+        void reduce(int from, int to) throws Exception;
+    }
+
+    /**
+     * Splits a range of blocks in halves until it is small enough to be reduced by a single thread.
+     */
+    private static class BlockRangeTask extends RecursiveAction {
+
+        private final BlockRange range;
+        private final int from;
+        private final int to;
+        private final int maxRangeSize;
+        private final AtomicReference<Exception> error;
+
+        private BlockRangeTask(BlockRange range, int from, int to, int maxRangeSize, AtomicReference<Exception> error) {
+            this.range = range;
+            this.from = from;
+            this.to = to;
+            this.maxRangeSize = maxRangeSize;
+            this.error = error;
+        }
+
+        @Override
+        protected void compute() {
+            // Another range failed - the result is useless
+            if (error.get() != null)
+                return;
+
+            if (to - from <= maxRangeSize) {
+                try {
+                    range.reduce(from, to);
+                } catch (Exception e) {
+                    error.compareAndSet(null, e);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BlockRangeTask(range, from, middle, maxRangeSize, error), new BlockRangeTask(range, middle, to, maxRangeSize, error));
+            }
+        }
     }
 
     /**
-     * Calculate the index of the 3D array in a flatten 1D array. The order is XYZ
+     * Calculate the index of the 3D array in a flatten 1D array. The x coordinate is the fastest changing one, the z
+     * coordinate the slowest, like FLASH3 stores the cells of a block.
      *
-     * @param x     The x coordinate
-     * @param y     The y coordinate
-     * @param ySize The size of the y dimension(the width)
-     * @param z     The z coordinate
-     * @param zSize The size of the z dimension(the depth)
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
      * @return The index in the flatten 1D array for the 3D array
      */
-    private int index(int x, int y, int ySize, int z, int zSize) {
-        return x * ySize * zSize + y * zSize + z;
+    private int index(int x, int y, int z) {
+        return (z * originalYDimension + y) * originalXDimension + x;
     }
 }
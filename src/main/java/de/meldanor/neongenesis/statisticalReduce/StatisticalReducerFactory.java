@@ -40,6 +40,9 @@ public class StatisticalReducerFactory {
 
     private Map<StatisticalReducerType, de.meldanor.neongenesis.statisticalReduce.StatisticalReducer> reducerMap;
 
+    private final StatisticalReducer sortingNetworkMedianReducer = new SortingNetworkMedianReducer();
+    private final StatisticalReducer quickSelectMedianReducer = new QuickSelectMedianReducer();
+
     private static StatisticalReducerFactory ourInstance = new StatisticalReducerFactory();
 
     public static StatisticalReducerFactory getInstance() {
@@ -90,4 +93,23 @@ public class StatisticalReducerFactory {
     public de.meldanor.neongenesis.statisticalReduce.StatisticalReducer getReducer(StatisticalReducerType type) {
         return reducerMap.get(type);
     }
+
+    /**
+     * Get the fastest reducer for the type and a fixed amount of values. The median is calculated by a sorting network
+     * for 8 values and by quickselect for more values. The results are equal to the reducer of
+     * {@link #getReducer(StatisticalReducerType)}.
+     *
+     * @param type        The type of the reducing
+     * @param stencilSize The amount of values every reduced array contains
+     * @return The statistical reducer specialized on the amount of values
+     */
+    public de.meldanor.neongenesis.statisticalReduce.StatisticalReducer getReducer(StatisticalReducerType type, int stencilSize) {
+        if (type == StatisticalReducerType.MEDIAN) {
+            if (stencilSize == SortingNetworkMedianReducer.STENCIL_SIZE)
+                return sortingNetworkMedianReducer;
+            else if (stencilSize > SortingNetworkMedianReducer.STENCIL_SIZE)
+                return quickSelectMedianReducer;
+        }
+        return getReducer(type);
+    }
 }
@@ -25,16 +25,17 @@
 package de.meldanor.neongenesis.statisticalReduce;
 
 import de.meldanor.neongenesis.downsample.AbstractReductionProcess;
+import de.meldanor.neongenesis.downsample.ParentBlockMode;
+import de.meldanor.neongenesis.downsample.ReductionSettings;
 import de.meldanor.neongenesis.hdf5.Flash3Reader;
 import de.meldanor.neongenesis.hdf5.Hdf5Writer;
 import javafx.geometry.Point3D;
-import ncsa.hdf.object.Dataset;
 import ncsa.hdf.object.Datatype;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.*;
 
 /**
  * An object to reduce a certain dataset for lower latency.
@@ -45,45 +46,216 @@ import java.util.Map;
  */
 public class StatisticalReductionProcess extends AbstractReductionProcess {
 
-    public StatisticalReductionProcess(StatisticalReducerFactory.StatisticalReducerType strategy, List<String> variableDatasetsNames, File targetDirectory) {
-        super(variableDatasetsNames, targetDirectory, strategy);
+    public StatisticalReductionProcess(StatisticalReducerFactory.StatisticalReducerType strategy, List<String> variableDatasetsNames, File targetDirectory, ReductionSettings settings) {
+        super(variableDatasetsNames, targetDirectory, strategy, settings);
     }
 
     @Override
-    protected void reduceDatasets(StatisticalDatasetReducer reducer, Flash3Reader source, Hdf5Writer destination) throws Exception {
-        Map<String, Dataset> variableMap = source.getMetaData().getVariableMap();
+    protected void reduceDatasets(StatisticalDatasetReducer reducer, Flash3Reader source, Hdf5Writer destination, Buffer buffer) throws Exception {
+        List<String> datasetsToReduce = this.variableDatasetsNames;
+        if (datasetsToReduce.isEmpty())
+            datasetsToReduce = new ArrayList<>(source.getMetaData().getVariableNames());
+
+        // The restriction needs the children of a parent at once, so it is not split into independent batches
+        if (settings.getPipelineDepth() > 0 && settings.getParentBlockMode() != ParentBlockMode.RESTRICT) {
+            reduceDatasetsPipelined(datasetsToReduce, reducer, source, destination, buffer);
+        } else {
+            for (String dataset : datasetsToReduce) {
+                reduceDataset(dataset, reducer, source, destination, buffer);
+            }
+        }
 
-        Point3D dimension = getDimension(source.getMetaData());
-        int xDim = (int) (dimension.getX() / 2);
-        int yDim = (int) (dimension.getY() / 2);
-        int zDim = (int) (dimension.getZ() / 2);
+    }
 
-        Buffer buffer = new Buffer(source.getMetaData(), xDim, yDim, zDim);
+    /**
+     * Reduce the datasets in three stages running at the same time: The next batch of blocks is read while the current
+     * one is reduced and the previous one is written. The stages are connected by bounded queues, so at most
+     * {@link de.meldanor.neongenesis.downsample.ReductionSettings#getPipelineDepth()} batches are waiting between
+     * two stages and the used memory is limited by the batch size instead of the size of a dataset.
+     */
+    private void reduceDatasetsPipelined(List<String> datasetsToReduce, StatisticalDatasetReducer reducer, Flash3Reader source, Hdf5Writer destination, Buffer buffer) throws Exception {
+        BlockingQueue<PipelineItem> readQueue = new ArrayBlockingQueue<>(settings.getPipelineDepth());
+        BlockingQueue<PipelineItem> reducedQueue = new ArrayBlockingQueue<>(settings.getPipelineDepth());
 
-        List<String> datasetsToReduce = this.variableDatasetsNames;
-        if (datasetsToReduce.isEmpty())
-            datasetsToReduce = new ArrayList<>(variableMap.keySet());
+        // Read only the remaining blocks in ranges, which are consecutive in the original and in the selected tree
+        boolean fill = settings.getParentBlockMode() == ParentBlockMode.FILL;
+        int[] runs = fill ? getLeafRuns(buffer) : buffer.getBlocks().getOriginalRuns(settings.getBatchSize());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> reading = executor.submit(() -> {
+                try {
+                    for (String datasetName : datasetsToReduce) {
+                        int datatypeClass = source.getMetaData().getDatatypeClass(datasetName);
+                        if (datatypeClass != Datatype.CLASS_FLOAT && datatypeClass != Datatype.CLASS_INTEGER)
+                            throw new IllegalArgumentException("Unsupported datatype found while reducing! Datatype class: " + datatypeClass);
+                        for (int run = 0; run < runs.length; run += 2) {
+                            readQueue.put(readBatch(datasetName, datatypeClass, runs[run], runs[run + 1], source, buffer));
+                        }
+                        readQueue.put(new PipelineItem(datasetName, datatypeClass, -1, null));
+                    }
+                } finally {
+                    readQueue.put(PipelineItem.END);
+                }
+                return null;
+            });
+
+            Future<?> reducing = executor.submit(() -> {
+                try {
+                    PipelineItem item;
+                    while ((item = readQueue.take()) != PipelineItem.END) {
+                        reducedQueue.put(reduceItem(item, reducer));
+                    }
+                } finally {
+                    reducedQueue.put(PipelineItem.END);
+                }
+                return null;
+            });
+
+            // The writer is the current thread. The streams of a dataset are created by its first item
+            int reducedBlockSize = reducer.getReducedBlockSize();
+            String current = null;
+            FloatDatasetStream floats = null;
+            IntDatasetStream ints = null;
+            PipelineItem item;
+            while ((item = reducedQueue.take()) != PipelineItem.END) {
+                if (current == null) {
+                    current = item.datasetName;
+                    if (item.datatypeClass == Datatype.CLASS_FLOAT)
+                        floats = createReducedFloatDataset(current, source, destination, buffer);
+                    else
+                        ints = createReducedIntDataset(current, source, destination, buffer);
+                }
+
+                if (item.isDatasetEnd()) {
+                    if (floats != null) {
+                        if (fill)
+                            fillParents(floats, reducedBlockSize, buffer);
+                        floats.finish();
+                    } else {
+                        if (fill)
+                            fillParents(ints, reducedBlockSize, buffer);
+                        ints.finish();
+                    }
+                    current = null;
+                    floats = null;
+                    ints = null;
+                } else {
+                    writeItem(item, floats, ints);
+                }
+            }
+
+            // The reducing stage must be checked first - if it has failed, the reading stage may wait forever
+            waitForStage(reducing);
+            waitForStage(reading);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Read a batch of blocks, which are consecutive in the original and in the selected tree
+     *
+     * @param firstBlock The original index of the first block, which is the (block id - 1)
+     * @param count      The amount of blocks
+     */
+    private PipelineItem readBatch(String datasetName, int datatypeClass, int firstBlock, int count, Flash3Reader source, Buffer buffer) throws Exception {
+        int newIndex = buffer.getBlocks().getNewIndex(firstBlock);
+        if (datatypeClass == Datatype.CLASS_FLOAT)
+            return new PipelineItem(datasetName, datatypeClass, newIndex, source.readFloatValues(datasetName, firstBlock + 1, count));
+        else
+            return new PipelineItem(datasetName, datatypeClass, newIndex, source.readIntValues(datasetName, firstBlock + 1, count));
+    }
+
+    private PipelineItem reduceItem(PipelineItem item, StatisticalDatasetReducer reducer) throws Exception {
+        if (item.isDatasetEnd())
+            return item;
+
+        if (item.datatypeClass == Datatype.CLASS_FLOAT) {
+            float[] values = (float[]) item.values;
+            float[] reduced = buffers.acquireFloats(values.length / reducer.getBlockSize() * reducer.getReducedBlockSize());
+            reducer.reduceFloatValues(values, reduced);
+            return new PipelineItem(item.datasetName, item.datatypeClass, item.firstBlock, reduced);
+        } else {
+            int[] values = (int[]) item.values;
+            int[] reduced = buffers.acquireInts(values.length / reducer.getBlockSize() * reducer.getReducedBlockSize());
+            reducer.reduceIntValues(values, reduced);
+            return new PipelineItem(item.datasetName, item.datatypeClass, item.firstBlock, reduced);
+        }
+    }
 
-        for (String dataset : datasetsToReduce) {
-            reduceDataset(dataset, reducer, source, destination, buffer);
+    private void writeItem(PipelineItem item, FloatDatasetStream floats, IntDatasetStream ints) throws Exception {
+        if (item.datatypeClass == Datatype.CLASS_FLOAT) {
+            try {
+                floats.accept(item.firstBlock, (float[]) item.values);
+            } finally {
+                buffers.release((float[]) item.values);
+            }
+        } else {
+            try {
+                ints.accept(item.firstBlock, (int[]) item.values);
+            } finally {
+                buffers.release((int[]) item.values);
+            }
         }
+    }
 
+    private void waitForStage(Future<?> stage) throws Exception {
+        try {
+            stage.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * A batch of blocks of a dataset passed between two stages of the pipeline. Holds the original values after
+     * reading or the reduced values after reducing. An item without values marks the end of a dataset.
+     */
+    private static class PipelineItem {
+
+        /**
+         * Marks the end of the datasets
+         */
+        private static final PipelineItem END = new PipelineItem(null, -1, -1, null);
+
+        private final String datasetName;
+        private final int datatypeClass;
+        /**
+         * The index of the first block in the reduced file
+         */
+        private final int firstBlock;
+        private final Object values;
+
+        private PipelineItem(String datasetName, int datatypeClass, int firstBlock, Object values) {
+            this.datasetName = datasetName;
+            this.datatypeClass = datatypeClass;
+            this.firstBlock = firstBlock;
+            this.values = values;
+        }
+
+        private boolean isDatasetEnd() {
+            return values == null;
+        }
     }
 
     private void reduceDataset(String datasetName, StatisticalDatasetReducer reducer, Flash3Reader source, Hdf5Writer destination, Buffer buffer) throws Exception {
-        Dataset dataset = source.getMetaData().getDataset(datasetName);
-        dataset.init();
-        switch (dataset.getDatatype().getDatatypeClass()) {
+        int datatypeClass = source.getMetaData().getDatatypeClass(datasetName);
+        switch (datatypeClass) {
             case Datatype.CLASS_FLOAT:
-                List<float[]> floats = reducer.reduceFloatDataset(source, datasetName);
-                writeReducedFloatDataset(floats, datasetName, source, destination, buffer);
+                FloatDatasetStream floats = createReducedFloatDataset(datasetName, source, destination, buffer);
+                reduceFloatDataset(reducer, source, datasetName, floats, buffer);
+                floats.finish();
                 break;
             case Datatype.CLASS_INTEGER:
-                List<int[]> ints = reducer.reduceIntDataset(source, datasetName);
-                writeReducedIntDataset(ints, datasetName, source, destination, buffer);
+                IntDatasetStream ints = createReducedIntDataset(datasetName, source, destination, buffer);
+                reduceIntDataset(reducer, source, datasetName, ints, buffer);
+                ints.finish();
                 break;
             default:
-                throw new IllegalArgumentException("Unsupported datatype found while reducing! Datatype: " + dataset.getDatatype());
+                throw new IllegalArgumentException("Unsupported datatype found while reducing! Datatype class: " + datatypeClass);
         }
     }
 
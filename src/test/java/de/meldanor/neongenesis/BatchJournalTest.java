@@ -0,0 +1,148 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BatchJournalTest {
+
+    private static final Map<String, String> CONFIGURATION = Collections.singletonMap("strategy", "MEAN");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResume() throws Exception {
+        File directory = folder.newFolder("reduced");
+        File first = new File("plt_cnt_0000");
+        File second = new File("plt_cnt_0001");
+
+        try (BatchJournal journal = new BatchJournal(directory, false, CONFIGURATION)) {
+            assertFalse(journal.isCompleted(first));
+            journal.complete(first);
+        }
+
+        try (BatchJournal journal = new BatchJournal(directory, true, CONFIGURATION)) {
+            assertTrue(journal.isCompleted(first));
+            assertFalse(journal.isCompleted(second));
+            journal.complete(second);
+            // Completed for the rest of the run, like a file found twice by a watcher
+            assertTrue(journal.isCompleted(second));
+        }
+
+        try (BatchJournal journal = new BatchJournal(directory, true, CONFIGURATION)) {
+            assertTrue(journal.isCompleted(first));
+            assertTrue(journal.isCompleted(second));
+        }
+
+        // A new run starts from scratch
+        try (BatchJournal journal = new BatchJournal(directory, false, CONFIGURATION)) {
+            assertFalse(journal.isCompleted(first));
+        }
+        try (BatchJournal journal = new BatchJournal(directory, true, CONFIGURATION)) {
+            assertFalse(journal.isCompleted(first));
+        }
+    }
+
+    @Test
+    public void testIncompleteLine() throws Exception {
+        File directory = folder.newFolder("reduced");
+        File complete = new File("plt_cnt_0010");
+        File incomplete = new File("plt_cnt_001");
+
+        // The run crashed while writing the entry of plt_cnt_0011
+        try (OutputStream out = new FileOutputStream(new File(directory, BatchJournal.FILE_NAME))) {
+            out.write((BatchJournal.key(complete, 0L, 0L, BatchJournal.toLine(CONFIGURATION)) + "\n" + incomplete.getAbsolutePath()).getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (BatchJournal journal = new BatchJournal(directory, true, CONFIGURATION)) {
+            assertTrue(journal.isCompleted(complete));
+            assertFalse(journal.isCompleted(incomplete));
+            journal.complete(incomplete);
+        }
+        try (BatchJournal journal = new BatchJournal(directory, true, CONFIGURATION)) {
+            assertTrue(journal.isCompleted(incomplete));
+        }
+    }
+
+    @Test
+    public void testChangedFile() throws Exception {
+        File directory = folder.newFolder("reduced");
+        File file = folder.newFile("plt_cnt_0000");
+        write(file, 128);
+
+        try (BatchJournal journal = new BatchJournal(directory, false, CONFIGURATION)) {
+            journal.complete(file);
+        }
+        try (BatchJournal journal = new BatchJournal(directory, true, CONFIGURATION)) {
+            assertTrue(journal.isCompleted(file));
+        }
+
+        // The simulation rewrote the file after its reduction
+        write(file, 256);
+        try (BatchJournal journal = new BatchJournal(directory, true, CONFIGURATION)) {
+            assertFalse(journal.isCompleted(file));
+            // Changed while it was reduced
+            journal.complete(file, 128L, file.lastModified());
+        }
+        try (BatchJournal journal = new BatchJournal(directory, true, CONFIGURATION)) {
+            assertFalse(journal.isCompleted(file));
+        }
+    }
+
+    @Test
+    public void testConfiguration() throws Exception {
+        File directory = folder.newFolder("reduced");
+        File file = new File("plt_cnt_0000");
+
+        try (BatchJournal journal = new BatchJournal(directory, false, CONFIGURATION)) {
+            journal.complete(file);
+        }
+        // The same file reduced with another strategy is a different reduced file
+        try (BatchJournal journal = new BatchJournal(directory, true, Collections.singletonMap("strategy", "MAX"))) {
+            assertFalse(journal.isCompleted(file));
+        }
+        try (BatchJournal journal = new BatchJournal(directory, true, CONFIGURATION)) {
+            assertTrue(journal.isCompleted(file));
+        }
+    }
+
+    private void write(File file, int length) throws Exception {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[length]);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DirectoryWatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWatch() throws Exception {
+        File directory = folder.newFolder("plotfiles");
+        File existing = new File(directory, "plt_cnt_0000");
+        write(existing);
+
+        List<File> handled = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(2);
+        DirectoryWatcher watcher = new DirectoryWatcher(directory, file -> {
+            handled.add(file);
+            latch.countDown();
+        }, 2, 100L);
+
+        Thread thread = new Thread(() -> {
+            try {
+                watcher.watch();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        try {
+            // Files created by the reduction are ignored
+            write(new File(directory, "plt_cnt_0000_reduced.tmp"));
+            write(new File(directory, "plt_cnt_0001"));
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            thread.interrupt();
+            thread.join(10000L);
+        }
+
+        assertFalse(thread.isAlive());
+        assertEquals(2, handled.size());
+        assertTrue(handled.contains(existing));
+        assertTrue(handled.contains(new File(directory, "plt_cnt_0001")));
+    }
+
+    @Test
+    public void testUnstableFile() throws Exception {
+        File directory = folder.newFolder("plotfiles");
+        File file = new File(directory, "plt_cnt_0000");
+        long stableMillis = 300L;
+
+        List<Long> handled = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        DirectoryWatcher watcher = new DirectoryWatcher(directory, f -> {
+            handled.add(System.currentTimeMillis());
+            latch.countDown();
+        }, 1, stableMillis);
+
+        Thread thread = new Thread(() -> {
+            try {
+                watcher.watch();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        long lastWrite;
+        try {
+            // The simulation keeps writing the file for more than the stable time
+            try (OutputStream out = new FileOutputStream(file)) {
+                long end = System.currentTimeMillis() + 3 * stableMillis;
+                do {
+                    lastWrite = System.currentTimeMillis();
+                    out.write(new byte[128]);
+                    out.flush();
+                    assertTrue("Handled while it was written", handled.isEmpty());
+                    Thread.sleep(stableMillis / 10);
+                } while (lastWrite < end);
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            thread.interrupt();
+            thread.join(10000L);
+        }
+
+        assertFalse(thread.isAlive());
+        assertEquals(1, handled.size());
+        assertTrue(handled.get(0) - lastWrite >= stableMillis);
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        File directory = folder.newFolder("plotfiles");
+        File file = new File(directory, "plt_cnt_0000");
+        write(file);
+
+        List<File> handled = new CopyOnWriteArrayList<>();
+        DirectoryWatcher watcher = new DirectoryWatcher(directory, handled::add, 1, 0L);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            watcher.trackAll();
+            watcher.submitCompleteFiles(executor);
+            // An overflow lists the directory again, but the unchanged file is not handled twice
+            watcher.trackAll();
+            watcher.submitCompleteFiles(executor);
+            // The single worker has finished the submitted files
+            executor.submit(() -> null).get();
+            assertEquals(1, handled.size());
+
+            write(file, 256);
+            watcher.trackAll();
+            watcher.submitCompleteFiles(executor);
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(2, handled.size());
+    }
+
+    private void write(File file) throws Exception {
+        write(file, 128);
+    }
+
+    private void write(File file, int length) throws Exception {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[length]);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis;
+
+import com.beust.jcommander.JCommander;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NeonGenesisOptionsTest {
+
+    @Test
+    public void testCreateCommander() {
+        // Fails when two options share a name
+        new JCommander(new NeonGenesisOptions());
+    }
+
+    @Test
+    public void testParentBlocks() {
+        NeonGenesisOptions options = new NeonGenesisOptions();
+        new JCommander(options, "-id", "in", "-od", "out", "-pb", "-pbm", "restrict");
+        assertTrue(options.parallelBlocks);
+        assertEquals("restrict", options.parentBlocks);
+    }
+
+    @Test
+    public void testDropLevels() {
+        NeonGenesisOptions options = new NeonGenesisOptions();
+        new JCommander(options, "-id", "in", "-od", "out", "-dl", "6", "-drl", "1");
+        assertEquals(6, options.deflateLevel);
+        assertEquals(1, options.dropLevels);
+    }
+}
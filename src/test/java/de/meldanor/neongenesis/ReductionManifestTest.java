@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis;
+
+import de.meldanor.neongenesis.downsample.AbstractReductionProcess;
+import de.meldanor.neongenesis.downsample.ReductionProcessBuilder;
+import de.meldanor.neongenesis.statisticalReduce.StatisticalReducerFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ReductionManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AbstractReductionProcess createProcess(File outputDirectory, StatisticalReducerFactory.StatisticalReducerType strategy) {
+        return ReductionProcessBuilder.create()
+                .strategy(strategy)
+                .variableDatasetsNames(Collections.singletonList("dens"))
+                .outputDirectory(outputDirectory)
+                .build();
+    }
+
+    private void write(File file, int length) throws Exception {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[length]);
+        }
+    }
+
+    @Test
+    public void testUpToDate() throws Exception {
+        File source = folder.newFile("plt_cnt_0000");
+        write(source, 16);
+        File outputDirectory = folder.newFolder("reduced");
+        AbstractReductionProcess process = createProcess(outputDirectory, StatisticalReducerFactory.StatisticalReducerType.MEAN);
+
+        ReductionManifest manifest = new ReductionManifest(source, process);
+        // Neither the reduced file nor the manifest exist
+        assertFalse(manifest.isUpToDate());
+
+        write(process.getReducedFiles(source).get(0), 4);
+        assertFalse(manifest.isUpToDate());
+        manifest.write();
+        assertTrue(new ReductionManifest(source, process).isUpToDate());
+
+        // Another strategy creates other values
+        AbstractReductionProcess medianProcess = createProcess(outputDirectory, StatisticalReducerFactory.StatisticalReducerType.MEDIAN);
+        assertFalse(new ReductionManifest(source, medianProcess).isUpToDate());
+
+        // The original file has grown
+        write(source, 32);
+        assertFalse(new ReductionManifest(source, process).isUpToDate());
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        File source = folder.newFile("plt_cnt_0001");
+        AbstractReductionProcess process = createProcess(folder.newFolder("reduced"), StatisticalReducerFactory.StatisticalReducerType.MEAN);
+        write(process.getReducedFiles(source).get(0), 4);
+
+        ReductionManifest manifest = new ReductionManifest(source, process);
+        manifest.write();
+        assertTrue(manifest.getManifestFile().exists());
+        manifest.delete();
+        assertFalse(manifest.getManifestFile().exists());
+        assertFalse(manifest.isUpToDate());
+    }
+}
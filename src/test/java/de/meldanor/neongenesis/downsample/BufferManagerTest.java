@@ -0,0 +1,73 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.downsample;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BufferManagerTest {
+
+    @Test
+    public void testReuse() throws Exception {
+        BufferManager buffers = new BufferManager();
+        float[] floats = buffers.acquireFloats(16);
+        buffers.release(floats);
+        assertEquals(16L * Float.BYTES, buffers.getRetainedBytes());
+        assertSame(floats, buffers.acquireFloats(16));
+        assertEquals(0L, buffers.getRetainedBytes());
+
+        int[] ints = buffers.acquireInts(16);
+        buffers.release(ints);
+        assertNotSame(ints, buffers.acquireInts(8));
+        assertSame(ints, buffers.acquireInts(16));
+    }
+
+    @Test
+    public void testMaxRetainedBytes() throws Exception {
+        BufferManager buffers = new BufferManager(64L);
+        float[] first = buffers.acquireFloats(8);
+        float[] second = buffers.acquireFloats(8);
+        buffers.release(first);
+        buffers.release(second);
+        assertEquals(64L, buffers.getRetainedBytes());
+
+        // An array of another length does not fit, so the retained arrays are dropped
+        int[] other = buffers.acquireInts(4);
+        buffers.release(other);
+        assertEquals(16L, buffers.getRetainedBytes());
+        assertNotSame(first, buffers.acquireFloats(8));
+        assertSame(other, buffers.acquireInts(4));
+
+        // Arrays larger than the maximum are never retained
+        buffers.release(new float[32]);
+        assertEquals(0L, buffers.getRetainedBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaximum() throws Exception {
+        new BufferManager(-1L);
+    }
+}
@@ -24,13 +24,28 @@
 
 package de.meldanor.neongenesis.downsample;
 
+import de.meldanor.neongenesis.hdf5.Block;
+import de.meldanor.neongenesis.hdf5.BlockOrder;
+import de.meldanor.neongenesis.hdf5.BlockSelection;
+import de.meldanor.neongenesis.hdf5.Flash3MetaData;
+import de.meldanor.neongenesis.hdf5.Flash3Reader;
+import de.meldanor.neongenesis.statisticalReduce.StatisticalDatasetReducer;
 import de.meldanor.neongenesis.statisticalReduce.StatisticalReducerFactory;
+import javafx.geometry.Point3D;
+import ncsa.hdf.object.Attribute;
+import ncsa.hdf.object.Dataset;
 import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 public class StatisticalReductionProcessTest {
 
@@ -39,7 +54,158 @@ public class StatisticalReductionProcessTest {
     @Rule
     public TemporaryFolder folder = new TemporaryFolder();
 
-    
+    @Test
+    public void testPyramidLevels() throws Exception {
+        AbstractReductionProcess process = ReductionProcessBuilder.create()
+                .variableDatasetsNames(Collections.singletonList("dens"))
+                .strategy(StatisticalReducerFactory.StatisticalReducerType.MEAN)
+                .outputDirectory(folder.newFolder())
+                .pyramidLevels(3)
+                .build();
+
+        File original = new File(FILE);
+        List<File> reducedFiles = process.getReducedFiles(original);
+        assertEquals(reducedFiles.get(0), process.reduceFile(original, false));
+
+        Flash3Reader originalReader = new Flash3Reader(original);
+        Flash3MetaData originalMetaData = originalReader.getMetaData();
+        Flash3Reader previous = null;
+        for (int level = 1; level <= 3; level++) {
+            Flash3Reader reader = new Flash3Reader(reducedFiles.get(level - 1));
+            Flash3MetaData metaData = reader.getMetaData();
+            // Every level halves the resolution of the blocks, but keeps all blocks
+            assertEquals(originalMetaData.getIntegerSclar("nxb") >> level, metaData.getIntegerSclar("nxb"));
+            assertEquals(originalMetaData.getIntegerSclar("nyb") >> level, metaData.getIntegerSclar("nyb"));
+            assertEquals(originalMetaData.getIntegerSclar("nzb") >> level, metaData.getIntegerSclar("nzb"));
+            assertEquals(originalMetaData.getBlockCount(), metaData.getIntegerSclar("globalnumblocks"));
+
+            // Every further level is the previous level reduced again
+            if (previous != null) {
+                Flash3MetaData previousMetaData = previous.getMetaData();
+                Point3D previousDimension = new Point3D(previousMetaData.getIntegerSclar("nxb"), previousMetaData.getIntegerSclar("nyb"), previousMetaData.getIntegerSclar("nzb"));
+                StatisticalDatasetReducer reducer = new StatisticalDatasetReducer(previousDimension, StatisticalReducerFactory.StatisticalReducerType.MEAN);
+                assertArrayEquals(reducer.reduceFloatValues(previous.readFloatValues("dens")), reader.readFloatValues("dens"), 0.0F);
+                previous.close();
+            }
+            previous = reader;
+        }
+        previous.close();
+        originalReader.close();
+    }
+
+    @Test
+    public void testFillStatistics() throws Exception {
+        AbstractReductionProcess process = ReductionProcessBuilder.create()
+                .variableDatasetsNames(Collections.singletonList("dens"))
+                .strategy(StatisticalReducerFactory.StatisticalReducerType.MEAN)
+                .outputDirectory(folder.newFolder())
+                .parentBlocks(ParentBlockMode.FILL)
+                .build();
+
+        Flash3Reader reader = new Flash3Reader(process.reduceFile(new File(FILE), false));
+        float[] values = reader.readFloatValues("dens");
+        int blockSize = values.length / reader.getMetaData().getBlockCount();
+        // The filled parents are not part of the minimum and the maximum
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (Block leaf : reader.getMetaData().getBlockTree().getLeaves()) {
+            for (int i = (leaf.getId() - 1) * blockSize; i < leaf.getId() * blockSize; i++) {
+                min = Math.min(min, values[i]);
+                max = Math.max(max, values[i]);
+            }
+        }
+
+        Dataset dataset = reader.getMetaData().getDataset("dens");
+        dataset.init();
+        for (Object metadata : dataset.getMetadata()) {
+            Attribute attribute = (Attribute) metadata;
+            if ("maximum".equals(attribute.getName()))
+                assertEquals(max, ((float[]) attribute.getValue())[0], 0.0F);
+            else if ("minimum".equals(attribute.getName()))
+                assertEquals(min, ((float[]) attribute.getValue())[0], 0.0F);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testRestrictRegion() throws Exception {
+        File original = new File(FILE);
+        Flash3Reader originalReader = new Flash3Reader(original);
+        // The region around a single point keeps the leaf at the point and its ancestors
+        Point3D point = originalReader.getMetaData().getBlockTree().getLeaves().get(0).getCoordinates();
+        BlockSelection blocks = new BlockSelection(originalReader.getMetaData().getBlockTree(), 0, point, point, BlockOrder.ORIGINAL);
+        originalReader.close();
+
+        AbstractReductionProcess complete = ReductionProcessBuilder.create()
+                .variableDatasetsNames(Collections.singletonList("dens"))
+                .strategy(StatisticalReducerFactory.StatisticalReducerType.MEAN)
+                .outputDirectory(folder.newFolder())
+                .parentBlocks(ParentBlockMode.RESTRICT)
+                .build();
+        AbstractReductionProcess region = ReductionProcessBuilder.create()
+                .variableDatasetsNames(Collections.singletonList("dens"))
+                .strategy(StatisticalReducerFactory.StatisticalReducerType.MEAN)
+                .outputDirectory(folder.newFolder())
+                .parentBlocks(ParentBlockMode.RESTRICT)
+                .region(point, point)
+                .build();
+
+        Flash3Reader completeReader = new Flash3Reader(complete.reduceFile(original, false));
+        Flash3Reader regionReader = new Flash3Reader(region.reduceFile(original, false));
+        assertEquals(blocks.size(), regionReader.getMetaData().getBlockCount());
+        // Restricting only the subtrees of the remaining blocks gives the same values as restricting the whole tree
+        for (int i = 0; i < blocks.size(); i++) {
+            assertArrayEquals(completeReader.readFloatValues("dens", blocks.getOriginalIndex(i) + 1, 1), regionReader.readFloatValues("dens", i + 1, 1), 0.0F);
+        }
+        completeReader.close();
+        regionReader.close();
+    }
+
+    @Test
+    public void testRestrictSplitSubtrees() throws Exception {
+        File original = new File(FILE);
+
+        // Every subtree exceeds a batch of two blocks and is split into the leaves and batches of the parents above
+        ReductionProcessBuilder builder = ReductionProcessBuilder.create()
+                .variableDatasetsNames(Collections.singletonList("dens"))
+                .strategy(StatisticalReducerFactory.StatisticalReducerType.MEAN)
+                .parentBlocks(ParentBlockMode.RESTRICT)
+                .dropLevels(1);
+        AbstractReductionProcess complete = builder.outputDirectory(folder.newFolder()).build();
+        AbstractReductionProcess split = builder.outputDirectory(folder.newFolder()).batchSize(2).build();
+
+        Flash3Reader completeReader = new Flash3Reader(complete.reduceFile(original, false));
+        Flash3Reader splitReader = new Flash3Reader(split.reduceFile(original, false));
+        assertArrayEquals(completeReader.readFloatValues("dens"), splitReader.readFloatValues("dens"), 0.0F);
+        completeReader.close();
+        splitReader.close();
+    }
+
+    @Test
+    public void testPipeline() throws Exception {
+        File original = new File(FILE);
+        Flash3Reader originalReader = new Flash3Reader(original);
+        Point3D point = originalReader.getMetaData().getBlockTree().getLeaves().get(0).getCoordinates();
+        originalReader.close();
+
+        // The pipeline passes batches of the remaining leaves and gives the same values as the sequential reduction
+        ReductionProcessBuilder sequential = ReductionProcessBuilder.create()
+                .variableDatasetsNames(Arrays.asList("dens", "temp"))
+                .strategy(StatisticalReducerFactory.StatisticalReducerType.MEAN)
+                .parentBlocks(ParentBlockMode.FILL)
+                .region(point, point)
+                .batchSize(3);
+        AbstractReductionProcess complete = sequential.outputDirectory(folder.newFolder()).build();
+        AbstractReductionProcess pipelined = sequential.outputDirectory(folder.newFolder()).pipelineDepth(2).build();
+
+        Flash3Reader completeReader = new Flash3Reader(complete.reduceFile(original, false));
+        Flash3Reader pipelinedReader = new Flash3Reader(pipelined.reduceFile(original, false));
+        assertArrayEquals(completeReader.readFloatValues("dens"), pipelinedReader.readFloatValues("dens"), 0.0F);
+        assertArrayEquals(completeReader.readFloatValues("temp"), pipelinedReader.readFloatValues("temp"), 0.0F);
+        completeReader.close();
+        pipelinedReader.close();
+    }
+
     @Ignore(value = "This is a long running test for performance testing")
     @Test
     public void testReduceFile() throws Exception {
@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.hdf5;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class BlockCacheTest {
+
+    static String FILE = "D:/Studium/Bachelorarbeit/plotfiles/hvc_hdf5_plt_cnt_0000";
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        BlockCache cache = new BlockCache(1024);
+        assertNull(cache.getFloats("dens", 1, 2));
+
+        float[] values = {1, 2, 3, 4};
+        cache.putFloats("dens", 1, 2, values);
+        // The cache holds a copy
+        values[0] = 42;
+        assertArrayEquals(new float[]{1, 2, 3, 4}, cache.getFloats("dens", 1, 2), 0.0F);
+        // Only the same range is found
+        assertNull(cache.getFloats("dens", 1, 1));
+        assertNull(cache.getFloats("temp", 1, 2));
+        assertNull(cache.getInts("dens", 1, 2));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(4, cache.getMisses());
+        assertEquals(16, cache.getSize());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        // Room for two ranges of 4 values
+        BlockCache cache = new BlockCache(32);
+        cache.putInts("gid", 1, 1, new int[4]);
+        cache.putFloats("dens", 1, 1, new float[4]);
+        // Use the first range, so the second is the least recently used one
+        assertNotNull(cache.getInts("gid", 1, 1));
+        cache.putFloats("temp", 1, 1, new float[4]);
+
+        assertNotNull(cache.getInts("gid", 1, 1));
+        assertNull(cache.getFloats("dens", 1, 1));
+        assertNotNull(cache.getFloats("temp", 1, 1));
+        assertEquals(32, cache.getSize());
+
+        // Larger than the whole cache
+        cache.putFloats("pres", 1, 3, new float[12]);
+        assertNull(cache.getFloats("pres", 1, 3));
+        assertEquals(32, cache.getSize());
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testCachedDatasets() throws Exception {
+        Flash3Reader reader = new Flash3Reader(new File(FILE), false, 1L << 30);
+        reader.setCachedDatasets(Collections.singleton("dens"));
+        BlockTree tree = reader.getMetaData().getBlockTree();
+        // The ranges of the leaves, like they are read for the parent block mode FILL
+        int[] leaves = tree.getLeaves().stream().mapToInt(block -> block.getId() - 1).toArray();
+        int[] runs = new BlockSelection(tree, 0).toOriginalRuns(leaves, 64);
+
+        for (int pass = 0; pass < 2; pass++) {
+            for (int run = 0; run < runs.length; run += 2) {
+                float[] density = reader.readFloatValues("dens", runs[run] + 1, runs[run + 1]);
+                assertArrayEquals(density, reader.readFloatValues("dens", runs[run] + 1, runs[run + 1]), 0.0F);
+                reader.readFloatValues("temp", runs[run] + 1, runs[run + 1]);
+            }
+        }
+
+        // Every range of the density is read from the file once, the temperature is not cached
+        BlockCache cache = reader.getCache();
+        assertEquals(runs.length / 2, cache.getMisses());
+        assertEquals(3 * runs.length / 2, cache.getHits());
+        Flash3MetaData metaData = reader.getMetaData();
+        int blockSize = metaData.getIntegerSclar("nxb") * metaData.getIntegerSclar("nyb") * metaData.getIntegerSclar("nzb");
+        assertEquals((long) leaves.length * blockSize * Float.BYTES, cache.getSize());
+        reader.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() throws Exception {
+        new BlockCache(0);
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.hdf5;
+
+import javafx.geometry.Point3D;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class BlockSelectionTest {
+
+    @Test
+    public void testKeepAll() throws Exception {
+        BlockTree tree = new BlockTree(BlockTreeTest.createThreeLevels());
+        BlockSelection blocks = new BlockSelection(tree, 0);
+
+        assertFalse(blocks.isRewritten());
+        assertSame(tree, blocks.getTree());
+        assertEquals(17, blocks.size());
+        assertArrayEquals(IntStream.range(0, 17).toArray(), blocks.getKeptIndices());
+    }
+
+    @Test
+    public void testDropLevel() throws Exception {
+        BlockMetaData data = BlockTreeTest.createThreeLevels();
+        for (int i = 0; i < data.size(); i++) {
+            data.refineLevel[i] = (byte) (i == 0 ? 1 : i < 9 ? 2 : 3);
+            data.whichChild[i] = (byte) (i == 0 ? -1 : (i - 1) % 8 + 1);
+        }
+        BlockSelection blocks = new BlockSelection(new BlockTree(data), 1);
+
+        assertTrue(blocks.isRewritten());
+        assertEquals(9, blocks.size());
+        assertArrayEquals(IntStream.range(0, 9).toArray(), blocks.getKeptIndices());
+        assertEquals(-1, blocks.getNewIndex(9));
+
+        // The former parent of the dropped blocks is a leaf now and the root is a parent of leaves only
+        BlockTree tree = blocks.getTree();
+        assertTrue(tree.isLeaf(2));
+        assertEquals(8, tree.getLeaves().size());
+        int[] nodeTypes = blocks.getNodeTypes();
+        assertEquals(2, nodeTypes[0]);
+        assertEquals(1, nodeTypes[1]);
+        assertArrayEquals(new int[]{1, 2, 2, 2, 2, 2, 2, 2, 2}, blocks.getRefineLevels());
+        assertEquals(8, blocks.getWhichChildren()[8]);
+
+        int[] gid = blocks.getGid();
+        assertEquals(9 * BlockMetaData.GID_STRIDE, gid.length);
+        for (int child = 0; child < 8; child++) {
+            assertEquals(-1, gid[BlockMetaData.GID_STRIDE + BlockMetaData.CHILDREN_OFFSET + child]);
+            assertEquals(child + 2, gid[BlockMetaData.CHILDREN_OFFSET + child]);
+        }
+    }
+
+    @Test
+    public void testSingleRoot() throws Exception {
+        BlockSelection blocks = new BlockSelection(new BlockTree(BlockTreeTest.createTwoLevels()), 1);
+
+        assertEquals(1, blocks.size());
+        assertEquals(1, blocks.getNodeTypes()[0]);
+        assertTrue(blocks.getTree().isLeaf(1));
+        assertEquals(-1, blocks.getNewIndex(1));
+    }
+
+    @Test
+    public void testRenumber() throws Exception {
+        // The root has the children 2 and 11 to 17, the children of block 2 are the blocks 3 to 10
+        int size = 17;
+        int[] gid = new int[size * BlockMetaData.GID_STRIDE];
+        Arrays.fill(gid, -1);
+        for (int child = 0; child < 8; child++) {
+            setChild(gid, 1, child, child == 0 ? 2 : child + 10);
+            setChild(gid, 2, child, child + 3);
+        }
+        // Block 11 is the right neighbor of block 2
+        gid[BlockMetaData.GID_STRIDE + 1] = 11;
+        gid[10 * BlockMetaData.GID_STRIDE] = 2;
+        BlockSelection blocks = new BlockSelection(new BlockTree(new BlockMetaData(size, gid)), 1);
+
+        assertEquals(9, blocks.size());
+        assertArrayEquals(new int[]{0, 1, 10, 11, 12, 13, 14, 15, 16}, blocks.getKeptIndices());
+        assertEquals(2, blocks.getNewIndex(10));
+        assertEquals(-1, blocks.getNewIndex(2));
+        assertEquals(10, blocks.getOriginalIndex(2));
+
+        BlockTree tree = blocks.getTree();
+        assertArrayEquals(IntStream.rangeClosed(2, 9).toArray(), tree.getChildrenOf(1).stream().mapToInt(Block::getId).toArray());
+        assertEquals(tree.get(3), tree.get(2).getNeighbor(Block.BlockFace.RIGHT));
+        assertEquals(tree.get(2), tree.get(3).getNeighbor(Block.BlockFace.LEFT));
+        assertEquals(tree.get(1), tree.getParentOf(3));
+    }
+
+    private static void setChild(int[] gid, int parentId, int child, int childId) {
+        gid[(parentId - 1) * BlockMetaData.GID_STRIDE + BlockMetaData.CHILDREN_OFFSET + child] = childId;
+        gid[(childId - 1) * BlockMetaData.GID_STRIDE + BlockMetaData.PARENT_OFFSET] = parentId;
+    }
+
+    @Test
+    public void testRegion() throws Exception {
+        BlockTree original = new BlockTree(BlockTreeTest.createTwoLevels());
+        BlockSelection blocks = new BlockSelection(original, 0, new Point3D(0.2, 0.2, 0.2), new Point3D(0.5, 0.5, 0.5), BlockOrder.ORIGINAL);
+
+        // The siblings of the intersecting block are kept to get a complete tree
+        assertFalse(blocks.isRewritten());
+        assertSame(original, blocks.getTree());
+        assertEquals(9, blocks.size());
+    }
+
+    @Test
+    public void testRegionWithDroppedLevels() throws Exception {
+        BlockTree original = new BlockTree(BlockTreeTest.createTwoLevels());
+        BlockSelection blocks = new BlockSelection(original, 1, new Point3D(0.2, 0.2, 0.2), new Point3D(0.5, 0.5, 0.5), BlockOrder.ORIGINAL);
+
+        assertEquals(1, blocks.size());
+        assertArrayEquals(new int[]{0}, blocks.getKeptIndices());
+    }
+
+    @Test
+    public void testRegionRemovesNeighbor() throws Exception {
+        // Two roots next to each other along the x axis, covering [0, 1] and [1, 2]
+        int[] gid = new int[2 * BlockMetaData.GID_STRIDE];
+        Arrays.fill(gid, -1);
+        gid[Block.BlockFace.LEFT.getNeighborListIndex()] = -31;
+        gid[Block.BlockFace.RIGHT.getNeighborListIndex()] = 2;
+        gid[BlockMetaData.GID_STRIDE + Block.BlockFace.LEFT.getNeighborListIndex()] = 1;
+        gid[BlockMetaData.GID_STRIDE + Block.BlockFace.RIGHT.getNeighborListIndex()] = -31;
+        BlockMetaData data = new BlockMetaData(2, gid);
+        for (int i = 0; i < 2; i++) {
+            data.refineLevel[i] = 1;
+            data.nodeType[i] = 1;
+            data.whichChild[i] = -1;
+            data.blockSize[i] = 1.0F;
+            for (int axis = 0; axis < 3; axis++) {
+                float lower = axis == 0 ? i : 0;
+                data.boundingBox[i * 3 + axis] = lower;
+                data.coordinates[i * 3 + axis] = lower + 0.5F;
+            }
+        }
+
+        BlockSelection blocks = new BlockSelection(new BlockTree(data), 0, new Point3D(0.2, 0.2, 0.2), new Point3D(0.5, 0.5, 0.5), BlockOrder.ORIGINAL);
+        assertEquals(1, blocks.size());
+        int[] newGid = blocks.getGid();
+        // The removed neighbor is a boundary of the domain and not a coarser neighbor, the other boundary is kept
+        assertEquals(BlockSelection.OUTFLOW, newGid[Block.BlockFace.RIGHT.getNeighborListIndex()]);
+        assertEquals(-31, newGid[Block.BlockFace.LEFT.getNeighborListIndex()]);
+        assertEquals(-1, newGid[BlockMetaData.PARENT_OFFSET]);
+        assertNull(blocks.getTree().get(1).getNeighbor(Block.BlockFace.RIGHT));
+    }
+
+    @Test
+    public void testRegionRemovesFinerNeighbor() throws Exception {
+        // A root covering [0, 4] with the children 2 to 9, the first two children have the children 10 to 17 and 18 to 25
+        int size = 25;
+        int[] gid = new int[size * BlockMetaData.GID_STRIDE];
+        Arrays.fill(gid, -1);
+        for (int child = 0; child < 8; child++) {
+            setChild(gid, 1, child, child + 2);
+            setChild(gid, 2, child, child + 10);
+            setChild(gid, 3, child, child + 18);
+        }
+        // The second child of block 2 covers [1, 2] along the x axis and touches the first child of block 3
+        gid[10 * BlockMetaData.GID_STRIDE + Block.BlockFace.RIGHT.getNeighborListIndex()] = 18;
+        gid[17 * BlockMetaData.GID_STRIDE + Block.BlockFace.LEFT.getNeighborListIndex()] = 11;
+        BlockMetaData data = new BlockMetaData(size, gid);
+        for (int i = 0; i < size; i++) {
+            float blockSize = i == 0 ? 4 : i < 9 ? 2 : 1;
+            int child = i == 0 ? 0 : i < 9 ? i - 1 : (i - 9) % 8;
+            float parentLower = i < 17 ? 0 : 2;
+            data.refineLevel[i] = (byte) (i == 0 ? 1 : i < 9 ? 2 : 3);
+            for (int axis = 0; axis < 3; axis++) {
+                float lower = i == 0 ? 0 : ((child >> axis) & 1) * blockSize + (axis == 0 && i >= 9 ? parentLower : 0);
+                data.boundingBox[i * 3 + axis] = lower;
+                data.coordinates[i * 3 + axis] = lower + blockSize / 2;
+            }
+        }
+
+        BlockSelection blocks = new BlockSelection(new BlockTree(data), 0, new Point3D(1.2, 0.2, 0.2), new Point3D(1.5, 0.5, 0.5), BlockOrder.ORIGINAL);
+        assertEquals(17, blocks.size());
+        assertEquals(-1, blocks.getNewIndex(17));
+        assertTrue(blocks.getTree().isLeaf(3));
+        // The removed neighbor lies within block 3, which remains as a coarser neighbor
+        int[] newGid = blocks.getGid();
+        assertEquals(-1, newGid[10 * BlockMetaData.GID_STRIDE + Block.BlockFace.RIGHT.getNeighborListIndex()]);
+    }
+
+    /**
+     * The tree of three levels with extents: The root covers [0, 4], its children [0, 2] and the children of the first
+     * child [0, 1]
+     */
+    private static BlockMetaData createThreeLevelsWithExtents() {
+        BlockMetaData data = BlockTreeTest.createThreeLevels();
+        for (int i = 0; i < data.size(); i++) {
+            float size = i == 0 ? 4 : i < 9 ? 2 : 1;
+            int child = i == 0 ? 0 : (i - 1) % 8;
+            data.refineLevel[i] = (byte) (i == 0 ? 1 : i < 9 ? 2 : 3);
+            for (int axis = 0; axis < 3; axis++) {
+                float lower = i == 0 ? 0 : ((child >> axis) & 1) * size;
+                data.boundingBox[i * 3 + axis] = lower;
+                data.coordinates[i * 3 + axis] = lower + size / 2;
+            }
+        }
+        return data;
+    }
+
+    @Test
+    public void testRegionSubTree() throws Exception {
+        BlockMetaData data = createThreeLevelsWithExtents();
+        // A box within the last child of the root, it has no children
+        BlockSelection blocks = new BlockSelection(new BlockTree(data), 0, new Point3D(3, 3, 3), new Point3D(3.5, 3.5, 3.5), BlockOrder.ORIGINAL);
+
+        // The root and its children remain, the grandchildren are not read
+        assertTrue(blocks.isRewritten());
+        assertEquals(9, blocks.size());
+        assertArrayEquals(IntStream.range(0, 9).toArray(), blocks.getKeptIndices());
+        assertTrue(blocks.getTree().isLeaf(2));
+        assertEquals(-1, blocks.getNewIndex(9));
+    }
+
+    @Test
+    public void testMortonOrder() throws Exception {
+        BlockTree original = new BlockTree(createThreeLevelsWithExtents());
+        BlockSelection blocks = new BlockSelection(original, 0, null, null, BlockOrder.MORTON);
+
+        // The first child of the root is followed by its children, then the other children of the root follow
+        int[] expected = IntStream.concat(IntStream.of(0, 1), IntStream.concat(IntStream.rangeClosed(9, 16), IntStream.rangeClosed(2, 8))).toArray();
+        assertTrue(blocks.isRewritten());
+        assertEquals(17, blocks.size());
+        assertArrayEquals(expected, blocks.getKeptIndices());
+        assertEquals(2, blocks.getNewIndex(9));
+        assertEquals(10, blocks.getNewIndex(2));
+
+        // The ids of the tree refer to the new order
+        BlockTree tree = blocks.getTree();
+        assertArrayEquals(IntStream.rangeClosed(1, 17).toArray(), tree.depthFirstOrder().stream().mapToInt(Block::getId).toArray());
+        assertArrayEquals(new int[]{2, 11, 12, 13, 14, 15, 16, 17}, tree.getChildrenOf(1).stream().mapToInt(Block::getId).toArray());
+        assertEquals(tree.get(2), tree.getParentOf(10));
+        assertEquals(original.get(10).getCoordinates(), tree.get(3).getCoordinates());
+
+        // The ranges are consecutive in both orders
+        assertArrayEquals(new int[]{0, 2, 9, 8, 2, 7}, blocks.getOriginalRuns(100));
+        assertArrayEquals(new int[]{0, 2, 9, 7, 16, 1, 2, 7}, blocks.getOriginalRuns(7));
+        assertArrayEquals(new int[]{9, 1, 2, 1}, blocks.toOriginalRuns(new int[]{2, 10}, 100));
+    }
+
+    @Test
+    public void testOriginalOrder() throws Exception {
+        BlockTree original = new BlockTree(createThreeLevelsWithExtents());
+        BlockSelection blocks = new BlockSelection(original, 0, null, null, BlockOrder.ORIGINAL);
+
+        assertFalse(blocks.isRewritten());
+        assertSame(original, blocks.getTree());
+        assertArrayEquals(new int[]{0, 17}, blocks.getOriginalRuns(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegionOutside() throws Exception {
+        new BlockSelection(new BlockTree(BlockTreeTest.createTwoLevels()), 0, new Point3D(5, 5, 5), new Point3D(6, 6, 6), BlockOrder.ORIGINAL);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDropAllLevels() throws Exception {
+        new BlockSelection(new BlockTree(BlockTreeTest.createThreeLevels()), 3);
+    }
+}
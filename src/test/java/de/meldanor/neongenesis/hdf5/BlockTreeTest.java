@@ -0,0 +1,266 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.hdf5;
+
+import javafx.geometry.Point3D;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class BlockTreeTest {
+
+    /**
+     * Create the meta data of a root block with 8 children. The children are ordered by x, then y, then z
+     */
+    static BlockMetaData createTwoLevels() {
+        int size = 9;
+        int[] gid = new int[size * BlockMetaData.GID_STRIDE];
+        Arrays.fill(gid, -1);
+        for (int child = 0; child < 8; child++) {
+            int id = child + 2;
+            gid[BlockMetaData.CHILDREN_OFFSET + child] = id;
+            gid[(id - 1) * BlockMetaData.GID_STRIDE + BlockMetaData.PARENT_OFFSET] = 1;
+            // The neighbor at the other side of the x axis
+            int xNeighbor = (child ^ 1) + 2;
+            gid[(id - 1) * BlockMetaData.GID_STRIDE + ((child & 1) == 0 ? 1 : 0)] = xNeighbor;
+        }
+
+        BlockMetaData data = new BlockMetaData(size, gid);
+        data.refineLevel[0] = 1;
+        data.nodeType[0] = 2;
+        data.blockSize[0] = 2.0F;
+        for (int axis = 0; axis < 3; axis++) {
+            data.coordinates[axis] = 1.0F;
+        }
+        for (int i = 1; i < size; i++) {
+            int child = i - 1;
+            data.refineLevel[i] = 2;
+            data.nodeType[i] = 1;
+            data.whichChild[i] = (byte) (child + 1);
+            data.blockSize[i] = 1.0F;
+            for (int axis = 0; axis < 3; axis++) {
+                float lower = (child >> axis) & 1;
+                data.boundingBox[i * 3 + axis] = lower;
+                data.coordinates[i * 3 + axis] = lower + 0.5F;
+            }
+        }
+        return data;
+    }
+
+    @Test
+    public void testStructure() throws Exception {
+        BlockTree tree = new BlockTree(createTwoLevels());
+
+        Block root = tree.get(1);
+        assertNull(tree.getParentOf(root));
+        List<Block> children = tree.getChildrenOf(root);
+        assertEquals(8, children.size());
+        for (int i = 0; i < children.size(); i++) {
+            assertEquals(i + 2, children.get(i).getId());
+            assertEquals(root, tree.getParentOf(children.get(i)));
+            assertTrue(tree.getChildrenOf(children.get(i)).isEmpty());
+        }
+        assertEquals(tree.getAll(), tree.levelOrder());
+    }
+
+    /**
+     * Create the meta data of a root block with 8 children. The first child has 8 children, too
+     */
+    static BlockMetaData createThreeLevels() {
+        int size = 17;
+        int[] gid = new int[size * BlockMetaData.GID_STRIDE];
+        Arrays.fill(gid, -1);
+        for (int child = 0; child < 8; child++) {
+            setChild(gid, 1, child, child + 2);
+            setChild(gid, 2, child, child + 10);
+        }
+        return new BlockMetaData(size, gid);
+    }
+
+    private static void setChild(int[] gid, int parentId, int child, int childId) {
+        gid[(parentId - 1) * BlockMetaData.GID_STRIDE + BlockMetaData.CHILDREN_OFFSET + child] = childId;
+        gid[(childId - 1) * BlockMetaData.GID_STRIDE + BlockMetaData.PARENT_OFFSET] = parentId;
+    }
+
+    private static int[] ids(List<Block> blocks) {
+        return blocks.stream().mapToInt(Block::getId).toArray();
+    }
+
+    @Test
+    public void testOrderings() throws Exception {
+        BlockTree tree = new BlockTree(createThreeLevels());
+
+        assertEquals(17, tree.size());
+        assertArrayEquals(IntStream.rangeClosed(1, 17).toArray(), ids(tree.getAll()));
+        assertArrayEquals(IntStream.rangeClosed(1, 17).toArray(), ids(tree.levelOrder()));
+        assertArrayEquals(IntStream.concat(IntStream.of(1, 2), IntStream.concat(IntStream.rangeClosed(10, 17), IntStream.rangeClosed(3, 9))).toArray(),
+                ids(tree.depthFirstOrder()));
+        assertArrayEquals(IntStream.rangeClosed(3, 17).toArray(), ids(tree.getLeaves()));
+
+        assertEquals(3, tree.getLevelCount());
+        assertArrayEquals(new int[]{1}, ids(tree.getLevel(0)));
+        assertArrayEquals(IntStream.rangeClosed(2, 9).toArray(), ids(tree.getLevel(1)));
+        assertArrayEquals(IntStream.rangeClosed(10, 17).toArray(), ids(tree.getLevel(2)));
+
+        assertArrayEquals(IntStream.rangeClosed(10, 17).toArray(), ids(tree.getChildrenOf(2)));
+        assertEquals(tree.get(2), tree.getParentOf(17));
+        assertFalse(tree.isLeaf(2));
+        assertTrue(tree.isLeaf(3));
+
+        // The orderings are computed once
+        assertSame(tree.levelOrder(), tree.levelOrder());
+        assertSame(tree.getAll(), tree.getAll());
+    }
+
+    @Test
+    public void testIntersecting() throws Exception {
+        BlockTree tree = new BlockTree(createTwoLevels());
+
+        // A box within the lower left front child and touching the face of its right neighbor
+        assertArrayEquals(new int[]{1, 2, 3}, ids(tree.getIntersecting(new Point3D(0.2, 0.2, 0.2), new Point3D(1.0, 0.5, 0.5))));
+        // A box within the upper right back child
+        assertArrayEquals(new int[]{1, 9}, ids(tree.getIntersecting(new Point3D(1.5, 1.5, 1.5), new Point3D(1.6, 1.6, 1.6))));
+        // The whole domain
+        assertArrayEquals(IntStream.rangeClosed(1, 9).toArray(), ids(tree.getIntersecting(new Point3D(-1, -1, -1), new Point3D(3, 3, 3))));
+        // Outside of the domain
+        assertTrue(tree.getIntersecting(new Point3D(2.5, 0, 0), new Point3D(3, 1, 1)).isEmpty());
+    }
+
+    @Test
+    public void testLeafAt() throws Exception {
+        BlockTree tree = new BlockTree(createTwoLevels());
+
+        assertEquals(2, tree.getLeafAt(new Point3D(0.5, 0.5, 0.5)).getId());
+        assertEquals(3, tree.getLeafAt(new Point3D(1.5, 0.5, 0.5)).getId());
+        assertEquals(9, tree.getLeafAt(new Point3D(1.9, 1.9, 1.9)).getId());
+        assertNull(tree.getLeafAt(new Point3D(2.5, 0.5, 0.5)));
+
+        assertArrayEquals(new int[]{1, 9}, ids(tree.getIntersecting(new Point3D(1.5, 1.5, 1.5), new Point3D(1.6, 1.6, 1.6))));
+        assertArrayEquals(new int[]{9}, ids(tree.getLeavesIntersecting(new Point3D(1.5, 1.5, 1.5), new Point3D(1.6, 1.6, 1.6))));
+    }
+
+    @Test
+    public void testLocateLeaves() throws Exception {
+        BlockTree tree = new BlockTree(createTwoLevels());
+        // A probe line along the x axis leaving the domain and a point in the opposite corner
+        double[] points = {0.25, 0.5, 0.5, 0.75, 0.5, 0.5, 1.25, 0.5, 0.5, 2.25, 0.5, 0.5, 1.5, 1.5, 1.5};
+
+        assertArrayEquals(new int[]{2, 2, 3, -1, 9}, tree.locateLeaves(points));
+    }
+
+    @Test
+    public void testSharedFaces() throws Exception {
+        BlockTree tree = new BlockTree(createTwoLevels());
+
+        // A point on the face between two blocks belongs to the upper block, no matter where the search starts
+        assertEquals(3, tree.getLeafAt(new Point3D(1.0, 0.5, 0.5)).getId());
+        assertArrayEquals(new int[]{2, 3}, tree.locateLeaves(new double[]{0.5, 0.5, 0.5, 1.0, 0.5, 0.5}));
+        assertArrayEquals(new int[]{3, 3}, tree.locateLeaves(new double[]{1.5, 0.5, 0.5, 1.0, 0.5, 0.5}));
+
+        // The boundaries of the domain are contained
+        assertEquals(2, tree.getLeafAt(new Point3D(0.0, 0.0, 0.0)).getId());
+        assertEquals(9, tree.getLeafAt(new Point3D(2.0, 2.0, 2.0)).getId());
+        assertArrayEquals(new int[]{9, -1}, tree.locateLeaves(new double[]{2.0, 2.0, 2.0, 2.0, 2.0, 2.01}));
+    }
+
+    @Test
+    public void testRootGrid() throws Exception {
+        // 3 x 2 roots of the size 1 in the xy plane without an extent along z
+        int size = 6;
+        int[] gid = new int[size * BlockMetaData.GID_STRIDE];
+        Arrays.fill(gid, -1);
+        BlockMetaData data = new BlockMetaData(size, gid);
+        for (int i = 0; i < size; i++) {
+            // Stored in the reverse order of the grid
+            int cell = size - 1 - i;
+            data.refineLevel[i] = 1;
+            data.nodeType[i] = 1;
+            data.whichChild[i] = -1;
+            data.blockSize[i] = 1.0F;
+            data.boundingBox[i * 3] = cell % 3;
+            data.boundingBox[i * 3 + 1] = cell / 3;
+            data.coordinates[i * 3] = cell % 3 + 0.5F;
+            data.coordinates[i * 3 + 1] = cell / 3 + 0.5F;
+        }
+        BlockTree tree = new BlockTree(data);
+
+        assertEquals(6, tree.getLeafAt(new Point3D(0.5, 0.5, 0.0)).getId());
+        assertEquals(5, tree.getLeafAt(new Point3D(1.0, 0.5, 0.0)).getId());
+        assertEquals(1, tree.getLeafAt(new Point3D(2.5, 1.5, 0.0)).getId());
+        assertEquals(1, tree.getLeafAt(new Point3D(3.0, 2.0, 0.0)).getId());
+        assertNull(tree.getLeafAt(new Point3D(3.5, 0.5, 0.0)));
+        assertNull(tree.getLeafAt(new Point3D(0.5, 0.5, 0.5)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLocateLeavesInvalidPoints() throws Exception {
+        new BlockTree(createTwoLevels()).locateLeaves(new double[4]);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testUnmodifiableOrder() throws Exception {
+        BlockTree tree = new BlockTree(createThreeLevels());
+        tree.getAll().remove(0);
+    }
+
+    @Test
+    public void testBlockViews() throws Exception {
+        BlockTree tree = new BlockTree(createTwoLevels());
+
+        Block block = tree.get(4);
+        assertEquals(2, block.getRefineLevel());
+        assertEquals(3, block.getWhichChild());
+        assertEquals(1.0F, block.getBlockSize(), 0.0F);
+        assertEquals(new Point3D(0.5, 1.5, 0.5), block.getCoordinates());
+        assertEquals(1.0F, block.getBoundingBox(1), 0.0F);
+
+        // Child 3 is at the lower x side of child 4
+        assertEquals(tree.get(5), block.getNeighbor(Block.BlockFace.RIGHT));
+        assertNull(block.getNeighbor(Block.BlockFace.LEFT));
+        assertEquals(6, block.getNeighbors().size());
+        // The views are created on access and are equal by their id
+        assertEquals(block, tree.get(4));
+        assertEquals(block.hashCode(), tree.get(4).hashCode());
+    }
+
+    @Test
+    public void testChangeBlock() throws Exception {
+        BlockTree tree = new BlockTree(createTwoLevels());
+
+        Block original = tree.get(2);
+        Block changed = new BlockChanger(original).setRefineLevel((byte) 5).setCoordinates(new Point3D(1, 2, 3)).change();
+        assertEquals(original.getId(), changed.getId());
+        assertEquals(5, changed.getRefineLevel());
+        assertEquals(new Point3D(1, 2, 3), changed.getCoordinates());
+        assertEquals(original.getBoundingBox(), changed.getBoundingBox());
+        assertEquals(original.getNeighbors(), changed.getNeighbors());
+        // The original is not changed
+        assertEquals(2, original.getRefineLevel());
+    }
+}
@@ -118,6 +118,59 @@ public class Hdf5WriterTest {
         reader.close();
     }
 
+    @Test
+    public void testWriteSlabs() throws Exception {
+        File tmp = temporaryFolder.newFile();
+        Hdf5Writer writer = new Hdf5Writer(tmp);
+        int[] intArray = new int[20 * 10 * 5];
+        float[] floatArray = new float[intArray.length];
+        for (int i = 0; i < intArray.length; i++) {
+            intArray[i] = 1000 + i;
+            floatArray[i] = 1000.0F + i;
+        }
+
+        H5ScalarDS intDataset = writer.createIntDataset(DATASET_3D + "int", 20L, 10L, 5L);
+        H5ScalarDS floatDataset = writer.createFloatDataset(DATASET_3D + "float", 20L, 10L, 5L);
+        // Write the slabs out of order
+        int[] firstIndices = {14, 0, 7};
+        int[] lastIndices = {20, 7, 14};
+        for (int i = 0; i < firstIndices.length; i++) {
+            int from = firstIndices[i] * 10 * 5;
+            int to = lastIndices[i] * 10 * 5;
+            writer.writeIntSlab(intDataset, firstIndices[i], Arrays.copyOfRange(intArray, from, to));
+            writer.writeFloatSlab(floatDataset, firstIndices[i], Arrays.copyOfRange(floatArray, from, to));
+        }
+        writer.close();
+
+        Hdf5Reader reader = new Hdf5Reader(tmp);
+        assertArrayEquals(intArray, reader.readIntValues(DATASET_3D + "int"));
+        assertArrayEquals(floatArray, reader.readFloatValues(DATASET_3D + "float"), 0.0F);
+        reader.close();
+    }
+
+    @Test
+    public void testWriteCompressedSlabs() throws Exception {
+        File tmp = temporaryFolder.newFile();
+        Hdf5Writer writer = new Hdf5Writer(tmp, new Hdf5Compression(true, 6, true));
+        float[] floatArray = new float[20 * 10 * 5];
+        for (int i = 0; i < floatArray.length; i++) {
+            floatArray[i] = 1000.0F + (i % 50);
+        }
+
+        H5ScalarDS dataset = writer.createFloatDataset(DATASET_3D, 20L, 10L, 5L);
+        writer.writeFloatSlab(dataset, 10L, Arrays.copyOfRange(floatArray, 10 * 10 * 5, floatArray.length));
+        writer.writeFloatSlab(dataset, 0L, Arrays.copyOfRange(floatArray, 0, 10 * 10 * 5));
+        writer.close();
+
+        Hdf5Reader reader = new Hdf5Reader(tmp);
+        assertArrayEquals(floatArray, reader.readFloatValues(DATASET_3D), 0.0F);
+        Dataset readDataset = reader.getMetaData().getDataset(DATASET_3D);
+        readDataset.init();
+        // One chunk per entry of the first dimension
+        assertArrayEquals(new long[]{1L, 10L, 5L}, readDataset.getChunkSize());
+        reader.close();
+    }
+
     @Test
     public void writeAttributeDataset() throws Exception {
         File tmp = temporaryFolder.newFile();
@@ -238,4 +291,52 @@ public class Hdf5WriterTest {
         assertArrayEquals(array2D, ints);
     }
 
+    @Test
+    public void testCopyDatasetEntries() throws Exception {
+        File originalFile = temporaryFolder.newFile();
+        Hdf5Writer writer = new Hdf5Writer(originalFile);
+        int[] array2D = new int[20 * 10];
+        for (int i = 0; i < array2D.length; i++) {
+            array2D[i] = i;
+        }
+        writer.writeIntDataset(DATASET_2D, array2D, 20L, 10L);
+        writer.close();
+
+        // Copy the rows 15 to 17 and 2 to 3 only
+        int[] runs = {15, 3, 2, 2};
+        for (boolean javaReader : new boolean[]{false, true}) {
+            File copyFile = temporaryFolder.newFile();
+            writer = new Hdf5Writer(copyFile);
+            Hdf5Reader reader = new Hdf5Reader(originalFile, javaReader);
+            writer.copyDatasetEntries(reader.getMetaData(), DATASET_2D, runs);
+            reader.close();
+            writer.close();
+
+            reader = new Hdf5Reader(copyFile);
+            int[] expected = new int[5 * 10];
+            System.arraycopy(array2D, 150, expected, 0, 30);
+            System.arraycopy(array2D, 20, expected, 30, 20);
+            assertArrayEquals(expected, reader.readIntValues(DATASET_2D));
+            assertArrayEquals(new long[]{5L, 10L}, reader.getMetaData().getDimensions(DATASET_2D));
+            reader.close();
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testCopyDatasetEntriesOutOfRange() throws Exception {
+        File originalFile = temporaryFolder.newFile();
+        Hdf5Writer writer = new Hdf5Writer(originalFile);
+        writer.writeIntDataset(DATASET_2D, new int[20 * 10], 20L, 10L);
+        writer.close();
+
+        Hdf5Reader reader = new Hdf5Reader(originalFile, true);
+        writer = new Hdf5Writer(temporaryFolder.newFile());
+        try {
+            writer.copyDatasetEntries(reader.getMetaData(), DATASET_2D, new int[]{18, 3});
+        } finally {
+            reader.close();
+            writer.close();
+        }
+    }
+
 }
\ No newline at end of file
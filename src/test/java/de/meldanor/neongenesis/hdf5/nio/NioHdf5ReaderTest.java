@@ -0,0 +1,198 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.hdf5.nio;
+
+import de.meldanor.neongenesis.hdf5.Flash3DataTypes;
+import de.meldanor.neongenesis.hdf5.Hdf5Compression;
+import de.meldanor.neongenesis.hdf5.Hdf5Reader;
+import de.meldanor.neongenesis.hdf5.Hdf5Writer;
+import ncsa.hdf.object.Datatype;
+import ncsa.hdf.object.h5.H5ScalarDS;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class NioHdf5ReaderTest {
+
+    public static final String DATASET_3D = "3DArray 20x10x5";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testReadContiguous() throws Exception {
+        File tmp = temporaryFolder.newFile();
+        Hdf5Writer writer = new Hdf5Writer(tmp);
+        int[] intArray = new int[20 * 10 * 5];
+        float[] floatArray = new float[20 * 10 * 5];
+        for (int i = 0; i < intArray.length; i++) {
+            intArray[i] = i - 500;
+            floatArray[i] = i * 0.25F;
+        }
+        writer.writeIntDataset(DATASET_3D + "int", intArray, 20L, 10L, 5L);
+        writer.writeFloatDataset(DATASET_3D + "float", floatArray, 20L, 10L, 5L);
+        writer.close();
+
+        Hdf5Reader reader = new Hdf5Reader(tmp);
+        NioHdf5Reader nioReader = new NioHdf5Reader(tmp);
+        assertArrayEquals(new long[]{20L, 10L, 5L}, nioReader.getDataset(DATASET_3D + "int").getDimensions());
+        assertFalse(nioReader.getDataset(DATASET_3D + "float").isChunked());
+
+        assertArrayEquals(reader.readIntValues(DATASET_3D + "int"), nioReader.readIntValues(DATASET_3D + "int"));
+        assertArrayEquals(reader.readFloatValues(DATASET_3D + "float"), nioReader.readFloatValues(DATASET_3D + "float"), 0.0F);
+
+        assertArrayEquals(Arrays.copyOfRange(intArray, 3 * 50, 7 * 50), nioReader.readIntValues(DATASET_3D + "int", 3L, 4));
+        assertArrayEquals(Arrays.copyOfRange(floatArray, 19 * 50, 20 * 50), nioReader.readFloatValues(DATASET_3D + "float", 19L, 1), 0.0F);
+        reader.close();
+        nioReader.close();
+    }
+
+    @Test
+    public void testReadChunked() throws Exception {
+        File tmp = temporaryFolder.newFile();
+        Hdf5Writer writer = new Hdf5Writer(tmp, new Hdf5Compression(true, 6, true));
+        float[] floatArray = new float[20 * 10 * 5];
+        int[] intArray = new int[20 * 10 * 5];
+        for (int i = 0; i < floatArray.length; i++) {
+            floatArray[i] = 1000.0F + (i % 50);
+            intArray[i] = i * 3;
+        }
+
+        H5ScalarDS floatDataset = writer.createFloatDataset(DATASET_3D + "float", 20L, 10L, 5L);
+        H5ScalarDS intDataset = writer.createIntDataset(DATASET_3D + "int", 20L, 10L, 5L);
+        writer.writeFloatSlab(floatDataset, 10L, Arrays.copyOfRange(floatArray, 10 * 10 * 5, floatArray.length));
+        writer.writeFloatSlab(floatDataset, 0L, Arrays.copyOfRange(floatArray, 0, 10 * 10 * 5));
+        writer.writeIntSlab(intDataset, 0L, intArray);
+        writer.close();
+
+        NioHdf5Reader nioReader = new NioHdf5Reader(tmp);
+        assertTrue(nioReader.getDataset(DATASET_3D + "float").isChunked());
+        assertArrayEquals(floatArray, nioReader.readFloatValues(DATASET_3D + "float"), 0.0F);
+        assertArrayEquals(intArray, nioReader.readIntValues(DATASET_3D + "int"));
+        assertArrayEquals(Arrays.copyOfRange(floatArray, 5 * 50, 15 * 50), nioReader.readFloatValues(DATASET_3D + "float", 5L, 10), 0.0F);
+        nioReader.close();
+    }
+
+    @Test
+    public void testReadFloatView() throws Exception {
+        File tmp = temporaryFolder.newFile();
+        Hdf5Writer writer = new Hdf5Writer(tmp);
+        float[] floatArray = new float[20 * 10 * 5];
+        for (int i = 0; i < floatArray.length; i++) {
+            floatArray[i] = -i * 1.5F;
+        }
+        writer.writeFloatDataset(DATASET_3D, floatArray, 20L, 10L, 5L);
+        writer.close();
+
+        NioHdf5Reader nioReader = new NioHdf5Reader(tmp);
+        FloatBuffer view = nioReader.readFloatView(DATASET_3D, 2L, 3);
+        // A view on the mapped file
+        assertTrue(view.isDirect());
+        assertTrue(view.isReadOnly());
+        float[] values = new float[view.remaining()];
+        view.get(values);
+        assertArrayEquals(Arrays.copyOfRange(floatArray, 2 * 50, 5 * 50), values, 0.0F);
+        nioReader.close();
+    }
+
+    @Test
+    public void testReadCompound() throws Exception {
+        File tmp = temporaryFolder.newFile();
+        Hdf5Writer writer = new Hdf5Writer(tmp);
+        Vector<Object> data = new Vector<>();
+        data.add(new String[]{"nxb", "globalnumblocks", "nstep"});
+        data.add(new Integer[]{16, 585, 12});
+        Map<String, Datatype> datatypes = new LinkedHashMap<>();
+        datatypes.put("name", Flash3DataTypes.VARCHAR_80.getDatatype());
+        datatypes.put("value", Flash3DataTypes.INT.getDatatype());
+        writer.writeCompound("integer scalars", data, datatypes, new int[]{1, 1}, 3L);
+        writer.close();
+
+        NioHdf5Reader nioReader = new NioHdf5Reader(tmp);
+        Map<String, Object> columns = nioReader.readCompound("integer scalars");
+        assertEquals(Arrays.asList("name", "value"), new ArrayList<>(columns.keySet()));
+        assertArrayEquals(new String[]{"nxb", "globalnumblocks", "nstep"}, (String[]) columns.get("name"));
+        assertArrayEquals(new int[]{16, 585, 12}, (int[]) columns.get("value"));
+        try {
+            nioReader.readFloatValues("integer scalars");
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        nioReader.close();
+    }
+
+    @Test
+    public void testFletcher32() throws Exception {
+        // The 16 bit words 0x0102 and 0x0304
+        byte[] data = {0x01, 0x02, 0x03, 0x04};
+        assertEquals(0x05080406, FilterPipeline.fletcher32(data, data.length));
+
+        byte[] chunk = {0x01, 0x02, 0x03, 0x04, 0x06, 0x04, 0x08, 0x05};
+        assertArrayEquals(data, FilterPipeline.checkFletcher32(chunk));
+        // Files written before HDF5 1.6.3 store the checksum with swapped bytes
+        byte[] swapped = {0x01, 0x02, 0x03, 0x04, 0x04, 0x06, 0x05, 0x08};
+        assertArrayEquals(data, FilterPipeline.checkFletcher32(swapped));
+
+        chunk[1] = 0x03;
+        try {
+            FilterPipeline.checkFletcher32(chunk);
+            fail();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Test
+    public void testInvalidAccess() throws Exception {
+        File tmp = temporaryFolder.newFile();
+        Hdf5Writer writer = new Hdf5Writer(tmp);
+        writer.writeIntDataset(DATASET_3D, new int[20 * 10 * 5], 20L, 10L, 5L);
+        writer.close();
+
+        NioHdf5Reader nioReader = new NioHdf5Reader(tmp);
+        try {
+            nioReader.readIntValues("missing");
+            fail();
+        } catch (NoSuchElementException ignored) {
+        }
+        try {
+            nioReader.readIntValues(DATASET_3D, 18L, 3);
+            fail();
+        } catch (IndexOutOfBoundsException ignored) {
+        }
+        try {
+            nioReader.readFloatValues(DATASET_3D);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        nioReader.close();
+    }
+}
@@ -33,6 +33,7 @@ import org.junit.Test;
 import java.io.File;
 import java.io.PrintWriter;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -87,6 +88,43 @@ public class BlockTest {
         reader.close();
     }
 
+    @Test
+    public void readBlockRangeTest() throws Exception {
+        Flash3Reader reader = new Flash3Reader(new File(FILE));
+        BlockTree blockTree = reader.getMetaData().getBlockTree();
+
+        float[] range = reader.readFloatValues("dens", 2, 3);
+        int blockSize = range.length / 3;
+        for (int i = 0; i < 3; i++) {
+            float[] single = reader.readFloatValues("dens", blockTree.get(2 + i));
+            assertEquals(blockSize, single.length);
+            assertArrayEquals(single, Arrays.copyOfRange(range, i * blockSize, (i + 1) * blockSize), 0.0F);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testJavaReaderMetaData() throws Exception {
+        Flash3Reader reader = new Flash3Reader(new File(FILE));
+        Flash3Reader javaReader = new Flash3Reader(new File(FILE), true);
+
+        assertEquals(reader.getMetaData().getIntegerSclars(), javaReader.getMetaData().getIntegerSclars());
+        assertEquals(reader.getMetaData().getVariableNames(), javaReader.getMetaData().getVariableNames());
+        assertEquals(reader.getMetaData().getDatasetNames(), javaReader.getMetaData().getDatasetNames());
+        List<Block> blocks = reader.getMetaData().getBlockTree().getAll();
+        List<Block> javaBlocks = javaReader.getMetaData().getBlockTree().getAll();
+        assertEquals(blocks.size(), javaBlocks.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            assertEquals(blocks.get(i).getRefineLevel(), javaBlocks.get(i).getRefineLevel());
+            assertEquals(blocks.get(i).getCoordinates(), javaBlocks.get(i).getCoordinates());
+            assertEquals(blocks.get(i).getBoundingBox(), javaBlocks.get(i).getBoundingBox());
+        }
+        assertArrayEquals(reader.readFloatValues("dens", 2, 3), javaReader.readFloatValues("dens", 2, 3), 0.0F);
+
+        reader.close();
+        javaReader.close();
+    }
+
     @Test(expected = IllegalStateException.class)
     public void readFromClosedReader() throws Exception {
         Flash3Reader reader = new Flash3Reader(new File(FILE));
@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Kilian Gärtner
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.meldanor.neongenesis.physicalReduce;
+
+import de.meldanor.neongenesis.downsample.AbstractReductionProcess;
+import de.meldanor.neongenesis.downsample.ParentBlockMode;
+import de.meldanor.neongenesis.downsample.ReductionProcessBuilder;
+import de.meldanor.neongenesis.hdf5.Flash3MetaData;
+import de.meldanor.neongenesis.hdf5.Flash3Reader;
+import de.meldanor.neongenesis.statisticalReduce.StatisticalDatasetReducer;
+import de.meldanor.neongenesis.statisticalReduce.StatisticalReducerFactory;
+import javafx.geometry.Point3D;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PhysicalReductionProcessTest {
+
+    static String FILE = "D:/Studium/Bachelorarbeit/plotfiles/hvc_hdf5_plt_cnt_0000";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static PhysicalReductionProcess createProcess() {
+        return (PhysicalReductionProcess) ReductionProcessBuilder.create()
+                .strategy(PhysicalReducerType.PHYSICAL_MEAN)
+                .reduceAllVariableDatasets()
+                .densityWeighted(Arrays.asList("temp", "velx"))
+                .reductionFactors(2, 2, 2)
+                .build();
+    }
+
+    @Test
+    public void testFusedDensity() throws Exception {
+        AbstractReductionProcess process = ReductionProcessBuilder.create()
+                .strategy(PhysicalReducerType.PHYSICAL_MEAN)
+                .variableDatasetsNames(Arrays.asList("dens", "temp"))
+                .densityWeighted(Arrays.asList("temp"))
+                .outputDirectory(folder.newFolder())
+                .build();
+
+        File original = new File(FILE);
+        Flash3Reader reader = new Flash3Reader(process.reduceFile(original, false));
+        Flash3Reader originalReader = new Flash3Reader(original);
+        // The density reduced in the pass of the weighted datasets equals the statistically reduced density
+        Flash3MetaData metaData = originalReader.getMetaData();
+        Point3D dimension = new Point3D(metaData.getIntegerSclar("nxb"), metaData.getIntegerSclar("nyb"), metaData.getIntegerSclar("nzb"));
+        StatisticalDatasetReducer reducer = new StatisticalDatasetReducer(dimension, StatisticalReducerFactory.StatisticalReducerType.MEAN);
+        assertArrayEquals(reducer.reduceFloatValues(originalReader.readFloatValues("dens")), reader.readFloatValues("dens"), 0.0F);
+        assertTrue(reader.getMetaData().containsDataset("temp"));
+        reader.close();
+        originalReader.close();
+    }
+
+    @Test
+    public void testRestrict() throws Exception {
+        AbstractReductionProcess process = ReductionProcessBuilder.create()
+                .strategy(PhysicalReducerType.PHYSICAL_MEAN)
+                .variableDatasetsNames(Arrays.asList("dens", "temp"))
+                .densityWeighted(Arrays.asList("temp"))
+                .parentBlocks(ParentBlockMode.RESTRICT)
+                .outputDirectory(folder.newFolder())
+                .build();
+
+        Flash3Reader reader = new Flash3Reader(process.reduceFile(new File(FILE), false));
+        assertTrue(reader.getMetaData().containsDataset("dens"));
+        assertTrue(reader.getMetaData().containsDataset("temp"));
+        reader.close();
+    }
+
+    @Test
+    public void testPyramidLevels() throws Exception {
+        AbstractReductionProcess process = ReductionProcessBuilder.create()
+                .strategy(PhysicalReducerType.PHYSICAL_MEAN)
+                .variableDatasetsNames(Arrays.asList("dens", "temp"))
+                .densityWeighted(Arrays.asList("temp"))
+                .pyramidLevels(2)
+                .outputDirectory(folder.newFolder())
+                .build();
+
+        File original = new File(FILE);
+        process.reduceFile(original, false);
+        Flash3Reader level2 = new Flash3Reader(process.getReducedFiles(original).get(1));
+        Flash3Reader originalReader = new Flash3Reader(original);
+        // The second level is weighted by the density of the first level, which equals the direct weighted reduction
+        Flash3MetaData metaData = originalReader.getMetaData();
+        Point3D dimension = new Point3D(metaData.getIntegerSclar("nxb"), metaData.getIntegerSclar("nyb"), metaData.getIntegerSclar("nzb"));
+        StatisticalDatasetReducer reducer = new StatisticalDatasetReducer(dimension, new Point3D(4, 4, 4), StatisticalReducerFactory.StatisticalReducerType.MEAN, false, StatisticalDatasetReducer.DEFAULT_BATCH_SIZE);
+        float[] temperature = originalReader.readFloatValues("temp");
+        float[] expected = new float[temperature.length / 64];
+        reducer.reduceWeightedFloatValues(temperature, originalReader.readFloatValues("dens"), expected, null);
+        float[] actual = level2.readFloatValues("temp");
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], Math.abs(expected[i]) * 1E-5F);
+        }
+        level2.close();
+        originalReader.close();
+    }
+
+    @Test
+    public void testConfiguration() throws Exception {
+        assertEquals("temp,velx", createProcess().getConfiguration().get("densityWeighted"));
+    }
+}
@@ -124,4 +124,191 @@ public class StatisticalDatasetReducerTest {
         }
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testParallelBlocks() throws Exception {
+        StatisticalDatasetReducer serialReducer = new StatisticalDatasetReducer(sourceDimension, StatisticalReducerFactory.StatisticalReducerType.MEAN);
+        StatisticalDatasetReducer parallelReducer = new StatisticalDatasetReducer(sourceDimension, StatisticalReducerFactory.StatisticalReducerType.MEAN, true);
+        List<String> datasets = Arrays.asList("dens", "temp", "velx");
+        for (String dataset : datasets) {
+            List<float[]> serialResult = serialReducer.reduceFloatDataset(source, dataset);
+            List<float[]> parallelResult = parallelReducer.reduceFloatDataset(source, dataset);
+
+            assertEquals(serialResult.size(), parallelResult.size());
+            for (int i = 0; i < serialResult.size(); i++) {
+                // Must be bit identical
+                assertArrayEquals(serialResult.get(i), parallelResult.get(i), 0.0F);
+            }
+        }
+    }
+
+    @Test
+    public void testFusedMean() throws Exception {
+        Point3D dimension = new Point3D(8, 8, 8);
+        Point3D factors = new Point3D(2, 1, 4);
+        StatisticalDatasetReducer reducer = new StatisticalDatasetReducer(dimension, factors, StatisticalReducerFactory.StatisticalReducerType.MEAN, false, StatisticalDatasetReducer.DEFAULT_BATCH_SIZE);
+
+        Random random = new Random(42);
+        float[] floatValues = new float[2 * 8 * 8 * 8];
+        int[] intValues = new int[floatValues.length];
+        for (int i = 0; i < floatValues.length; i++) {
+            floatValues[i] = random.nextFloat() * 1000.0F;
+            intValues[i] = random.nextInt(1000);
+        }
+
+        float[] floatResult = reducer.reduceFloatValues(floatValues);
+        int[] intResult = reducer.reduceIntValues(intValues);
+        assertEquals(2 * 4 * 8 * 2, floatResult.length);
+        assertEquals(2 * 4 * 8 * 2, intResult.length);
+
+        // Compare with the mean of the gathered stencil
+        StatisticalReducer mean = StatisticalReducerFactory.getInstance().getReducer(StatisticalReducerFactory.StatisticalReducerType.MEAN);
+        float[] floatStencil = new float[8];
+        int[] intStencil = new int[8];
+        for (int block = 0; block < 2; block++) {
+            for (int i = block * 64, z = 0; z < 8; z += 4) {
+                for (int y = 0; y < 8; y++) {
+                    for (int x = 0; x < 8; x += 2, i++) {
+                        int n = 0;
+                        for (int dz = 0; dz < 4; dz++) {
+                            for (int dx = 0; dx < 2; dx++) {
+                                int index = block * 512 + ((z + dz) * 8 + y) * 8 + x + dx;
+                                floatStencil[n] = floatValues[index];
+                                intStencil[n++] = intValues[index];
+                            }
+                        }
+                        assertEquals(mean.reduce(floatStencil), floatResult[i], 0.001F);
+                        assertEquals(mean.reduce(intStencil), intResult[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testToRuns() {
+        int[] runs = StatisticalDatasetReducer.toRuns(new int[]{0, 1, 2, 5, 6, 9}, 2);
+        assertArrayEquals(new int[]{0, 2, 2, 1, 5, 2, 9, 1}, runs);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testToRunsUnordered() {
+        StatisticalDatasetReducer.toRuns(new int[]{3, 1}, 2);
+    }
+
+    @Test
+    public void testRestriction() {
+        Point3D dimension = new Point3D(8, 8, 8);
+        StatisticalDatasetReducer reducer = new StatisticalDatasetReducer(dimension, new Point3D(2, 2, 2), StatisticalReducerFactory.StatisticalReducerType.MEAN, false, StatisticalDatasetReducer.DEFAULT_BATCH_SIZE);
+
+        // The parent is the first block followed by its eight children, every reduced cell of a child is its index
+        int[] intValues = new int[9 * 64];
+        float[] floatValues = new float[intValues.length];
+        int[] children = new int[8];
+        for (int child = 1; child <= 8; child++) {
+            children[child - 1] = child;
+            for (int i = 0; i < 64; i++) {
+                intValues[child * 64 + i] = child * 100 + i;
+                floatValues[child * 64 + i] = child * 100 + i;
+            }
+        }
+        reducer.restrictIntBlock(intValues, 0, children);
+        reducer.restrictFloatBlock(floatValues, 0, children);
+
+        for (int i = 0, z = 0; z < 4; z++) {
+            for (int y = 0; y < 4; y++) {
+                for (int x = 0; x < 4; x++, i++) {
+                    int child = 1 + x / 2 + (y / 2) * 2 + (z / 2) * 4;
+                    // Mean of the 2x2x2 child cells beginning at (2x mod 4, 2y mod 4, 2z mod 4)
+                    float expected = child * 100 + ((z % 2) * 2 * 16 + (y % 2) * 2 * 4 + (x % 2) * 2) + (16 + 4 + 1) / 2.0F;
+                    assertEquals(expected, floatValues[i], 0.001F);
+                    assertEquals(Math.round(expected), intValues[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWeightedRestriction() {
+        // Blocks of 4x2x2 cells are reduced to 2x1x1 cells, the parent has two children along the x axis
+        StatisticalDatasetReducer reducer = new StatisticalDatasetReducer(new Point3D(4, 2, 2), new Point3D(2, 2, 2), StatisticalReducerFactory.StatisticalReducerType.MEDIAN, false, StatisticalDatasetReducer.DEFAULT_BATCH_SIZE);
+        float[] values = {0, 0, 10, 30, 5, 7};
+        float[] weights = {0, 0, 3, 1, 0, 0};
+
+        reducer.restrictWeightedFloatBlock(values, weights, 0, new int[]{1, 2});
+
+        // (3 * 10 + 1 * 30) / 4, the cells of the second child have no weight and are weighted equally
+        assertEquals(15.0F, values[0], 1E-5F);
+        assertEquals(6.0F, values[1], 1E-5F);
+        assertArrayEquals(new float[]{0, 0, 3, 1, 0, 0}, weights, 0.0F);
+    }
+
+    @Test
+    public void testWeightedValues() throws Exception {
+        // A block of 4x2x2 cells is reduced to two cells, the left stencil has a heavy cell
+        StatisticalDatasetReducer reducer = new StatisticalDatasetReducer(new Point3D(4, 2, 2), StatisticalReducerFactory.StatisticalReducerType.MEDIAN);
+        float[] values = new float[16];
+        float[] weights = new float[16];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 4 < 2 ? 10.0F : 20.0F;
+            weights[i] = 1.0F;
+        }
+        values[0] = 90.0F;
+        weights[0] = 9.0F;
+
+        float[] result = new float[2];
+        float[] resultWeights = new float[2];
+        reducer.reduceWeightedFloatValues(values, weights, result, resultWeights);
+
+        // (9 * 90 + 7 * 10) / 16
+        assertEquals(55.0F, result[0], 1E-5F);
+        assertEquals(20.0F, result[1], 1E-5F);
+        assertEquals(2.0F, resultWeights[0], 1E-5F);
+        assertEquals(1.0F, resultWeights[1], 1E-5F);
+    }
+
+    @Test
+    public void testWeightedZeroWeights() throws Exception {
+        StatisticalDatasetReducer reducer = new StatisticalDatasetReducer(new Point3D(2, 2, 2), StatisticalReducerFactory.StatisticalReducerType.MEAN);
+        float[] values = {1, 2, 3, 4, 5, 6, 7, 8};
+
+        float[] result = new float[1];
+        reducer.reduceWeightedFloatValues(values, new float[8], result, null);
+
+        assertEquals(4.5F, result[0], 1E-5F);
+    }
+
+    @Test
+    public void testWeightedLevels() throws Exception {
+        // Two blocks of 8x8x8 cells with a non-uniform weight, like the density
+        Random random = new Random(42);
+        float[] values = new float[2 * 512];
+        float[] weights = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1.0E4F + random.nextFloat() * 1.0E6F;
+            weights[i] = 1.0E-25F + random.nextFloat() * 1.0E-22F;
+        }
+
+        StatisticalDatasetReducer level1 = new StatisticalDatasetReducer(new Point3D(8, 8, 8), StatisticalReducerFactory.StatisticalReducerType.MEDIAN);
+        StatisticalDatasetReducer level2 = new StatisticalDatasetReducer(new Point3D(4, 4, 4), StatisticalReducerFactory.StatisticalReducerType.MEDIAN);
+        float[] level1Values = new float[2 * 64];
+        float[] level1Weights = new float[level1Values.length];
+        level1.reduceWeightedFloatValues(values, weights, level1Values, level1Weights);
+        float[] level2Values = new float[2 * 8];
+        level2.reduceWeightedFloatValues(level1Values, level1Weights, level2Values, null);
+
+        // Weighting the second level by the mean weights of the first level equals weighting the original cells
+        StatisticalDatasetReducer direct = new StatisticalDatasetReducer(new Point3D(8, 8, 8), new Point3D(4, 4, 4), StatisticalReducerFactory.StatisticalReducerType.MEDIAN, false, StatisticalDatasetReducer.DEFAULT_BATCH_SIZE);
+        float[] expected = new float[2 * 8];
+        direct.reduceWeightedFloatValues(values, weights, expected, null);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], level2Values[i], expected[i] * 1E-5F);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRestrictionInvalidChildren() {
+        StatisticalDatasetReducer reducer = new StatisticalDatasetReducer(new Point3D(8, 8, 8), StatisticalReducerFactory.StatisticalReducerType.MEAN);
+        reducer.restrictIntBlock(new int[4 * 64], 0, new int[]{1, 2, 3});
+    }
+}
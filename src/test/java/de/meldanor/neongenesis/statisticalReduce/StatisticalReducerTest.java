@@ -26,6 +26,9 @@ package de.meldanor.neongenesis.statisticalReduce;
 
 import org.junit.Test;
 
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class StatisticalReducerTest {
@@ -56,4 +59,32 @@ public class StatisticalReducerTest {
         assertEquals(1, reducer.reduce(intArray));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testMedianKernels() {
+        StatisticalReducer median = StatisticalReducerFactory.getInstance().getReducer(StatisticalReducerFactory.StatisticalReducerType.MEDIAN);
+        Random random = new Random(42);
+        for (int stencilSize : new int[]{1, 4, 8, 27, 64}) {
+            StatisticalReducer kernel = StatisticalReducerFactory.getInstance().getReducer(StatisticalReducerFactory.StatisticalReducerType.MEDIAN, stencilSize);
+            for (int i = 0; i < 1000; i++) {
+                float[] floatArray = new float[stencilSize];
+                int[] intArray = new int[stencilSize];
+                for (int j = 0; j < stencilSize; j++) {
+                    floatArray[j] = random.nextFloat() * 100.0F;
+                    // Provoke duplicates
+                    intArray[j] = random.nextInt(10);
+                }
+                assertEquals(median.reduce(floatArray.clone()), kernel.reduce(floatArray.clone()), 0.0F);
+                assertEquals(median.reduce(intArray.clone()), kernel.reduce(intArray.clone()));
+            }
+        }
+    }
+
+    @Test
+    public void testSortingNetworkKeepsArray() {
+        float[] floatArray = {8.0F, 7.0F, 6.0F, 5.0F, 4.0F, 3.0F, 2.0F, 1.0F};
+        float[] copy = floatArray.clone();
+        assertEquals(4.5F, new SortingNetworkMedianReducer().reduce(floatArray), 0.0F);
+        assertArrayEquals(copy, floatArray, 0.0F);
+    }
+
+}